@@ -0,0 +1,54 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs benchmarks and stores results as JSON, so they can be compared between releases.
+ * 
+ * Usage: java -jar target/benchmarks.jar [benchmarks regexp] [result file]
+ */
+public final class BenchmarksRunner {
+
+    private static final String L_DEFAULT_RESULT_FILE = "target/jmh-result.json";
+
+    private BenchmarksRunner() {
+    }
+
+    public static void main(final String[] args) throws RunnerException {
+        String include = (args.length > 0) ? args[0] : BenchmarksRunner.class.getPackage().getName() + ".*";
+        String resultFile = (args.length > 1) ? args[1] : L_DEFAULT_RESULT_FILE;
+
+        Options options = new OptionsBuilder().include(include).resultFormat(ResultFormatType.JSON).result(resultFile)
+                .build();
+
+        new Runner(options).run();
+    }
+
+}
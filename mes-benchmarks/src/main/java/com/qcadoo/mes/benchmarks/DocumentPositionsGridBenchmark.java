@@ -0,0 +1,168 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import static com.qcadoo.mes.benchmarks.BenchmarkSupport.setField;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.GridResponse;
+import com.qcadoo.mes.basic.LookupUtils;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionDTO;
+import com.qcadoo.mes.materialFlowResources.DocumentPositionService;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentState;
+import com.qcadoo.mes.materialFlowResources.constants.DocumentType;
+import com.qcadoo.mes.materialFlowResources.service.PalletOccupancyService;
+
+/**
+ * Document positions grid page of a document with 1000 positions, for growing number of resources in the warehouse.
+ * 
+ * Needs PostgreSQL database with MES schema (e.g. restored from mes-application demo_db_en.sql), given with
+ * -Dbenchmark.jdbcUrl, -Dbenchmark.jdbcUser and -Dbenchmark.jdbcPassword. Data is generated in a transaction which is
+ * rolled back after the benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class DocumentPositionsGridBenchmark {
+
+    private static final int POSITIONS = 1000;
+
+    private static final int RESOURCES_PER_PALLET = 4;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final String L_PREFIX = "BENCH-";
+
+    @Param({ "100000", "1000000", "3000000" })
+    private int resources;
+
+    private SingleConnectionDataSource dataSource;
+
+    private DocumentPositionService documentPositionService;
+
+    private Long documentId;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        dataSource = new SingleConnectionDataSource(System.getProperty("benchmark.jdbcUrl"),
+                System.getProperty("benchmark.jdbcUser"), System.getProperty("benchmark.jdbcPassword"), true);
+        dataSource.setAutoCommit(false);
+
+        NamedParameterJdbcTemplate jdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+
+        PalletOccupancyService palletOccupancyService = new PalletOccupancyService();
+        setField(palletOccupancyService, "jdbcTemplate", jdbcTemplate);
+
+        LookupUtils lookupUtils = new LookupUtils();
+        setField(lookupUtils, "jdbcTemplate", jdbcTemplate);
+
+        documentPositionService = new DocumentPositionService();
+        setField(documentPositionService, "jdbcTemplate", jdbcTemplate);
+        setField(documentPositionService, "lookupUtils", lookupUtils);
+
+        documentId = generateDocument(jdbcTemplate, palletOccupancyService);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        dataSource.getConnection().rollback();
+        dataSource.destroy();
+    }
+
+    @Benchmark
+    public GridResponse<DocumentPositionDTO> firstPage() {
+        return documentPositionService.findAll(documentId, "number", "asc", 1, PAGE_SIZE, new DocumentPositionDTO(),
+                Collections.emptyMap());
+    }
+
+    @Benchmark
+    public GridResponse<DocumentPositionDTO> lastPage() {
+        return documentPositionService.findAll(documentId, "number", "asc", POSITIONS / PAGE_SIZE, PAGE_SIZE,
+                new DocumentPositionDTO(), Collections.emptyMap());
+    }
+
+    private Long generateDocument(final NamedParameterJdbcTemplate jdbcTemplate,
+            final PalletOccupancyService palletOccupancyService) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put("prefix", L_PREFIX);
+        parameters.put("resources", resources);
+        parameters.put("pallets", resources / RESOURCES_PER_PALLET);
+        parameters.put("positions", POSITIONS);
+        parameters.put("type", DocumentType.INTERNAL_OUTBOUND.getStringValue());
+        parameters.put("state", DocumentState.DRAFT.getStringValue());
+        parameters.put("product", jdbcTemplate.queryForObject("SELECT min(id) FROM basic_product", parameters, Long.class));
+        parameters.put("location",
+                jdbcTemplate.queryForObject("SELECT min(id) FROM materialflow_location", parameters, Long.class));
+
+        if (parameters.get("product") == null || parameters.get("location") == null) {
+            throw new IllegalStateException("Benchmark database needs at least one product and one location");
+        }
+
+        jdbcTemplate.update("INSERT INTO basic_palletnumber (number, resourcescount) "
+                + "SELECT :prefix || g, 0 FROM generate_series(1, :pallets) g", parameters);
+        jdbcTemplate.update("INSERT INTO materialflowresources_resource (number, location_id, product_id, quantity, "
+                + "availablequantity, reservedquantity, price, conversion, time, palletnumber_id, iscorrected, waste) "
+                + "SELECT :prefix || 'R' || g, :location, :product, 10, 10, 0, 1, 1, now(), pn.id, false, false "
+                + "FROM generate_series(1, :resources) g "
+                + "JOIN basic_palletnumber pn ON pn.number = :prefix || (g % :pallets + 1)", parameters);
+        palletOccupancyService.recalculate();
+
+        Long documentId = jdbcTemplate.queryForObject("INSERT INTO materialflowresources_document "
+                + "(number, type, state, time, locationfrom_id) VALUES (:prefix || 'D', :type, :state, now(), :location) "
+                + "RETURNING id", parameters, Long.class);
+        parameters.put("document", documentId);
+
+        jdbcTemplate.update("INSERT INTO materialflowresources_position (document_id, number, product_id, quantity, "
+                + "givenquantity, conversion, resource_id, palletnumber_id) "
+                + "SELECT :document, row_number() OVER (ORDER BY r.id), r.product_id, 1, 1, 1, r.id, r.palletnumber_id "
+                + "FROM materialflowresources_resource r WHERE r.location_id = :location AND r.number LIKE :prefix || 'R%' "
+                + "ORDER BY r.id LIMIT :positions", parameters);
+
+        return documentId;
+    }
+
+}
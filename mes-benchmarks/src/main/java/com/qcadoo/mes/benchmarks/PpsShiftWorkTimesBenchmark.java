@@ -0,0 +1,129 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import static com.qcadoo.mes.benchmarks.BenchmarkSupport.setField;
+import static com.qcadoo.mes.benchmarks.BenchmarkSupport.stub;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.commons.dateTime.TimeRange;
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.productionPerShift.services.ShiftWorkTimesCalendar;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Shift work times read by PPS algorithms for a 365 days order on a line with 3 shifts. Timetable exceptions query is
+ * simulated as 200 microseconds delay.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PpsShiftWorkTimesBenchmark {
+
+    private static final int DAYS = 365;
+
+    private static final DateTime ORDER_START = new DateTime(2018, 1, 1, 0, 0, 0);
+
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private ShiftExceptionService shiftExceptionService;
+
+    private Entity productionLine;
+
+    private List<Shift> shifts;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        shiftExceptionService = new ShiftExceptionService();
+        Class<?> timetableExceptionServiceClass = Class.forName("com.qcadoo.mes.basic.TimetableExceptionService");
+        setField(shiftExceptionService, "timetableExceptionService", stub(timetableExceptionServiceClass, invocation -> {
+            LockSupport.parkNanos(ROUND_TRIP_NANOS);
+            return Lists.newArrayList();
+        }));
+
+        productionLine = stub(Entity.class);
+        when(productionLine.getId()).thenReturn(1L);
+
+        shifts = Lists.newArrayList(mockShift(1L, new LocalTime(6, 0), new LocalTime(14, 0)),
+                mockShift(2L, new LocalTime(14, 0), new LocalTime(22, 0)),
+                mockShift(3L, new LocalTime(22, 0), new LocalTime(6, 0)));
+    }
+
+    @Benchmark
+    public void shiftWorkTimesPerDay(final Blackhole blackhole) {
+        for (int day = 0; day < DAYS; day++) {
+            for (Shift shift : shifts) {
+                blackhole.consume(
+                        shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, ORDER_START.plusDays(day)));
+            }
+        }
+    }
+
+    @Benchmark
+    public void shiftWorkTimesCalendar(final Blackhole blackhole) {
+        ShiftWorkTimesCalendar calendar = new ShiftWorkTimesCalendar(shiftExceptionService, productionLine, shifts,
+                ORDER_START);
+        for (int day = 0; day < DAYS; day++) {
+            for (Shift shift : shifts) {
+                blackhole.consume(calendar.getShiftWorkDateTimes(shift, day));
+            }
+        }
+    }
+
+    private Shift mockShift(final Long id, final LocalTime from, final LocalTime to) {
+        Shift shift = stub(Shift.class);
+        when(shift.getId()).thenReturn(id);
+        when(shift.getEntity()).thenReturn(stub(Entity.class));
+        when(shift.worksAt(anyInt())).thenReturn(true);
+        when(shift.findWorkTimeAt(any(LocalDate.class))).thenReturn(Lists.newArrayList(new TimeRange(from, to)));
+        return shift;
+    }
+
+}
@@ -0,0 +1,175 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import static com.qcadoo.mes.benchmarks.BenchmarkSupport.setField;
+import static com.qcadoo.mes.benchmarks.BenchmarkSupport.stub;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.CompiledTechnologyService;
+import com.qcadoo.mes.technologies.ProductQuantitiesServiceImpl;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.OperationComponent;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.ProductComponentLink;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.ProductComponentQuantity;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.OrderProductComponentQuantities;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Product quantities of a synthetic technology tree - each operation has given number of intermediate inputs produced by
+ * child operations and one raw material. Technologies are compiled up front, as they are for checked and accepted ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProductQuantitiesBenchmark {
+
+    private static final int BRANCHING = 3;
+
+    private static final BigDecimal PLANNED_QUANTITY = new BigDecimal("137.5");
+
+    @Param({ "3", "5" })
+    private int depth;
+
+    @Param({ "1", "30" })
+    private int orders;
+
+    private ProductQuantitiesServiceImpl productQuantitiesService;
+
+    private Entity technology;
+
+    private List<Entity> orderEntities;
+
+    private long lastId;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        List<OperationComponent> operationComponents = Lists.newArrayList();
+        addOperationComponent(null, 0, operationComponents);
+        CompiledTechnology compiledTechnology = new CompiledTechnology(operationComponents, operationComponents);
+
+        technology = stub(Entity.class);
+
+        NumberService numberService = stub(NumberService.class);
+        when(numberService.getMathContext()).thenReturn(MathContext.DECIMAL64);
+
+        CompiledTechnologyService compiledTechnologyService = stub(CompiledTechnologyService.class);
+        when(compiledTechnologyService.getCompiledTechnology(technology)).thenReturn(compiledTechnology);
+
+        productQuantitiesService = new ProductQuantitiesServiceImpl();
+        setField(productQuantitiesService, "numberService", numberService);
+        setField(productQuantitiesService, "compiledTechnologyService", compiledTechnologyService);
+
+        orderEntities = Lists.newArrayListWithCapacity(orders);
+        for (int i = 0; i < orders; i++) {
+            Entity order = stub(Entity.class);
+            when(order.getDecimalField("plannedQuantity")).thenReturn(PLANNED_QUANTITY.add(BigDecimal.valueOf(i)));
+            when(order.getBelongsToField("technology")).thenReturn(technology);
+            orderEntities.add(order);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        productQuantitiesService.shutdownExpansionPool();
+    }
+
+    @Benchmark
+    public OperationProductComponentWithQuantityContainer expandTechnology() {
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        return productQuantitiesService.getProductComponentWithQuantitiesForTechnology(technology, PLANNED_QUANTITY,
+                operationRuns, nonComponents);
+    }
+
+    @Benchmark
+    public List<OrderProductComponentQuantities> expandOrdersTechnologies() {
+        return productQuantitiesService.getProductComponentWithQuantitiesForOrdersTechnologies(orderEntities);
+    }
+
+    private void addOperationComponent(final OperationProductComponentHolder parentOperationProductInComponent,
+            final int level, final List<OperationComponent> operationComponents) {
+        Long id = ++lastId;
+
+        OperationProductComponentHolder operationProductOutComponent = new OperationProductComponentHolder(++lastId, id, null,
+                null, OperationProductComponentEntityType.OPERATION_PRODUCT_OUT_COMPONENT);
+
+        List<ProductComponentQuantity> operationProductInComponents = Lists.newArrayList();
+        List<OperationProductComponentHolder> intermediateInComponents = Lists.newArrayList();
+        if (level < depth) {
+            for (int i = 0; i < BRANCHING; i++) {
+                OperationProductComponentHolder intermediateInComponent = createInComponent(id);
+                operationProductInComponents.add(new ProductComponentQuantity(intermediateInComponent, new BigDecimal("2.5")));
+                intermediateInComponents.add(intermediateInComponent);
+            }
+        }
+        operationProductInComponents.add(new ProductComponentQuantity(createInComponent(id), new BigDecimal("1.25")));
+
+        operationComponents.add(new OperationComponent(id, level % 2 == 0, true, operationProductInComponents, Collections
+                .singletonList(new ProductComponentQuantity(operationProductOutComponent, new BigDecimal("3"))), Collections
+                .singletonList(new ProductComponentLink(parentOperationProductInComponent, operationProductOutComponent))));
+
+        for (OperationProductComponentHolder intermediateInComponent : intermediateInComponents) {
+            addOperationComponent(intermediateInComponent, level + 1, operationComponents);
+        }
+    }
+
+    private OperationProductComponentHolder createInComponent(final Long operationComponentId) {
+        return new OperationProductComponentHolder(++lastId, operationComponentId, null, null,
+                OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT);
+    }
+
+}
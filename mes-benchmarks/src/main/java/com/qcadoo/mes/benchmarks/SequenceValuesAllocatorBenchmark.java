@@ -0,0 +1,114 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import static com.qcadoo.mes.benchmarks.BenchmarkSupport.setField;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.services.SequenceValuesAllocator;
+
+/**
+ * Sequence values handed out by 4 threads, with database round trip simulated as 200 microseconds delay. Block size 1
+ * behaves like a nextval call per generated number.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Threads(4)
+@Fork(1)
+public class SequenceValuesAllocatorBenchmark {
+
+    private static final String L_SEQUENCE = "number_pattern_000001_seq";
+
+    private static final long ROUND_TRIP_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    @Param({ "1", "20", "100" })
+    private int blockSize;
+
+    private SequenceValuesAllocator sequenceValuesAllocator;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        sequenceValuesAllocator = new SequenceValuesAllocator();
+        setField(sequenceValuesAllocator, "jdbcTemplate", new SequenceJdbcTemplate());
+        setField(sequenceValuesAllocator, "blockSize", blockSize);
+    }
+
+    @Benchmark
+    public long nextValue() {
+        return sequenceValuesAllocator.nextValue(L_SEQUENCE);
+    }
+
+    @Benchmark
+    public long[] nextHundredValues() {
+        return sequenceValuesAllocator.nextValues(L_SEQUENCE, 100);
+    }
+
+    private static final class SequenceJdbcTemplate extends NamedParameterJdbcTemplate {
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        private SequenceJdbcTemplate() {
+            super(new JdbcTemplate());
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> List<T> queryForList(final String sql, final Map<String, ?> paramMap, final Class<T> elementType) {
+            LockSupport.parkNanos(ROUND_TRIP_NANOS);
+
+            int count = (Integer) paramMap.get("count");
+            List<Long> values = Lists.newArrayListWithCapacity(count);
+            for (int i = 0; i < count; i++) {
+                values.add(sequence.incrementAndGet());
+            }
+            return (List<T>) values;
+        }
+
+    }
+
+}
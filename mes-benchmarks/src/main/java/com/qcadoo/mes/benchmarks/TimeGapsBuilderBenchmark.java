@@ -0,0 +1,100 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.joda.time.Interval;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilder;
+import com.qcadoo.mes.timeGapsPreview.util.TimeGapsBuilderImpl;
+
+/**
+ * Time gaps search for 50 production lines in a 6 months horizon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TimeGapsBuilderBenchmark {
+
+    private static final int PRODUCTION_LINES = 50;
+
+    private static final DateTime SEARCH_START = new DateTime(2018, 1, 1, 0, 0, 0);
+
+    private static final Interval SEARCH_INTERVAL = new Interval(SEARCH_START, SEARCH_START.plusMonths(6));
+
+    private static final Duration MINIMAL_GAP_DURATION = Duration.standardHours(2);
+
+    @Param({ "100", "1000" })
+    private int occupiedIntervalsPerLine;
+
+    private List<List<Interval>> occupiedIntervals;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        long searchIntervalMillis = SEARCH_INTERVAL.toDurationMillis();
+
+        occupiedIntervals = Lists.newArrayListWithCapacity(PRODUCTION_LINES);
+        for (int line = 0; line < PRODUCTION_LINES; line++) {
+            List<Interval> lineIntervals = Lists.newArrayListWithCapacity(occupiedIntervalsPerLine);
+            for (int i = 0; i < occupiedIntervalsPerLine; i++) {
+                long start = SEARCH_INTERVAL.getStartMillis() + (long) (random.nextDouble() * searchIntervalMillis);
+                long duration = Duration.standardMinutes(30 + random.nextInt(16 * 60)).getMillis();
+                lineIntervals.add(new Interval(start, start + duration));
+            }
+            occupiedIntervals.add(lineIntervals);
+        }
+    }
+
+    @Benchmark
+    public void calculateGaps(final Blackhole blackhole) {
+        for (List<Interval> lineIntervals : occupiedIntervals) {
+            TimeGapsBuilder gapsBuilder = new TimeGapsBuilderImpl(SEARCH_INTERVAL);
+            gapsBuilder.addOccupiedIntervals(lineIntervals);
+            blackhole.consume(gapsBuilder.calculateGaps(MINIMAL_GAP_DURATION));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.shift.WorkingCalendar;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+/**
+ * Working calendar used by ShiftsServiceImpl.findDateToForProductionLine - three overlapping shifts, 14 days chunk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WorkingCalendarBenchmark {
+
+    private static final int DAYS = 14;
+
+    private static final DateTime WINDOW_START = new DateTime(2018, 1, 1, 0, 0, 0);
+
+    private static final DateTime WINDOW_END = WINDOW_START.plusDays(DAYS);
+
+    private List<DateTimeRange> shiftRanges;
+
+    private WorkingCalendar workingCalendar;
+
+    private long[] moments;
+
+    private long[] durations;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        shiftRanges = Lists.newArrayList();
+        for (int day = 0; day < DAYS; day++) {
+            DateTime dayStart = WINDOW_START.plusDays(day);
+            shiftRanges.add(new DateTimeRange(dayStart.plusHours(6), dayStart.plusHours(14)));
+            shiftRanges.add(new DateTimeRange(dayStart.plusHours(13), dayStart.plusHours(22)));
+            if (day % 7 < 5) {
+                shiftRanges.add(new DateTimeRange(dayStart.plusHours(22), dayStart.plusHours(30)));
+            }
+        }
+        workingCalendar = WorkingCalendar.of(shiftRanges, WINDOW_START.getMillis(), WINDOW_END.getMillis());
+
+        Random random = new Random(42);
+        moments = new long[1024];
+        durations = new long[1024];
+        for (int i = 0; i < moments.length; i++) {
+            moments[i] = WINDOW_START.getMillis() + (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(7));
+            durations[i] = TimeUnit.MINUTES.toMillis(1 + random.nextInt(3 * 24 * 60));
+        }
+    }
+
+    @Benchmark
+    public WorkingCalendar buildCalendar() {
+        return WorkingCalendar.of(shiftRanges, WINDOW_START.getMillis(), WINDOW_END.getMillis());
+    }
+
+    @Benchmark
+    public Long addWorkingMillis() {
+        int i = next++ & (moments.length - 1);
+
+        return workingCalendar.addWorkingMillis(moments[i], durations[i]);
+    }
+
+}
@@ -28,25 +28,26 @@ import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.NUMBER;
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.PARENT;
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.PRIORITY;
 import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.SUPPLIER;
-import static com.qcadoo.mes.advancedGenealogy.constants.BatchFields.TRACKING_RECORDS;
-import static com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields.STATE;
-import static com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields.USED_BATCHES_SIMPLE;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
-import com.qcadoo.mes.advancedGenealogy.constants.BatchFields;
-import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordFields;
 import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordType;
 import com.qcadoo.mes.advancedGenealogy.states.constants.TrackingRecordState;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.plugin.api.PluginAccessor;
 
 @Service
@@ -60,12 +61,20 @@ public class AdvancedGenealogyTreeService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public List<Entity> getProducedFromTree(final Entity batch, final boolean includeDrafts, final boolean makeIdsUnique) {
         List<Entity> tree = new ArrayList<Entity>();
 
+        Long realParentId = batch.getId();
+
         addChild(tree, batch, makeIdsUnique);
 
-        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
+        Map<Long, Entity> batchesById = Maps.newHashMap();
+        Map<Long, List<Long>> childIdsByBatchId = fetchGenealogy(realParentId, includeDrafts, false, batchesById);
+
+        generateTree(batch, tree, childIdsByBatchId, batchesById, makeIdsUnique, realParentId);
 
         return tree;
     }
@@ -73,11 +82,14 @@ public class AdvancedGenealogyTreeService {
     public List<Entity> getUsedToProduceTree(final Entity batch, final boolean includeDrafts, final boolean makeIdsUnique) {
         List<Entity> tree = new ArrayList<Entity>();
 
-        long realParentId = batch.getId();
+        Long realParentId = batch.getId();
 
         addChild(tree, batch, true);
 
-        generateUsedToProduceTree(batch, tree, includeDrafts, true, realParentId);
+        Map<Long, Entity> batchesById = Maps.newHashMap();
+        Map<Long, List<Long>> childIdsByBatchId = fetchGenealogy(realParentId, includeDrafts, true, batchesById);
+
+        generateTree(batch, tree, childIdsByBatchId, batchesById, true, realParentId);
 
         return tree;
     }
@@ -121,111 +133,114 @@ public class AdvancedGenealogyTreeService {
         return false;
     }
 
-    private void generateUsedToProduceTree(final Entity parent, final List<Entity> tree, final boolean includeDrafts,
-            final boolean makeIdsUnique, final long realParentId) {
-        List<Entity> batches = getDD().find().list().getEntities();
-
-        for (Entity producedBatch : batches) {
-            EntityList trackingRecords = producedBatch.getHasManyField(TRACKING_RECORDS);
-            for (Entity trackingRecord : trackingRecords) {
-                String type = trackingRecord.getStringField(ENTITY_TYPE);
-                if (type == null) {
-                    continue;
-                }
-
-                String state = trackingRecord.getStringField(STATE);
+    private void generateTree(final Entity parent, final List<Entity> tree, final Map<Long, List<Long>> childIdsByBatchId,
+            final Map<Long, Entity> batchesById, final boolean makeIdsUnique, final Long realParentId) {
+        List<Long> childIds = childIdsByBatchId.get(realParentId);
 
-                if (!TrackingRecordState.ACCEPTED.getStringValue().equals(state)) {
-                    boolean isDraftAndWeIncludeDrafts = TrackingRecordState.DRAFT.getStringValue().equals(state) && includeDrafts;
+        if (childIds == null) {
+            return;
+        }
 
-                    if (!isDraftAndWeIncludeDrafts) {
-                        continue;
-                    }
-                }
+        for (Long childId : childIds) {
+            Entity child = batchesById.get(childId).copy();
 
-                if (TrackingRecordType.SIMPLE.equals(type)) {
-                    EntityList usedBatches = trackingRecord.getHasManyField(USED_BATCHES_SIMPLE);
-                    for (Entity usedBatch : usedBatches) {
-                        Entity batch = usedBatch.getBelongsToField(L_BATCH);
-                        if (batch.getId().equals(realParentId)) {
-                            long realId = producedBatch.getId();
-                            boolean addedChild = addChild(tree, producedBatch, parent, makeIdsUnique);
-                            if (addedChild) {
-                                generateUsedToProduceTree(producedBatch, tree, includeDrafts, makeIdsUnique, realId);
-                            }
-                        }
-                    }
-                } else if (TrackingRecordType.FOR_ORDER.equals(type) && isEnabled("advancedGenealogyForOrders")) {
-                    EntityList genealogyProductInComponents = trackingRecord.getHasManyField("genealogyProductInComponents");
-                    for (Entity genealogyProductInComponent : genealogyProductInComponents) {
-                        EntityList productInBatches = genealogyProductInComponent.getHasManyField("productInBatches");
-                        for (Entity producedInBatch : productInBatches) {
-                            Entity batch = producedInBatch.getBelongsToField(L_BATCH);
-                            if (batch == null) {
-                                continue;
-                            }
-                            if (batch.getId().equals(realParentId)) {
-                                long realId = producedBatch.getId();
-                                boolean addedChild = addChild(tree, producedBatch, parent, makeIdsUnique);
-                                if (addedChild) {
-                                    generateUsedToProduceTree(producedBatch, tree, includeDrafts, makeIdsUnique, realId);
-                                }
-                            }
-                        }
-                    }
-                }
+            boolean addedChild = addChild(tree, child, parent, makeIdsUnique);
+            if (addedChild) {
+                generateTree(child, tree, childIdsByBatchId, batchesById, makeIdsUnique, childId);
             }
         }
     }
 
-    private void generateProducedFromTree(final Entity producedBatch, final List<Entity> tree, final boolean includeDrafts,
-            final boolean makeIdsUnique) {
-        EntityList trackingRecords = producedBatch.getHasManyField(BatchFields.TRACKING_RECORDS);
-        for (Entity trackingRecord : trackingRecords) {
-            String type = trackingRecord.getStringField(TrackingRecordFields.ENTITY_TYPE);
-            if (type == null) {
-                continue;
-            }
+    /**
+     * Fetches genealogy of the given batch level by level - each level of the tree costs one query for its edges and one for
+     * its batches, whatever the number of tracking records. Edges lead from produced batches to batches used to produce them,
+     * or the other way round when usedToProduce is set.
+     * 
+     * @return ids of child batches by parent batch id, in order of tracking records and their used batches
+     */
+    private Map<Long, List<Long>> fetchGenealogy(final Long rootId, final boolean includeDrafts, final boolean usedToProduce,
+            final Map<Long, Entity> batchesById) {
+        Map<Long, List<Long>> childIdsByBatchId = Maps.newHashMap();
+
+        if (rootId == null) {
+            return childIdsByBatchId;
+        }
+
+        List<String> states = Lists.newArrayList(TrackingRecordState.ACCEPTED.getStringValue());
+
+        if (includeDrafts) {
+            states.add(TrackingRecordState.DRAFT.getStringValue());
+        }
+
+        String query = getEdgesQuery(usedToProduce, isEnabled("advancedGenealogyForOrders"));
+
+        Set<Long> visitedIds = Sets.newHashSet(rootId);
+        Set<Long> levelIds = Sets.newHashSet(rootId);
+
+        while (!levelIds.isEmpty()) {
+            Map<String, Object> parameters = Maps.newHashMap();
 
-            String state = trackingRecord.getStringField(STATE);
+            parameters.put("batchIds", levelIds);
+            parameters.put("states", states);
 
-            if (!TrackingRecordState.ACCEPTED.getStringValue().equals(state)) {
-                boolean isDraftAndWeIncludeDrafts = TrackingRecordState.DRAFT.getStringValue().equals(state) && includeDrafts;
+            Set<Long> nextLevelIds = Sets.newLinkedHashSet();
 
-                if (!isDraftAndWeIncludeDrafts) {
-                    continue;
+            for (Map<String, Object> edge : jdbcTemplate.queryForList(query, parameters)) {
+                Long parentId = ((Number) edge.get("parentid")).longValue();
+                Long childId = ((Number) edge.get("childid")).longValue();
+
+                List<Long> childIds = childIdsByBatchId.computeIfAbsent(parentId, id -> Lists.newArrayList());
+
+                if (!childIds.contains(childId)) {
+                    childIds.add(childId);
+                }
+                if (visitedIds.add(childId)) {
+                    nextLevelIds.add(childId);
                 }
             }
 
-            if (TrackingRecordType.SIMPLE.equals(type)) {
-                EntityList usedBatches = trackingRecord.getHasManyField(USED_BATCHES_SIMPLE);
-                for (Entity usedBatch : usedBatches) {
-                    Entity batch = usedBatch.getBelongsToField(L_BATCH);
-                    boolean addedChild = addChild(tree, batch, producedBatch, makeIdsUnique);
-                    if (addedChild) {
-                        generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
-                    }
-                }
-            } else if (TrackingRecordType.FOR_ORDER.equals(type) && isEnabled("advancedGenealogyForOrders")) {
-                EntityList genealogyProductInComponents = trackingRecord.getHasManyField("genealogyProductInComponents");
-                for (Entity genealogyProductInComponent : genealogyProductInComponents) {
-                    EntityList productInBatches = genealogyProductInComponent.getHasManyField("productInBatches");
-                    for (Entity producedInBatch : productInBatches) {
-                        Entity batch = producedInBatch.getBelongsToField(L_BATCH);
-                        if (batch == null) {
-                            continue;
-                        }
-                        boolean addedChild = addChild(tree, batch, producedBatch, makeIdsUnique);
-                        if (addedChild) {
-                            generateProducedFromTree(batch, tree, includeDrafts, makeIdsUnique);
-                        }
-                    }
+            if (!nextLevelIds.isEmpty()) {
+                for (Entity batch : getBatchDD().find().add(SearchRestrictions.in("id", nextLevelIds)).list().getEntities()) {
+                    batchesById.put(batch.getId(), batch);
                 }
             }
+
+            levelIds = nextLevelIds;
         }
+
+        return childIdsByBatchId;
+    }
+
+    private String getEdgesQuery(final boolean usedToProduce, final boolean forOrdersEnabled) {
+        StringBuilder edges = new StringBuilder();
+
+        edges.append("SELECT usedbatch.batch_id AS usedbatchid, trackingrecord.producedbatch_id AS producedbatchid, ");
+        edges.append("trackingrecord.id AS trackingrecordid, usedbatch.id AS edgeid ");
+        edges.append("FROM advancedgenealogy_usedbatchsimple usedbatch ");
+        edges.append("JOIN advancedgenealogy_trackingrecord trackingrecord ON trackingrecord.id = usedbatch.trackingrecord_id ");
+        edges.append("WHERE trackingrecord.entitytype = '").append(TrackingRecordType.SIMPLE).append("' ");
+        edges.append("AND trackingrecord.state IN (:states)");
+
+        if (forOrdersEnabled) {
+            edges.append(" UNION ALL ");
+            edges.append("SELECT productinbatch.batch_id, trackingrecord.producedbatch_id, trackingrecord.id, productinbatch.id ");
+            edges.append("FROM advancedgenealogyfororders_genealogyproductinbatch productinbatch ");
+            edges.append("JOIN advancedgenealogyfororders_genealogyproductincomponent component ");
+            edges.append("ON component.id = productinbatch.genealogyproductincomponent_id ");
+            edges.append("JOIN advancedgenealogy_trackingrecord trackingrecord ON trackingrecord.id = component.trackingrecord_id ");
+            edges.append("WHERE trackingrecord.entitytype = '").append(TrackingRecordType.FOR_ORDER).append("' ");
+            edges.append("AND trackingrecord.state IN (:states)");
+        }
+
+        String parentColumn = usedToProduce ? "usedbatchid" : "producedbatchid";
+        String childColumn = usedToProduce ? "producedbatchid" : "usedbatchid";
+
+        return "SELECT edge." + parentColumn + " AS parentid, edge." + childColumn + " AS childid FROM (" + edges
+                + ") edge WHERE edge." + parentColumn + " IN (:batchIds) AND edge." + childColumn + " IS NOT NULL "
+                + "ORDER BY edge.trackingrecordid, edge.edgeid";
     }
 
-    private DataDefinition getDD() {
+    private DataDefinition getBatchDD() {
         return dataDefinitionService.get(AdvancedGenealogyConstants.PLUGIN_IDENTIFIER, AdvancedGenealogyConstants.MODEL_BATCH);
     }
 
@@ -25,27 +25,38 @@ package com.qcadoo.mes.advancedGenealogy.tree;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import java.util.LinkedList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.qcadoo.mes.advancedGenealogy.constants.AdvancedGenealogyConstants;
 import com.qcadoo.mes.advancedGenealogy.constants.TrackingRecordType;
 import com.qcadoo.mes.advancedGenealogy.states.constants.TrackingRecordState;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
 import com.qcadoo.model.api.search.SearchResult;
 import com.qcadoo.plugin.api.Plugin;
 import com.qcadoo.plugin.api.PluginAccessor;
@@ -55,7 +66,7 @@ public class AdvancedGenealogyTreeServiceTest {
     AdvancedGenealogyTreeService treeService;
 
     @Mock
-    private Entity batch1, batch2;
+    private Entity batch1, batch2, batch3;
 
     @Mock
     private DataDefinitionService dataDefinitionService;
@@ -67,18 +78,42 @@ public class AdvancedGenealogyTreeServiceTest {
     private PluginAccessor pluginAccessor;
 
     @Mock
-    private SearchResult searchResult;
+    private NamedParameterJdbcTemplate jdbcTemplate;
 
     @Mock
-    private Entity batch1Tr;
+    private SearchResult searchResult;
 
     @Mock
     private Entity parent1, parent2;
 
-    private EntityList mockEntityList(List<Entity> list) {
-        EntityList entityList = mock(EntityList.class);
-        when(entityList.iterator()).thenReturn(list.iterator());
-        return entityList;
+    private List<Object[]> edges;
+
+    private void addEdge(final Long producedBatchId, final Long usedBatchId, final TrackingRecordState state, final String type) {
+        edges.add(new Object[] { producedBatchId, usedBatchId, state.getStringValue(), type });
+    }
+
+    private List<Map<String, Object>> queryEdges(final String query, final Map<?, ?> parameters) {
+        boolean usedToProduce = query.contains("edge.usedbatchid IN (:batchIds)");
+        boolean forOrders = query.contains(TrackingRecordType.FOR_ORDER);
+        Collection<?> batchIds = (Collection<?>) parameters.get("batchIds");
+        Collection<?> states = (Collection<?>) parameters.get("states");
+
+        List<Map<String, Object>> rows = Lists.newArrayList();
+
+        for (Object[] edge : edges) {
+            if (!states.contains(edge[2]) || (TrackingRecordType.FOR_ORDER.equals(edge[3]) && !forOrders)) {
+                continue;
+            }
+
+            Object parentId = usedToProduce ? edge[1] : edge[0];
+            Object childId = usedToProduce ? edge[0] : edge[1];
+
+            if (batchIds.contains(parentId)) {
+                rows.add(ImmutableMap.of("parentid", parentId, "childid", childId));
+            }
+        }
+
+        return rows;
     }
 
     @Before
@@ -89,6 +124,7 @@ public class AdvancedGenealogyTreeServiceTest {
 
         ReflectionTestUtils.setField(treeService, "dataDefinitionService", dataDefinitionService);
         ReflectionTestUtils.setField(treeService, "pluginAccessor", pluginAccessor);
+        ReflectionTestUtils.setField(treeService, "jdbcTemplate", jdbcTemplate);
 
         when(pluginAccessor.getPlugin("advancedGenealogyForOrders")).thenReturn(null);
 
@@ -97,38 +133,43 @@ public class AdvancedGenealogyTreeServiceTest {
 
         when(batch1.getId()).thenReturn(1L);
         when(batch2.getId()).thenReturn(2L);
+        when(batch3.getId()).thenReturn(3L);
+        when(batch1.copy()).thenReturn(batch1);
+        when(batch2.copy()).thenReturn(batch2);
+        when(batch3.copy()).thenReturn(batch3);
+
+        edges = Lists.newArrayList();
+        addEdge(1L, 2L, TrackingRecordState.DRAFT, TrackingRecordType.SIMPLE);
 
-        EntityList batch1Trs = mockEntityList(asList(batch1Tr));
-        when(batch1.getHasManyField("trackingRecords")).thenReturn(batch1Trs);
-        when(batch1Tr.getStringField("entityType")).thenReturn(TrackingRecordType.SIMPLE);
-        when(batch1Tr.getStringField("state")).thenReturn(TrackingRecordState.DRAFT.getStringValue());
-        Entity batch1TrUsedBatch1 = mock(Entity.class);
-        when(batch1TrUsedBatch1.getBelongsToField("batch")).thenReturn(batch2);
-        EntityList batch1TrUsedBatches = mockEntityList(asList(batch1TrUsedBatch1));
-        when(batch1Tr.getHasManyField("usedBatchesSimple")).thenReturn(batch1TrUsedBatches);
+        when(jdbcTemplate.queryForList(anyString(), anyMap())).thenAnswer(new Answer<List<Map<String, Object>>>() {
 
-        EntityList batch2Trs = mockEntityList(new LinkedList<Entity>());
-        when(batch2.getHasManyField("trackingRecords")).thenReturn(batch2Trs);
+            @Override
+            public List<Map<String, Object>> answer(final InvocationOnMock invocation) throws Throwable {
+                return queryEdges((String) invocation.getArguments()[0], (Map<?, ?>) invocation.getArguments()[1]);
+            }
+        });
 
         SearchCriteriaBuilder searchCriteriaBuilder = Mockito.mock(SearchCriteriaBuilder.class);
         when(dataDefinition.find()).thenReturn(searchCriteriaBuilder);
+        when(searchCriteriaBuilder.add(any(SearchCriterion.class))).thenReturn(searchCriteriaBuilder);
         when(searchCriteriaBuilder.list()).thenReturn(searchResult);
-        when(searchResult.getEntities()).thenReturn(asList(batch1));
+        when(searchResult.getEntities()).thenReturn(asList(batch1, batch2, batch3));
 
         String number1 = "QWD33";
         String number2 = "POS22";
+        String number3 = "KLM11";
         when(batch1.getField("parent")).thenReturn(parent1);
         when(batch2.getField("parent")).thenReturn(parent2);
+        when(batch3.getField("parent")).thenReturn(parent2);
         when(batch1.getField("number")).thenReturn(number1);
         when(batch2.getField("number")).thenReturn(number2);
+        when(batch3.getField("number")).thenReturn(number3);
     }
 
     @Test
     public void shouldReturnOnlyTheRootIfThereAreNoRelatedBatchesForProducedFromTree() {
         // given
         Entity batch = mock(Entity.class);
-        EntityList trackingRecords = mockEntityList(new LinkedList<Entity>());
-        when(batch.getHasManyField("trackingRecords")).thenReturn(trackingRecords);
 
         // when
         List<Entity> tree = treeService.getProducedFromTree(batch, true, false);
@@ -143,7 +184,7 @@ public class AdvancedGenealogyTreeServiceTest {
         // given
         Entity batch = mock(Entity.class);
 
-        when(searchResult.getEntities()).thenReturn(new LinkedList<Entity>());
+        edges.clear();
 
         // when
         List<Entity> tree = treeService.getUsedToProduceTree(batch, true, false);
@@ -196,17 +237,9 @@ public class AdvancedGenealogyTreeServiceTest {
         // given
         Plugin plugin = mock(Plugin.class);
         when(pluginAccessor.getPlugin("advancedGenealogyForOrders")).thenReturn(plugin);
-        when(batch1Tr.getStringField("entityType")).thenReturn(TrackingRecordType.FOR_ORDER);
-
-        Entity genProdInComp = mock(Entity.class);
-        EntityList genProdInComps = mockEntityList(asList(genProdInComp));
-
-        Entity prodInBatch = mock(Entity.class);
-        when(prodInBatch.getBelongsToField("batch")).thenReturn(batch2);
 
-        EntityList prodInBatches = mockEntityList(asList(prodInBatch));
-        when(genProdInComp.getHasManyField("productInBatches")).thenReturn(prodInBatches);
-        when(batch1Tr.getHasManyField("genealogyProductInComponents")).thenReturn(genProdInComps);
+        edges.clear();
+        addEdge(1L, 2L, TrackingRecordState.DRAFT, TrackingRecordType.FOR_ORDER);
 
         // when
         List<Entity> tree = treeService.getProducedFromTree(batch1, true, false);
@@ -222,17 +255,9 @@ public class AdvancedGenealogyTreeServiceTest {
         // given
         Plugin plugin = mock(Plugin.class);
         when(pluginAccessor.getPlugin("advancedGenealogyForOrders")).thenReturn(plugin);
-        when(batch1Tr.getStringField("entityType")).thenReturn(TrackingRecordType.FOR_ORDER);
 
-        Entity genProdInComp = mock(Entity.class);
-        EntityList genProdInComps = mockEntityList(asList(genProdInComp));
-
-        Entity prodInBatch = mock(Entity.class);
-        when(prodInBatch.getBelongsToField("batch")).thenReturn(batch2);
-
-        EntityList prodInBatches = mockEntityList(asList(prodInBatch));
-        when(genProdInComp.getHasManyField("productInBatches")).thenReturn(prodInBatches);
-        when(batch1Tr.getHasManyField("genealogyProductInComponents")).thenReturn(genProdInComps);
+        edges.clear();
+        addEdge(1L, 2L, TrackingRecordState.DRAFT, TrackingRecordType.FOR_ORDER);
 
         // when
         List<Entity> tree = treeService.getUsedToProduceTree(batch2, true, false);
@@ -242,4 +267,35 @@ public class AdvancedGenealogyTreeServiceTest {
         assertEquals(batch2, tree.get(0));
         assertEquals(batch1, tree.get(1));
     }
+
+    @Test
+    public void shouldSkipForOrderTrackingRecordsWhenPluginIsDisabled() {
+        // given
+        edges.clear();
+        addEdge(1L, 2L, TrackingRecordState.DRAFT, TrackingRecordType.FOR_ORDER);
+
+        // when
+        List<Entity> tree = treeService.getProducedFromTree(batch1, true, false);
+
+        // then
+        assertEquals(1, tree.size());
+        assertEquals(batch1, tree.get(0));
+    }
+
+    @Test
+    public void shouldFetchGenealogyOncePerTreeLevel() {
+        // given
+        addEdge(2L, 3L, TrackingRecordState.ACCEPTED, TrackingRecordType.SIMPLE);
+        addEdge(1L, 3L, TrackingRecordState.ACCEPTED, TrackingRecordType.SIMPLE);
+
+        // when
+        List<Entity> producedFromTree = treeService.getProducedFromTree(batch1, true, false);
+        List<Entity> usedToProduceTree = treeService.getUsedToProduceTree(batch3, true, false);
+
+        // then
+        assertEquals(asList(batch1, batch2, batch3), producedFromTree);
+        assertEquals(asList(batch3, batch2, batch1), usedToProduceTree);
+        verify(jdbcTemplate, times(4)).queryForList(anyString(), anyMap());
+        verify(dataDefinition, times(2)).find();
+    }
 }
@@ -23,30 +23,27 @@
  */
 package com.qcadoo.mes.avgLaborCostCalcForOrder;
 
-import static com.qcadoo.mes.assignmentToShift.constants.AssignmentToShiftFields.SHIFT;
-import static com.qcadoo.mes.assignmentToShift.constants.AssignmentToShiftFields.START_DATE;
-import static com.qcadoo.mes.assignmentToShift.constants.StaffAssignmentToShiftFields.WORKER;
 import static com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AvgLaborCostCalcForOrderFields.AVERAGE_LABOR_HOURLY_COST;
 
 import java.math.BigDecimal;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NavigableMap;
 
 import org.joda.time.DateTime;
 import org.joda.time.Days;
 import org.joda.time.Period;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
-import com.qcadoo.mes.assignmentToShift.constants.AssignmentToShiftConstants;
-import com.qcadoo.mes.assignmentToShift.constants.AssignmentToShiftFields;
-import com.qcadoo.mes.assignmentToShift.constants.StaffAssignmentToShiftFields;
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.assignmentToShift.constants.StaffAssignmentToShiftState;
 import com.qcadoo.mes.assignmentToShift.states.constants.AssignmentToShiftState;
 import com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AssignmentWorkerToShiftFields;
@@ -55,16 +52,39 @@ import com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AvgLaborCostCalcForOrde
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
 import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchRestrictions;
 
+/**
+ * Calculates average labor hourly cost of workers assigned to production line. Assignments to shift covering the whole period
+ * and their staff are loaded at once, worked hours of each shift are calculated once per day and aggregated per worker.
+ */
 @Service
 public class AverageCostService {
 
+    private static final String L_WORKING = "Working";
+
+    private static final String L_WORK_ON_LINE = "01workOnLine";
+
+    private static final String L_ID = "id";
+
+    private static final String L_SHIFT_ID = "shift_id";
+
+    private static final String L_START_DATE = "startdate";
+
+    private static final String L_STATE = "state";
+
+    private static final String L_ASSIGNMENT_TO_SHIFT_ID = "assignmenttoshift_id";
+
+    private static final String L_WORKER_ID = "worker_id";
+
+    private static final String L_LABOR_HOURLY_COST = "laborhourlycost";
+
+    private static final int NOT_CALCULATED = -1;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -74,13 +94,16 @@ public class AverageCostService {
     @Autowired
     private ShiftsService shiftsService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public Entity generateAssignmentWorkerToShiftAndAverageCost(final Entity entity, final Date start, final Date finish,
             final Entity productionLine) {
         Entity avgLaborCostCalcForOrder = entity.getDataDefinition().get(entity.getId());
         List<DateTime> days = getDaysBetweenGivenDates(start, finish);
         List<Entity> shifts = getAllShifts();
-        Map<Entity, BigDecimal> workersWithHoursWorked = generateMapWorkersWithHoursWorked(days, shifts, productionLine);
-        BigDecimal averageCost = countAverageCost(workersWithHoursWorked);
+        WorkersHours workersHours = generateWorkersHours(days, shifts, productionLine);
+        BigDecimal averageCost = countAverageCost(workersHours);
         if (averageCost == null) {
             avgLaborCostCalcForOrder.addError(entity.getDataDefinition().getField(AVERAGE_LABOR_HOURLY_COST),
                     "avgLaborCostCalcForOrder.avgLaborCostCalcForOrder.averageLaborHourlyCost.isZero");
@@ -91,119 +114,186 @@ public class AverageCostService {
         } else {
             avgLaborCostCalcForOrder.setField(AVERAGE_LABOR_HOURLY_COST, averageCost);
             avgLaborCostCalcForOrder.setField(AvgLaborCostCalcForOrderFields.ASSIGNMENT_WORKER_TO_SHIFTS,
-                    createAssignmentWorkerToShift(workersWithHoursWorked));
+                    createAssignmentWorkerToShift(workersHours));
         }
         return avgLaborCostCalcForOrder;
     }
 
-    private Map<Entity, BigDecimal> generateMapWorkersWithHoursWorked(final List<DateTime> days, final List<Entity> shifts,
+    private WorkersHours generateWorkersHours(final List<DateTime> days, final List<Entity> shifts,
             final Entity productionLine) {
-        Map<Entity, BigDecimal> workersWithHours = new HashMap<Entity, BigDecimal>();
-        for (DateTime day : days) {
-            for (Entity shift : shifts) {
-                Entity assignmentToShift = getAssignmentToShift(shift, day.toDate());
+        WorkersHours workersHours = new WorkersHours();
+        Map<Long, NavigableMap<Long, AssignmentToShift>> assignmentsByShift = getAssignmentsToShift(days.get(0).toDate(),
+                days.get(days.size() - 1).toDate());
+        if (assignmentsByShift.isEmpty()) {
+            return workersHours;
+        }
+        ListMultimap<Long, StaffAssignmentToShift> staffsByAssignment = getStaffAssignmentsToShift(
+                getAssignmentToShiftIds(assignmentsByShift.values()), productionLine);
+        int[][] shiftsCalendar = new int[shifts.size()][days.size()];
+        for (int[] shiftHours : shiftsCalendar) {
+            Arrays.fill(shiftHours, NOT_CALCULATED);
+        }
+        for (int dayIndex = 0; dayIndex < days.size(); dayIndex++) {
+            DateTime day = days.get(dayIndex);
+            String workingField = shiftsService.getWeekDayName(day) + L_WORKING;
+            for (int shiftIndex = 0; shiftIndex < shifts.size(); shiftIndex++) {
+                Entity shift = shifts.get(shiftIndex);
+                if (!shift.getBooleanField(workingField)) {
+                    continue;
+                }
+                AssignmentToShift assignmentToShift = getAssignmentToShift(assignmentsByShift.get(shift.getId()), day);
                 if (assignmentToShift == null) {
                     continue;
                 }
-                List<Entity> staffs = getStaffAssignmentToShiftDependOnAssignmentToShiftState(assignmentToShift, productionLine);
-                for (Entity staff : staffs) {
-                    if (workersWithHours.containsKey(staff)) {
-                        BigDecimal countHours = workersWithHours.get(staff).add(getWorkedHoursOfWorker(shift, day));
-                        workersWithHours.put(staff, countHours);
-                    } else {
-                        workersWithHours.put(staff, getWorkedHoursOfWorker(shift, day));
+                String staffState = getStaffState(assignmentToShift.state);
+                for (StaffAssignmentToShift staff : staffsByAssignment.get(assignmentToShift.id)) {
+                    if (!staff.state.equals(staffState)) {
+                        continue;
                     }
+                    if (shiftsCalendar[shiftIndex][dayIndex] == NOT_CALCULATED) {
+                        shiftsCalendar[shiftIndex][dayIndex] = getWorkedHoursOfShift(shift, day);
+                    }
+                    workersHours.add(staff, shiftsCalendar[shiftIndex][dayIndex]);
                 }
             }
         }
-        return workersWithHours;
+        return workersHours;
     }
 
-    private BigDecimal countAverageCost(final Map<Entity, BigDecimal> workersWithHoursWorked) {
+    private BigDecimal countAverageCost(final WorkersHours workersHours) {
         BigDecimal averageCost = BigDecimal.ZERO;
-        BigDecimal countHours = BigDecimal.ZERO;
-        for (Entry<Entity, BigDecimal> workerWithHours : workersWithHoursWorked.entrySet()) {
-            BigDecimal quantityOfHours = workerWithHours.getValue();
-            BigDecimal costOfWorkerHours = workerWithHours.getKey().getBelongsToField(StaffAssignmentToShiftFields.WORKER)
-                    .getDecimalField("laborHourlyCost").multiply(quantityOfHours);
-            averageCost = averageCost.add(costOfWorkerHours);
-            countHours = countHours.add(quantityOfHours);
-        }
-        if (countHours.equals(BigDecimal.ZERO)) {
+        long countHours = 0;
+        for (int index = 0; index < workersHours.size(); index++) {
+            long quantityOfHours = workersHours.hours[index];
+            averageCost = averageCost.add(workersHours.laborHourlyCosts.get(index).multiply(BigDecimal.valueOf(quantityOfHours)));
+            countHours += quantityOfHours;
+        }
+        if (countHours == 0) {
             return null;
         }
-        return numberService.setScaleWithDefaultMathContext(averageCost.divide(countHours, numberService.getMathContext()));
+        return numberService.setScaleWithDefaultMathContext(averageCost.divide(BigDecimal.valueOf(countHours),
+                numberService.getMathContext()));
     }
 
-    private BigDecimal getWorkedHoursOfWorker(final Entity shift, final DateTime dateOfDay) {
-        BigDecimal hours = BigDecimal.ZERO;
+    private int getWorkedHoursOfShift(final Entity shift, final DateTime dateOfDay) {
+        int hours = 0;
         List<ShiftHour> workedHours = shiftsService.getHoursForShift(shift, dateOfDay.toDate(), dateOfDay.plusDays(1).toDate());
         for (ShiftHour shiftHour : workedHours) {
             DateTime dateFrom = new DateTime(shiftHour.getDateFrom());
             DateTime dateTo = new DateTime(shiftHour.getDateTo());
-            Period p = new Period(dateFrom, dateTo);
-            hours = hours.add(new BigDecimal(p.getHours()));
+            hours += new Period(dateFrom, dateTo).getHours();
         }
         return hours;
     }
 
-    private Entity getAssignmentToShift(final Entity shift, final Date date) {
-        boolean shiftWorks = shiftsService.checkIfShiftWorkAtDate(date, shift);
-        if (shiftWorks) {
-            return dataDefinitionService
-                    .get(AssignmentToShiftConstants.PLUGIN_IDENTIFIER, AssignmentToShiftConstants.MODEL_ASSIGNMENT_TO_SHIFT)
-                    .find().add(SearchRestrictions.belongsTo(SHIFT, shift)).add(SearchRestrictions.le(START_DATE, date))
-                    .addOrder(SearchOrders.desc(START_DATE)).setMaxResults(1).uniqueResult();
-        } else {
+    private AssignmentToShift getAssignmentToShift(final NavigableMap<Long, AssignmentToShift> assignmentsToShift,
+            final DateTime day) {
+        if (assignmentsToShift == null) {
+            return null;
+        }
+        Map.Entry<Long, AssignmentToShift> assignmentToShift = assignmentsToShift.floorEntry(day.getMillis());
+        if (assignmentToShift == null) {
             return null;
         }
+        return assignmentToShift.getValue();
     }
 
-    private List<Entity> getStaffAssignmentToShiftDependOnAssignmentToShiftState(final Entity assignmentToShift,
-            final Entity productionLine) {
-        List<Entity> staffAssignmentToShifts = new ArrayList<Entity>();
-        String state = assignmentToShift.getStringField(AssignmentToShiftFields.STATE);
-        SearchCriteriaBuilder searchCriteriaBuilder = assignmentToShift.getHasManyField("staffAssignmentToShifts").find()
-                .add(SearchRestrictions.eq("occupationTypeEnum", "01workOnLine"))
-                .add(SearchRestrictions.belongsTo(StaffAssignmentToShiftFields.PRODUCTION_LINE, productionLine));
-        if (state.equals(AssignmentToShiftState.CORRECTED.getStringValue())) {
-            staffAssignmentToShifts = searchCriteriaBuilder
-                    .add(SearchRestrictions.eq("state", StaffAssignmentToShiftState.CORRECTED.getStringValue())).list()
-                    .getEntities();
-        } else if (state.equals(AssignmentToShiftState.ACCEPTED.getStringValue())
-                || state.equals(AssignmentToShiftState.DURING_CORRECTION.getStringValue())) {
-            staffAssignmentToShifts = searchCriteriaBuilder
-                    .add(SearchRestrictions.eq("state", StaffAssignmentToShiftState.ACCEPTED.getStringValue())).list()
-                    .getEntities();
-        }
-        return staffAssignmentToShifts;
+    private String getStaffState(final String state) {
+        if (AssignmentToShiftState.CORRECTED.getStringValue().equals(state)) {
+            return StaffAssignmentToShiftState.CORRECTED.getStringValue();
+        } else if (AssignmentToShiftState.ACCEPTED.getStringValue().equals(state)
+                || AssignmentToShiftState.DURING_CORRECTION.getStringValue().equals(state)) {
+            return StaffAssignmentToShiftState.ACCEPTED.getStringValue();
+        }
+        return null;
     }
 
-    private List<Entity> createAssignmentWorkerToShift(final Map<Entity, BigDecimal> workersWithHoursWorked) {
-        Map<Long, Entity> workers = new HashMap<Long, Entity>();
-        for (Entry<Entity, BigDecimal> workerWithHours : workersWithHoursWorked.entrySet()) {
-            Entity worker = workerWithHours.getKey().getBelongsToField(WORKER);
-            Long workerId = worker.getId();
-            Entity assignmentWorkerToShift = dataDefinitionService.get(AvgLaborCostCalcForOrderConstants.PLUGIN_IDENTIFIER,
-                    AvgLaborCostCalcForOrderConstants.MODEL_ASSIGNMENT_WORKER_TO_SHIFT).create();
-            if (workers.containsKey(workerId)) {
-                assignmentWorkerToShift = workers.get(workerId);
-                BigDecimal countHours = assignmentWorkerToShift.getDecimalField(AssignmentWorkerToShiftFields.WORKED_HOURS).add(
-                        workerWithHours.getValue());
-                assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.WORKED_HOURS, countHours);
-            } else {
-                assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.ASSIGNMENT_TO_SHIFT, workerWithHours.getKey()
-                        .getBelongsToField("assignmentToShift"));
-                assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.WORKER, worker);
-                assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.WORKED_HOURS, workerWithHours.getValue());
+    /**
+     * Loads assignments to shift starting in given period together with the last assignment of each shift started before it.
+     * When many assignments of the shift start at the same date, the newest one is used.
+     */
+    private Map<Long, NavigableMap<Long, AssignmentToShift>> getAssignmentsToShift(final Date from, final Date to) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put("from", from);
+        parameters.put("to", to);
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList("SELECT assignment.id, assignment.shift_id, "
+                + "assignment.startdate, assignment.state FROM assignmenttoshift_assignmenttoshift assignment "
+                + "WHERE assignment.startdate <= :to AND assignment.startdate >= COALESCE((SELECT max(previous.startdate) "
+                + "FROM assignmenttoshift_assignmenttoshift previous WHERE previous.shift_id = assignment.shift_id "
+                + "AND previous.startdate <= :from), :from) ORDER BY assignment.startdate, assignment.id", parameters);
+        Map<Long, NavigableMap<Long, AssignmentToShift>> assignmentsByShift = Maps.newHashMap();
+        for (Map<String, Object> row : rows) {
+            Long shiftId = ((Number) row.get(L_SHIFT_ID)).longValue();
+            NavigableMap<Long, AssignmentToShift> assignmentsToShift = assignmentsByShift.get(shiftId);
+            if (assignmentsToShift == null) {
+                assignmentsToShift = Maps.newTreeMap();
+                assignmentsByShift.put(shiftId, assignmentsToShift);
             }
-            workers.put(worker.getId(), assignmentWorkerToShift);
+            assignmentsToShift.put(((Date) row.get(L_START_DATE)).getTime(),
+                    new AssignmentToShift(((Number) row.get(L_ID)).longValue(), (String) row.get(L_STATE)));
+        }
+        return assignmentsByShift;
+    }
+
+    private List<Long> getAssignmentToShiftIds(final Collection<NavigableMap<Long, AssignmentToShift>> assignmentsByShift) {
+        List<Long> ids = Lists.newArrayList();
+        for (NavigableMap<Long, AssignmentToShift> assignmentsToShift : assignmentsByShift) {
+            for (AssignmentToShift assignmentToShift : assignmentsToShift.values()) {
+                ids.add(assignmentToShift.id);
+            }
+        }
+        return ids;
+    }
+
+    private ListMultimap<Long, StaffAssignmentToShift> getStaffAssignmentsToShift(final List<Long> assignmentToShiftIds,
+            final Entity productionLine) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put("ids", assignmentToShiftIds);
+        parameters.put("occupationType", L_WORK_ON_LINE);
+        parameters.put("states", Lists.newArrayList(StaffAssignmentToShiftState.ACCEPTED.getStringValue(),
+                StaffAssignmentToShiftState.CORRECTED.getStringValue()));
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT staff.assignmenttoshift_id, staff.worker_id, staff.state, worker.laborhourlycost ");
+        query.append("FROM assignmenttoshift_staffassignmenttoshift staff ");
+        query.append("JOIN basic_staff worker ON worker.id = staff.worker_id ");
+        query.append("WHERE staff.assignmenttoshift_id IN (:ids) AND staff.occupationtypeenum = :occupationType ");
+        query.append("AND staff.state IN (:states) AND ");
+        if (productionLine == null) {
+            query.append("staff.productionline_id IS NULL ");
+        } else {
+            query.append("staff.productionline_id = :productionLineId ");
+            parameters.put("productionLineId", productionLine.getId());
+        }
+        query.append("ORDER BY staff.id");
+        ListMultimap<Long, StaffAssignmentToShift> staffsByAssignment = ArrayListMultimap.create();
+        for (Map<String, Object> row : jdbcTemplate.queryForList(query.toString(), parameters)) {
+            Long assignmentToShiftId = ((Number) row.get(L_ASSIGNMENT_TO_SHIFT_ID)).longValue();
+            staffsByAssignment.put(assignmentToShiftId, new StaffAssignmentToShift(assignmentToShiftId,
+                    ((Number) row.get(L_WORKER_ID)).longValue(), (String) row.get(L_STATE),
+                    BigDecimalUtils.convertNullToZero(row.get(L_LABOR_HOURLY_COST))));
         }
-        return Lists.newArrayList(workers.values());
+        return staffsByAssignment;
+    }
+
+    private List<Entity> createAssignmentWorkerToShift(final WorkersHours workersHours) {
+        DataDefinition assignmentWorkerToShiftDD = dataDefinitionService.get(
+                AvgLaborCostCalcForOrderConstants.PLUGIN_IDENTIFIER,
+                AvgLaborCostCalcForOrderConstants.MODEL_ASSIGNMENT_WORKER_TO_SHIFT);
+        List<Entity> assignmentWorkerToShifts = Lists.newArrayListWithCapacity(workersHours.size());
+        for (int index = 0; index < workersHours.size(); index++) {
+            Entity assignmentWorkerToShift = assignmentWorkerToShiftDD.create();
+            assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.ASSIGNMENT_TO_SHIFT,
+                    workersHours.assignmentToShiftIds.get(index));
+            assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.WORKER, workersHours.workerIds.get(index));
+            assignmentWorkerToShift.setField(AssignmentWorkerToShiftFields.WORKED_HOURS,
+                    BigDecimal.valueOf(workersHours.hours[index]));
+            assignmentWorkerToShifts.add(assignmentWorkerToShift);
+        }
+        return assignmentWorkerToShifts;
     }
 
     private List<DateTime> getDaysBetweenGivenDates(final Date start, final Date finish) {
-        List<DateTime> days = new LinkedList<DateTime>();
+        List<DateTime> days = Lists.newArrayList();
         DateTime startDate = new DateTime(start);
         DateTime finishDate = new DateTime(finish);
 
@@ -224,4 +314,74 @@ public class AverageCostService {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT).find().list()
                 .getEntities();
     }
+
+    private static final class AssignmentToShift {
+
+        private final Long id;
+
+        private final String state;
+
+        private AssignmentToShift(final Long id, final String state) {
+            this.id = id;
+            this.state = state;
+        }
+
+    }
+
+    private static final class StaffAssignmentToShift {
+
+        private final Long assignmentToShiftId;
+
+        private final Long workerId;
+
+        private final String state;
+
+        private final BigDecimal laborHourlyCost;
+
+        private StaffAssignmentToShift(final Long assignmentToShiftId, final Long workerId, final String state,
+                final BigDecimal laborHourlyCost) {
+            this.assignmentToShiftId = assignmentToShiftId;
+            this.workerId = workerId;
+            this.state = state;
+            this.laborHourlyCost = laborHourlyCost;
+        }
+
+    }
+
+    /**
+     * Worked hours of workers, indexed in order of their first assignment in given period.
+     */
+    private static final class WorkersHours {
+
+        private final Map<Long, Integer> indexesByWorkerId = Maps.newHashMap();
+
+        private final List<Long> workerIds = Lists.newArrayList();
+
+        private final List<Long> assignmentToShiftIds = Lists.newArrayList();
+
+        private final List<BigDecimal> laborHourlyCosts = Lists.newArrayList();
+
+        private long[] hours = new long[16];
+
+        private int size() {
+            return workerIds.size();
+        }
+
+        private void add(final StaffAssignmentToShift staff, final int workedHours) {
+            Integer index = indexesByWorkerId.get(staff.workerId);
+            if (index == null) {
+                index = workerIds.size();
+                indexesByWorkerId.put(staff.workerId, index);
+                workerIds.add(staff.workerId);
+                assignmentToShiftIds.add(staff.assignmentToShiftId);
+                laborHourlyCosts.add(staff.laborHourlyCost);
+                if (index == hours.length) {
+                    hours = Arrays.copyOf(hours, index * 2);
+                }
+            }
+            hours[index] += workedHours;
+        }
+
+    }
+
 }
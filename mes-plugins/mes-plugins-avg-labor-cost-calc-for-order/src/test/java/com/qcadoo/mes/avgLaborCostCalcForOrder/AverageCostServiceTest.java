@@ -0,0 +1,474 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.avgLaborCostCalcForOrder;
+
+import static com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AvgLaborCostCalcForOrderFields.ASSIGNMENT_WORKER_TO_SHIFTS;
+import static com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AvgLaborCostCalcForOrderFields.AVERAGE_LABOR_HOURLY_COST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.assignmentToShift.constants.StaffAssignmentToShiftState;
+import com.qcadoo.mes.assignmentToShift.states.constants.AssignmentToShiftState;
+import com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AssignmentWorkerToShiftFields;
+import com.qcadoo.mes.avgLaborCostCalcForOrder.constants.AvgLaborCostCalcForOrderConstants;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.basic.ShiftsServiceImpl.ShiftHour;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.FieldDefinition;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class AverageCostServiceTest {
+
+    private static final String L_WEEK_DAY = "monday";
+
+    private static final String L_STAFF_TABLE = "assignmenttoshift_staffassignmenttoshift";
+
+    private static final int L_SHIFT_HOURS = 8;
+
+    private static final DateTime PERIOD_START = new DateTime(2018, 1, 8, 0, 0, 0, 0);
+
+    private static final DateTime PERIOD_FINISH = PERIOD_START.plusDays(2);
+
+    private AverageCostService averageCostService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DataDefinition avgLaborCostCalcForOrderDD, assignmentWorkerToShiftDD, shiftDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Mock
+    private Entity entity;
+
+    private Entity result, shift1, shift2;
+
+    private List<Map<String, Object>> assignmentRows, staffRows;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        averageCostService = new AverageCostService();
+
+        ReflectionTestUtils.setField(averageCostService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(averageCostService, "numberService", numberService);
+        ReflectionTestUtils.setField(averageCostService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(averageCostService, "jdbcTemplate", jdbcTemplate);
+
+        result = mockEntityWithFields(1L);
+
+        given(entity.getId()).willReturn(1L);
+        given(entity.getDataDefinition()).willReturn(avgLaborCostCalcForOrderDD);
+        given(avgLaborCostCalcForOrderDD.get(1L)).willReturn(result);
+
+        given(dataDefinitionService.get(AvgLaborCostCalcForOrderConstants.PLUGIN_IDENTIFIER,
+                AvgLaborCostCalcForOrderConstants.MODEL_ASSIGNMENT_WORKER_TO_SHIFT)).willReturn(assignmentWorkerToShiftDD);
+        given(assignmentWorkerToShiftDD.create()).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return mockEntityWithFields(null);
+            }
+        });
+
+        shift1 = mockShift(1L);
+        shift2 = mockShift(2L);
+
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT)).willReturn(shiftDD);
+        given(shiftDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(shift1, shift2));
+
+        given(shiftsService.getWeekDayName(any(DateTime.class))).willReturn(L_WEEK_DAY);
+        given(shiftsService.getHoursForShift(any(Entity.class), any(Date.class), any(Date.class))).willAnswer(
+                new Answer<List<ShiftHour>>() {
+
+                    @Override
+                    public List<ShiftHour> answer(final InvocationOnMock invocation) throws Throwable {
+                        DateTime dateFrom = new DateTime(invocation.getArguments()[1]).plusHours(6);
+
+                        ShiftHour shiftHour = mock(ShiftHour.class);
+                        given(shiftHour.getDateFrom()).willReturn(dateFrom.toDate());
+                        given(shiftHour.getDateTo()).willReturn(dateFrom.plusHours(L_SHIFT_HOURS).toDate());
+
+                        return Lists.newArrayList(shiftHour);
+                    }
+                });
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class))).willAnswer(new Answer<BigDecimal>() {
+
+            @Override
+            public BigDecimal answer(final InvocationOnMock invocation) throws Throwable {
+                return (BigDecimal) invocation.getArguments()[0];
+            }
+        });
+
+        assignmentRows = Lists.newArrayList();
+        staffRows = Lists.newArrayList();
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap())).willAnswer(new Answer<List<Map<String, Object>>>() {
+
+            @Override
+            public List<Map<String, Object>> answer(final InvocationOnMock invocation) throws Throwable {
+                if (((String) invocation.getArguments()[0]).contains(L_STAFF_TABLE)) {
+                    return staffRows;
+                }
+
+                return assignmentRows;
+            }
+        });
+    }
+
+    private Entity mockShift(final Long id) {
+        Entity shift = mockEntityWithFields(id);
+
+        shift.setField(L_WEEK_DAY + "Working", true);
+
+        return shift;
+    }
+
+    private Entity mockEntityWithFields(final Long id) {
+        final Map<String, Object> fields = Maps.newHashMap();
+        Entity entity = mock(Entity.class);
+
+        Answer<Object> getField = new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return fields.get(invocation.getArguments()[0]);
+            }
+        };
+
+        given(entity.getId()).willReturn(id);
+        given(entity.getField(anyString())).willAnswer(getField);
+        given(entity.getDecimalField(anyString())).willAnswer(getField);
+        given(entity.getBooleanField(anyString())).willAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return Boolean.TRUE.equals(fields.get(invocation.getArguments()[0]));
+            }
+        });
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+
+                return null;
+            }
+        }).when(entity).setField(anyString(), any());
+
+        return entity;
+    }
+
+    private void addAssignment(final long id, final Entity shift, final DateTime startDate, final AssignmentToShiftState state) {
+        Map<String, Object> row = Maps.newHashMap();
+
+        row.put("id", id);
+        row.put("shift_id", shift.getId());
+        row.put("startdate", startDate.toDate());
+        row.put("state", state.getStringValue());
+
+        assignmentRows.add(row);
+    }
+
+    private void addStaff(final long assignmentToShiftId, final long workerId, final StaffAssignmentToShiftState state,
+            final int laborHourlyCost) {
+        Map<String, Object> row = Maps.newHashMap();
+
+        row.put("assignmenttoshift_id", assignmentToShiftId);
+        row.put("worker_id", workerId);
+        row.put("state", state.getStringValue());
+        row.put("laborhourlycost", new BigDecimal(laborHourlyCost));
+
+        staffRows.add(row);
+    }
+
+    private Entity generate(final Entity productionLine) {
+        return averageCostService.generateAssignmentWorkerToShiftAndAverageCost(entity,
+                PERIOD_START.toDate(), PERIOD_FINISH.toDate(), productionLine);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Entity> getAssignmentWorkerToShifts(final Entity avgLaborCostCalcForOrder) {
+        return (List<Entity>) avgLaborCostCalcForOrder.getField(ASSIGNMENT_WORKER_TO_SHIFTS);
+    }
+
+    private void assertAverageCost(final int expectedAverageCost, final Entity avgLaborCostCalcForOrder) {
+        assertEquals(0, new BigDecimal(expectedAverageCost).compareTo(avgLaborCostCalcForOrder
+                .getDecimalField(AVERAGE_LABOR_HOURLY_COST)));
+    }
+
+    private void assertWorkedHours(final Long assignmentToShiftId, final Long workerId, final int workedHours,
+            final Entity assignmentWorkerToShift) {
+        assertEquals(assignmentToShiftId, assignmentWorkerToShift.getField(AssignmentWorkerToShiftFields.ASSIGNMENT_TO_SHIFT));
+        assertEquals(workerId, assignmentWorkerToShift.getField(AssignmentWorkerToShiftFields.WORKER));
+        assertEquals(0, new BigDecimal(workedHours).compareTo(assignmentWorkerToShift
+                .getDecimalField(AssignmentWorkerToShiftFields.WORKED_HOURS)));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Map<String, Object> verifyStaffQuery(final String productionLineCondition) {
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(2)).queryForList(queryCaptor.capture(), parametersCaptor.capture());
+
+        String query = queryCaptor.getAllValues().get(1);
+        Map<String, Object> parameters = parametersCaptor.getAllValues().get(1);
+
+        assertTrue(query.contains(L_STAFF_TABLE));
+        assertTrue(query.contains("staff.occupationtypeenum = :occupationType"));
+        assertTrue(query.contains(productionLineCondition));
+        assertEquals("01workOnLine", parameters.get("occupationType"));
+        assertEquals(Lists.newArrayList(1L), parameters.get("ids"));
+
+        return parameters;
+    }
+
+    @Test
+    public final void shouldUseAssignmentStartedBeforePeriodUntilNextAssignmentStarts() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START.minusDays(7), AssignmentToShiftState.ACCEPTED);
+        addAssignment(2L, shift1, PERIOD_START.plusDays(1), AssignmentToShiftState.ACCEPTED);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(2L, 12L, StaffAssignmentToShiftState.ACCEPTED, 40);
+
+        // when
+        Entity avgLaborCostCalcForOrder = generate(null);
+
+        // then
+        List<Entity> assignmentWorkerToShifts = getAssignmentWorkerToShifts(avgLaborCostCalcForOrder);
+
+        assertEquals(2, assignmentWorkerToShifts.size());
+        assertWorkedHours(1L, 11L, L_SHIFT_HOURS, assignmentWorkerToShifts.get(0));
+        assertWorkedHours(2L, 12L, 2 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(1));
+        assertAverageCost(30, avgLaborCostCalcForOrder);
+    }
+
+    @Test
+    public final void shouldUseNewestAssignmentOfManyStartedAtSameDate() {
+        // given
+        addAssignment(3L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+        addAssignment(4L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+
+        addStaff(3L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(4L, 12L, StaffAssignmentToShiftState.ACCEPTED, 20);
+
+        // when
+        Entity avgLaborCostCalcForOrder = generate(null);
+
+        // then
+        List<Entity> assignmentWorkerToShifts = getAssignmentWorkerToShifts(avgLaborCostCalcForOrder);
+
+        assertEquals(1, assignmentWorkerToShifts.size());
+        assertWorkedHours(4L, 12L, 3 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(0));
+        assertAverageCost(20, avgLaborCostCalcForOrder);
+    }
+
+    @Test
+    public final void shouldCountOnlyCorrectedStaffOfCorrectedAssignment() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.CORRECTED);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(1L, 12L, StaffAssignmentToShiftState.CORRECTED, 20);
+
+        // when
+        Entity avgLaborCostCalcForOrder = generate(null);
+
+        // then
+        List<Entity> assignmentWorkerToShifts = getAssignmentWorkerToShifts(avgLaborCostCalcForOrder);
+
+        assertEquals(1, assignmentWorkerToShifts.size());
+        assertWorkedHours(1L, 12L, 3 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(0));
+        assertAverageCost(20, avgLaborCostCalcForOrder);
+    }
+
+    @Test
+    public final void shouldCountOnlyAcceptedStaffOfAcceptedAndDuringCorrectionAssignments() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+        addAssignment(2L, shift2, PERIOD_START, AssignmentToShiftState.DURING_CORRECTION);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(1L, 12L, StaffAssignmentToShiftState.CORRECTED, 100);
+        addStaff(2L, 13L, StaffAssignmentToShiftState.ACCEPTED, 30);
+        addStaff(2L, 14L, StaffAssignmentToShiftState.CORRECTED, 100);
+
+        // when
+        Entity avgLaborCostCalcForOrder = generate(null);
+
+        // then
+        List<Entity> assignmentWorkerToShifts = getAssignmentWorkerToShifts(avgLaborCostCalcForOrder);
+
+        assertEquals(2, assignmentWorkerToShifts.size());
+        assertWorkedHours(1L, 11L, 3 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(0));
+        assertWorkedHours(2L, 13L, 3 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(1));
+        assertAverageCost(20, avgLaborCostCalcForOrder);
+    }
+
+    @Test
+    public final void shouldMergeHoursOfWorkerAssignedToManyShifts() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+        addAssignment(2L, shift2, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(2L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(2L, 12L, StaffAssignmentToShiftState.ACCEPTED, 40);
+
+        // when
+        Entity avgLaborCostCalcForOrder = generate(null);
+
+        // then
+        List<Entity> assignmentWorkerToShifts = getAssignmentWorkerToShifts(avgLaborCostCalcForOrder);
+
+        assertEquals(2, assignmentWorkerToShifts.size());
+        assertWorkedHours(1L, 11L, 6 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(0));
+        assertWorkedHours(2L, 12L, 3 * L_SHIFT_HOURS, assignmentWorkerToShifts.get(1));
+        assertAverageCost(20, avgLaborCostCalcForOrder);
+    }
+
+    @Test
+    public final void shouldCalculateWorkedHoursOfShiftOncePerDay() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+        addStaff(1L, 12L, StaffAssignmentToShiftState.ACCEPTED, 20);
+        addStaff(1L, 13L, StaffAssignmentToShiftState.ACCEPTED, 30);
+
+        // when
+        generate(null);
+
+        // then
+        verify(shiftsService, times(3)).getHoursForShift(eq(shift1), any(Date.class), any(Date.class));
+        verify(shiftsService, never()).getHoursForShift(eq(shift2), any(Date.class), any(Date.class));
+    }
+
+    @Test
+    public final void shouldLoadStaffWorkingOnGivenProductionLine() {
+        // given
+        Entity productionLine = mockEntityWithFields(5L);
+
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+
+        // when
+        generate(productionLine);
+
+        // then
+        Map<String, Object> parameters = verifyStaffQuery("staff.productionline_id = :productionLineId");
+
+        assertEquals(5L, parameters.get("productionLineId"));
+    }
+
+    @Test
+    public final void shouldLoadStaffWorkingWithoutProductionLine() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.ACCEPTED);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+
+        // when
+        generate(null);
+
+        // then
+        Map<String, Object> parameters = verifyStaffQuery("staff.productionline_id IS NULL");
+
+        assertFalse(parameters.containsKey("productionLineId"));
+    }
+
+    @Test
+    public final void shouldAddErrorsWhenNoHoursWereWorked() {
+        // given
+        addAssignment(1L, shift1, PERIOD_START, AssignmentToShiftState.DRAFT);
+
+        addStaff(1L, 11L, StaffAssignmentToShiftState.ACCEPTED, 10);
+
+        // when
+        Entity avgLaborCostCalcForOrder = generate(null);
+
+        // then
+        verify(avgLaborCostCalcForOrder, times(3)).addError(any(FieldDefinition.class),
+                eq("avgLaborCostCalcForOrder.avgLaborCostCalcForOrder.averageLaborHourlyCost.isZero"));
+        verify(avgLaborCostCalcForOrder, never()).setField(eq(AVERAGE_LABOR_HOURLY_COST), any());
+    }
+
+}
@@ -34,6 +34,7 @@ import com.qcadoo.mes.technologies.ProductQuantitiesServiceImpl;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.OrderProductComponentQuantities;
 import com.qcadoo.mes.technologies.dto.ProductMaterialType;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -42,9 +43,11 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Service
 public class ProductQuantitiesServiceImplBPCOverrideUtil {
@@ -60,34 +63,45 @@ public class ProductQuantitiesServiceImplBPCOverrideUtil {
             final boolean onTheFly) {
         Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
 
-        for (Entity order : orders) {
-            BigDecimal plannedQuantity = order.getDecimalField(OrderFields.PLANNED_QUANTITY);
+        List<Entity> ordersToExpand = orders.stream().filter(order -> !isCountedByProductionCountingQuantities(order, onTheFly))
+                .collect(Collectors.toList());
+
+        Iterator<OrderProductComponentQuantities> ordersProductComponentQuantities = productQuantitiesServiceImpl
+                .getProductComponentWithQuantitiesForOrdersTechnologies(ordersToExpand).iterator();
 
+        for (Entity order : orders) {
             Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
 
             if (technology == null) {
                 throw new IllegalStateException("Order doesn't contain technology.");
             }
 
-            String state = order.getStringField(OrderFields.STATE);
-
-            if (!onTheFly
-                    && (OrderStateStringValues.ACCEPTED.equals(state) || OrderStateStringValues.IN_PROGRESS.equals(state) || OrderStateStringValues.INTERRUPTED
-                            .equals(state))) {
+            if (isCountedByProductionCountingQuantities(order, onTheFly)) {
                 productComponentWithQuantitiesForOrders.put(order.getId(), getProductComponentWithQuantities(order));
 
                 fillOperationRuns(operationRuns, order);
                 fillNonComponents(nonComponents, order);
             } else {
+                OrderProductComponentQuantities orderProductComponentQuantities = ordersProductComponentQuantities.next();
+
+                orderProductComponentQuantities.addOperationRunsAndNonComponentsTo(operationRuns, nonComponents);
+
                 productComponentWithQuantitiesForOrders.put(order.getId(),
-                        productQuantitiesServiceImpl.getProductComponentWithQuantitiesForTechnology(technology, plannedQuantity,
-                                operationRuns, nonComponents));
+                        orderProductComponentQuantities.getProductComponentQuantities());
             }
         }
 
         return productQuantitiesServiceImpl.groupOperationProductComponentWithQuantities(productComponentWithQuantitiesForOrders);
     }
 
+    private boolean isCountedByProductionCountingQuantities(final Entity order, final boolean onTheFly) {
+        String state = order.getStringField(OrderFields.STATE);
+
+        return !onTheFly
+                && (OrderStateStringValues.ACCEPTED.equals(state) || OrderStateStringValues.IN_PROGRESS.equals(state) || OrderStateStringValues.INTERRUPTED
+                        .equals(state));
+    }
+
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantities(final Entity order) {
         OperationProductComponentWithQuantityContainer productComponentWithQuantities = new OperationProductComponentWithQuantityContainer();
 
@@ -27,6 +27,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.qcadoo.mes.basic.jobs.JobService;
 import com.qcadoo.plugin.api.Module;
 
 @Component
@@ -56,6 +57,9 @@ public class BasicOnStartupService extends Module {
     @Autowired
     private ExchangeRatesUpdateService exchangeRatesUpdateService;
 
+    @Autowired
+    private JobService jobService;
+
     @Override
     @Transactional
     public void multiTenantEnable() {
@@ -66,6 +70,7 @@ public class BasicOnStartupService extends Module {
         defaultFaultTypesLoader.loadDefaultFaultTypes();
         addressTypeLoader.loadAddressTypes();
         colorLoader.loadColors();
+        jobService.failInterruptedJobs();
 
         exchangeRatesUpdateService.update();
     }
@@ -2,6 +2,7 @@ package com.qcadoo.mes.basic;
 
 import com.google.common.collect.Lists;
 import com.qcadoo.commons.dateTime.TimeRange;
+import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
@@ -34,7 +35,16 @@ public class ShiftExceptionService {
             exceptions = timetableExceptionService.findFor(productionLine, shiftEntity, dateOfDay);
         }
 
-        Shift shiftForDay = new Shift(shiftEntity, new DateTime(dateOfDay), false);
+        return manageExceptions(shiftWorkDateTime, exceptions, shift, dateOfDay);
+    }
+
+    private List<DateTimeRange> manageExceptions(List<DateTimeRange> shiftWorkDateTime, final List<Entity> exceptions,
+            final Shift shift, final Date dateOfDay) {
+        if (exceptions.isEmpty()) {
+            return shiftWorkDateTime;
+        }
+
+        Shift shiftForDay = new Shift(shift.getEntity(), new DateTime(dateOfDay), false);
 
         for (Entity exception : exceptions) {
             if (TimetableExceptionType.FREE_TIME.getStringValue()
@@ -52,6 +62,43 @@ public class ShiftExceptionService {
     }
 
     public List<DateTimeRange> getShiftWorkDateTimes(final Entity productionLine, final Shift shift, DateTime dateOfDay) {
+        return manageExceptions(getShiftWorkDateTimesFromPlan(shift, dateOfDay), productionLine, shift, dateOfDay.toDate());
+    }
+
+    /**
+     * Returns shift work times for each of given number of days, starting from given day. Unlike calling
+     * getShiftWorkDateTimes for every day, timetable exceptions of the whole period are loaded with one query.
+     */
+    public List<List<DateTimeRange>> getShiftWorkDateTimes(final Entity productionLine, final Shift shift,
+            final DateTime firstDay, final int days) {
+        List<List<DateTimeRange>> shiftWorkDateTimesPerDay = Lists.newArrayListWithCapacity(days);
+        if (days <= 0) {
+            return shiftWorkDateTimesPerDay;
+        }
+
+        Entity shiftEntity = shift.getEntity();
+        List<Entity> exceptions;
+        if (Objects.isNull(productionLine)) {
+            exceptions = shiftEntity.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS);
+        } else {
+            exceptions = timetableExceptionService.findFor(productionLine, shiftEntity, firstDay.toDate(),
+                    firstDay.plusDays(days - 1).toDate());
+        }
+
+        for (int day = 0; day < days; day++) {
+            DateTime dateOfDay = firstDay.plusDays(day);
+            List<Entity> exceptionsForDay = exceptions;
+            if (!Objects.isNull(productionLine)) {
+                exceptionsForDay = filterExceptionsForDay(exceptions, DateUtils.toDateString(dateOfDay.toDate()));
+            }
+            shiftWorkDateTimesPerDay.add(manageExceptions(getShiftWorkDateTimesFromPlan(shift, dateOfDay), exceptionsForDay,
+                    shift, dateOfDay.toDate()));
+        }
+
+        return shiftWorkDateTimesPerDay;
+    }
+
+    private List<DateTimeRange> getShiftWorkDateTimesFromPlan(final Shift shift, final DateTime dateOfDay) {
         List<TimeRange> shiftWorkTime = Lists.newArrayList();
         List<DateTimeRange> shiftWorkDateTime = Lists.newArrayList();
         if (shift.worksAt(dateOfDay.dayOfWeek().get())) {
@@ -61,11 +108,22 @@ public class ShiftExceptionService {
             shiftWorkDateTime.add(new DateTimeRange(dateOfDay, range));
         }
 
-        shiftWorkDateTime = manageExceptions(shiftWorkDateTime, productionLine, shift, dateOfDay.toDate());
-
         return shiftWorkDateTime;
     }
 
+    private List<Entity> filterExceptionsForDay(final List<Entity> exceptions, final String day) {
+        List<Entity> exceptionsForDay = Lists.newArrayList();
+        for (Entity exception : exceptions) {
+            if (DateUtils.toDateString(exception.getDateField(ShiftTimetableExceptionFields.FROM_DATE)).compareTo(day) <= 0
+                    && DateUtils.toDateString(exception.getDateField(ShiftTimetableExceptionFields.TO_DATE))
+                            .compareTo(day) >= 0) {
+                exceptionsForDay.add(exception);
+            }
+        }
+
+        return exceptionsForDay;
+    }
+
     private List<DateTimeRange> removeFreeTimeException(final List<DateTimeRange> shiftWorkDateTime, final Entity exception,
             final Shift shift) {
         Optional<DateTimeRange> exceptionRange = getExceptionRange(exception, shift, false);
@@ -22,15 +22,19 @@ class TimetableExceptionService {
     private DataDefinitionService dataDefinitionService;
 
     List<Entity> findFor(final Entity productionLine, final Entity shift, final Date date) {
-        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, null);
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, date, null);
     }
 
     List<Entity> findFor(final Entity productionLine, final Entity shift, final Date date, final String type) {
-        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, type);
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), date, date, type);
     }
 
-    private List<Entity> findFor(final List<Long> productionLineIds, final List<Long> shiftIds, final Date date,
-            final String type) {
+    List<Entity> findFor(final Entity productionLine, final Entity shift, final Date fromDate, final Date toDate) {
+        return findFor(Lists.newArrayList(productionLine.getId()), Lists.newArrayList(shift.getId()), fromDate, toDate, null);
+    }
+
+    private List<Entity> findFor(final List<Long> productionLineIds, final List<Long> shiftIds, final Date fromDate,
+            final Date toDate, final String type) {
         List<Entity> shiftTimetableExceptions = Lists.newArrayList();
 
         if (!productionLineIds.isEmpty() && !shiftIds.isEmpty()) {
@@ -42,9 +46,9 @@ class TimetableExceptionService {
             query.append(" WHERE productionLine.id IN (:productionLines)");
             query.append(" AND shift.id IN (:shifts)");
 
-            if (date != null) {
-                query.append(
-                        " AND to_char(timetableException.fromDate,'yyyy-MM-dd') <= :date AND to_char(timetableException.toDate,'yyyy-MM-dd') >= :date");
+            if (fromDate != null) {
+                query.append(" AND to_char(timetableException.fromDate,'yyyy-MM-dd') <= :toDate");
+                query.append(" AND to_char(timetableException.toDate,'yyyy-MM-dd') >= :fromDate");
             }
 
             if (StringUtils.isNotEmpty(type)) {
@@ -54,8 +58,9 @@ class TimetableExceptionService {
             SearchQueryBuilder searchQueryBuilder = getShiftTimetableExceptionDD().find(query.toString())
                     .setParameterList("productionLines", productionLineIds).setParameterList("shifts", shiftIds);
 
-            if (date != null) {
-                searchQueryBuilder.setParameter("date", DateUtils.toDateString(date));
+            if (fromDate != null) {
+                searchQueryBuilder.setParameter("fromDate", DateUtils.toDateString(fromDate));
+                searchQueryBuilder.setParameter("toDate", DateUtils.toDateString(toDate));
             }
 
             if (StringUtils.isNotEmpty(type)) {
@@ -88,6 +88,8 @@ public final class BasicConstants {
 
     public static final String MODEL_LOG = "log";
 
+    public static final String MODEL_JOB = "job";
+
     public static final String MODEL_SKILL = "skill";
 
     public static final String MODEL_STAFF_SKILL = "staffSkill";
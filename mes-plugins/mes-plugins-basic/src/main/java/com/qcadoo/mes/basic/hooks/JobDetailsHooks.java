@@ -0,0 +1,62 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.hooks;
+
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.constants.JobFields;
+import com.qcadoo.mes.basic.constants.JobState;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.FormComponent;
+import com.qcadoo.view.api.components.WindowComponent;
+import com.qcadoo.view.api.ribbon.RibbonActionItem;
+
+@Service
+public class JobDetailsHooks {
+
+    private static final String L_FORM = "form";
+
+    private static final String L_WINDOW = "window";
+
+    private static final String L_JOB = "job";
+
+    private static final String L_CANCEL_JOB = "cancelJob";
+
+    public void onBeforeRender(final ViewDefinitionState view) {
+        FormComponent jobForm = (FormComponent) view.getComponentByReference(L_FORM);
+        WindowComponent window = (WindowComponent) view.getComponentByReference(L_WINDOW);
+
+        RibbonActionItem cancelJob = window.getRibbon().getGroupByName(L_JOB).getItemByName(L_CANCEL_JOB);
+
+        Entity job = jobForm.getPersistedEntityWithIncludedFormValues();
+        boolean isActive = jobForm.getEntityId() != null
+                && JobState.parseString(job.getStringField(JobFields.STATE)).isActive()
+                && !job.getBooleanField(JobFields.CANCEL_REQUESTED);
+
+        cancelJob.setEnabled(isActive);
+        cancelJob.requestUpdate(true);
+    }
+
+}
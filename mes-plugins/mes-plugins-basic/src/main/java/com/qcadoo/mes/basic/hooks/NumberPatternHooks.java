@@ -2,6 +2,7 @@ package com.qcadoo.mes.basic.hooks;
 
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.NumberPatternFields;
+import com.qcadoo.mes.basic.services.NumberPatternGeneratorService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,6 +18,9 @@ public class NumberPatternHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private NumberPatternGeneratorService numberPatternGeneratorService;
+
     public void onSave(final DataDefinition dataDefinition, final Entity entity) {
         if (entity.getStringField(NumberPatternFields.NUMBER) == null) {
             entity.setField(NumberPatternFields.NUMBER, setNumberFromSequence());
@@ -26,6 +30,7 @@ public class NumberPatternHooks {
     public boolean onDelete(final DataDefinition dataDefinition, final Entity entity) {
         if (entity.getBooleanField(NumberPatternFields.USED)) {
             dropSequence(entity.getStringField(NumberPatternFields.NUMBER));
+            numberPatternGeneratorService.releaseSequence(entity);
         }
         return true;
     }
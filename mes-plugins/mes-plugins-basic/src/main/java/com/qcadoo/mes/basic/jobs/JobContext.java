@@ -0,0 +1,88 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.jobs;
+
+import java.util.Locale;
+
+public class JobContext {
+
+    private final JobService jobService;
+
+    private final Long jobId;
+
+    private final Locale locale;
+
+    private int progress;
+
+    private int total;
+
+    private String result;
+
+    JobContext(final JobService jobService, final Long jobId, final Locale locale) {
+        this.jobService = jobService;
+        this.jobId = jobId;
+        this.locale = locale;
+    }
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public Locale getLocale() {
+        return locale;
+    }
+
+    public void setTotal(final int total) {
+        this.total = total;
+        jobService.updateProgress(jobId, progress, total);
+    }
+
+    public boolean isCancelled() {
+        return jobService.isCancelRequested(jobId);
+    }
+
+    /**
+     * Executes given chunk of work in its own transaction and persists job progress afterwards.
+     * 
+     * @throws JobCancelledException
+     *             if cancellation of the job was requested before the chunk started
+     */
+    public void executeChunk(final Runnable chunk) {
+        if (isCancelled()) {
+            throw new JobCancelledException(jobId);
+        }
+        jobService.executeInNewTransaction(chunk);
+        progress++;
+        jobService.updateProgress(jobId, progress, Math.max(progress, total));
+    }
+
+    public void setResult(final String result) {
+        this.result = result;
+    }
+
+    String getResult() {
+        return result;
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.jobs;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.JobFields;
+import com.qcadoo.mes.basic.constants.JobState;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+@Service
+public class JobService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobService.class);
+
+    private static final int JOB_WORKERS = 2;
+
+    private static final int JOB_QUEUE_CAPACITY = 100;
+
+    private static final String L_ID = "id";
+
+    private static final String L_STATE = "state";
+
+    private final ThreadPoolExecutor jobsExecutor = new ThreadPoolExecutor(JOB_WORKERS, JOB_WORKERS, 0L,
+            TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(JOB_QUEUE_CAPACITY),
+            new ThreadFactoryBuilder().setNameFormat("mes-job-%d").setDaemon(true).build());
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @PreDestroy
+    public void shutdownJobsExecutor() {
+        jobsExecutor.shutdownNow();
+    }
+
+    /**
+     * Registers new job and queues given task for execution in the jobs worker pool. When called inside a transaction the
+     * task is queued after that transaction commits, so it sees all the data saved by the caller. The task runs in the tenant
+     * of the caller.
+     * 
+     * @return id of the registered job, to be shown in jobDetails view
+     */
+    public Long submit(final String name, final JobTask task) {
+        Long jobId = createJob(name).getId();
+        Locale locale = LocaleContextHolder.getLocale();
+        int tenantId = multiTenantService.getCurrentTenantId();
+        Runnable job = () -> multiTenantService.doInMultiTenantContext(tenantId, () -> runJob(jobId, locale, task));
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status == TransactionSynchronization.STATUS_COMMITTED) {
+                        queueJob(jobId, job);
+                    } else {
+                        failJob(jobId, "Transaction which submitted the job was rolled back");
+                    }
+                }
+
+            });
+        } else {
+            queueJob(jobId, job);
+        }
+        return jobId;
+    }
+
+    public void cancel(final Long jobId) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_ID, jobId);
+        parameters.put(L_STATE, JobState.PENDING.getStringValue());
+        parameters.put("running", JobState.RUNNING.getStringValue());
+        parameters.put("cancelled", JobState.CANCELLED.getStringValue());
+        jdbcTemplate.update("UPDATE basic_job SET cancelrequested = true, updatedate = now(), "
+                + "state = CASE WHEN state = :state THEN :cancelled ELSE state END, "
+                + "finishdate = CASE WHEN state = :state THEN now() ELSE finishdate END "
+                + "WHERE id = :id AND state IN (:state, :running)", parameters);
+    }
+
+    /**
+     * Marks jobs which were pending or running when the application stopped as failed - there is no worker left to
+     * finish them.
+     */
+    public void failInterruptedJobs() {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_STATE, JobState.FAILED.getStringValue());
+        parameters.put("pending", JobState.PENDING.getStringValue());
+        parameters.put("running", JobState.RUNNING.getStringValue());
+        parameters.put("errorMessage", "Job was interrupted by application restart");
+        jdbcTemplate.update("UPDATE basic_job SET state = :state, errormessage = :errorMessage, finishdate = now(), "
+                + "updatedate = now() WHERE state IN (:pending, :running)", parameters);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public Entity createJob(final String name) {
+        Entity job = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_JOB).create();
+        job.setField(JobFields.NAME, name);
+        job.setField(JobFields.STATE, JobState.PENDING.getStringValue());
+        job.setField(JobFields.PROGRESS, 0);
+        job.setField(JobFields.TOTAL, 0);
+        job.setField(JobFields.CANCEL_REQUESTED, false);
+        return job.getDataDefinition().save(job);
+    }
+
+    /**
+     * Marks job as failed in its own transaction - it may be called when the transaction which submitted the job completes.
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void failJob(final Long jobId, final String errorMessage) {
+        finishJob(jobId, JobState.FAILED, null, errorMessage);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void executeInNewTransaction(final Runnable chunk) {
+        chunk.run();
+    }
+
+    void updateProgress(final Long jobId, final int progress, final int total) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_ID, jobId);
+        parameters.put(JobFields.PROGRESS, progress);
+        parameters.put(JobFields.TOTAL, total);
+        jdbcTemplate.update("UPDATE basic_job SET progress = :progress, total = :total, updatedate = now() WHERE id = :id",
+                parameters);
+    }
+
+    boolean isCancelRequested(final Long jobId) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_ID, jobId);
+        return jdbcTemplate.queryForObject("SELECT cancelrequested FROM basic_job WHERE id = :id", parameters, Boolean.class);
+    }
+
+    private void queueJob(final Long jobId, final Runnable job) {
+        try {
+            jobsExecutor.execute(job);
+        } catch (RejectedExecutionException e) {
+            LOG.warn(String.format("Job with id = %d rejected, queue is full", jobId));
+            failJob(jobId, "Too many jobs waiting for execution");
+        }
+    }
+
+    private void runJob(final Long jobId, final Locale locale, final JobTask task) {
+        if (!startJob(jobId)) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        JobContext context = new JobContext(this, jobId, locale);
+        try {
+            task.execute(context);
+            finishJob(jobId, JobState.FINISHED, context.getResult(), null);
+        } catch (JobCancelledException e) {
+            finishJob(jobId, JobState.CANCELLED, context.getResult(), null);
+        } catch (Exception e) {
+            LOG.warn(String.format("Job with id = %d failed", jobId), e);
+            finishJob(jobId, JobState.FAILED, context.getResult(), e.getMessage());
+        }
+        LOG.info(String.format("Job with id = %d completed in %d ms", jobId, System.currentTimeMillis() - startTime));
+    }
+
+    private boolean startJob(final Long jobId) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_ID, jobId);
+        parameters.put(L_STATE, JobState.RUNNING.getStringValue());
+        parameters.put("pending", JobState.PENDING.getStringValue());
+        return jdbcTemplate.update("UPDATE basic_job SET state = :state, startdate = now(), updatedate = now() "
+                + "WHERE id = :id AND state = :pending", parameters) > 0;
+    }
+
+    private void finishJob(final Long jobId, final JobState state, final String result, final String errorMessage) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_ID, jobId);
+        parameters.put(L_STATE, state.getStringValue());
+        parameters.put(JobFields.RESULT, result);
+        parameters.put(JobFields.ERROR_MESSAGE, errorMessage);
+        jdbcTemplate.update("UPDATE basic_job SET state = :state, result = :result, errormessage = :errorMessage, "
+                + "finishdate = now(), updatedate = now() WHERE id = :id", parameters);
+    }
+
+}
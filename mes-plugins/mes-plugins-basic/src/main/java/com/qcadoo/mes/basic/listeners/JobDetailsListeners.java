@@ -0,0 +1,51 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.listeners;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.jobs.JobService;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.FormComponent;
+
+@Service
+public class JobDetailsListeners {
+
+    private static final String L_FORM = "form";
+
+    @Autowired
+    private JobService jobService;
+
+    public void cancelJob(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        FormComponent jobForm = (FormComponent) view.getComponentByReference(L_FORM);
+
+        jobService.cancel(jobForm.getEntityId());
+
+        jobForm.performEvent(view, "reset", new String[0]);
+        view.addMessage("basic.jobDetails.info.cancelRequested", ComponentState.MessageType.INFO);
+    }
+
+}
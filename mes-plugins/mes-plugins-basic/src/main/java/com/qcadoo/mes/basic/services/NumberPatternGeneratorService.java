@@ -1,42 +1,66 @@
 package com.qcadoo.mes.basic.services;
 
+import com.google.common.collect.Lists;
 import com.qcadoo.mes.basic.constants.NumberPatternElement;
 import com.qcadoo.mes.basic.constants.NumberPatternElementFields;
 import com.qcadoo.mes.basic.constants.NumberPatternFields;
 import com.qcadoo.model.api.Entity;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.time.DateFormatUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import java.text.DecimalFormat;
-import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 @Service
 public class NumberPatternGeneratorService {
 
-    private static final DecimalFormat threeCharacterNumber = new DecimalFormat("000");
-
-    private static final DecimalFormat fourCharacterNumber = new DecimalFormat("0000");
-
-    private static final DecimalFormat fiveCharacterNumber = new DecimalFormat("00000");
-
     @Autowired
-    private NamedParameterJdbcTemplate jdbcTemplate;
+    private SequenceValuesAllocator sequenceValuesAllocator;
 
     public String generateNumber(Entity numberPattern) {
-        StringBuilder number = new StringBuilder();
-        for (Entity element : numberPattern.getHasManyField(NumberPatternFields.NUMBER_PATTERN_ELEMENTS)) {
-            addElementToNumber(number, element);
-        }
-        return number.toString();
+        return generateNumbers(numberPattern, 1).get(0);
     }
 
-    private void addElementToNumber(StringBuilder number, Entity element) {
+    public List<String> generateNumbers(Entity numberPattern, int count) {
+        List<Entity> elements = numberPattern.getHasManyField(NumberPatternFields.NUMBER_PATTERN_ELEMENTS);
+        long sequenceElements = elements.stream().map(this::getElement).filter(this::isSequenceElement).count();
+        long[] sequenceNumbers = sequenceElements > 0 ? sequenceValuesAllocator.nextValues(
+                getSequenceName(numberPattern), (int) (sequenceElements * count)) : new long[0];
+
         Date now = new Date();
-        long sequenceNumber;
-        switch (NumberPatternElement.parseString(element.getStringField(NumberPatternElementFields.ELEMENT))) {
+        List<String> numbers = Lists.newArrayListWithCapacity(count);
+        int sequenceIndex = 0;
+        for (int i = 0; i < count; i++) {
+            StringBuilder number = new StringBuilder();
+            for (Entity element : elements) {
+                if (isSequenceElement(getElement(element))) {
+                    addSequenceNumberToNumber(number, getElement(element), sequenceNumbers[sequenceIndex++]);
+                } else {
+                    addElementToNumber(number, element, now);
+                }
+            }
+            numbers.add(number.toString());
+        }
+        return numbers;
+    }
+
+    public void releaseSequence(Entity numberPattern) {
+        sequenceValuesAllocator.release(getSequenceName(numberPattern));
+    }
+
+    private NumberPatternElement getElement(Entity element) {
+        return NumberPatternElement.parseString(element.getStringField(NumberPatternElementFields.ELEMENT));
+    }
+
+    private boolean isSequenceElement(NumberPatternElement element) {
+        return element == NumberPatternElement.N999 || element == NumberPatternElement.N9999
+                || element == NumberPatternElement.N99999;
+    }
+
+    private void addElementToNumber(StringBuilder number, Entity element, Date now) {
+        switch (getElement(element)) {
             case DD:
                 number.append(DateFormatUtils.format(now, "dd"));
                 break;
@@ -49,38 +73,31 @@ public class NumberPatternGeneratorService {
             case RRRR:
                 number.append(DateFormatUtils.format(now, "yyyy"));
                 break;
+            case XX:
+                number.append(element.getStringField(NumberPatternElementFields.VALUE));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void addSequenceNumberToNumber(StringBuilder number, NumberPatternElement element, long sequenceNumber) {
+        switch (element) {
             case N999:
-                sequenceNumber = getSequenceNumber(element.getBelongsToField(NumberPatternElementFields.NUMBER_PATTERN));
-                if (sequenceNumber <= 999) {
-                    number.append(threeCharacterNumber.format(sequenceNumber));
-                } else {
-                    number.append(sequenceNumber);
-                }
+                number.append(StringUtils.leftPad(String.valueOf(sequenceNumber), 3, '0'));
                 break;
             case N9999:
-                sequenceNumber = getSequenceNumber(element.getBelongsToField(NumberPatternElementFields.NUMBER_PATTERN));
-                if (sequenceNumber <= 9999) {
-                    number.append(fourCharacterNumber.format(sequenceNumber));
-                } else {
-                    number.append(sequenceNumber);
-                }
+                number.append(StringUtils.leftPad(String.valueOf(sequenceNumber), 4, '0'));
                 break;
             case N99999:
-                sequenceNumber = getSequenceNumber(element.getBelongsToField(NumberPatternElementFields.NUMBER_PATTERN));
-                if (sequenceNumber <= 99999) {
-                    number.append(fiveCharacterNumber.format(sequenceNumber));
-                } else {
-                    number.append(sequenceNumber);
-                }
+                number.append(StringUtils.leftPad(String.valueOf(sequenceNumber), 5, '0'));
+                break;
+            default:
                 break;
-            case XX:
-                number.append(element.getStringField(NumberPatternElementFields.VALUE));
         }
     }
 
-    private long getSequenceNumber(Entity numberPattern) {
-        return jdbcTemplate.queryForObject(
-                "select nextval('number_pattern_" + numberPattern.getStringField(NumberPatternFields.NUMBER) + "_seq')",
-                Collections.emptyMap(), Long.class);
+    private String getSequenceName(Entity numberPattern) {
+        return "number_pattern_" + numberPattern.getStringField(NumberPatternFields.NUMBER) + "_seq";
     }
 }
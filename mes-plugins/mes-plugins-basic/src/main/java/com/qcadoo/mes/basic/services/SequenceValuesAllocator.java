@@ -0,0 +1,180 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.services;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Hands out database sequence values reserved in blocks, so generating a number doesn't need a database round trip.
+ * 
+ * Blocks are reserved with nextval, so values are unique across application nodes, but numbers are not strictly
+ * increasing between nodes and values left in blocks on shutdown are never used. Those gaps are counted and logged.
+ */
+@Service
+public class SequenceValuesAllocator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SequenceValuesAllocator.class);
+
+    @Value("${sequenceValuesBlockSize:20}")
+    private int blockSize;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final ConcurrentMap<String, AtomicReference<SequenceBlock>> blocks = new ConcurrentHashMap<>();
+
+    private final AtomicLong reservedValues = new AtomicLong();
+
+    private final AtomicLong issuedValues = new AtomicLong();
+
+    public long nextValue(final String sequenceName) {
+        return nextValues(sequenceName, 1)[0];
+    }
+
+    /**
+     * Returns given number of values of the sequence, in the order they should be used.
+     */
+    public long[] nextValues(final String sequenceName, final int count) {
+        long[] values = new long[count];
+        AtomicReference<SequenceBlock> blockReference = blocks.computeIfAbsent(sequenceName,
+                name -> new AtomicReference<>(SequenceBlock.EMPTY));
+
+        int taken = blockReference.get().take(values, 0);
+        if (taken < count) {
+            synchronized (blockReference) {
+                taken += blockReference.get().take(values, taken);
+                if (taken < count) {
+                    long[] reserved = reserve(sequenceName, count - taken + blockSize);
+                    System.arraycopy(reserved, 0, values, taken, count - taken);
+
+                    SequenceBlock block = new SequenceBlock(reserved, count - taken);
+                    blockReference.set(block);
+                }
+            }
+        }
+        issuedValues.addAndGet(count);
+
+        return values;
+    }
+
+    /**
+     * Forgets values reserved for the sequence, e.g. when it's dropped.
+     */
+    public void release(final String sequenceName) {
+        AtomicReference<SequenceBlock> blockReference = blocks.remove(sequenceName);
+
+        if (blockReference != null) {
+            reportGaps(sequenceName, blockReference.get().getRemaining());
+        }
+    }
+
+    public long getReservedValues() {
+        return reservedValues.get();
+    }
+
+    public long getIssuedValues() {
+        return issuedValues.get();
+    }
+
+    @PreDestroy
+    public void releaseAll() {
+        blocks.keySet().forEach(this::release);
+    }
+
+    private long[] reserve(final String sequenceName, final int count) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put("count", count);
+
+        List<Long> values = jdbcTemplate.queryForList(
+                "SELECT nextval('" + sequenceName + "') FROM generate_series(1, :count)", parameters, Long.class);
+        reservedValues.addAndGet(values.size());
+
+        return values.stream().sorted().mapToLong(Long::longValue).toArray();
+    }
+
+    private void reportGaps(final String sequenceName, final int unusedValues) {
+        if (unusedValues > 0) {
+            LOG.info(String.format("%d reserved values of sequence %s were not used and leave a gap", unusedValues,
+                    sequenceName));
+        }
+    }
+
+    private static final class SequenceBlock {
+
+        private static final SequenceBlock EMPTY = new SequenceBlock(new long[0], 0);
+
+        private final long[] values;
+
+        private final AtomicInteger next;
+
+        private SequenceBlock(final long[] values, final int next) {
+            this.values = values;
+            this.next = new AtomicInteger(next);
+        }
+
+        /**
+         * Copies available values to the target array, starting at given offset, without locking.
+         * 
+         * @return number of copied values
+         */
+        private int take(final long[] target, final int offset) {
+            int wanted = target.length - offset;
+            while (true) {
+                int current = next.get();
+                int available = Math.min(wanted, values.length - current);
+                if (available <= 0) {
+                    return 0;
+                }
+                if (next.compareAndSet(current, current + available)) {
+                    System.arraycopy(values, current, target, offset, available);
+                    return available;
+                }
+            }
+        }
+
+        private int getRemaining() {
+            return Math.max(values.length - next.get(), 0);
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+/**
+ * Immutable, sorted and non-overlapping set of working intervals (in epoch milliseconds) with cumulative working time, used
+ * to move a date forward by given amount of working time without walking through the calendar day by day.
+ */
+public final class WorkingCalendar {
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    private final long[] cumulativeDurations;
+
+    private WorkingCalendar(final long[] starts, final long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        this.cumulativeDurations = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            cumulativeDurations[i + 1] = cumulativeDurations[i] + ends[i] - starts[i];
+        }
+    }
+
+    /**
+     * Builds calendar from given (possibly unsorted and overlapping) ranges, trimmed to window [windowStart, windowEnd).
+     * Overlapping ranges, e.g. of two shifts working at the same time, are counted once.
+     */
+    public static WorkingCalendar of(final List<DateTimeRange> ranges, final long windowStart, final long windowEnd) {
+        List<long[]> intervals = Lists.newArrayListWithCapacity(ranges.size());
+
+        for (DateTimeRange range : ranges) {
+            long from = Math.max(range.getFrom().getMillis(), windowStart);
+            long to = Math.min(range.getTo().getMillis(), windowEnd);
+
+            if (from < to) {
+                intervals.add(new long[] { from, to });
+            }
+        }
+
+        intervals.sort(Comparator.comparingLong(interval -> interval[0]));
+
+        long[] starts = new long[intervals.size()];
+        long[] ends = new long[intervals.size()];
+        int size = 0;
+
+        for (long[] interval : intervals) {
+            if (size > 0 && interval[0] <= ends[size - 1]) {
+                ends[size - 1] = Math.max(ends[size - 1], interval[1]);
+            } else {
+                starts[size] = interval[0];
+                ends[size] = interval[1];
+                size++;
+            }
+        }
+
+        return new WorkingCalendar(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * @return working time (in milliseconds) available in this calendar after given moment
+     */
+    public long getWorkingMillisAfter(final long moment) {
+        int index = findFirstEndingAfter(moment);
+
+        if (index == starts.length) {
+            return 0L;
+        }
+
+        return cumulativeDurations[starts.length] - cumulativeDurations[index] - Math.max(0L, moment - starts[index]);
+    }
+
+    /**
+     * @return moment (in epoch milliseconds) at which given amount of working time, counted from given moment, is reached or
+     *         null if this calendar has not enough working time after given moment
+     */
+    public Long addWorkingMillis(final long moment, final long millis) {
+        if (millis <= 0L) {
+            return moment;
+        }
+
+        int index = findFirstEndingAfter(moment);
+
+        if (index == starts.length) {
+            return null;
+        }
+
+        long target = cumulativeDurations[index] + Math.max(0L, moment - starts[index]) + millis;
+
+        if (target > cumulativeDurations[starts.length]) {
+            return null;
+        }
+
+        int position = Arrays.binarySearch(cumulativeDurations, index, cumulativeDurations.length, target);
+
+        if (position >= 0) {
+            return position == 0 ? starts[0] : ends[position - 1];
+        }
+
+        int interval = -position - 2;
+
+        return starts[interval] + target - cumulativeDurations[interval];
+    }
+
+    private int findFirstEndingAfter(final long moment) {
+        int position = Arrays.binarySearch(ends, moment);
+
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+}
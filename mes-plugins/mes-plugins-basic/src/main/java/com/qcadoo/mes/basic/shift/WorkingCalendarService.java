@@ -0,0 +1,189 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.Days;
+import org.joda.time.LocalDate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Keeps working calendars of production lines, split into chunks of {@link #CHUNK_DAYS} days. Chunks are built from shifts
+ * and timetable exceptions on first use and dropped when any of them changes (see shift, shiftTimetableException and
+ * productionLine hooks) or after {@link #EXPIRATION_MINUTES}, which bounds staleness when data is changed on other node.
+ */
+@Service
+public class WorkingCalendarService {
+
+    private static final int CHUNK_DAYS = 14;
+
+    private static final long EXPIRATION_MINUTES = 10;
+
+    private static final long MAXIMUM_SIZE = 5000;
+
+    private static final LocalDate EPOCH = new LocalDate(1970, 1, 1);
+
+    private final Cache<CalendarKey, WorkingCalendar> calendars = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRATION_MINUTES, TimeUnit.MINUTES).build();
+
+    @Autowired
+    private ShiftsService shiftsService;
+
+    @Autowired
+    private ShiftExceptionService shiftExceptionService;
+
+    /**
+     * @return date at which given amount of working time of production line, counted from dateFrom, is reached or empty when
+     *         it is not reached within maxDays
+     */
+    public Optional<Date> addWorkingMillis(final Entity productionLine, final Date dateFrom, final long millis,
+            final int maxDays) {
+        long moment = dateFrom.getTime();
+        long leftMillis = millis;
+
+        LocalDate chunkStart = getChunkStart(new LocalDate(moment));
+        LocalDate lastDay = new LocalDate(moment).plusDays(maxDays);
+
+        while (!chunkStart.isAfter(lastDay)) {
+            WorkingCalendar calendar = getCalendar(productionLine, chunkStart);
+
+            Long dateTo = calendar.addWorkingMillis(moment, leftMillis);
+
+            if (Objects.nonNull(dateTo)) {
+                return Optional.of(new Date(dateTo));
+            }
+
+            leftMillis -= calendar.getWorkingMillisAfter(moment);
+
+            chunkStart = chunkStart.plusDays(CHUNK_DAYS);
+            moment = Math.max(moment, chunkStart.toDateTimeAtStartOfDay().getMillis());
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Drops all calendars now and once more after current transaction completes, as calendars built by other transactions in
+     * the meantime still see shifts and timetable exceptions from before the change.
+     */
+    public void invalidate() {
+        calendars.invalidateAll();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    calendars.invalidateAll();
+                }
+
+            });
+        }
+    }
+
+    private WorkingCalendar getCalendar(final Entity productionLine, final LocalDate chunkStart) {
+        CalendarKey key = new CalendarKey(Objects.isNull(productionLine) ? null : productionLine.getId(), chunkStart);
+
+        try {
+            return calendars.get(key, () -> buildCalendar(productionLine, chunkStart));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private WorkingCalendar buildCalendar(final Entity productionLine, final LocalDate chunkStart) {
+        List<Shift> shifts = shiftsService.findAll(productionLine);
+        List<DateTimeRange> ranges = Lists.newArrayList();
+
+        LocalDate chunkEnd = chunkStart.plusDays(CHUNK_DAYS);
+
+        for (LocalDate day = chunkStart.minusDays(1); day.isBefore(chunkEnd); day = day.plusDays(1)) {
+            DateTime dateOfDay = day.toDateTimeAtStartOfDay();
+
+            for (Shift shift : shifts) {
+                ranges.addAll(shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, dateOfDay));
+            }
+        }
+
+        return WorkingCalendar.of(ranges, chunkStart.toDateTimeAtStartOfDay().getMillis(),
+                chunkEnd.toDateTimeAtStartOfDay().getMillis());
+    }
+
+    private LocalDate getChunkStart(final LocalDate day) {
+        int days = Days.daysBetween(EPOCH, day).getDays();
+
+        return day.minusDays(Math.floorMod(days, CHUNK_DAYS));
+    }
+
+    private static final class CalendarKey {
+
+        private final Long productionLineId;
+
+        private final LocalDate chunkStart;
+
+        private CalendarKey(final Long productionLineId, final LocalDate chunkStart) {
+            this.productionLineId = productionLineId;
+            this.chunkStart = chunkStart;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CalendarKey)) {
+                return false;
+            }
+
+            CalendarKey other = (CalendarKey) obj;
+
+            return Objects.equals(productionLineId, other.productionLineId) && chunkStart.equals(other.chunkStart);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productionLineId, chunkStart);
+        }
+
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.constants.TimetableExceptionType;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class ShiftExceptionServiceTest {
+
+    private static final DateTime L_MONDAY = new DateTime(2013, 9, 2, 0, 0);
+
+    private static final int L_DAYS = 14;
+
+    private ShiftExceptionService shiftExceptionService;
+
+    @Mock
+    private TimetableExceptionService timetableExceptionService;
+
+    @Mock
+    private Entity shiftEntity, productionLine;
+
+    private List<Entity> timetableExceptions;
+
+    private Shift shift;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        shiftExceptionService = new ShiftExceptionService();
+        ReflectionTestUtils.setField(shiftExceptionService, "timetableExceptionService", timetableExceptionService);
+
+        given(shiftEntity.copy()).willReturn(shiftEntity);
+        given(shiftEntity.getBooleanField(anyString())).willReturn(true);
+        given(shiftEntity.getBooleanField(ShiftFields.SATURDAY_WORKING)).willReturn(false);
+        given(shiftEntity.getBooleanField(ShiftFields.SUNDAY_WORKING)).willReturn(false);
+        given(shiftEntity.getStringField(anyString())).willReturn("6:00-14:00, 22:00-2:00");
+
+        timetableExceptions = Lists.newArrayList(
+                mockTimetableException(TimetableExceptionType.FREE_TIME, L_MONDAY.plusDays(1).plusHours(8),
+                        L_MONDAY.plusDays(1).plusHours(10)),
+                mockTimetableException(TimetableExceptionType.WORK_TIME, L_MONDAY.plusDays(5).plusHours(8),
+                        L_MONDAY.plusDays(5).plusHours(12)),
+                mockTimetableException(TimetableExceptionType.FREE_TIME, L_MONDAY.plusDays(7).plusHours(12),
+                        L_MONDAY.plusDays(9).plusHours(7)),
+                mockTimetableException(TimetableExceptionType.WORK_TIME, L_MONDAY.plusDays(10).plusHours(14),
+                        L_MONDAY.plusDays(10).plusHours(18)),
+                mockTimetableException(TimetableExceptionType.FREE_TIME, L_MONDAY.plusDays(20),
+                        L_MONDAY.plusDays(21)));
+
+        EntityList timetableExceptionsList = mockEntityList(timetableExceptions);
+        given(shiftEntity.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS)).willReturn(timetableExceptionsList);
+
+        given(timetableExceptionService.findFor(eq(productionLine), eq(shiftEntity), any(Date.class))).willAnswer(
+                new Answer<List<Entity>>() {
+
+                    @Override
+                    public List<Entity> answer(final InvocationOnMock invocation) throws Throwable {
+                        Date date = (Date) invocation.getArguments()[2];
+
+                        return findTimetableExceptions(date, date);
+                    }
+                });
+        given(timetableExceptionService.findFor(eq(productionLine), eq(shiftEntity), any(Date.class), any(Date.class)))
+                .willAnswer(new Answer<List<Entity>>() {
+
+                    @Override
+                    public List<Entity> answer(final InvocationOnMock invocation) throws Throwable {
+                        return findTimetableExceptions((Date) invocation.getArguments()[2],
+                                (Date) invocation.getArguments()[3]);
+                    }
+                });
+
+        shift = new Shift(shiftEntity);
+    }
+
+    private List<Entity> findTimetableExceptions(final Date fromDate, final Date toDate) {
+        List<Entity> foundTimetableExceptions = Lists.newArrayList();
+
+        for (Entity timetableException : timetableExceptions) {
+            if (DateUtils.toDateString(timetableException.getDateField(ShiftTimetableExceptionFields.FROM_DATE)).compareTo(
+                    DateUtils.toDateString(toDate)) <= 0
+                    && DateUtils.toDateString(timetableException.getDateField(ShiftTimetableExceptionFields.TO_DATE))
+                            .compareTo(DateUtils.toDateString(fromDate)) >= 0) {
+                foundTimetableExceptions.add(timetableException);
+            }
+        }
+
+        return foundTimetableExceptions;
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return entities.iterator();
+            }
+        });
+        given(entityList.isEmpty()).willReturn(entities.isEmpty());
+        return entityList;
+    }
+
+    private Entity mockTimetableException(final TimetableExceptionType type, final DateTime from, final DateTime to) {
+        Entity timetableException = mock(Entity.class);
+        given(timetableException.getStringField(ShiftTimetableExceptionFields.TYPE)).willReturn(type.getStringValue());
+        given(timetableException.getDateField(ShiftTimetableExceptionFields.FROM_DATE)).willReturn(from.toDate());
+        given(timetableException.getDateField(ShiftTimetableExceptionFields.TO_DATE)).willReturn(to.toDate());
+        return timetableException;
+    }
+
+    @Test
+    public final void shouldReturnSameWorkTimesForPeriodAsForEachDayOfProductionLine() {
+        // when
+        List<List<DateTimeRange>> shiftWorkDateTimes = shiftExceptionService.getShiftWorkDateTimes(productionLine, shift,
+                L_MONDAY, L_DAYS);
+
+        // then
+        assertEquals(L_DAYS, shiftWorkDateTimes.size());
+
+        for (int day = 0; day < L_DAYS; day++) {
+            assertEquals(shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, L_MONDAY.plusDays(day)),
+                    shiftWorkDateTimes.get(day));
+        }
+
+        verify(timetableExceptionService).findFor(productionLine, shiftEntity, L_MONDAY.toDate(),
+                L_MONDAY.plusDays(L_DAYS - 1).toDate());
+        verify(timetableExceptionService, times(L_DAYS)).findFor(eq(productionLine), eq(shiftEntity), any(Date.class));
+    }
+
+    @Test
+    public final void shouldReturnSameWorkTimesForPeriodAsForEachDayWithoutProductionLine() {
+        // when
+        List<List<DateTimeRange>> shiftWorkDateTimes = shiftExceptionService.getShiftWorkDateTimes(null, shift, L_MONDAY,
+                L_DAYS);
+
+        // then
+        assertEquals(L_DAYS, shiftWorkDateTimes.size());
+
+        for (int day = 0; day < L_DAYS; day++) {
+            assertEquals(shiftExceptionService.getShiftWorkDateTimes(null, shift, L_MONDAY.plusDays(day)),
+                    shiftWorkDateTimes.get(day));
+        }
+
+        verify(timetableExceptionService, never()).findFor(any(Entity.class), any(Entity.class), any(Date.class),
+                any(Date.class));
+    }
+
+    @Test
+    public final void shouldApplyTimetableExceptionsOfPeriod() {
+        // when
+        List<List<DateTimeRange>> shiftWorkDateTimes = shiftExceptionService.getShiftWorkDateTimes(productionLine, shift,
+                L_MONDAY, L_DAYS);
+
+        // then
+        assertEquals(2, shiftWorkDateTimes.get(0).size());
+        assertEquals(3, shiftWorkDateTimes.get(1).size());
+        assertEquals(Lists.newArrayList(new DateTimeRange(L_MONDAY.plusDays(5).plusHours(8).toDate(), L_MONDAY.plusDays(5)
+                .plusHours(12).toDate())), shiftWorkDateTimes.get(5));
+        assertEquals(0, shiftWorkDateTimes.get(6).size());
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchQueryBuilder;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class TimetableExceptionServiceTest {
+
+    private static final DateTime L_DAY = new DateTime(2013, 9, 2, 10, 0);
+
+    private TimetableExceptionService timetableExceptionService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private DataDefinition shiftTimetableExceptionDD;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Mock
+    private Entity productionLine, shift;
+
+    private SearchQueryBuilder searchQueryBuilder;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        timetableExceptionService = new TimetableExceptionService();
+        ReflectionTestUtils.setField(timetableExceptionService, "dataDefinitionService", dataDefinitionService);
+
+        searchQueryBuilder = mock(SearchQueryBuilder.class, new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                if (invocation.getMethod().getReturnType().isInstance(invocation.getMock())) {
+                    return invocation.getMock();
+                }
+
+                return null;
+            }
+        });
+
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_SHIFT_TIMETABLE_EXCEPTION))
+                .willReturn(shiftTimetableExceptionDD);
+        given(shiftTimetableExceptionDD.find(anyString())).willReturn(searchQueryBuilder);
+        given(searchQueryBuilder.list()).willReturn(searchResult);
+
+        given(productionLine.getId()).willReturn(1L);
+        given(shift.getId()).willReturn(2L);
+    }
+
+    @Test
+    public final void shouldQueryPeriodOfOneDaySameAsDay() {
+        // when
+        timetableExceptionService.findFor(productionLine, shift, L_DAY.toDate());
+        timetableExceptionService.findFor(productionLine, shift, L_DAY.withTimeAtStartOfDay().toDate(),
+                L_DAY.plusHours(12).toDate());
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(shiftTimetableExceptionDD, times(2)).find(queryCaptor.capture());
+
+        List<String> queries = queryCaptor.getAllValues();
+
+        assertEquals(queries.get(0), queries.get(1));
+        verify(searchQueryBuilder, times(2)).setParameter("fromDate", DateUtils.toDateString(L_DAY.toDate()));
+        verify(searchQueryBuilder, times(2)).setParameter("toDate", DateUtils.toDateString(L_DAY.toDate()));
+    }
+
+    @Test
+    public final void shouldQueryExceptionsOverlappingPeriod() {
+        // when
+        timetableExceptionService.findFor(productionLine, shift, L_DAY.toDate(), L_DAY.plusDays(13).toDate());
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+
+        verify(shiftTimetableExceptionDD).find(queryCaptor.capture());
+
+        assertEquals("SELECT timetableException FROM #basic_shiftTimetableException timetableException"
+                + " JOIN timetableException.productionLines productionLine JOIN timetableException.shifts shift"
+                + " WHERE productionLine.id IN (:productionLines) AND shift.id IN (:shifts)"
+                + " AND to_char(timetableException.fromDate,'yyyy-MM-dd') <= :toDate"
+                + " AND to_char(timetableException.toDate,'yyyy-MM-dd') >= :fromDate", queryCaptor.getValue());
+        verify(searchQueryBuilder).setParameter("fromDate", DateUtils.toDateString(L_DAY.toDate()));
+        verify(searchQueryBuilder).setParameter("toDate", DateUtils.toDateString(L_DAY.plusDays(13).toDate()));
+    }
+
+}
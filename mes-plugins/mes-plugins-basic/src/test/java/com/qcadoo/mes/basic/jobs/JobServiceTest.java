@@ -0,0 +1,308 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.jobs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.basic.constants.JobFields;
+import com.qcadoo.mes.basic.constants.JobState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class JobServiceTest {
+
+    private static final int TENANT_ID = 2;
+
+    private static final String L_FINISH_JOB_QUERY_PREFIX = "UPDATE basic_job SET state = :state, result";
+
+    private JobService jobService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private DataDefinition jobDD;
+
+    private final AtomicLong jobIds = new AtomicLong();
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        jobService = spy(new JobService());
+        ReflectionTestUtils.setField(jobService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(jobService, "multiTenantService", multiTenantService);
+        ReflectionTestUtils.setField(jobService, "jdbcTemplate", jdbcTemplate);
+
+        given(dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_JOB)).willReturn(jobDD);
+        given(jobDD.create()).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                Entity job = mock(Entity.class);
+                given(job.getDataDefinition()).willReturn(jobDD);
+                return job;
+            }
+        });
+        given(jobDD.save(any(Entity.class))).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                Entity job = (Entity) invocation.getArguments()[0];
+                given(job.getId()).willReturn(jobIds.incrementAndGet());
+                return job;
+            }
+        });
+
+        given(multiTenantService.getCurrentTenantId()).willReturn(TENANT_ID);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+                return null;
+            }
+        }).when(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+
+        given(jdbcTemplate.update(anyString(), anyMap())).willReturn(1);
+        given(jdbcTemplate.queryForObject(anyString(), anyMap(), eq(Boolean.class))).willReturn(false);
+    }
+
+    @After
+    public final void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private void awaitJobs() throws InterruptedException {
+        ThreadPoolExecutor jobsExecutor = (ThreadPoolExecutor) ReflectionTestUtils.getField(jobService, "jobsExecutor");
+        jobsExecutor.shutdown();
+        assertTrue(jobsExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> getFinishJobParameters() {
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(jdbcTemplate, atLeast(0)).update(queryCaptor.capture(), parametersCaptor.capture());
+
+        List<Map<String, Object>> finishJobParameters = Lists.newArrayList();
+        for (int i = 0; i < queryCaptor.getAllValues().size(); i++) {
+            if (queryCaptor.getAllValues().get(i).startsWith(L_FINISH_JOB_QUERY_PREFIX)) {
+                finishJobParameters.add(parametersCaptor.getAllValues().get(i));
+            }
+        }
+        return finishJobParameters;
+    }
+
+    @Test
+    public final void shouldRunSubmittedJobInTenantOfCaller() throws InterruptedException {
+        // given
+        JobTask task = context -> context.setResult("done");
+
+        // when
+        Long jobId = jobService.submit("job", task);
+        awaitJobs();
+
+        // then
+        verify(multiTenantService).doInMultiTenantContext(eq(TENANT_ID), any(MultiTenantCallback.class));
+        verify(multiTenantService, never()).doInMultiTenantContext(any(MultiTenantCallback.class));
+
+        List<Map<String, Object>> finishJobParameters = getFinishJobParameters();
+        assertEquals(1, finishJobParameters.size());
+        assertEquals(jobId, finishJobParameters.get(0).get("id"));
+        assertEquals(JobState.FINISHED.getStringValue(), finishJobParameters.get(0).get("state"));
+        assertEquals("done", finishJobParameters.get(0).get(JobFields.RESULT));
+    }
+
+    @Test
+    public final void shouldQueueJobAfterSubmittingTransactionCommits() throws InterruptedException {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+        JobTask task = mock(JobTask.class);
+
+        // when
+        jobService.submit("job", task);
+
+        // then
+        verify(multiTenantService, never()).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        awaitJobs();
+
+        verify(task).execute(any(JobContext.class));
+        verify(jobService, never()).failJob(any(Long.class), anyString());
+    }
+
+    @Test
+    public final void shouldFailJobInNewTransactionWhenSubmittingTransactionIsRolledBack() throws InterruptedException {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+        JobTask task = mock(JobTask.class);
+
+        // when
+        Long jobId = jobService.submit("job", task);
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+        }
+        awaitJobs();
+
+        // then
+        verify(jobService).failJob(jobId, "Transaction which submitted the job was rolled back");
+        verify(task, never()).execute(any(JobContext.class));
+        assertEquals(JobState.FAILED.getStringValue(), getFinishJobParameters().get(0).get("state"));
+    }
+
+    @Test
+    public final void shouldFailJobWhenQueueIsFull() throws InterruptedException {
+        // given
+        CountDownLatch release = new CountDownLatch(1);
+        JobTask blockingTask = context -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        for (int i = 0; i < 2 + 100; i++) {
+            jobService.submit("job", blockingTask);
+        }
+
+        // when
+        Long rejectedJobId = jobService.submit("job", blockingTask);
+        release.countDown();
+        awaitJobs();
+
+        // then
+        verify(jobService).failJob(rejectedJobId, "Too many jobs waiting for execution");
+        verify(multiTenantService, times(102)).doInMultiTenantContext(eq(TENANT_ID), any(MultiTenantCallback.class));
+    }
+
+    @Test
+    public final void shouldCancelPendingOrRunningJob() {
+        // when
+        jobService.cancel(7L);
+
+        // then
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(jdbcTemplate).update(queryCaptor.capture(), parametersCaptor.capture());
+        assertTrue(queryCaptor.getValue().contains("SET cancelrequested = true"));
+        assertTrue(queryCaptor.getValue().endsWith("WHERE id = :id AND state IN (:state, :running)"));
+        assertEquals(7L, parametersCaptor.getValue().get("id"));
+        assertEquals(JobState.PENDING.getStringValue(), parametersCaptor.getValue().get("state"));
+        assertEquals(JobState.CANCELLED.getStringValue(), parametersCaptor.getValue().get("cancelled"));
+    }
+
+    @Test
+    public final void shouldExecuteEachChunkInNewTransactionAndPersistProgress() {
+        // given
+        JobContext context = new JobContext(jobService, 5L, Locale.ENGLISH);
+        context.setTotal(2);
+        Runnable firstChunk = mock(Runnable.class);
+        Runnable secondChunk = mock(Runnable.class);
+
+        // when
+        context.executeChunk(firstChunk);
+        context.executeChunk(secondChunk);
+
+        // then
+        verify(jobService).executeInNewTransaction(firstChunk);
+        verify(jobService).executeInNewTransaction(secondChunk);
+        verify(firstChunk).run();
+        verify(secondChunk).run();
+        verify(jobService).updateProgress(5L, 1, 2);
+        verify(jobService).updateProgress(5L, 2, 2);
+    }
+
+    @Test
+    public final void shouldNotExecuteChunkOfCancelledJob() {
+        // given
+        given(jdbcTemplate.queryForObject(anyString(), anyMap(), eq(Boolean.class))).willReturn(true);
+        JobContext context = new JobContext(jobService, 5L, Locale.ENGLISH);
+        Runnable chunk = mock(Runnable.class);
+
+        // when
+        try {
+            context.executeChunk(chunk);
+        } catch (JobCancelledException e) {
+            // then
+            verify(chunk, never()).run();
+            verify(jobService, never()).executeInNewTransaction(any(Runnable.class));
+            return;
+        }
+        fail("JobCancelledException expected");
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.services;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+
+public class SequenceValuesAllocatorTest {
+
+    private static final String L_SEQUENCE = "number_pattern_000001_seq";
+
+    private SequenceValuesAllocator sequenceValuesAllocator;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        sequenceValuesAllocator = new SequenceValuesAllocator();
+        ReflectionTestUtils.setField(sequenceValuesAllocator, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(sequenceValuesAllocator, "blockSize", 5);
+
+        when(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).thenAnswer(invocation -> {
+            int count = (Integer) ((Map<String, Object>) invocation.getArguments()[1]).get("count");
+            List<Long> values = Lists.newArrayList();
+            for (int i = 0; i < count; i++) {
+                values.add(sequence.incrementAndGet());
+            }
+            return values;
+        });
+    }
+
+    @Test
+    public final void shouldHandOutReservedValuesWithoutQueryingDatabase() {
+        // when
+        long[] values = new long[6];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = sequenceValuesAllocator.nextValue(L_SEQUENCE);
+        }
+
+        // then
+        assertArrayEquals(new long[] { 1, 2, 3, 4, 5, 6 }, values);
+        verify(jdbcTemplate, times(1)).queryForList(anyString(), anyMap(), eq(Long.class));
+    }
+
+    @Test
+    public final void shouldReturnRequestedNumberOfValues() {
+        // given
+        sequenceValuesAllocator.nextValue(L_SEQUENCE);
+
+        // when
+        long[] values = sequenceValuesAllocator.nextValues(L_SEQUENCE, 8);
+
+        // then
+        assertArrayEquals(new long[] { 2, 3, 4, 5, 6, 7, 8, 9 }, values);
+        assertEquals(9, sequenceValuesAllocator.getIssuedValues());
+        assertEquals(14, sequenceValuesAllocator.getReservedValues());
+    }
+
+    @Test
+    public final void shouldReserveNewBlockAfterRelease() {
+        // given
+        sequenceValuesAllocator.nextValue(L_SEQUENCE);
+
+        // when
+        sequenceValuesAllocator.release(L_SEQUENCE);
+        long value = sequenceValuesAllocator.nextValue(L_SEQUENCE);
+
+        // then
+        assertEquals(7, value);
+    }
+
+    @Test
+    public final void shouldNotHandOutSameValueTwiceToConcurrentCallers() throws InterruptedException {
+        // given
+        Set<Long> values = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        // when
+        for (int i = 0; i < 8; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    for (long value : sequenceValuesAllocator.nextValues(L_SEQUENCE, 1 + j % 3)) {
+                        values.add(value);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        // then
+        assertEquals(sequenceValuesAllocator.getIssuedValues(), values.size());
+        assertEquals(8 * (334 * 1 + 333 * 2 + 333 * 3), values.size());
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.joda.time.DateTime;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+
+public class WorkingCalendarTest {
+
+    private static final DateTime DAY = new DateTime(2020, 3, 2, 0, 0, 0, 0);
+
+    private static final long HOUR = 3600000L;
+
+    private static final long WINDOW_START = DAY.getMillis();
+
+    private static final long WINDOW_END = DAY.plusDays(1).getMillis();
+
+    @Test
+    public final void shouldAddWorkingTimeWithinAndAcrossIntervals() {
+        // given
+        WorkingCalendar calendar = WorkingCalendar.of(
+                Lists.newArrayList(range(14, 22), range(6, 14)), WINDOW_START, WINDOW_END);
+
+        // when & then
+        assertEquals(Long.valueOf(at(8)), calendar.addWorkingMillis(at(0), 2 * HOUR));
+        assertEquals(Long.valueOf(at(14)), calendar.addWorkingMillis(at(10), 4 * HOUR));
+        assertEquals(Long.valueOf(at(20)), calendar.addWorkingMillis(at(10), 10 * HOUR));
+        assertEquals(Long.valueOf(at(22)), calendar.addWorkingMillis(at(6), 16 * HOUR));
+        assertNull(calendar.addWorkingMillis(at(6), 16 * HOUR + 1));
+    }
+
+    @Test
+    public final void shouldCountOverlappingIntervalsOnce() {
+        // given
+        WorkingCalendar calendar = WorkingCalendar.of(
+                Lists.newArrayList(range(6, 14), range(10, 18), range(20, 22)), WINDOW_START, WINDOW_END);
+
+        // when & then
+        assertEquals(14 * HOUR, calendar.getWorkingMillisAfter(at(0)));
+        assertEquals(5 * HOUR, calendar.getWorkingMillisAfter(at(15)));
+        assertEquals(0L, calendar.getWorkingMillisAfter(at(22)));
+        assertEquals(Long.valueOf(at(21)), calendar.addWorkingMillis(at(0), 13 * HOUR));
+    }
+
+    @Test
+    public final void shouldTrimIntervalsToWindow() {
+        // given
+        DateTimeRange nightShift = new DateTimeRange(DAY.minusHours(2), DAY.plusHours(6));
+
+        // when
+        WorkingCalendar calendar = WorkingCalendar.of(Lists.newArrayList(nightShift, range(22, 30)), WINDOW_START,
+                WINDOW_END);
+
+        // then
+        assertEquals(8 * HOUR, calendar.getWorkingMillisAfter(WINDOW_START));
+    }
+
+    @Test
+    public final void shouldBeEmptyWithoutIntervals() {
+        // when
+        WorkingCalendar calendar = WorkingCalendar.of(Collections.emptyList(), WINDOW_START, WINDOW_END);
+
+        // then
+        assertTrue(calendar.isEmpty());
+        assertNull(calendar.addWorkingMillis(WINDOW_START, HOUR));
+    }
+
+    private DateTimeRange range(final int fromHour, final int toHour) {
+        return new DateTimeRange(DAY.plusHours(fromHour), DAY.plusHours(toHour));
+    }
+
+    private long at(final int hour) {
+        return DAY.plusHours(hour).getMillis();
+    }
+
+}
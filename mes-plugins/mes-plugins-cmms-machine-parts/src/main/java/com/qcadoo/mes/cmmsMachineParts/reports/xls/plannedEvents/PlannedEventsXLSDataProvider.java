@@ -1,20 +1,25 @@
 package com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+import javax.annotation.PostConstruct;
+
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
 import com.qcadoo.mes.cmmsMachineParts.constants.CmmsMachinePartsConstants;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.MachinePartForEventDTO;
 import com.qcadoo.mes.cmmsMachineParts.reports.xls.plannedEvents.dto.PlannedEventDTO;
@@ -32,7 +37,18 @@ public class PlannedEventsXLSDataProvider {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
-    private final static String ORDER_BY = " ORDER BY event.id";
+    private NamedParameterJdbcTemplate streamingJdbcTemplate;
+
+    @PostConstruct
+    public void init() {
+        JdbcTemplate streamingTemplate = new JdbcTemplate(((JdbcTemplate) jdbcTemplate.getJdbcOperations()).getDataSource());
+        streamingTemplate.setFetchSize(STREAMING_FETCH_SIZE);
+        streamingJdbcTemplate = new NamedParameterJdbcTemplate(streamingTemplate);
+    }
+
+    private static final int STREAMING_FETCH_SIZE = 1000;
+
+    private final static String ORDER_BY = " ORDER BY event.\"number\" COLLATE \"C\", event.id";
 
     private final static String QUERY = "SELECT event.id as id, event.\"number\" as number, event.type as type, event.description as description, event.state as state, event.ownername as ownerName,\n"
             + "event.plannedseparately as plannedSeparately, event.requiresshutdown as requiresShutdown, event.basedon as basedOn, event.solutiondescription as solutionDescription, \n"
@@ -64,8 +80,12 @@ public class PlannedEventsXLSDataProvider {
             + "LEFT JOIN materialflowresources_position docpos ON docpos.document_id = doc.id\n"
             + "LEFT JOIN basic_product product ON docpos.product_id = product.id\n";
 
-    public List<PlannedEventDTO> getEvents(final Map<String, Object> filters) {
-        List<PlannedEventDTO> events;
+    /**
+     * Passes events to the consumer in order of their numbers, each one as soon as all its rows are read. Rows are read
+     * through a cursor, so only rows of one event are kept in memory.
+     */
+    @Transactional(readOnly = true)
+    public void getEvents(final Map<String, Object> filters, final Consumer<PlannedEventDTO> consumer) {
         Map<String, String> _filter = (Map<String, String>) filters.get("filtersMap");
         Long helperModelId = Long.valueOf(_filter.get("PLANED_EVENT_FILTER"));
         Entity helperEntity = dataDefinitionService.get(CmmsMachinePartsConstants.PLUGIN_IDENTIFIER, "plannedEventXLSHelper")
@@ -75,30 +95,35 @@ public class PlannedEventsXLSDataProvider {
             _query = QUERY + " where " + PlannedEventsFilterUtils.processFilter(helperEntity.getStringField("query"));
         }
         _query = _query + ORDER_BY;
-        events = jdbcTemplate.query(_query, new BeanPropertyRowMapper(PlannedEventDTO.class));
 
-        Multimap<Long, PlannedEventDTO> eventsMap = Multimaps.index(events, PlannedEventDTO::getId);
-
-        Map<Long, PlannedEventDTO> _events = Maps.newHashMap();
-        for (Long eID : eventsMap.keySet()) {
-            _events.put(eID, eventsMap.get(eID).iterator().next());
+        RowMapper<PlannedEventDTO> rowMapper = BeanPropertyRowMapper.newInstance(PlannedEventDTO.class);
+        List<PlannedEventDTO> _subEvents = Lists.newArrayList();
+        streamingJdbcTemplate.query(_query, Collections.emptyMap(), (RowCallbackHandler) resultSet -> {
+            PlannedEventDTO row = rowMapper.mapRow(resultSet, resultSet.getRow());
+            if (!_subEvents.isEmpty() && !_subEvents.get(0).getId().equals(row.getId())) {
+                consumer.accept(toEvent(_subEvents));
+                _subEvents.clear();
+            }
+            _subEvents.add(row);
+        });
+        if (!_subEvents.isEmpty()) {
+            consumer.accept(toEvent(_subEvents));
         }
-        List<PlannedEventDTO> finalEvents = Lists.newArrayList(_events.values());
-        for (PlannedEventDTO plannedEventDTO : finalEvents) {
-            List<PlannedEventDTO> _subEvents = Lists.newArrayList(eventsMap.get(plannedEventDTO.getId()));
+    }
 
-            List<PlannedEventRealizationDTO> realizationDTOs = fillRealizations(plannedEventDTO, _subEvents);
-            plannedEventDTO.setRealizations(realizationDTOs);
+    private PlannedEventDTO toEvent(final List<PlannedEventDTO> _subEvents) {
+        PlannedEventDTO plannedEventDTO = _subEvents.get(0);
 
-            List<MachinePartForEventDTO> partsDTOs = fillParts(plannedEventDTO, _subEvents);
-            plannedEventDTO.setParts(partsDTOs);
+        List<PlannedEventRealizationDTO> realizationDTOs = fillRealizations(plannedEventDTO, _subEvents);
+        plannedEventDTO.setRealizations(realizationDTOs);
 
-            List<PlannedEventStateChangeDTO> hists = fillHist(plannedEventDTO, _subEvents);
-            plannedEventDTO.setStateChanges(hists);
+        List<MachinePartForEventDTO> partsDTOs = fillParts(plannedEventDTO, _subEvents);
+        plannedEventDTO.setParts(partsDTOs);
 
-        }
-        finalEvents.sort((e1, e2) -> e1.getNumber().compareTo(e2.getNumber()));
-        return finalEvents;
+        List<PlannedEventStateChangeDTO> hists = fillHist(plannedEventDTO, _subEvents);
+        plannedEventDTO.setStateChanges(hists);
+
+        return plannedEventDTO;
     }
 
     private List<PlannedEventStateChangeDTO> fillHist(Object plannedEventDTO, List<PlannedEventDTO> subEvents) {
@@ -47,7 +47,6 @@ public class PlannedEventsXlsService {
 
     public void buildExcelContent(final XSSFWorkbook workbook, final XSSFSheet sheet, final Map<String, Object> filters,
             final Locale locale) {
-        List<PlannedEventDTO> events = plannedEventsXLSDataProvider.getEvents(filters);
         fillHeaderRow(workbook, sheet, 0, locale);
         DataFormat dataFormat = workbook.createDataFormat();
         CellStyle numberStyle = workbook.createCellStyle();
@@ -62,11 +61,8 @@ public class PlannedEventsXlsService {
         CellStyle timeStyle = workbook.createCellStyle();
         timeStyle.setDataFormat(dataFormat.getFormat("[HH]:MM:SS"));
 
-        int rowCounter = 1;
-        for (PlannedEventDTO plannedEventDTO : events) {
-            rowCounter = fillEventsRows(workbook, sheet, plannedEventDTO, rowCounter++, numberStyle, dateStyle, dateTimeStyle,
-                    timeStyle, locale);
-        }
+        plannedEventsXLSDataProvider.getEvents(filters, plannedEventDTO -> fillEventsRows(workbook, sheet, plannedEventDTO,
+                sheet.getLastRowNum() + 1, numberStyle, dateStyle, dateTimeStyle, timeStyle, locale));
     }
 
     private void fillHeaderRow(final XSSFWorkbook workbook, final XSSFSheet sheet, Integer rowNum, final Locale locale) {
@@ -2,9 +2,9 @@ package com.qcadoo.mes.costCalculation.print;
 
 import com.google.common.collect.Lists;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
+import com.qcadoo.mes.costNormsForMaterials.ProductCostNorms;
 import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
 import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
-import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.model.api.BigDecimalUtils;
@@ -18,6 +18,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -28,9 +29,6 @@ public class CostCalculationComponentsService {
 
     private static final String L_COMPONENT = "component";
 
-    @Autowired
-    private ProductQuantitiesService productQuantitiesService;
-
     @Autowired
     private ProductsCostCalculationService productsCostCalculationService;
 
@@ -41,11 +39,12 @@ public class CostCalculationComponentsService {
             final Map<OperationProductComponentHolder, BigDecimal> materialQuantitiesByOPC) {
         MathContext mathContext = numberService.getMathContext();
         Entity order = costCalculation.getBelongsToField(CostCalculationFields.ORDER);
+        Set<Long> productIds = materialQuantitiesByOPC.keySet().stream().map(OperationProductComponentHolder::getProductId)
+                .collect(Collectors.toSet());
+        ProductCostNorms costNorms = productsCostCalculationService.getAppropriateCostNormsForProducts(productIds, order,
+                costCalculation.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS));
         for (Map.Entry<OperationProductComponentHolder, BigDecimal> neededProductQuantity : materialQuantitiesByOPC.entrySet()) {
-            Entity product = neededProductQuantity.getKey().getProduct();
-
-            Entity productEntity = productsCostCalculationService.getAppropriateCostNormForProduct(product, order,
-                    costCalculation.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS));
+            Entity productEntity = costNorms.getCostNorm(neededProductQuantity.getKey().getProductId());
 
             BigDecimal productQuantity = neededProductQuantity.getValue();
 
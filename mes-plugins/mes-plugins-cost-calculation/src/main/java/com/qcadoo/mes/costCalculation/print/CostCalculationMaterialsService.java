@@ -36,17 +36,14 @@ import com.google.common.collect.Lists;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costCalculation.print.utils.CostCalculationMaterial;
+import com.qcadoo.mes.costNormsForMaterials.ProductCostNorms;
 import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
-import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
 
 @Service
 public class CostCalculationMaterialsService {
 
-    @Autowired
-    private ProductQuantitiesService productQuantitiesService;
-
     @Autowired
     private ProductsCostCalculationService productsCostCalculationService;
 
@@ -57,11 +54,13 @@ public class CostCalculationMaterialsService {
             final Map<Long, BigDecimal> neededProductQuantities, final Entity order) {
         MathContext mathContext = numberService.getMathContext();
         List<CostCalculationMaterial> list = Lists.newArrayList();
+        ProductCostNorms costNorms = productsCostCalculationService.getAppropriateCostNormsForProducts(
+                neededProductQuantities.keySet(), order,
+                costCalculation.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS));
         for (Map.Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
-            Entity product = productQuantitiesService.getProduct(neededProductQuantity.getKey());
+            Entity product = costNorms.getProduct(neededProductQuantity.getKey());
 
-            Entity productEntity = productsCostCalculationService.getAppropriateCostNormForProduct(product, order,
-                    costCalculation.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS));
+            Entity productEntity = costNorms.getCostNorm(neededProductQuantity.getKey());
 
             BigDecimal productQuantity = neededProductQuantity.getValue();
 
@@ -42,6 +42,7 @@ import com.qcadoo.mes.costCalculation.constants.CostCalculationConstants;
 import com.qcadoo.mes.costCalculation.constants.CostCalculationFields;
 import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
 import com.qcadoo.mes.costCalculation.print.utils.CostCalculationMaterial;
+import com.qcadoo.mes.costNormsForMaterials.ProductCostNorms;
 import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
 import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
 import com.qcadoo.mes.costNormsForOperation.constants.TechnologyOperationComponentFieldsCNFO;
@@ -913,15 +914,18 @@ public class CostCalculationPdfService extends PdfDocumentService {
         PdfPTable printCostNormsOfMaterialTable = pdfHelper.createTableWithHeader(optionTableHeader.size(), optionTableHeader,
                 false);
 
+        ProductCostNorms costNorms = productsCostCalculationService.getAppropriateCostNormsForProducts(
+                neededProductQuantities.keySet(), order,
+                costCalculation.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS));
+
         for (Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
-            Entity product = productQuantitiesService.getProduct(neededProductQuantity.getKey());
+            Entity product = costNorms.getProduct(neededProductQuantity.getKey());
 
             printCostNormsOfMaterialTable.addCell(new Phrase(product.getStringField(ProductFields.NUMBER), FontUtils
                     .getDejavuRegular7Dark()));
             printCostNormsOfMaterialTable.addCell(new Phrase(product.getStringField(ProductFields.NAME), FontUtils
                     .getDejavuRegular7Dark()));
-            Entity entityProduct = productsCostCalculationService.getAppropriateCostNormForProduct(product, order,
-                    costCalculation.getStringField(CostCalculationFields.SOURCE_OF_MATERIAL_COSTS));
+            Entity entityProduct = costNorms.getCostNorm(neededProductQuantity.getKey());
             BigDecimal toDisplay = entityProduct.getDecimalField(costModeName.get(L_COST_MODE));
             BigDecimal quantity = product.getDecimalField(ProductFieldsCNFP.COST_FOR_NUMBER);
             String unit = product.getStringField(ProductFields.UNIT);
@@ -0,0 +1,67 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costNormsForMaterials;
+
+import java.util.Map;
+
+import com.google.common.base.Optional;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Cost norms of products resolved at once for a single calculation - products themselves, when material costs come from
+ * global definitions in product, or order's material costs otherwise.
+ */
+public final class ProductCostNorms {
+
+    private final Map<Long, Entity> products;
+
+    private final Map<Long, Entity> costNorms;
+
+    private final Long orderId;
+
+    ProductCostNorms(final Map<Long, Entity> products, final Map<Long, Entity> costNorms, final Long orderId) {
+        this.products = products;
+        this.costNorms = costNorms;
+        this.orderId = orderId;
+    }
+
+    public Entity getProduct(final Long productId) {
+        return products.get(productId);
+    }
+
+    public Optional<Entity> findCostNorm(final Long productId) {
+        return Optional.fromNullable(costNorms.get(productId));
+    }
+
+    public Entity getCostNorm(final Long productId) {
+        Entity costNorm = costNorms.get(productId);
+
+        if (costNorm == null) {
+            throw new IllegalStateException("Product with number=" + productId + " doesn't exists for order with id=" + orderId);
+        }
+
+        return costNorm;
+    }
+
+}
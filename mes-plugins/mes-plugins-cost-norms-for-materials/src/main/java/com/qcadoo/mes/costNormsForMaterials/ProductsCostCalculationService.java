@@ -24,6 +24,7 @@
 package com.qcadoo.mes.costNormsForMaterials;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 
 import com.qcadoo.model.api.Entity;
 
@@ -36,4 +37,10 @@ public interface ProductsCostCalculationService {
 
     Entity getAppropriateCostNormForProduct(final Entity product, final Entity order, final String sourceOfMaterialCosts);
 
+    /**
+     * Resolves cost norms of all given products with constant number of queries, to be reused during a single calculation
+     */
+    ProductCostNorms getAppropriateCostNormsForProducts(final Collection<Long> productIds, final Entity order,
+            final String sourceOfMaterialCosts);
+
 }
@@ -26,6 +26,7 @@ package com.qcadoo.mes.costNormsForMaterials;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,6 +56,10 @@ import com.qcadoo.model.api.NumberService;
 @Service
 public class ProductsCostCalculationServiceImpl implements ProductsCostCalculationService {
 
+    private static final String L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT = "01currentGlobalDefinitionsInProduct";
+
+    private static final String L_FROM_ORDERS_MATERIAL_COSTS = "02fromOrdersMaterialCosts";
+
     @Autowired
     private ProductQuantitiesService productQuantitiesService;
 
@@ -90,9 +95,9 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
 
         Entity order = entity.getBelongsToField("order");
 
-        if ("02fromOrdersMaterialCosts".equals(sourceOfMaterialCosts)) {
+        if (L_FROM_ORDERS_MATERIAL_COSTS.equals(sourceOfMaterialCosts)) {
             return getProductWithCostForPlannedQuantities(technology, quantity, calculateMaterialCostsMode, order);
-        } else if ("01currentGlobalDefinitionsInProduct".equals(sourceOfMaterialCosts)) {
+        } else if (L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT.equals(sourceOfMaterialCosts)) {
             return getProductWithCostForPlannedQuantities(entity, technology, quantity, calculateMaterialCostsMode);
         }
 
@@ -117,9 +122,11 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
                                                                            final BigDecimal quantity, final String calculateMaterialCostsMode) {
         Map<Long, BigDecimal> neededProductQuantities = getNeededProductQuantities(entity, technology, quantity,
                 MrpAlgorithm.ONLY_COMPONENTS);
+        ProductCostNorms costNorms = getAppropriateCostNormsForProducts(neededProductQuantities.keySet(), null,
+                L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT);
         Map<Entity, BigDecimal> results = new HashMap<>();
         for (Entry<Long, BigDecimal> productQuantity : neededProductQuantities.entrySet()) {
-            Entity product = productQuantitiesService.getProduct(productQuantity.getKey());
+            Entity product = costNorms.getProduct(productQuantity.getKey());
             BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(product, productQuantity.getValue(),
                     calculateMaterialCostsMode);
             results.put(product, thisProductsCost);
@@ -139,9 +146,12 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
             Map<Long, BigDecimal> neededProductQuantities = productQuantitiesService.getNeededProductQuantities(technology,
                     quantity, MrpAlgorithm.ONLY_COMPONENTS);
 
+            ProductCostNorms costNorms = getAppropriateCostNormsForProducts(neededProductQuantities.keySet(), order,
+                    L_FROM_ORDERS_MATERIAL_COSTS);
+
             for (Entry<Long, BigDecimal> productQuantity : neededProductQuantities.entrySet()) {
-                Entity product = productQuantitiesService.getProduct(productQuantity.getKey());
-                for (Entity orderMaterialCosts : findOrderMaterialCosts(order, product).asSet()) {
+                Entity product = costNorms.getProduct(productQuantity.getKey());
+                for (Entity orderMaterialCosts : costNorms.findCostNorm(productQuantity.getKey()).asSet()) {
                     BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(orderMaterialCosts,
                             productQuantity.getValue(), calculateMaterialCostsMode);
                     results.put(product, thisProductsCost);
@@ -157,13 +167,15 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
                             && material.getStringField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL).equals(
                                     ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue()))
                     .collect(Collectors.toList());
-            List<Entity> allOrderMaterialCosts = order.getHasManyField(OrderFieldsCNFM.TECHNOLOGY_INST_OPER_PRODUCT_IN_COMPS);
+            Map<Long, Entity> orderMaterialCostsByProduct = Maps.newHashMap();
+            for (Entity orderMaterialCosts : order.getHasManyField(OrderFieldsCNFM.TECHNOLOGY_INST_OPER_PRODUCT_IN_COMPS)) {
+                Entity product = orderMaterialCosts.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT);
+                orderMaterialCostsByProduct.put(product.getId(), orderMaterialCosts);
+            }
             for (Entity usedMaterial : usedMaterials) {
                 Entity product = usedMaterial.getBelongsToField(ProductionCountingQuantityFields.PRODUCT);
-                for (Entity orderMaterialCosts : allOrderMaterialCosts
-                        .stream()
-                        .filter(cost -> cost.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT).getId()
-                                .equals(product.getId())).collect(Collectors.toList())) {
+                Entity orderMaterialCosts = orderMaterialCostsByProduct.get(product.getId());
+                if (orderMaterialCosts != null) {
                     BigDecimal thisProductsCost = calculateProductCostForGivenQuantity(orderMaterialCosts,
                             usedMaterial.getDecimalField(ProductionCountingQuantityFields.PLANNED_QUANTITY),
                             calculateMaterialCostsMode);
@@ -176,7 +188,7 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
 
     @Override
     public Entity getAppropriateCostNormForProduct(final Entity product, final Entity order, final String sourceOfMaterialCosts) {
-        if ("01currentGlobalDefinitionsInProduct".equals(sourceOfMaterialCosts)) {
+        if (L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT.equals(sourceOfMaterialCosts)) {
             return product;
         }
         for (Entity orderMaterialCosts : findOrderMaterialCosts(order, product).asSet()) {
@@ -186,6 +198,21 @@ public class ProductsCostCalculationServiceImpl implements ProductsCostCalculati
                 + order.getId());
     }
 
+    @Override
+    public ProductCostNorms getAppropriateCostNormsForProducts(final Collection<Long> productIds, final Entity order,
+            final String sourceOfMaterialCosts) {
+        Map<Long, Entity> products = productQuantitiesService.getProducts(productIds);
+        if (L_CURRENT_GLOBAL_DEFINITIONS_IN_PRODUCT.equals(sourceOfMaterialCosts)) {
+            return new ProductCostNorms(products, products, null);
+        }
+        Map<Long, Entity> orderMaterialCostsByProduct = Maps.newHashMap();
+        for (Entity orderMaterialCosts : orderMaterialCostsDataProvider.findAll(order.getId(), productIds)) {
+            Entity product = orderMaterialCosts.getBelongsToField(TechnologyInstOperProductInCompFields.PRODUCT);
+            orderMaterialCostsByProduct.putIfAbsent(product.getId(), orderMaterialCosts);
+        }
+        return new ProductCostNorms(products, orderMaterialCostsByProduct, order.getId());
+    }
+
     private Optional<Entity> findOrderMaterialCosts(final Entity order, final Entity product) {
         return orderMaterialCostsDataProvider.find(order.getId(), product.getId());
     }
@@ -23,6 +23,7 @@
  */
 package com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.dataProvider;
 
+import java.util.Collection;
 import java.util.List;
 
 import com.google.common.base.Optional;
@@ -66,4 +67,16 @@ public interface OrderMaterialCostsDataProvider {
      * @since 1.4
      */
     Optional<Entity> find(final Long orderId, final Long productId);
+
+    /**
+     * Find order's material costs entities that belong to given order and any of given products
+     *
+     * @param orderId
+     *            id of an order
+     * @param productIds
+     *            ids of products
+     * @return order's material costs entities belonging to given order and products
+     * @since 1.4
+     */
+    List<Entity> findAll(final Long orderId, final Collection<Long> productIds);
 }
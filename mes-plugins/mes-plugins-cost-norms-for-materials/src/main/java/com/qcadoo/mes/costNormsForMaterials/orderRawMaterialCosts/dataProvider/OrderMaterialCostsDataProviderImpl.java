@@ -24,7 +24,10 @@
 package com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.dataProvider;
 
 import static com.qcadoo.model.api.search.SearchRestrictions.idEq;
+import static com.qcadoo.model.api.search.SearchRestrictions.in;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -67,6 +70,14 @@ final class OrderMaterialCostsDataProviderImpl implements OrderMaterialCostsData
         return find(OrderMaterialCostsCriteria.forOrder(orderId).setProductCriteria(idEq(productId)));
     }
 
+    @Override
+    public List<Entity> findAll(final Long orderId, final Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return findAll(OrderMaterialCostsCriteria.forOrder(orderId).setProductCriteria(in("id", productIds)));
+    }
+
     private SearchCriteriaBuilder prepareCriteria(final OrderMaterialCostsCriteria criteria) {
         SearchCriteriaBuilder scb = createCriteriaBuilder();
         scb.createCriteria(TechnologyInstOperProductInCompFields.ORDER, ORDER_ALIAS, JoinType.INNER).add(
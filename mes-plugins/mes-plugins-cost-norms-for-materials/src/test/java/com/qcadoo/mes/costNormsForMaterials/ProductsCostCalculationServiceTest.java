@@ -28,11 +28,14 @@ import static com.qcadoo.testing.model.EntityTestUtils.stubBelongsToField;
 import static com.qcadoo.testing.model.EntityTestUtils.stubDecimalField;
 import static com.qcadoo.testing.model.EntityTestUtils.stubStringField;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import java.math.BigDecimal;
@@ -49,7 +52,9 @@ import org.springframework.test.util.ReflectionTestUtils;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.qcadoo.mes.costNormsForMaterials.constants.ProductsCostFields;
+import com.qcadoo.mes.costNormsForMaterials.constants.TechnologyInstOperProductInCompFields;
 import com.qcadoo.mes.costNormsForMaterials.orderRawMaterialCosts.dataProvider.OrderMaterialCostsDataProvider;
 import com.qcadoo.mes.costNormsForProduct.constants.ProductFieldsCNFP;
 import com.qcadoo.mes.orders.constants.OrderFields;
@@ -106,6 +111,12 @@ public class ProductsCostCalculationServiceTest {
                 return Optional.fromNullable(materialCostsByProductId.get(productId));
             }
         });
+        for (Map.Entry<Long, Entity> materialCosts : materialCostsByProductId.entrySet()) {
+            stubBelongsToField(materialCosts.getValue(), TechnologyInstOperProductInCompFields.PRODUCT,
+                    mockEntity(materialCosts.getKey()));
+        }
+        given(orderMaterialCostsDataProvider.findAll(eq(order.getId()), anyCollectionOf(Long.class))).willReturn(
+                Lists.newArrayList(materialCostsByProductId.values()));
     }
 
     private void verifySetDecimalField(final Entity entity, final String fieldName, final BigDecimal expectedValue) {
@@ -143,6 +154,7 @@ public class ProductsCostCalculationServiceTest {
                 return productsById.get(productId);
             }
         });
+        given(productQuantitiesService.getProducts(anyCollectionOf(Long.class))).willReturn(productsById);
     }
 
     private void stubNeededProductQuantities(final Map<Long, BigDecimal> neededProductQuantities) {
@@ -210,6 +222,32 @@ public class ProductsCostCalculationServiceTest {
         verifySetDecimalField(costCalculation, "totalMaterialCosts", BigDecimal.valueOf(255));
     }
 
+    @Test
+    public void shouldResolveCostNormsOfAllProductsAtOnce() throws Exception {
+        // given
+        String sourceOfMaterialCosts = "02fromOrdersMaterialCosts";
+        String calculateMaterialCostsMode = "01nominal";
+
+        Entity firstProduct = mockProduct(1L, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE);
+        Entity secondProduct = mockProduct(2L, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE);
+        stubProductLookupResults(ImmutableMap.of(1L, firstProduct, 2L, secondProduct));
+
+        Entity firstMaterialCosts = mockCostsHolder(11L, calculateMaterialCostsMode, BigDecimal.TEN, BigDecimal.ONE);
+        stubOrderMaterialCostsSearchResults(ImmutableMap.of(1L, firstMaterialCosts));
+
+        // when
+        ProductCostNorms costNorms = productsCostCalculationService.getAppropriateCostNormsForProducts(
+                Lists.newArrayList(1L, 2L), order, sourceOfMaterialCosts);
+
+        // then
+        assertEquals(secondProduct, costNorms.getProduct(2L));
+        assertEquals(firstMaterialCosts, costNorms.getCostNorm(1L));
+        assertFalse(costNorms.findCostNorm(2L).isPresent());
+        verify(orderMaterialCostsDataProvider).findAll(eq(order.getId()), anyCollectionOf(Long.class));
+        verify(orderMaterialCostsDataProvider, never()).find(any(Long.class), any(Long.class));
+        verify(productQuantitiesService, never()).getProduct(anyLong());
+    }
+
     @Test
     public void shouldThrowExceptionWhenCalculateTotalProductsCostForIncorrectSource() throws Exception {
         // given
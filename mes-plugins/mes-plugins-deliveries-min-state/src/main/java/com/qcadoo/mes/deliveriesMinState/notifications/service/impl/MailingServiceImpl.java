@@ -39,9 +39,9 @@ import com.qcadoo.mes.deliveriesMinState.notifications.mandrill.ContentItem;
 import com.qcadoo.mes.deliveriesMinState.notifications.mandrill.Recipient;
 import com.qcadoo.mes.deliveriesMinState.notifications.mandrill.SendResponse;
 import com.qcadoo.mes.deliveriesMinState.notifications.mandrill.TemplateEmail;
-import com.qcadoo.mes.emailNotifications.sendinblue.Mailin;
 import com.qcadoo.mes.deliveriesMinState.notifications.service.MailingService;
 import com.qcadoo.mes.deliveriesMinState.notifications.service.MandrillService;
+import com.qcadoo.mes.emailNotifications.outbox.EmailOutboxService;
 
 @Service
 public class MailingServiceImpl implements MailingService {
@@ -55,6 +55,9 @@ public class MailingServiceImpl implements MailingService {
     @Autowired
     private MandrillService mandrillService;
 
+    @Autowired
+    private EmailOutboxService emailOutboxService;
+
     @Override
     public SendingStatus sendTemplateEmailByMandrill(TemplateEmail email) {
         SendingStatus result = SendingStatus.sent;
@@ -102,17 +105,12 @@ public class MailingServiceImpl implements MailingService {
 
     @Override
     public SendingStatus sendTemplateDeliveryInfoEmailsBySendinblue(List<String> emails, List<String> deliveries) {
-        Mailin http = new Mailin("https://api.sendinblue.com/v2.0", apiKey);
         Map<String, String> attr = Maps.newHashMap();
         attr.put("DELIVERIES", prepareDeliveriesList(deliveries).getContent());
 
-        Map<String, Object> data = Maps.newHashMap();
-        data.put("id", getRandomTemplate(deliveryTemplateEmail));
-        data.put("to", emails.stream().collect(Collectors.joining("|")));
-        data.put("attr", attr);
-        http.send_transactional_template(data);
+        emailOutboxService.enqueueTemplateEmail(getRandomTemplate(deliveryTemplateEmail), emails, attr);
 
-        return SendingStatus.sent;
+        return SendingStatus.queued;
     }
 
     private ContentItem prepareDeliveriesList(List<String> deliveries) {
@@ -0,0 +1,226 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.emailNotifications.outbox;
+
+import java.lang.reflect.Type;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.ListMultimap;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.qcadoo.mes.emailNotifications.constants.EmailNotificationsConstants;
+import com.qcadoo.mes.emailNotifications.constants.EmailOutboxMessageState;
+import com.qcadoo.plugin.api.RunIfEnabled;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+@Service
+@RunIfEnabled(EmailNotificationsConstants.PLUGIN_IDENTIFIER)
+public class EmailOutboxDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EmailOutboxDispatcher.class);
+
+    private static final int MESSAGES_PER_DISPATCH = 1000;
+
+    private static final int MAX_RECIPIENTS_PER_REQUEST = 50;
+
+    private static final int MAX_ATTEMPTS = 8;
+
+    private static final long FIRST_RETRY_DELAY = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long MAX_RETRY_DELAY = TimeUnit.HOURS.toMillis(2);
+
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private static final Type ATTRIBUTES_TYPE = new TypeToken<Map<String, String>>() {
+    }.getType();
+
+    private static final String L_ID = "id";
+
+    private static final String L_STATE = "state";
+
+    private final AtomicBoolean dispatching = new AtomicBoolean();
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final AtomicLong failedMessages = new AtomicLong();
+
+    private final AtomicLong retriedMessages = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final Gson gson = new Gson();
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SendinblueClient sendinblueClient;
+
+    public void dispatchTrigger() {
+        if (!dispatching.compareAndSet(false, true)) {
+            LOG.debug("Previous e-mail outbox dispatch still in progress, skipping");
+            return;
+        }
+        try {
+            multiTenantService.doInMultiTenantContext(this::dispatch);
+        } finally {
+            dispatching.set(false);
+        }
+    }
+
+    /**
+     * Sends pending outbox messages, one request per template, attributes and at most {@value #MAX_RECIPIENTS_PER_REQUEST}
+     * recipients. Message states are updated with single statements, so no transaction is held open while waiting for the
+     * mail API.
+     */
+    public void dispatch() {
+        List<Map<String, Object>> messages = getMessagesToSend();
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        ListMultimap<List<String>, Map<String, Object>> messagesByContent = ArrayListMultimap.create();
+        messages.forEach(message -> messagesByContent.put(
+                Arrays.asList((String) message.get("templateid"), (String) message.get("attributes")), message));
+
+        long startTime = System.currentTimeMillis();
+        for (List<String> content : messagesByContent.keySet()) {
+            List<Map<String, Object>> contentMessages = messagesByContent.get(content);
+            for (List<Map<String, Object>> batch : Lists.partition(contentMessages, MAX_RECIPIENTS_PER_REQUEST)) {
+                sendBatch(content.get(0), content.get(1), batch);
+            }
+        }
+
+        LOG.info(String.format("E-mail outbox dispatched %d messages in %d ms (total sent: %d, retried: %d, failed: %d, "
+                + "requests: %d)", messages.size(), System.currentTimeMillis() - startTime, sentMessages.get(),
+                retriedMessages.get(), failedMessages.get(), requests.get()));
+    }
+
+    public long getSentMessages() {
+        return sentMessages.get();
+    }
+
+    public long getFailedMessages() {
+        return failedMessages.get();
+    }
+
+    public long getRetriedMessages() {
+        return retriedMessages.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    private void sendBatch(final String templateId, final String attributesJson, final List<Map<String, Object>> batch) {
+        List<String> recipients = batch.stream().map(message -> (String) message.get("recipient"))
+                .collect(Collectors.toList());
+        Map<String, String> attributes = StringUtils.isEmpty(attributesJson) ? Maps.newHashMap() : gson.fromJson(
+                attributesJson, ATTRIBUTES_TYPE);
+
+        requests.incrementAndGet();
+        try {
+            sendinblueClient.sendTemplate(templateId, recipients, attributes);
+        } catch (RuntimeException e) {
+            LOG.warn(String.format("Unable to send template %s to %d recipients", templateId, recipients.size()), e);
+            markAttemptFailed(batch, e.getMessage());
+            return;
+        }
+        markSent(batch);
+    }
+
+    private List<Map<String, Object>> getMessagesToSend() {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(L_STATE, EmailOutboxMessageState.PENDING.getStringValue());
+        parameters.put("limit", MESSAGES_PER_DISPATCH);
+        return jdbcTemplate.queryForList("SELECT id, templateid, recipient, attributes, attempts "
+                + "FROM emailnotifications_emailoutboxmessage WHERE state = :state "
+                + "AND (nextattemptdate IS NULL OR nextattemptdate <= now()) ORDER BY id LIMIT :limit", parameters);
+    }
+
+    private void markSent(final List<Map<String, Object>> batch) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put("ids", batch.stream().map(message -> message.get(L_ID)).collect(Collectors.toList()));
+        parameters.put(L_STATE, EmailOutboxMessageState.SENT.getStringValue());
+        jdbcTemplate.update("UPDATE emailnotifications_emailoutboxmessage SET state = :state, sentdate = now(), "
+                + "attempts = attempts + 1, lasterror = NULL, updatedate = now() WHERE id IN (:ids)", parameters);
+        sentMessages.addAndGet(batch.size());
+    }
+
+    private void markAttemptFailed(final List<Map<String, Object>> batch, final String error) {
+        String lastError = StringUtils.abbreviate(StringUtils.defaultString(error), MAX_ERROR_LENGTH);
+        SqlParameterSource[] parameters = new SqlParameterSource[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            Map<String, Object> message = batch.get(i);
+            int attempts = ((Number) message.get("attempts")).intValue() + 1;
+            boolean failed = attempts >= MAX_ATTEMPTS;
+            if (failed) {
+                failedMessages.incrementAndGet();
+            } else {
+                retriedMessages.incrementAndGet();
+            }
+            EmailOutboxMessageState state = failed ? EmailOutboxMessageState.FAILED : EmailOutboxMessageState.PENDING;
+            Date nextAttemptDate = failed ? null : new Date(System.currentTimeMillis() + getRetryDelay(attempts));
+
+            MapSqlParameterSource messageParameters = new MapSqlParameterSource();
+            messageParameters.addValue(L_ID, message.get(L_ID));
+            messageParameters.addValue(L_STATE, state.getStringValue());
+            messageParameters.addValue("attempts", attempts);
+            messageParameters.addValue("nextAttemptDate", nextAttemptDate, Types.TIMESTAMP);
+            messageParameters.addValue("lastError", lastError);
+            parameters[i] = messageParameters;
+        }
+        jdbcTemplate.batchUpdate("UPDATE emailnotifications_emailoutboxmessage SET state = :state, attempts = :attempts, "
+                + "nextattemptdate = :nextAttemptDate, lasterror = :lastError, updatedate = now() WHERE id = :id",
+                parameters);
+    }
+
+    private long getRetryDelay(final int attempts) {
+        return Math.min(FIRST_RETRY_DELAY << (attempts - 1), MAX_RETRY_DELAY);
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.emailNotifications.outbox;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.gson.Gson;
+import com.qcadoo.mes.emailNotifications.constants.EmailNotificationsConstants;
+import com.qcadoo.mes.emailNotifications.constants.EmailOutboxMessageFields;
+import com.qcadoo.mes.emailNotifications.constants.EmailOutboxMessageState;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class EmailOutboxService {
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    /**
+     * Stores template e-mail for each of given recipients in the outbox. Messages are saved in the caller's transaction, so
+     * they are sent by {@link EmailOutboxDispatcher} only if that transaction commits.
+     */
+    @Transactional
+    public void enqueueTemplateEmail(final String templateId, final List<String> emails,
+            final Map<String, String> attributes) {
+        DataDefinition emailOutboxMessageDD = getEmailOutboxMessageDD();
+        String attributesJson = new Gson().toJson(attributes);
+
+        emails.stream().filter(email -> email != null && !email.trim().isEmpty()).map(String::trim).distinct()
+                .forEach(email -> {
+                    Entity message = emailOutboxMessageDD.create();
+                    message.setField(EmailOutboxMessageFields.TEMPLATE_ID, templateId);
+                    message.setField(EmailOutboxMessageFields.RECIPIENT, email);
+                    message.setField(EmailOutboxMessageFields.ATTRIBUTES, attributesJson);
+                    message.setField(EmailOutboxMessageFields.STATE, EmailOutboxMessageState.PENDING.getStringValue());
+                    message.setField(EmailOutboxMessageFields.ATTEMPTS, 0);
+                    emailOutboxMessageDD.save(message);
+                });
+    }
+
+    private DataDefinition getEmailOutboxMessageDD() {
+        return dataDefinitionService.get(EmailNotificationsConstants.PLUGIN_IDENTIFIER,
+                EmailNotificationsConstants.MODEL_EMAIL_OUTBOX_MESSAGE);
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.emailNotifications.outbox;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+@Service
+public class SendinblueClient {
+
+    private static final String L_SUCCESS = "success";
+
+    @Value("${sendinblueApiUrl:https://api.sendinblue.com/v2.0}")
+    private String apiUrl;
+
+    @Value("${mandrillApiKey}")
+    private String apiKey;
+
+    @Value("${sendinblueConnectTimeout:5000}")
+    private int connectTimeout;
+
+    @Value("${sendinblueReadTimeout:15000}")
+    private int readTimeout;
+
+    private RestTemplate restTemplate;
+
+    private final Gson gson = new Gson();
+
+    @PostConstruct
+    public void init() {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeout);
+        requestFactory.setReadTimeout(readTimeout);
+
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    /**
+     * Sends transactional template to all given recipients in a single request.
+     * 
+     * @throws org.springframework.web.client.RestClientException
+     *             when the API can't be reached, times out or responds with error status
+     * @throws IllegalStateException
+     *             when the API doesn't confirm the request
+     */
+    public void sendTemplate(final String templateId, final List<String> recipients, final Map<String, String> attributes) {
+        Map<String, Object> data = Maps.newHashMap();
+        data.put("id", templateId);
+        data.put("to", String.join("|", recipients));
+        data.put("attr", attributes);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        headers.set("api-key", apiKey);
+
+        ResponseEntity<String> response = restTemplate.exchange(apiUrl + "/template/{id}", HttpMethod.PUT,
+                new HttpEntity<>(gson.toJson(data), headers), String.class, templateId);
+
+        JsonObject body = response.hasBody() ? gson.fromJson(response.getBody(), JsonObject.class) : null;
+        if (body == null || !body.has("code") || !L_SUCCESS.equals(body.get("code").getAsString())) {
+            throw new IllegalStateException("Unable to send template " + templateId + ", response: " + response.getBody());
+        }
+    }
+
+}
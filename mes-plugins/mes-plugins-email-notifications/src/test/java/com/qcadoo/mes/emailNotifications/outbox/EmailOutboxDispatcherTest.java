@@ -0,0 +1,229 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.emailNotifications.outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.emailNotifications.constants.EmailOutboxMessageState;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class EmailOutboxDispatcherTest {
+
+    private static final String L_TEMPLATE_ID = "12";
+
+    private static final String L_ERROR = "Service unavailable";
+
+    private EmailOutboxDispatcher emailOutboxDispatcher;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private SendinblueClient sendinblueClient;
+
+    private List<Map<String, Object>> messages;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        emailOutboxDispatcher = new EmailOutboxDispatcher();
+        ReflectionTestUtils.setField(emailOutboxDispatcher, "multiTenantService", multiTenantService);
+        ReflectionTestUtils.setField(emailOutboxDispatcher, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(emailOutboxDispatcher, "sendinblueClient", sendinblueClient);
+
+        messages = Lists.newArrayList();
+
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class))).willReturn(messages);
+    }
+
+    private Map<String, Object> message(final long id, final String attributes, final int attempts) {
+        Map<String, Object> message = Maps.newHashMap();
+
+        message.put("id", id);
+        message.put("templateid", L_TEMPLATE_ID);
+        message.put("recipient", "user" + id + "@qcadoo.com");
+        message.put("attributes", attributes);
+        message.put("attempts", attempts);
+
+        return message;
+    }
+
+    @Test
+    public final void shouldSendMessagesWithSameContentInOneRequest() {
+        // given
+        messages.add(message(1L, "{\"DELIVERIES\":\"D1\"}", 0));
+        messages.add(message(2L, "{\"DELIVERIES\":\"D2\"}", 0));
+        messages.add(message(3L, "{\"DELIVERIES\":\"D1\"}", 0));
+
+        // when
+        emailOutboxDispatcher.dispatch();
+
+        // then
+        verify(sendinblueClient).sendTemplate(L_TEMPLATE_ID, Lists.newArrayList("user1@qcadoo.com", "user3@qcadoo.com"),
+                ImmutableMap.of("DELIVERIES", "D1"));
+        verify(sendinblueClient).sendTemplate(L_TEMPLATE_ID, Lists.newArrayList("user2@qcadoo.com"),
+                ImmutableMap.of("DELIVERIES", "D2"));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        assertEquals(3, emailOutboxDispatcher.getSentMessages());
+        assertEquals(2, emailOutboxDispatcher.getRequests());
+    }
+
+    @Test
+    public final void shouldSplitRecipientsIntoRequestsOfAtMostFiftyRecipients() {
+        // given
+        for (long id = 1; id <= 120; id++) {
+            messages.add(message(id, null, 0));
+        }
+
+        // when
+        emailOutboxDispatcher.dispatch();
+
+        // then
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<String>> recipientsCaptor = ArgumentCaptor.forClass((Class) List.class);
+
+        verify(sendinblueClient, times(3)).sendTemplate(eq(L_TEMPLATE_ID), recipientsCaptor.capture(), anyMap());
+        assertEquals(50, recipientsCaptor.getAllValues().get(0).size());
+        assertEquals(50, recipientsCaptor.getAllValues().get(1).size());
+        assertEquals(20, recipientsCaptor.getAllValues().get(2).size());
+        verify(jdbcTemplate, times(3)).update(anyString(), anyMapOf(String.class, Object.class));
+    }
+
+    @Test
+    public final void shouldRetryFailedMessagesWithGrowingDelay() {
+        // given
+        messages.add(message(1L, null, 0));
+        messages.add(message(2L, null, 2));
+
+        willThrow(new IllegalStateException(L_ERROR)).given(sendinblueClient).sendTemplate(anyString(), anyList(), anyMap());
+
+        long startTime = System.currentTimeMillis();
+
+        // when
+        emailOutboxDispatcher.dispatch();
+
+        // then
+        SqlParameterSource[] parameters = captureFailedMessagesParameters();
+
+        assertEquals(2, parameters.length);
+        assertFailedMessage(parameters[0], 1L, EmailOutboxMessageState.PENDING, 1);
+        assertFailedMessage(parameters[1], 2L, EmailOutboxMessageState.PENDING, 3);
+        assertNextAttemptDate(parameters[0], startTime, TimeUnit.MINUTES.toMillis(1));
+        assertNextAttemptDate(parameters[1], startTime, TimeUnit.MINUTES.toMillis(4));
+        verify(jdbcTemplate, never()).update(anyString(), anyMapOf(String.class, Object.class));
+        assertEquals(2, emailOutboxDispatcher.getRetriedMessages());
+        assertEquals(0, emailOutboxDispatcher.getFailedMessages());
+    }
+
+    @Test
+    public final void shouldGiveUpMessageAfterLastAttempt() {
+        // given
+        messages.add(message(1L, null, 6));
+        messages.add(message(2L, null, 7));
+
+        willThrow(new IllegalStateException(L_ERROR)).given(sendinblueClient).sendTemplate(anyString(), anyList(), anyMap());
+
+        long startTime = System.currentTimeMillis();
+
+        // when
+        emailOutboxDispatcher.dispatch();
+
+        // then
+        SqlParameterSource[] parameters = captureFailedMessagesParameters();
+
+        assertFailedMessage(parameters[0], 1L, EmailOutboxMessageState.PENDING, 7);
+        assertNextAttemptDate(parameters[0], startTime, TimeUnit.MINUTES.toMillis(64));
+        assertFailedMessage(parameters[1], 2L, EmailOutboxMessageState.FAILED, 8);
+        assertNull(parameters[1].getValue("nextAttemptDate"));
+        assertEquals(1, emailOutboxDispatcher.getRetriedMessages());
+        assertEquals(1, emailOutboxDispatcher.getFailedMessages());
+    }
+
+    @Test
+    public final void shouldLimitRetryDelay() {
+        // when
+        long retryDelay = (Long) ReflectionTestUtils.invokeMethod(emailOutboxDispatcher, "getRetryDelay", 12);
+
+        // then
+        assertEquals(TimeUnit.HOURS.toMillis(2), retryDelay);
+    }
+
+    private SqlParameterSource[] captureFailedMessagesParameters() {
+        ArgumentCaptor<SqlParameterSource[]> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(anyString(), parametersCaptor.capture());
+
+        return parametersCaptor.getValue();
+    }
+
+    private void assertFailedMessage(final SqlParameterSource parameters, final Long id,
+            final EmailOutboxMessageState state, final int attempts) {
+        assertEquals(id, parameters.getValue("id"));
+        assertEquals(state.getStringValue(), parameters.getValue("state"));
+        assertEquals(attempts, parameters.getValue("attempts"));
+        assertEquals(L_ERROR, parameters.getValue("lastError"));
+    }
+
+    private void assertNextAttemptDate(final SqlParameterSource parameters, final long startTime, final long delay) {
+        long nextAttemptTime = ((Date) parameters.getValue("nextAttemptDate")).getTime();
+
+        assertTrue(nextAttemptTime >= startTime + delay);
+        assertTrue(nextAttemptTime <= System.currentTimeMillis() + delay);
+    }
+
+}
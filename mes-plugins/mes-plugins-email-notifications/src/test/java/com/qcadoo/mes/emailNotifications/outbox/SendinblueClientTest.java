@@ -0,0 +1,180 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.emailNotifications.outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class SendinblueClientTest {
+
+    private static final String L_API_KEY = "testApiKey";
+
+    private HttpServer server;
+
+    private SendinblueClient sendinblueClient;
+
+    private final AtomicReference<String> requestMethod = new AtomicReference<>();
+
+    private final AtomicReference<String> requestPath = new AtomicReference<>();
+
+    private final AtomicReference<String> requestApiKey = new AtomicReference<>();
+
+    private final AtomicReference<String> requestBody = new AtomicReference<>();
+
+    private volatile int responseStatus;
+
+    private volatile String responseBody;
+
+    private volatile long responseDelay;
+
+    @Before
+    public void init() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+
+        sendinblueClient = new SendinblueClient();
+        ReflectionTestUtils.setField(sendinblueClient, "apiUrl",
+                "http://localhost:" + server.getAddress().getPort() + "/v2.0");
+        ReflectionTestUtils.setField(sendinblueClient, "apiKey", L_API_KEY);
+        ReflectionTestUtils.setField(sendinblueClient, "connectTimeout", 1000);
+        ReflectionTestUtils.setField(sendinblueClient, "readTimeout", 500);
+        sendinblueClient.init();
+
+        responseStatus = 200;
+        responseBody = "{\"code\":\"success\",\"message\":\"Email was sent successfully.\",\"data\":[]}";
+        responseDelay = 0;
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public final void shouldSendTemplateToAllRecipientsInSingleRequest() {
+        // when
+        sendinblueClient.sendTemplate("12", Lists.newArrayList("a@qcadoo.com", "b@qcadoo.com"),
+                ImmutableMap.of("DELIVERIES", "<ul><li>D1</li></ul>"));
+
+        // then
+        assertEquals("PUT", requestMethod.get());
+        assertEquals("/v2.0/template/12", requestPath.get());
+        assertEquals(L_API_KEY, requestApiKey.get());
+
+        JsonObject body = new Gson().fromJson(requestBody.get(), JsonObject.class);
+        assertEquals("a@qcadoo.com|b@qcadoo.com", body.get("to").getAsString());
+        assertEquals("<ul><li>D1</li></ul>", body.getAsJsonObject("attr").get("DELIVERIES").getAsString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public final void shouldThrowExceptionIfRequestIsNotConfirmed() {
+        // given
+        responseBody = "{\"code\":\"failure\",\"message\":\"Template not found\"}";
+
+        // when
+        sendinblueClient.sendTemplate("12", Lists.newArrayList("a@qcadoo.com"), ImmutableMap.<String, String> of());
+    }
+
+    @Test(expected = HttpServerErrorException.class)
+    public final void shouldThrowExceptionOnErrorStatus() {
+        // given
+        responseStatus = 503;
+
+        // when
+        sendinblueClient.sendTemplate("12", Lists.newArrayList("a@qcadoo.com"), ImmutableMap.<String, String> of());
+    }
+
+    @Test
+    public final void shouldTimeOutWhenApiDoesNotRespond() {
+        // given
+        responseDelay = 3000;
+        long startTime = System.currentTimeMillis();
+
+        // when
+        try {
+            sendinblueClient.sendTemplate("12", Lists.newArrayList("a@qcadoo.com"), ImmutableMap.<String, String> of());
+        } catch (ResourceAccessException e) {
+            // then
+            assertTrue(System.currentTimeMillis() - startTime < 2500);
+            return;
+        }
+        throw new AssertionError("Request should time out");
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        requestMethod.set(exchange.getRequestMethod());
+        requestPath.set(exchange.getRequestURI().getPath());
+        requestApiKey.set(exchange.getRequestHeaders().getFirst("api-key"));
+        requestBody.set(read(exchange.getRequestBody()));
+
+        if (responseDelay > 0) {
+            try {
+                Thread.sleep(responseDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        byte[] response = responseBody.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(responseStatus, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+    }
+
+    private String read(final InputStream inputStream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int length;
+        while ((length = inputStream.read(buffer)) != -1) {
+            result.write(buffer, 0, length);
+        }
+        return new String(result.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+}
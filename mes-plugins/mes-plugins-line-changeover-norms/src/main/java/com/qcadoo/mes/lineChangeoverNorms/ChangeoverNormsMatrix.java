@@ -0,0 +1,356 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Line changeover norms indexed by pair of technologies or technology groups and production line, so the best matching norm
+ * is resolved without querying database. Precedence is the same as before: norms for technologies before norms for technology
+ * groups, norms for given production line before norms without line, newest first.
+ * 
+ * Changed and deleted norms are reloaded one by one, after their transaction completes. Created norms are loaded by id greater
+ * than the last id loaded when they were being saved, so norms whose transactions commit in different order than their ids
+ * were assigned aren't missed. Whole index is reloaded every {@link #EXPIRATION_MINUTES}, to pick up changes made by other
+ * application instances.
+ */
+@Service
+public class ChangeoverNormsMatrix {
+
+    private static final long EXPIRATION_MINUTES = 10;
+
+    private static final String L_SELECT_NORMS = "SELECT id, changeovertype, fromtechnology_id, totechnology_id, "
+            + "fromtechnologygroup_id, totechnologygroup_id, productionline_id FROM linechangeovernorms_linechangeovernorms";
+
+    private static final Comparator<ChangeoverNorm> PRECEDENCE = Comparator
+            .comparing((ChangeoverNorm norm) -> norm.changeoverType, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(norm -> Objects.isNull(norm.productionLineId))
+            .thenComparing(norm -> norm.id, Comparator.reverseOrder());
+
+    private final Map<ChangeoverKey, NavigableSet<ChangeoverNorm>> normsByKey = Maps.newHashMap();
+
+    private final Map<Long, ChangeoverNorm> normsById = Maps.newHashMap();
+
+    private final Set<Long> changedNormIds = Sets.newConcurrentHashSet();
+
+    private final Set<Long> createdNormsMaxIds = Sets.newConcurrentHashSet();
+
+    private long maxNormId;
+
+    private long loadTime;
+
+    private boolean loaded;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * @return id of best matching norm or null, when there is none
+     */
+    public synchronized Long findBestMatching(final Long fromTechnologyId, final Long fromTechnologyGroupId,
+            final Long toTechnologyId, final Long toTechnologyGroupId, final Long productionLineId) {
+        refresh();
+
+        ChangeoverNorm bestMatching = null;
+
+        if (Objects.nonNull(fromTechnologyId) && Objects.nonNull(toTechnologyId)) {
+            bestMatching = better(bestMatching, first(ChangeoverKey.forTechnologies(fromTechnologyId, toTechnologyId,
+                    productionLineId)));
+            bestMatching = better(bestMatching, first(ChangeoverKey.forTechnologies(fromTechnologyId, toTechnologyId, null)));
+        }
+        if (Objects.nonNull(fromTechnologyGroupId) && Objects.nonNull(toTechnologyGroupId)) {
+            bestMatching = better(bestMatching, first(ChangeoverKey.forTechnologyGroups(fromTechnologyGroupId,
+                    toTechnologyGroupId, productionLineId)));
+            bestMatching = better(bestMatching,
+                    first(ChangeoverKey.forTechnologyGroups(fromTechnologyGroupId, toTechnologyGroupId, null)));
+        }
+
+        if (Objects.isNull(bestMatching)) {
+            return null;
+        }
+
+        return bestMatching.id;
+    }
+
+    /**
+     * Schedules reloading of given norm, after current transaction completes.
+     */
+    public void normChanged(final Long normId) {
+        if (Objects.isNull(normId)) {
+            return;
+        }
+
+        afterTransactionCompletion(() -> changedNormIds.add(normId));
+    }
+
+    /**
+     * Schedules loading of norm being created in current transaction, after the transaction completes. Has to be called before
+     * the norm gets its id, so the id is greater than all ids loaded so far.
+     */
+    public void normCreated() {
+        long maxId = getMaxNormId();
+
+        afterTransactionCompletion(() -> createdNormsMaxIds.add(maxId));
+    }
+
+    private synchronized long getMaxNormId() {
+        return maxNormId;
+    }
+
+    private void afterTransactionCompletion(final Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    action.run();
+                }
+
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void refresh() {
+        if (!loaded || System.currentTimeMillis() - loadTime > TimeUnit.MINUTES.toMillis(EXPIRATION_MINUTES)) {
+            changedNormIds.clear();
+            createdNormsMaxIds.clear();
+            normsByKey.clear();
+            normsById.clear();
+            maxNormId = 0;
+
+            for (Map<String, Object> row : jdbcTemplate.queryForList(L_SELECT_NORMS, Maps.<String, Object> newHashMap())) {
+                add(new ChangeoverNorm(row));
+            }
+
+            loadTime = System.currentTimeMillis();
+            loaded = true;
+
+            return;
+        }
+
+        if (!createdNormsMaxIds.isEmpty()) {
+            List<Long> maxIds = Lists.newArrayList(createdNormsMaxIds);
+
+            createdNormsMaxIds.removeAll(maxIds);
+
+            Map<String, Object> parameters = Maps.newHashMap();
+
+            parameters.put("maxId", Collections.min(maxIds));
+
+            for (Map<String, Object> row : jdbcTemplate.queryForList(L_SELECT_NORMS + " WHERE id > :maxId", parameters)) {
+                ChangeoverNorm norm = new ChangeoverNorm(row);
+
+                if (!normsById.containsKey(norm.id)) {
+                    add(norm);
+                }
+            }
+        }
+        if (!changedNormIds.isEmpty()) {
+            List<Long> normIds = Lists.newArrayList(changedNormIds);
+
+            changedNormIds.removeAll(normIds);
+
+            reload(normIds);
+        }
+    }
+
+    private void reload(final Collection<Long> normIds) {
+        for (Long normId : normIds) {
+            ChangeoverNorm norm = normsById.remove(normId);
+
+            if (Objects.nonNull(norm)) {
+                for (ChangeoverKey key : norm.getKeys()) {
+                    NavigableSet<ChangeoverNorm> norms = normsByKey.get(key);
+
+                    norms.remove(norm);
+
+                    if (norms.isEmpty()) {
+                        normsByKey.remove(key);
+                    }
+                }
+            }
+        }
+
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put("ids", normIds);
+
+        for (Map<String, Object> row : jdbcTemplate.queryForList(L_SELECT_NORMS + " WHERE id IN (:ids)", parameters)) {
+            add(new ChangeoverNorm(row));
+        }
+    }
+
+    private void add(final ChangeoverNorm norm) {
+        normsById.put(norm.id, norm);
+        maxNormId = Math.max(maxNormId, norm.id);
+
+        for (ChangeoverKey key : norm.getKeys()) {
+            normsByKey.computeIfAbsent(key, k -> new TreeSet<ChangeoverNorm>(PRECEDENCE)).add(norm);
+        }
+    }
+
+    private ChangeoverNorm first(final ChangeoverKey key) {
+        NavigableSet<ChangeoverNorm> norms = normsByKey.get(key);
+
+        if (Objects.isNull(norms)) {
+            return null;
+        }
+
+        return norms.first();
+    }
+
+    private ChangeoverNorm better(final ChangeoverNorm norm, final ChangeoverNorm otherNorm) {
+        if (Objects.isNull(norm)) {
+            return otherNorm;
+        }
+        if (Objects.isNull(otherNorm)) {
+            return norm;
+        }
+
+        return PRECEDENCE.compare(norm, otherNorm) <= 0 ? norm : otherNorm;
+    }
+
+    private static final class ChangeoverNorm {
+
+        private final Long id;
+
+        private final String changeoverType;
+
+        private final Long fromTechnologyId;
+
+        private final Long toTechnologyId;
+
+        private final Long fromTechnologyGroupId;
+
+        private final Long toTechnologyGroupId;
+
+        private final Long productionLineId;
+
+        private ChangeoverNorm(final Map<String, Object> row) {
+            id = getLong(row, "id");
+            changeoverType = (String) row.get("changeovertype");
+            fromTechnologyId = getLong(row, "fromtechnology_id");
+            toTechnologyId = getLong(row, "totechnology_id");
+            fromTechnologyGroupId = getLong(row, "fromtechnologygroup_id");
+            toTechnologyGroupId = getLong(row, "totechnologygroup_id");
+            productionLineId = getLong(row, "productionline_id");
+        }
+
+        private List<ChangeoverKey> getKeys() {
+            List<ChangeoverKey> keys = Lists.newArrayList();
+
+            if (Objects.nonNull(fromTechnologyId) && Objects.nonNull(toTechnologyId)) {
+                keys.add(ChangeoverKey.forTechnologies(fromTechnologyId, toTechnologyId, productionLineId));
+            }
+            if (Objects.nonNull(fromTechnologyGroupId) && Objects.nonNull(toTechnologyGroupId)) {
+                keys.add(ChangeoverKey.forTechnologyGroups(fromTechnologyGroupId, toTechnologyGroupId, productionLineId));
+            }
+
+            return keys;
+        }
+
+        private static Long getLong(final Map<String, Object> row, final String column) {
+            Number value = (Number) row.get(column);
+
+            if (Objects.isNull(value)) {
+                return null;
+            }
+
+            return value.longValue();
+        }
+
+    }
+
+    private static final class ChangeoverKey {
+
+        private final boolean forTechnologyGroups;
+
+        private final Long fromId;
+
+        private final Long toId;
+
+        private final Long productionLineId;
+
+        private ChangeoverKey(final boolean forTechnologyGroups, final Long fromId, final Long toId,
+                final Long productionLineId) {
+            this.forTechnologyGroups = forTechnologyGroups;
+            this.fromId = fromId;
+            this.toId = toId;
+            this.productionLineId = productionLineId;
+        }
+
+        private static ChangeoverKey forTechnologies(final Long fromTechnologyId, final Long toTechnologyId,
+                final Long productionLineId) {
+            return new ChangeoverKey(false, fromTechnologyId, toTechnologyId, productionLineId);
+        }
+
+        private static ChangeoverKey forTechnologyGroups(final Long fromTechnologyGroupId, final Long toTechnologyGroupId,
+                final Long productionLineId) {
+            return new ChangeoverKey(true, fromTechnologyGroupId, toTechnologyGroupId, productionLineId);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof ChangeoverKey)) {
+                return false;
+            }
+
+            ChangeoverKey other = (ChangeoverKey) obj;
+
+            return forTechnologyGroups == other.forTechnologyGroups && Objects.equals(fromId, other.fromId)
+                    && Objects.equals(toId, other.toId) && Objects.equals(productionLineId, other.productionLineId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(forTechnologyGroups, fromId, toId, productionLineId);
+        }
+
+    }
+
+}
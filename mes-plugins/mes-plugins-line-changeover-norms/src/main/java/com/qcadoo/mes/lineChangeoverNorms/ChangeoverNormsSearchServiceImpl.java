@@ -23,89 +23,39 @@
  */
 package com.qcadoo.mes.lineChangeoverNorms;
 
-import static com.qcadoo.model.api.search.SearchRestrictions.and;
-import static com.qcadoo.model.api.search.SearchRestrictions.eq;
-import static com.qcadoo.model.api.search.SearchRestrictions.isNull;
-import static com.qcadoo.model.api.search.SearchRestrictions.or;
-
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.base.Preconditions;
 import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsConstants;
-import com.qcadoo.mes.lineChangeoverNorms.constants.LineChangeoverNormsFields;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.search.SearchCriteriaBuilder;
-import com.qcadoo.model.api.search.SearchCriterion;
-import com.qcadoo.model.api.search.SearchDisjunction;
-import com.qcadoo.model.api.search.SearchOrders;
-import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Service
 public class ChangeoverNormsSearchServiceImpl implements ChangeoverNormsSearchService {
 
-    private static final String DOT_ID = ".id";
-
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private ChangeoverNormsMatrix changeoverNormsMatrix;
+
     @Override
     public Entity findBestMatching(final Long fromTechnologyId, final Long fromTechnologyGroupId, final Long toTechnologyId,
             final Long toTechnologyGroupId, final Long productionLineId) {
-        SearchCriteriaBuilder scb = getChangeoverDataDef().find();
-
-        scb.add(getTechnologiesRestrictions(fromTechnologyId, fromTechnologyGroupId, toTechnologyId, toTechnologyGroupId));
-        scb.add(getProductionLineRestrictions(productionLineId));
-
-        // for specific technologies first
-        scb.addOrder(SearchOrders.asc(LineChangeoverNormsFields.CHANGEOVER_TYPE));
-        // with production line defined first
-        scb.addOrder(SearchOrders.asc(LineChangeoverNormsFields.PRODUCTION_LINE));
-        // newest wins
-        scb.addOrder(SearchOrders.desc("id"));
-
-        return scb.setMaxResults(1).uniqueResult();
-    }
-
-    private SearchCriterion getProductionLineRestrictions(final Long productionLineId) {
-        SearchCriterion matchProductionLine = eq(LineChangeoverNormsFields.PRODUCTION_LINE + DOT_ID, productionLineId);
-        SearchCriterion productionLineIsNull = isNull(LineChangeoverNormsFields.PRODUCTION_LINE);
-
-        return or(matchProductionLine, productionLineIsNull);
-    }
-
-    private SearchCriterion getTechnologiesRestrictions(final Long fromTechnologyId, final Long fromTechnologyGroupId,
-            final Long toTechnologyId, final Long toTechnologyGroupId) {
-        SearchCriterion matchTechnologies = getPairRestriction(LineChangeoverNormsFields.FROM_TECHNOLOGY, fromTechnologyId,
-                LineChangeoverNormsFields.TO_TECHNOLOGY, toTechnologyId);
-        SearchCriterion matchTechnologyGroups = getPairRestriction(LineChangeoverNormsFields.FROM_TECHNOLOGY_GROUP,
-                fromTechnologyGroupId, LineChangeoverNormsFields.TO_TECHNOLOGY_GROUP, toTechnologyGroupId);
-
-        Preconditions.checkArgument(matchTechnologies != null || matchTechnologyGroups != null,
+        Preconditions.checkArgument((fromTechnologyId != null && toTechnologyId != null)
+                || (fromTechnologyGroupId != null && toTechnologyGroupId != null),
                 "you have to provide pair of technologies or pair of technology groups.");
 
-        SearchDisjunction disjunction = SearchRestrictions.disjunction();
-
-        if (matchTechnologies != null) {
-            disjunction.add(matchTechnologies);
-        }
-
-        if (matchTechnologyGroups != null) {
-            disjunction.add(matchTechnologyGroups);
-        }
-
-        return disjunction;
-    }
+        Long changeoverNormId = changeoverNormsMatrix.findBestMatching(fromTechnologyId, fromTechnologyGroupId, toTechnologyId,
+                toTechnologyGroupId, productionLineId);
 
-    private SearchCriterion getPairRestriction(final String leftFieldName, final Long leftId, final String rightFieldName,
-            final Long rightId) {
-        if (leftId == null || rightId == null) {
+        if (changeoverNormId == null) {
             return null;
         }
 
-        return and(eq(leftFieldName + DOT_ID, leftId), eq(rightFieldName + DOT_ID, rightId));
+        return getChangeoverDataDef().get(changeoverNormId);
     }
 
     @Override
@@ -0,0 +1,249 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.lineChangeoverNorms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.endsWith;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class ChangeoverNormsMatrixTest {
+
+    private static final String L_FOR_TECHNOLOGY = "01forTechnology";
+
+    private static final String L_FOR_TECHNOLOGY_GROUP = "02forTechnologyGroup";
+
+    private static final Long FROM_TECH_ID = 1L;
+
+    private static final Long TO_TECH_ID = 2L;
+
+    private static final Long FROM_TECH_GROUP_ID = 101L;
+
+    private static final Long TO_TECH_GROUP_ID = 202L;
+
+    private static final Long PRODUCTION_LINE_ID = 1001L;
+
+    private static final Long OTHER_PRODUCTION_LINE_ID = 1002L;
+
+    private ChangeoverNormsMatrix changeoverNormsMatrix;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private List<Map<String, Object>> norms;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        changeoverNormsMatrix = new ChangeoverNormsMatrix();
+        setField(changeoverNormsMatrix, "jdbcTemplate", jdbcTemplate);
+
+        norms = Lists.newArrayList();
+
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class))).willReturn(norms);
+    }
+
+    @Test
+    public void shouldPreferNormForTechnologiesOverNormForTechnologyGroups() {
+        // given
+        norms.add(groupsNorm(10L, PRODUCTION_LINE_ID));
+        norms.add(technologiesNorm(5L, null));
+
+        // when
+        Long normId = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                PRODUCTION_LINE_ID);
+
+        // then
+        assertEquals(Long.valueOf(5L), normId);
+    }
+
+    @Test
+    public void shouldPreferNormForProductionLineOverNormWithoutLine() {
+        // given
+        norms.add(technologiesNorm(10L, null));
+        norms.add(technologiesNorm(5L, PRODUCTION_LINE_ID));
+        norms.add(technologiesNorm(20L, OTHER_PRODUCTION_LINE_ID));
+
+        // when
+        Long normId = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                PRODUCTION_LINE_ID);
+
+        // then
+        assertEquals(Long.valueOf(5L), normId);
+    }
+
+    @Test
+    public void shouldPreferNewestNorm() {
+        // given
+        Map<String, Object> olderNorm = technologiesNorm(5L, null);
+        olderNorm.put("fromtechnologygroup_id", FROM_TECH_GROUP_ID);
+        olderNorm.put("totechnologygroup_id", TO_TECH_GROUP_ID);
+
+        norms.add(olderNorm);
+        norms.add(technologiesNorm(10L, null));
+
+        // when
+        Long normId = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        // then
+        assertEquals(Long.valueOf(10L), normId);
+    }
+
+    @Test
+    public void shouldMatchOnlyNormsWithoutLineWhenLineIsNotGiven() {
+        // given
+        norms.add(groupsNorm(5L, PRODUCTION_LINE_ID));
+
+        // when
+        Long normId = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                null);
+
+        // then
+        assertNull(normId);
+    }
+
+    @Test
+    public void shouldReloadChangedNorm() {
+        // given
+        norms.add(technologiesNorm(5L, null));
+
+        changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        given(jdbcTemplate.queryForList(eq("SELECT id, changeovertype, fromtechnology_id, totechnology_id, "
+                + "fromtechnologygroup_id, totechnologygroup_id, productionline_id FROM linechangeovernorms_linechangeovernorms "
+                + "WHERE id IN (:ids)"), anyMapOf(String.class, Object.class))).willReturn(
+                Lists.<Map<String, Object>> newArrayList(technologiesNorm(5L, OTHER_PRODUCTION_LINE_ID)));
+
+        // when
+        changeoverNormsMatrix.normChanged(5L);
+
+        Long normId = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, null, TO_TECH_ID, null, null);
+
+        // then
+        assertNull(normId);
+    }
+
+    @Test
+    public void shouldLoadCreatedNormCommittedAfterNormWithGreaterId() {
+        // given
+        norms.add(groupsNorm(5L, OTHER_PRODUCTION_LINE_ID));
+
+        changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                PRODUCTION_LINE_ID);
+
+        List<Map<String, Object>> createdNorms = Lists.newArrayList();
+
+        given(jdbcTemplate.queryForList(eq("SELECT id, changeovertype, fromtechnology_id, totechnology_id, "
+                + "fromtechnologygroup_id, totechnologygroup_id, productionline_id FROM linechangeovernorms_linechangeovernorms "
+                + "WHERE id > :maxId"), anyMapOf(String.class, Object.class))).willReturn(createdNorms);
+
+        TransactionSynchronizationManager.initSynchronization();
+
+        changeoverNormsMatrix.normCreated();
+
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+
+        TransactionSynchronizationManager.clearSynchronization();
+
+        createdNorms.add(groupsNorm(7L, null));
+
+        changeoverNormsMatrix.normCreated();
+
+        Long normIdBeforeCommit = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID,
+                TO_TECH_GROUP_ID, PRODUCTION_LINE_ID);
+
+        createdNorms.add(0, technologiesNorm(6L, PRODUCTION_LINE_ID));
+
+        // when
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        Long normId = changeoverNormsMatrix.findBestMatching(FROM_TECH_ID, FROM_TECH_GROUP_ID, TO_TECH_ID, TO_TECH_GROUP_ID,
+                PRODUCTION_LINE_ID);
+
+        // then
+        assertEquals(Long.valueOf(7L), normIdBeforeCommit);
+        assertEquals(Long.valueOf(6L), normId);
+
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, times(2)).queryForList(endsWith("WHERE id > :maxId"), parametersCaptor.capture());
+
+        for (Map<?, ?> parameters : parametersCaptor.getAllValues()) {
+            assertEquals(5L, parameters.get("maxId"));
+        }
+    }
+
+    private Map<String, Object> technologiesNorm(final Long id, final Long productionLineId) {
+        Map<String, Object> norm = norm(id, L_FOR_TECHNOLOGY, productionLineId);
+
+        norm.put("fromtechnology_id", FROM_TECH_ID);
+        norm.put("totechnology_id", TO_TECH_ID);
+
+        return norm;
+    }
+
+    private Map<String, Object> groupsNorm(final Long id, final Long productionLineId) {
+        Map<String, Object> norm = norm(id, L_FOR_TECHNOLOGY_GROUP, productionLineId);
+
+        norm.put("fromtechnologygroup_id", FROM_TECH_GROUP_ID);
+        norm.put("totechnologygroup_id", TO_TECH_GROUP_ID);
+
+        return norm;
+    }
+
+    private Map<String, Object> norm(final Long id, final String changeoverType, final Long productionLineId) {
+        Map<String, Object> norm = Maps.newHashMap();
+
+        norm.put("id", id);
+        norm.put("changeovertype", changeoverType);
+        norm.put("productionline_id", productionLineId);
+
+        return norm;
+    }
+
+}
@@ -63,6 +63,20 @@ public class GenerationOrderResult {
         productsWithoutAcceptedTechnologies.add(number);
     }
 
+    /**
+     * Adds results of other generation, e.g. of another chain of orders generated concurrently.
+     */
+    public void addAll(GenerationOrderResult other) {
+        productOrderErrors.addAll(other.productOrderErrors);
+        generatedOrderNumbers.addAll(other.generatedOrderNumbers);
+        realizationFromStock.addAll(other.realizationFromStock);
+        ordersWithoutPps.addAll(other.ordersWithoutPps);
+        ordersWithoutGeneratedSubOrders.addAll(other.ordersWithoutGeneratedSubOrders);
+        ordersWithGeneratedSubOrders.addAll(other.ordersWithGeneratedSubOrders);
+        ordersWithNoGeneratedSubOrders.addAll(other.ordersWithNoGeneratedSubOrders);
+        productsWithoutAcceptedTechnologies.addAll(other.productsWithoutAcceptedTechnologies);
+    }
+
     public void showMessage(ViewDefinitionState view) {
 
         if (!realizationFromStock.isEmpty()) {
@@ -35,21 +35,29 @@ import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchQueryBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.validators.ErrorMessage;
 import com.qcadoo.model.constants.DictionaryItemFields;
 import com.qcadoo.plugin.api.PluginUtils;
 import com.qcadoo.view.api.utils.NumberGeneratorService;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
@@ -60,6 +68,8 @@ import static com.qcadoo.mes.orders.constants.OrderFields.PRODUCTION_LINE;
 @Service
 public class OrdersFromMOProductsGenerationService {
 
+    private static final Logger LOG = LoggerFactory.getLogger(OrdersFromMOProductsGenerationService.class);
+
     private static final String IS_SUBCONTRACTED = "isSubcontracted";
 
     private static final String CREATE_COLLECTIVE_ORDERS = "createCollectiveOrders";
@@ -116,6 +126,13 @@ public class OrdersFromMOProductsGenerationService {
     @Autowired
     private DictionaryService dictionaryService;
 
+    @Autowired
+    private OrdersGenerationPipeline ordersGenerationPipeline;
+
+    private final Lock orderSavingLock = new ReentrantLock();
+
+    private final ConcurrentMap<Long, Lock> productionLineLocks = Maps.newConcurrentMap();
+
     public GenerationOrderResult generateOrders(List<Entity> masterOrderProducts, Date start, Date finish, boolean generatePPS) {
         GenerationOrderResult result = new GenerationOrderResult(translationService);
         boolean automaticPps = parameterService.getParameter().getBooleanField(PPS_IS_AUTOMATIC);
@@ -132,6 +149,7 @@ public class OrdersFromMOProductsGenerationService {
             }
         });
 
+        List<MasterOrderProduct> masterOrderProductsToGenerate = Lists.newArrayList();
         boolean createCollectiveOrders = parameterService.getParameter().getBooleanField(CREATE_COLLECTIVE_ORDERS);
         if (createCollectiveOrders) {
             Map<ProductTechnologyKey, List<Entity>> groupedMap = groupPositions(masterOrderProductsEntities);
@@ -152,7 +170,7 @@ public class OrdersFromMOProductsGenerationService {
                         .technology(entry.getKey().getTechnology()).groupedMasterOrderProduct(entry.getValue())
                         .quantityRemainingToOrder(quantityRemainingToOrderResult.getDecimalField("quantityRemainingToOrder"))
                         .build();
-                generateOrder(generatePPS, automaticPps, result, masterOrderProduct, start, finish);
+                masterOrderProductsToGenerate.add(masterOrderProduct);
 
             }
 
@@ -170,14 +188,103 @@ public class OrdersFromMOProductsGenerationService {
                                 .masterOrder(mop.getBelongsToField(MasterOrderProductFields.MASTER_ORDER))
                                 .comments(mop.getStringField(MasterOrderProductFields.COMMENTS))
                                 .quantityRemainingToOrder(quantityRemainingToOrder).masterOrderProduct(mop).build();
-                        generateOrder(generatePPS, automaticPps, result, masterOrderProduct, start, finish);
+                        masterOrderProductsToGenerate.add(masterOrderProduct);
 
                     });
         }
         MasterOrderProduct.newMasterOrderProduct().createCollectiveOrders(createCollectiveOrders);
+
+        Map<Long, List<MasterOrderProduct>> chains = groupByProductionLine(masterOrderProductsToGenerate);
+        if (ordersGenerationPipeline.isEnabled() && chains.size() > 1) {
+            generateOrdersInChains(masterOrderProductsToGenerate, chains.values(), generatePPS, automaticPps, result,
+                    start, finish);
+        } else {
+            masterOrderProductsToGenerate.forEach(masterOrderProduct -> generateOrder(generatePPS, automaticPps, result,
+                    masterOrderProduct, start, finish));
+        }
         return result;
     }
 
+    private Map<Long, List<MasterOrderProduct>> groupByProductionLine(final List<MasterOrderProduct> masterOrderProducts) {
+        Map<Long, List<MasterOrderProduct>> chains = Maps.newLinkedHashMap();
+        for (MasterOrderProduct masterOrderProduct : masterOrderProducts) {
+            Entity productionLine = orderService.getProductionLine(getTechnology(masterOrderProduct));
+            Long productionLineId = Objects.isNull(productionLine) ? null : productionLine.getId();
+            chains.computeIfAbsent(productionLineId, id -> Lists.newArrayList()).add(masterOrderProduct);
+        }
+        return chains;
+    }
+
+    /**
+     * Generates orders of each production line in a separate chain, chains run concurrently. Within a chain orders are
+     * generated one by one, so start dates resolved from previous orders on the line keep their order. Orders are saved
+     * one at a time, as their numbers are generated from orders already saved; PPS generation, the costly part, runs in
+     * parallel. Results of positions are collected separately and added in order of positions, as in sequential generation.
+     */
+    private void generateOrdersInChains(final List<MasterOrderProduct> masterOrderProducts,
+            final Collection<List<MasterOrderProduct>> chains, final boolean generatePPS, final boolean automaticPps,
+            final GenerationOrderResult result, final Date start, final Date finish) {
+        Map<MasterOrderProduct, GenerationOrderResult> positionResults = Maps.newIdentityHashMap();
+        masterOrderProducts.forEach(masterOrderProduct -> positionResults.put(masterOrderProduct, new GenerationOrderResult(
+                translationService)));
+
+        List<Runnable> chainTasks = Lists.newArrayList();
+        for (List<MasterOrderProduct> chain : chains) {
+            chainTasks.add(() -> chain.forEach(masterOrderProduct -> generateOrderInChain(generatePPS, automaticPps,
+                    positionResults.get(masterOrderProduct), masterOrderProduct, start, finish)));
+        }
+
+        ordersGenerationPipeline.runChains(chainTasks);
+
+        masterOrderProducts.forEach(masterOrderProduct -> result.addAll(positionResults.get(masterOrderProduct)));
+    }
+
+    private void generateOrderInChain(boolean generatePPS, boolean automaticPps, GenerationOrderResult result,
+            MasterOrderProduct masterOrderProduct, Date start, Date finish) {
+        try {
+            Optional<Entity> maybeOrder;
+            orderSavingLock.lock();
+            try {
+                maybeOrder = ordersGenerationPipeline.executeInNewTransaction(() -> saveOrder(result, masterOrderProduct,
+                        start, finish));
+            } finally {
+                orderSavingLock.unlock();
+            }
+
+            if (maybeOrder.isPresent() && shouldGeneratePps(generatePPS, automaticPps)) {
+                generatePpsInChain(result, maybeOrder.get());
+            }
+        } catch (Exception e) {
+            LOG.warn(String.format("Orders generation failed for product %s",
+                    masterOrderProduct.getProduct().getStringField(ProductFields.NUMBER)), e);
+            MasterOrderProductErrorContainer productErrorContainer = createProductErrorContainer(masterOrderProduct,
+                    masterOrderProduct.getQuantityRemainingToOrder());
+            productErrorContainer.setErrorMessages(Lists.newArrayList(new ErrorMessage(
+                    "masterOrders.masterOrder.generationOrder.generationFailed")));
+            result.addNotGeneratedProductError(productErrorContainer);
+        }
+    }
+
+    /**
+     * Locks production lines of the order and its sub orders for PPS generation, in order of their ids - sub orders may be
+     * planned on lines of other chains.
+     */
+    private void generatePpsInChain(final GenerationOrderResult result, final Entity order) {
+        List<Entity> orders = getOrderAndSubOrders(order.getId());
+        List<Lock> locks = orders.stream().map(ord -> ord.getBelongsToField(OrderFields.PRODUCTION_LINE))
+                .filter(Objects::nonNull).map(Entity::getId).distinct().sorted()
+                .map(productionLineId -> productionLineLocks.computeIfAbsent(productionLineId, id -> new ReentrantLock()))
+                .collect(Collectors.toList());
+
+        locks.forEach(Lock::lock);
+        try {
+            generatePps(result, orders, (ord, date) -> ordersGenerationPipeline.executeInNewTransaction(() -> tryGeneratePPS(
+                    ord, date)));
+        } finally {
+            Lists.reverse(locks).forEach(Lock::unlock);
+        }
+    }
+
     private Map<ProductTechnologyKey, List<Entity>> groupPositions(List<Entity> masterOrderProductsEntities) {
         Map<ProductTechnologyKey, List<Entity>> groupedMap = Maps.newHashMap();
 
@@ -204,7 +311,23 @@ public class OrdersFromMOProductsGenerationService {
 
     private void generateOrder(boolean generatePPS, boolean automaticPps, GenerationOrderResult result,
             MasterOrderProduct masterOrderProduct, Date start, Date finish) {
+        Optional<Entity> maybeOrder = saveOrder(result, masterOrderProduct, start, finish);
+
+        if (maybeOrder.isPresent() && shouldGeneratePps(generatePPS, automaticPps)) {
+            generatePps(result, getOrderAndSubOrders(maybeOrder.get().getId()), this::tryGeneratePPS);
+        }
+    }
 
+    private boolean shouldGeneratePps(final boolean generatePPS, final boolean automaticPps) {
+        return generatePPS && automaticPps
+                && !parameterService.getParameter().getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES);
+    }
+
+    /**
+     * @return saved order, if it was generated and is valid
+     */
+    private Optional<Entity> saveOrder(GenerationOrderResult result, MasterOrderProduct masterOrderProduct, Date start,
+            Date finish) {
         if (PluginUtils.isEnabled("integrationBaseLinker")) {
             createDocuments();
         }
@@ -245,83 +368,96 @@ public class OrdersFromMOProductsGenerationService {
                 masterOrderProductEntity.getDataDefinition().save(masterOrderProductEntity);
             }
             result.addRealizationFromStock(masterOrderProduct.getProduct().getStringField(ProductFields.NUMBER));
+            return Optional.empty();
+        }
+
+        Entity order = createOrder(masterOrderProduct, realizationFromStock, quantityRemainingToOrder, stockQuantity, start,
+                finish);
+        order = getOrderDD().save(order);
+        if (!order.isValid()) {
+            MasterOrderProductErrorContainer productErrorContainer = createProductErrorContainer(masterOrderProduct,
+                    order.getDecimalField(OrderFields.PLANNED_QUANTITY));
+            productErrorContainer.setErrorMessages(order.getGlobalErrors());
+            result.addNotGeneratedProductError(productErrorContainer);
         } else {
-            Entity order = createOrder(masterOrderProduct, realizationFromStock, quantityRemainingToOrder, stockQuantity, start,
-                    finish);
-            order = getOrderDD().save(order);
-            if (!order.isValid()) {
-                MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
-                productErrorContainer.setProduct(masterOrderProduct.getProduct().getStringField(ProductFields.NUMBER));
-                if (Objects.nonNull(masterOrderProduct.getMasterOrder())) {
-                    productErrorContainer.setMasterOrder(masterOrderProduct.getMasterOrder().getStringField(
-                            MasterOrderFields.NUMBER));
+            result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
+        }
+
+        generateSubOrders(result, order);
+
+        if (order.isValid()) {
+            return Optional.of(order);
+        }
+        return Optional.empty();
+    }
+
+    private MasterOrderProductErrorContainer createProductErrorContainer(final MasterOrderProduct masterOrderProduct,
+            final BigDecimal quantity) {
+        MasterOrderProductErrorContainer productErrorContainer = new MasterOrderProductErrorContainer();
+        productErrorContainer.setProduct(masterOrderProduct.getProduct().getStringField(ProductFields.NUMBER));
+        if (Objects.nonNull(masterOrderProduct.getMasterOrder())) {
+            productErrorContainer.setMasterOrder(
+                    masterOrderProduct.getMasterOrder().getStringField(MasterOrderFields.NUMBER));
+        } else {
+            productErrorContainer.setMasterOrder(extractMasterOrdersNumbers(masterOrderProduct));
+        }
+        productErrorContainer.setQuantity(quantity);
+        return productErrorContainer;
+    }
+
+    /**
+     * Generates PPS for given order and its sub orders, starting from the lowest level.
+     */
+    private void generatePps(final GenerationOrderResult result, final List<Entity> orderAndSubOrders,
+            final BiFunction<Entity, Date, Date> ppsGenerator) {
+        List<Entity> orders = Lists.newArrayList(orderAndSubOrders);
+        Collections.reverse(orders);
+        Integer lastLevel = null;
+        Date lastDate = null;
+        for (Entity ord : orders) {
+
+            Date calculatedOrderStartDate = null;
+            if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
+                Optional<Entity> maybeOrder = findLastOrder(ord);
+                if (maybeOrder.isPresent()) {
+                    calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
                 } else {
-                    productErrorContainer.setMasterOrder(extractMasterOrdersNumbers(masterOrderProduct));
+                    calculatedOrderStartDate = new DateTime().toDate();
                 }
-                productErrorContainer.setQuantity(order.getDecimalField(OrderFields.PLANNED_QUANTITY));
-                productErrorContainer.setErrorMessages(order.getGlobalErrors());
-                result.addNotGeneratedProductError(productErrorContainer);
             } else {
-                result.addGeneratedOrderNumber(order.getStringField(OrderFields.NUMBER));
+                Optional<Entity> maybeOrder = findPreviousOrder(ord);
+                if (maybeOrder.isPresent()) {
+                    calculatedOrderStartDate = maybeOrder.get().getDateField(OrderFields.FINISH_DATE);
+
+                } else {
+                    calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
+                }
             }
 
-            generateSubOrders(result, order);
-
-            if (order.isValid() && generatePPS && automaticPps
-                    && !parameter.getBooleanField(ORDERS_GENERATION_NOT_COMPLETE_DATES)) {
-                List<Entity> orders = getOrderAndSubOrders(order.getId());
-                Collections.reverse(orders);
-                Integer lastLevel = null;
-                Date lastDate = null;
-                for (Entity ord : orders) {
-
-                    Date calculatedOrderStartDate = null;
-                    if (Objects.isNull(ord.getDateField(OrderFields.DATE_FROM))) {
-                        Optional<Entity> maybeOrder = findLastOrder(ord);
-                        if (maybeOrder.isPresent()) {
-                            calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
-                        } else {
-                            calculatedOrderStartDate = new DateTime().toDate();
-                        }
-                    } else {
-                        Optional<Entity> maybeOrder = findPreviousOrder(ord);
-                        if (maybeOrder.isPresent()) {
-                            calculatedOrderStartDate = maybeOrder.get().getDateField(OrderFields.FINISH_DATE);
-
-                        } else {
-                            calculatedOrderStartDate = ord.getDateField(OrderFields.FINISH_DATE);
-                        }
-                    }
-
-                    if (Objects.isNull(calculatedOrderStartDate)) {
-                        calculatedOrderStartDate = new DateTime().toDate();
-                    }
-
-                    if (Objects.nonNull(lastLevel) && !Objects.equals(lastLevel, ord.getIntegerField("level"))) {
-                        if (Objects.nonNull(lastDate) && calculatedOrderStartDate.before(lastDate)) {
-                            calculatedOrderStartDate = lastDate;
-                        }
-                    }
-
-                    try {
-                        Date finishDate = tryGeneratePPS(ord, calculatedOrderStartDate);
-                        if (Objects.nonNull(lastDate) && finishDate.after(lastDate)) {
-                            lastDate = finishDate;
-                        } else if (Objects.isNull(lastDate)) {
-                            lastDate = finishDate;
-                        }
-                    } catch (Exception ex) {
-                        result.addOrderWithoutPps(ord.getStringField(OrderFields.NUMBER));
-                        break;
-                    }
-                    lastLevel = ord.getIntegerField("level");
+            if (Objects.isNull(calculatedOrderStartDate)) {
+                calculatedOrderStartDate = new DateTime().toDate();
+            }
 
+            if (Objects.nonNull(lastLevel) && !Objects.equals(lastLevel, ord.getIntegerField("level"))) {
+                if (Objects.nonNull(lastDate) && calculatedOrderStartDate.before(lastDate)) {
+                    calculatedOrderStartDate = lastDate;
                 }
+            }
 
+            try {
+                Date finishDate = ppsGenerator.apply(ord, calculatedOrderStartDate);
+                if (Objects.nonNull(lastDate) && finishDate.after(lastDate)) {
+                    lastDate = finishDate;
+                } else if (Objects.isNull(lastDate)) {
+                    lastDate = finishDate;
+                }
+            } catch (Exception ex) {
+                result.addOrderWithoutPps(ord.getStringField(OrderFields.NUMBER));
+                break;
             }
+            lastLevel = ord.getIntegerField("level");
 
         }
-
     }
 
     public Optional<Entity> findLastOrder(final Entity order) {
@@ -0,0 +1,106 @@
+package com.qcadoo.mes.masterOrders;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+/**
+ * Runs independent chains of orders generation concurrently, each step of a chain in its own transaction. Chains run with
+ * security context, locale and tenant of the calling thread.
+ */
+@Service
+public class OrdersGenerationPipeline {
+
+    @Value("${ordersGenerationThreads:4}")
+    private int threads;
+
+    @Autowired
+    private MultiTenantService multiTenantService;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(Math.max(threads, 1),
+                new ThreadFactoryBuilder().setNameFormat("mes-orders-generation-%d").setDaemon(true).build());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return threads > 1;
+    }
+
+    /**
+     * Runs given chains and waits until all of them are finished. Chains should handle their own failures - the first
+     * exception thrown out of a chain is rethrown after the other chains finish.
+     */
+    public void runChains(final List<Runnable> chains) {
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Locale locale = LocaleContextHolder.getLocale();
+        int tenantId = multiTenantService.getCurrentTenantId();
+
+        List<Future<?>> futures = Lists.newArrayList();
+        for (Runnable chain : chains) {
+            futures.add(executor.submit(() -> runChain(chain, securityContext, locale, tenantId)));
+        }
+
+        RuntimeException chainException = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for orders generation", e);
+            } catch (ExecutionException e) {
+                if (chainException == null) {
+                    chainException = new IllegalStateException("Orders generation chain failed", e.getCause());
+                }
+            }
+        }
+        if (chainException != null) {
+            throw chainException;
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public <T> T executeInNewTransaction(final Supplier<T> step) {
+        return step.get();
+    }
+
+    private void runChain(final Runnable chain, final SecurityContext securityContext, final Locale locale,
+            final int tenantId) {
+        SecurityContextHolder.setContext(securityContext);
+        LocaleContextHolder.setLocale(locale);
+        try {
+            multiTenantService.doInMultiTenantContext(tenantId, chain::run);
+        } finally {
+            LocaleContextHolder.resetLocaleContext();
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.qcadoo.mes.masterOrders;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderPositionDtoFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrderProductFields;
+import com.qcadoo.mes.masterOrders.constants.MasterOrdersConstants;
+import com.qcadoo.mes.materialFlowResources.MaterialFlowResourcesService;
+import com.qcadoo.mes.orders.OrderService;
+import com.qcadoo.mes.orders.constants.ParameterFieldsO;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.DictionaryService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.plugin.api.PluginUtils;
+import com.qcadoo.testing.model.EntityListMock;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(PluginUtils.class)
+public class OrdersFromMOProductsGenerationServiceTest {
+
+    private OrdersFromMOProductsGenerationService ordersFromMOProductsGenerationService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private OrderService orderService;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private MaterialFlowResourcesService materialFlowResourcesService;
+
+    @Mock
+    private DictionaryService dictionaryService;
+
+    @Mock
+    private OrdersGenerationPipeline ordersGenerationPipeline;
+
+    @Mock
+    private DataDefinition masterOrderProductDD, masterOrderPositionDtoDD;
+
+    @Mock
+    private Entity parameter, location, productionLine1, productionLine2;
+
+    private List<Entity> masterOrderProducts;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ordersFromMOProductsGenerationService = new OrdersFromMOProductsGenerationService();
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "parameterService", parameterService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "numberService", numberService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "orderService", orderService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "translationService", translationService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "materialFlowResourcesService",
+                materialFlowResourcesService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "dictionaryService", dictionaryService);
+        ReflectionTestUtils.setField(ordersFromMOProductsGenerationService, "ordersGenerationPipeline",
+                ordersGenerationPipeline);
+
+        PowerMockito.mockStatic(PluginUtils.class);
+        given(PluginUtils.isEnabled(anyString())).willReturn(false);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBooleanField(ParameterFieldsO.REALIZATION_FROM_STOCK)).willReturn(true);
+        given(parameter.getHasManyField(ParameterFieldsO.REALIZATION_LOCATIONS)).willReturn(
+                EntityListMock.create(Lists.newArrayList(location)));
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+
+        given(productionLine1.getId()).willReturn(1L);
+        given(productionLine2.getId()).willReturn(2L);
+
+        given(dataDefinitionService.get(MasterOrdersConstants.PLUGIN_IDENTIFIER,
+                MasterOrdersConstants.MODEL_MASTER_ORDER_POSITION_DTO)).willReturn(masterOrderPositionDtoDD);
+        given(masterOrderProductDD.save(any(Entity.class))).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return (Entity) invocation.getArguments()[0];
+            }
+        });
+
+        masterOrderProducts = Lists.newArrayList(mockMasterOrderProduct(11L, "P1", productionLine1),
+                mockMasterOrderProduct(12L, "P2", productionLine2), mockMasterOrderProduct(13L, "P3", productionLine1),
+                mockMasterOrderProduct(14L, "P4", productionLine2));
+
+        given(ordersGenerationPipeline.executeInNewTransaction(any(Supplier.class))).willAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return ((Supplier<?>) invocation.getArguments()[0]).get();
+            }
+        });
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                // chains finish in any order - run them from the last one
+                Lists.reverse((List<Runnable>) invocation.getArguments()[0]).forEach(Runnable::run);
+                return null;
+            }
+        }).when(ordersGenerationPipeline).runChains(anyList());
+    }
+
+    private Entity mockMasterOrderProduct(final Long id, final String productNumber, final Entity productionLine) {
+        Entity product = mock(Entity.class);
+        given(product.getId()).willReturn(id);
+        given(product.getStringField(ProductFields.NUMBER)).willReturn(productNumber);
+
+        Entity technology = mock(Entity.class);
+        given(orderService.getProductionLine(technology)).willReturn(productionLine);
+
+        Entity masterOrderProduct = mock(Entity.class);
+        given(masterOrderProduct.getId()).willReturn(id);
+        given(masterOrderProduct.getDataDefinition()).willReturn(masterOrderProductDD);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.PRODUCT)).willReturn(product);
+        given(masterOrderProduct.getBelongsToField(MasterOrderProductFields.TECHNOLOGY)).willReturn(technology);
+
+        Entity masterOrderPositionDto = mock(Entity.class);
+        given(masterOrderPositionDto.getDecimalField(MasterOrderPositionDtoFields.QUANTITY_REMAINING_TO_ORDER_WITHOUT_STOCK))
+                .willReturn(BigDecimal.TEN);
+        given(masterOrderPositionDtoDD.get(id)).willReturn(masterOrderPositionDto);
+
+        given(materialFlowResourcesService.getQuantitiesForProductsAndLocation(Lists.newArrayList(product), location))
+                .willReturn(ImmutableMap.of(id, BigDecimal.TEN));
+
+        return masterOrderProduct;
+    }
+
+    @Test
+    public final void shouldGenerateSameResultInChainsAsSequentially() {
+        // given
+        Date start = new Date();
+        given(ordersGenerationPipeline.isEnabled()).willReturn(false);
+        GenerationOrderResult sequentialResult = ordersFromMOProductsGenerationService.generateOrders(masterOrderProducts,
+                start, null, false);
+        given(ordersGenerationPipeline.isEnabled()).willReturn(true);
+
+        // when
+        GenerationOrderResult chainsResult = ordersFromMOProductsGenerationService.generateOrders(masterOrderProducts, start,
+                null, false);
+
+        // then
+        ArgumentCaptor<List> chainsCaptor = ArgumentCaptor.forClass(List.class);
+        verify(ordersGenerationPipeline).runChains(chainsCaptor.capture());
+        assertEquals(2, chainsCaptor.getValue().size());
+
+        assertEquals(Lists.newArrayList("P1", "P2", "P3", "P4"), sequentialResult.getRealizationFromStock());
+        assertEquals(sequentialResult.getRealizationFromStock(), chainsResult.getRealizationFromStock());
+    }
+
+    @Test
+    public final void shouldGenerateSequentiallyWhenAllPositionsAreOnOneLine() {
+        // given
+        given(ordersGenerationPipeline.isEnabled()).willReturn(true);
+        given(orderService.getProductionLine(any(Entity.class))).willReturn(productionLine1);
+
+        // when
+        GenerationOrderResult result = ordersFromMOProductsGenerationService.generateOrders(masterOrderProducts, new Date(),
+                null, false);
+
+        // then
+        verify(ordersGenerationPipeline, never()).runChains(anyList());
+        verify(ordersGenerationPipeline, never()).executeInNewTransaction(any(Supplier.class));
+        assertEquals(Lists.newArrayList("P1", "P2", "P3", "P4"), result.getRealizationFromStock());
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.qcadoo.mes.masterOrders;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.tenant.api.MultiTenantCallback;
+import com.qcadoo.tenant.api.MultiTenantService;
+
+public class OrdersGenerationPipelineTest {
+
+    private static final int TENANT_ID = 3;
+
+    private OrdersGenerationPipeline ordersGenerationPipeline;
+
+    @Mock
+    private MultiTenantService multiTenantService;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        ordersGenerationPipeline = new OrdersGenerationPipeline();
+        ReflectionTestUtils.setField(ordersGenerationPipeline, "threads", 2);
+        ReflectionTestUtils.setField(ordersGenerationPipeline, "multiTenantService", multiTenantService);
+        ordersGenerationPipeline.init();
+
+        given(multiTenantService.getCurrentTenantId()).willReturn(TENANT_ID);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                ((MultiTenantCallback) invocation.getArguments()[1]).invoke();
+                return null;
+            }
+        }).when(multiTenantService).doInMultiTenantContext(anyInt(), any(MultiTenantCallback.class));
+    }
+
+    @After
+    public final void shutdown() {
+        ordersGenerationPipeline.shutdown();
+    }
+
+    @Test
+    public final void shouldRunChainsInTenantOfCaller() {
+        // given
+        List<String> finishedChains = new CopyOnWriteArrayList<>();
+
+        // when
+        ordersGenerationPipeline.runChains(Lists.newArrayList(() -> finishedChains.add("line1"),
+                () -> finishedChains.add("line2")));
+
+        // then
+        assertEquals(2, finishedChains.size());
+        verify(multiTenantService, times(2)).doInMultiTenantContext(eq(TENANT_ID), any(MultiTenantCallback.class));
+        verify(multiTenantService, never()).doInMultiTenantContext(any(MultiTenantCallback.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public final void shouldRethrowFailureOfChainAfterOtherChainsFinish() {
+        // given
+        List<String> finishedChains = new CopyOnWriteArrayList<>();
+
+        // when
+        try {
+            ordersGenerationPipeline.runChains(Lists.newArrayList(() -> {
+                throw new IllegalArgumentException("chain failure");
+            }, () -> finishedChains.add("line2")));
+        } finally {
+            // then
+            assertEquals(Lists.newArrayList("line2"), finishedChains);
+        }
+    }
+
+}
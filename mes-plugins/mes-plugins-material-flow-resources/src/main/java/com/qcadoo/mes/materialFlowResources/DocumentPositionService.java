@@ -68,20 +68,27 @@ public class DocumentPositionService {
         List<String> attrCloumns = columns.stream().filter(c -> c.isChecked() && c.isForAttribute()).map(c -> c.getName())
                 .collect(Collectors.toList());
         StringBuilder attrQueryPart = new StringBuilder();
+        StringBuilder attrJoinPart = new StringBuilder();
+        Map<String, Object> parameters = Maps.newHashMap();
         if (!attrCloumns.isEmpty()) {
-            attrCloumns.forEach(ac -> {
-                attrQueryPart.append(" , ");
-                attrQueryPart.append("(SELECT string_agg(positionattributevalue.value, ', ') ");
-                attrQueryPart.append("FROM materialflowresources_positionattributevalue positionattributevalue ");
-                attrQueryPart.append("LEFT JOIN basic_attribute att ON att.id = positionattributevalue.attribute_id ");
-                attrQueryPart.append("WHERE positionattributevalue.position_id = p.id AND att.number ='" + ac
-                        + "' group by att.number) as \"" + ac + "\" ");
-            });
-
+            StringBuilder attrAggregatesPart = new StringBuilder();
+            for (int i = 0; i < attrCloumns.size(); i++) {
+                String ac = attrCloumns.get(i);
+                attrQueryPart.append(" , attrs.\"" + ac + "\" ");
+                attrAggregatesPart.append(" , string_agg(CASE WHEN att.number = :attributeNumber" + i
+                        + " THEN positionattributevalue.value END, ', ') AS \"" + ac + "\" ");
+                parameters.put("attributeNumber" + i, ac);
+            }
+            attrJoinPart.append("	LEFT JOIN (SELECT positionattributevalue.position_id " + attrAggregatesPart.toString());
+            attrJoinPart.append("FROM materialflowresources_positionattributevalue positionattributevalue ");
+            attrJoinPart.append("JOIN materialflowresources_position pos ON pos.id = positionattributevalue.position_id ");
+            attrJoinPart.append("LEFT JOIN basic_attribute att ON att.id = positionattributevalue.attribute_id ");
+            attrJoinPart.append("WHERE pos.document_id = :documentId GROUP BY positionattributevalue.position_id) attrs ");
+            attrJoinPart.append("ON attrs.position_id = p.id\n");
         }
         String query = "SELECT %s FROM ( SELECT p.*, p.document_id AS document, product.number AS product, product.name AS productName, product.unit, additionalcode.code AS additionalcode, "
                 + "palletnumber.number AS palletnumber, location.number AS storagelocation, resource.number AS resource, batch.number as batch, batch.id as batchId, \n"
-                + "(coalesce(r1.resourcesCount,0) < 2 AND p.quantity >= coalesce(resource.quantity,0)) AS lastResource "
+                + "(coalesce(resourcepalletnumber.resourcesCount,0) < 2 AND p.quantity >= coalesce(resource.quantity,0)) AS lastResource "
                 + attrQueryPart.toString()
                 + "	FROM materialflowresources_position p\n"
                 + "	LEFT JOIN basic_product product ON (p.product_id = product.id)\n"
@@ -89,11 +96,10 @@ public class DocumentPositionService {
                 + "	LEFT JOIN basic_palletnumber palletnumber ON (p.palletnumber_id = palletnumber.id)\n"
                 + "	LEFT JOIN materialflowresources_resource resource ON (p.resource_id = resource.id)\n"
                 + "	LEFT JOIN advancedgenealogy_batch batch ON (p.batch_id = batch.id)\n"
-                + " LEFT JOIN (SELECT palletnumber_id, count(id) as resourcesCount FROM materialflowresources_resource GROUP BY palletnumber_id) r1 ON r1.palletnumber_id = resource.palletnumber_id \n"
+                + "	LEFT JOIN basic_palletnumber resourcepalletnumber ON (resource.palletnumber_id = resourcepalletnumber.id)\n"
+                + attrJoinPart.toString()
                 + "	LEFT JOIN materialflowresources_storagelocation location ON (p.storagelocation_id = location.id) WHERE p.document_id = :documentId %s) q ";
 
-        Map<String, Object> parameters = Maps.newHashMap();
-
         parameters.put("documentId", documentId);
 
         query += lookupUtils.addQueryWhereForObject(position);
@@ -632,9 +638,8 @@ public class DocumentPositionService {
 
     public ResourceDTO getResourceByNumber(final String resource) {
         String query = "SELECT r.*, batch.number as batch, sl.number AS storageLocation, pn.number AS palletNumber, ac.code AS additionalCode, \n"
-                + "coalesce(r1.resourcesCount,0) < 2 AS lastResource "
+                + "coalesce(pn.resourcesCount,0) < 2 AS lastResource "
                 + "FROM materialflowresources_resource r \n"
-                + "LEFT JOIN (SELECT palletnumber_id, count(id) as resourcesCount FROM materialflowresources_resource GROUP BY palletnumber_id) r1 ON r1.palletnumber_id = r.palletnumber_id \n"
                 + "LEFT JOIN materialflowresources_storagelocation sl ON sl.id = storageLocation_id \n"
                 + "LEFT JOIN basic_additionalcode ac ON ac.id = additionalcode_id \n"
                 + "LEFT JOIN advancedgenealogy_batch batch ON batch.id = r.batch_id \n"
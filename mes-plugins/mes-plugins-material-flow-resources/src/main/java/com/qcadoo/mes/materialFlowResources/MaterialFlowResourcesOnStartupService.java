@@ -9,6 +9,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.service.PalletOccupancyService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -24,14 +25,19 @@ public class MaterialFlowResourcesOnStartupService extends Module {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private PalletOccupancyService palletOccupancyService;
+
     @Override
     public void enableOnStartup() {
         setDocumentPositionParameters();
+        palletOccupancyService.recalculate();
     }
 
     @Override
     public void enable() {
         setDocumentPositionParameters();
+        palletOccupancyService.recalculate();
     }
 
     @Transactional
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.materialFlowResources;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +40,12 @@ public interface MaterialFlowResourcesService {
 
     Map<Long, BigDecimal> getQuantitiesForProductsAndLocation(final List<Entity> products, final Entity location);
 
+    /**
+     * @return quantities of given products in resources of given locations, grouped by location id and product id
+     */
+    Map<Long, Map<Long, BigDecimal>> getQuantitiesForProductsAndLocations(final Collection<Long> productIds,
+            final Collection<Long> locationIds);
+
     void manageResources(final Entity transfer);
 
     void addResource(final Entity locationTo, final Entity product, final BigDecimal quantity, final Date time,
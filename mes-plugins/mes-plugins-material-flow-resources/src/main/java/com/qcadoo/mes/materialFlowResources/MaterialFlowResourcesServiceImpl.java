@@ -25,6 +25,7 @@ package com.qcadoo.mes.materialFlowResources;
 
 import java.math.BigDecimal;
 import java.text.DateFormat;
+import java.util.Collection;
 import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -270,6 +271,42 @@ public class MaterialFlowResourcesServiceImpl implements MaterialFlowResourcesSe
         return quantities;
     }
 
+    @Override
+    public Map<Long, Map<Long, BigDecimal>> getQuantitiesForProductsAndLocations(final Collection<Long> productIds,
+            final Collection<Long> locationIds) {
+        Map<Long, Map<Long, BigDecimal>> quantities = Maps.newHashMap();
+
+        if (!productIds.isEmpty() && !locationIds.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("SELECT l.id AS location, p.id AS product, SUM(r.quantity) AS quantity ");
+            sb.append("FROM #materialFlowResources_resource AS r ");
+            sb.append("JOIN r.product AS p ");
+            sb.append("JOIN r.location AS l ");
+            sb.append("WHERE p.id IN (:productIds) ");
+            sb.append("AND l.id IN (:locationIds) ");
+            sb.append("GROUP BY l.id, p.id ");
+
+            SearchQueryBuilder sqb = getResourceDD().find(sb.toString());
+
+            sqb.setParameterList("productIds", productIds);
+            sqb.setParameterList("locationIds", locationIds);
+
+            for (Entity productAndQuantity : sqb.list().getEntities()) {
+                Long locationId = (Long) productAndQuantity.getField("location");
+
+                if (!quantities.containsKey(locationId)) {
+                    quantities.put(locationId, Maps.newHashMap());
+                }
+
+                quantities.get(locationId).put((Long) productAndQuantity.getField("product"),
+                        productAndQuantity.getDecimalField("quantity"));
+            }
+        }
+
+        return quantities;
+    }
+
     @Override
     public Map<Entity, BigDecimal> groupResourcesByProduct(final Entity location) {
         Map<Entity, BigDecimal> productsAndQuantities = new LinkedHashMap<Entity, BigDecimal>();
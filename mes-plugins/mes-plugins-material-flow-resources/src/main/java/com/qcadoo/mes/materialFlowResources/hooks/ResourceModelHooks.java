@@ -35,6 +35,7 @@ import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.service.PalletOccupancyService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -48,6 +49,9 @@ public class ResourceModelHooks {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private PalletOccupancyService palletOccupancyService;
+
     public void onSave(final DataDefinition resourceDD, final Entity resource) {
         if (StringUtils.isEmpty(resource.getStringField(ResourceFields.NUMBER))) {
             Date time = resource.getDateField(ResourceFields.TIME);
@@ -79,6 +83,35 @@ public class ResourceModelHooks {
         if (Objects.isNull(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY))) {
             resource.setField(ResourceFields.AVAILABLE_QUANTITY, resource.getDecimalField(ResourceFields.QUANTITY));
         }
+
+        palletOccupancyService.resourceAdded(getPalletNumberId(resource));
+    }
+
+    public void onUpdate(final DataDefinition resourceDD, final Entity resource) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+
+        parameters.put("id", resource.getId());
+
+        Long previousPalletNumberId = jdbcTemplate.queryForObject(
+                "SELECT palletnumber_id FROM materialflowresources_resource WHERE id = :id", parameters, Long.class);
+
+        palletOccupancyService.resourceMoved(previousPalletNumberId, getPalletNumberId(resource));
+    }
+
+    public boolean onDelete(final DataDefinition resourceDD, final Entity resource) {
+        palletOccupancyService.resourceRemoved(getPalletNumberId(resource));
+
+        return true;
+    }
+
+    private Long getPalletNumberId(final Entity resource) {
+        Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+        if (Objects.isNull(palletNumber)) {
+            return null;
+        }
+
+        return palletNumber.getId();
     }
 
 }
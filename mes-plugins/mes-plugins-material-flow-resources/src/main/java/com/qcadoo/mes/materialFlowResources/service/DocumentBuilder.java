@@ -25,6 +25,7 @@ package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
@@ -301,6 +302,20 @@ public class DocumentBuilder {
         return this;
     }
 
+    /**
+     * Add previously created positions to document, in the given order
+     *
+     * @param positions
+     * @return DocumentBuilder.this
+     */
+    public DocumentBuilder addPositions(final Collection<Entity> positions) {
+        Preconditions.checkArgument(positions != null, "Positions argument is required.");
+
+        this.positions.addAll(positions);
+
+        return this;
+    }
+
     public DocumentBuilder setAccepted() {
         document.setField(DocumentFields.STATE, DocumentState.ACCEPTED.getStringValue());
 
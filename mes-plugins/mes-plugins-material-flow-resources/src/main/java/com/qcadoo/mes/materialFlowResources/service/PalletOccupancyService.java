@@ -0,0 +1,92 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Map;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Maintains number of resources stored on each pallet (basic_palletnumber.resourcescount), so document positions and
+ * resource lookups can check if resource is the last one on its pallet without counting the whole resource table.
+ */
+@Service
+public class PalletOccupancyService {
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public void resourceAdded(final Long palletNumberId) {
+        changeResourcesCount(palletNumberId, 1);
+    }
+
+    public void resourceRemoved(final Long palletNumberId) {
+        changeResourcesCount(palletNumberId, -1);
+    }
+
+    public void resourceMoved(final Long fromPalletNumberId, final Long toPalletNumberId) {
+        if (!Objects.equals(fromPalletNumberId, toPalletNumberId)) {
+            resourceRemoved(fromPalletNumberId);
+            resourceAdded(toPalletNumberId);
+        }
+    }
+
+    /**
+     * Recalculates resources count of pallets whose stored count differs from the resource table, e.g. after resources were
+     * modified with plain SQL.
+     * 
+     * @return number of corrected pallets
+     */
+    public int recalculate() {
+        String query = "UPDATE basic_palletnumber palletnumber SET resourcescount = coalesce(counts.resourcescount, 0) "
+                + "FROM basic_palletnumber pn "
+                + "LEFT JOIN (SELECT palletnumber_id, count(id) AS resourcescount FROM materialflowresources_resource "
+                + "WHERE palletnumber_id IS NOT NULL GROUP BY palletnumber_id) counts ON counts.palletnumber_id = pn.id "
+                + "WHERE palletnumber.id = pn.id "
+                + "AND palletnumber.resourcescount IS DISTINCT FROM coalesce(counts.resourcescount, 0)";
+
+        return jdbcTemplate.update(query, Maps.newHashMap());
+    }
+
+    private void changeResourcesCount(final Long palletNumberId, final int delta) {
+        if (Objects.isNull(palletNumberId)) {
+            return;
+        }
+
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put("palletNumberId", palletNumberId);
+        parameters.put("delta", delta);
+
+        jdbcTemplate.update("UPDATE basic_palletnumber "
+                + "SET resourcescount = greatest(coalesce(resourcescount, 0) + :delta, 0) WHERE id = :palletNumberId",
+                parameters);
+    }
+
+}
@@ -25,6 +25,7 @@ package com.qcadoo.mes.materialFlowResources.service;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.qcadoo.commons.functional.Either;
 import com.qcadoo.mes.basic.CalculationQuantityService;
@@ -65,10 +66,14 @@ import com.qcadoo.view.api.ComponentState;
 import com.qcadoo.view.api.ViewDefinitionState;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.exception.LockAcquisitionException;
@@ -407,10 +412,15 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        Map<Long, List<Entity>> resourcesByProduct = getResourcesForPositions(warehouse, positions);
+
+        for (Entity position : positions) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            Either<BigDecimal, List<Entity>> eitherPositions = updateResources(warehouse, position, warehouseAlgorithm);
+            Either<BigDecimal, List<Entity>> eitherPositions = updateResources(warehouse, position, warehouseAlgorithm,
+                    resourcesByProduct);
 
             enoughResources = enoughResources && position.isValid();
 
@@ -482,12 +492,13 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private Either<BigDecimal, List<Entity>> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm) {
+            final WarehouseAlgorithm warehouseAlgorithm, final Map<Long, List<Entity>> resourcesByProduct) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm,
+                resourcesByProduct);
 
         reservationsService.deleteReservationFromDocumentPosition(position);
 
@@ -527,6 +538,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
                     resource.getDataDefinition().delete(resource.getId());
 
+                    removeResource(resourcesByProduct, resource);
+
                     palletNumberDisposalService.tryToDispose(palletNumberToDispose);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
@@ -542,6 +555,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     if (!savedResource.isValid()) {
                         throw new InvalidResourceException(savedResource);
                     }
+
+                    replaceResource(resourcesByProduct, savedResource);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY,
@@ -572,6 +587,8 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     throw new InvalidResourceException(savedResource);
                 }
 
+                replaceResource(resourcesByProduct, savedResource);
+
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScaleWithDefaultMathContext(quantity));
                 newPosition.setField(PositionFields.GIVEN_QUANTITY, givenQuantity);
 
@@ -775,6 +792,11 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
     private List<Entity> getResourcesForWarehouseProductAndAlgorithm(final Entity warehouse, final Entity product,
             final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
+        return getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm, null);
+    }
+
+    private List<Entity> getResourcesForWarehouseProductAndAlgorithm(final Entity warehouse, final Entity product,
+            final Entity position, final WarehouseAlgorithm warehouseAlgorithm, final Map<Long, List<Entity>> resourcesByProduct) {
         List<Entity> resources = Lists.newArrayList();
 
         Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
@@ -796,6 +818,9 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             }
 
             resources.add(resource);
+        } else if (Objects.nonNull(resourcesByProduct)) {
+            resources = getResourcesFromCandidates(resourcesByProduct.getOrDefault(product.getId(), Collections.emptyList()),
+                    product, additionalCode, position, warehouseAlgorithm);
         } else if (WarehouseAlgorithm.FIFO.equals(warehouseAlgorithm)) {
             resources = getResourcesForLocationAndProductFIFO(warehouse, product, additionalCode, position);
         } else if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
@@ -809,6 +834,131 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return resources;
     }
 
+    private Map<Long, List<Entity>> getResourcesForPositions(final Entity warehouse, final List<Entity> positions) {
+        Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+        Set<Long> productIds = positions.stream()
+                .filter(position -> Objects.isNull(position.getBelongsToField(PositionFields.RESOURCE)))
+                .map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId()).collect(Collectors.toSet());
+
+        if (productIds.isEmpty()) {
+            return resourcesByProduct;
+        }
+
+        List<Entity> resources = dataDefinitionService
+                .get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER, MaterialFlowResourcesConstants.MODEL_RESOURCE).find()
+                .add(SearchRestrictions.belongsTo(ResourceFields.LOCATION, warehouse))
+                .add(SearchRestrictions.in(ResourceFields.PRODUCT + ".id", productIds))
+                .add(SearchRestrictions.gt(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO))
+                .addOrder(SearchOrders.asc("id")).list().getEntities();
+
+        for (Entity resource : resources) {
+            resourcesByProduct.computeIfAbsent(resource.getBelongsToField(ResourceFields.PRODUCT).getId(),
+                    productId -> Lists.newArrayList()).add(resource);
+        }
+
+        return resourcesByProduct;
+    }
+
+    private void removeResource(final Map<Long, List<Entity>> resourcesByProduct, final Entity resource) {
+        List<Entity> resources = resourcesByProduct.get(resource.getBelongsToField(ResourceFields.PRODUCT).getId());
+
+        if (Objects.nonNull(resources)) {
+            resources.removeIf(candidate -> candidate.getId().equals(resource.getId()));
+        }
+    }
+
+    private void replaceResource(final Map<Long, List<Entity>> resourcesByProduct, final Entity resource) {
+        List<Entity> resources = resourcesByProduct.get(resource.getBelongsToField(ResourceFields.PRODUCT).getId());
+
+        if (Objects.nonNull(resources)) {
+            resources.replaceAll(candidate -> candidate.getId().equals(resource.getId()) ? resource : candidate);
+        }
+    }
+
+    private List<Entity> getResourcesFromCandidates(final List<Entity> candidates, final Entity product,
+            final Entity additionalCode, final Entity position, final WarehouseAlgorithm warehouseAlgorithm) {
+        List<Entity> resources = getResourcesFromCandidatesForConversion(candidates, product, additionalCode, position,
+                warehouseAlgorithm, false);
+
+        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        boolean fillResourceIrrespectiveOfConversion = documentPositionParameters
+                .getBooleanField(DocumentPositionParametersFields.FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
+
+        if (fillResourceIrrespectiveOfConversion) {
+            resources.addAll(getResourcesFromCandidatesForConversion(candidates, product, additionalCode, position,
+                    warehouseAlgorithm, true));
+        }
+
+        return resources;
+    }
+
+    private List<Entity> getResourcesFromCandidatesForConversion(final List<Entity> candidates, final Entity product,
+            final Entity additionalCode, final Entity position, final WarehouseAlgorithm warehouseAlgorithm,
+            final boolean resourceIrrespectiveOfConversion) {
+        BigDecimal conversion;
+
+        if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            conversion = position.getDecimalField(PositionFields.CONVERSION);
+        } else {
+            conversion = BigDecimal.ONE;
+        }
+
+        Entity batch = position.getBelongsToField(PositionFields.BATCH);
+
+        List<Entity> resources = candidates.stream()
+                .filter(resource -> BigDecimal.ZERO.compareTo(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)) < 0)
+                .filter(resource -> matchesConversion(resource, conversion, resourceIrrespectiveOfConversion))
+                .filter(resource -> Objects.isNull(batch) || isSameEntity(resource.getBelongsToField(ResourceFields.BATCH), batch))
+                .sorted(getResourcesComparator(warehouseAlgorithm)).collect(Collectors.toList());
+
+        if (Objects.nonNull(additionalCode)) {
+            Map<Boolean, List<Entity>> resourcesByAdditionalCode = resources.stream().collect(Collectors.partitioningBy(
+                    resource -> isSameEntity(resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE), additionalCode)));
+
+            resources = resourcesByAdditionalCode.get(true);
+            resources.addAll(resourcesByAdditionalCode.get(false));
+        }
+
+        return resources;
+    }
+
+    private boolean matchesConversion(final Entity resource, final BigDecimal conversion,
+            final boolean resourceIrrespectiveOfConversion) {
+        BigDecimal resourceConversion = resource.getDecimalField(ResourceFields.CONVERSION);
+
+        if (Objects.isNull(conversion) || Objects.isNull(resourceConversion)) {
+            return false;
+        }
+
+        return (conversion.compareTo(resourceConversion) == 0) != resourceIrrespectiveOfConversion;
+    }
+
+    private boolean isSameEntity(final Entity entity, final Entity otherEntity) {
+        return Objects.nonNull(entity) && entity.getId().equals(otherEntity.getId());
+    }
+
+    private Comparator<Entity> getResourcesComparator(final WarehouseAlgorithm warehouseAlgorithm) {
+        Comparator<Entity> byAvailableQuantity = Comparator.comparing(
+                resource -> resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY));
+
+        if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            return Comparator.comparing(resource -> resource.getDateField(ResourceFields.TIME),
+                    Comparator.nullsFirst(Comparator.reverseOrder()));
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            return Comparator.comparing((Entity resource) -> resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                    Comparator.nullsLast(Comparator.naturalOrder())).thenComparing(byAvailableQuantity);
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            return Comparator.comparing((Entity resource) -> resource.getDateField(ResourceFields.EXPIRATION_DATE),
+                    Comparator.nullsFirst(Comparator.reverseOrder())).thenComparing(byAvailableQuantity);
+        }
+
+        return Comparator.comparing(resource -> resource.getDateField(ResourceFields.TIME),
+                Comparator.nullsLast(Comparator.naturalOrder()));
+    }
+
     private List<Entity> getResourcesForLocationCommonCodeConversion(final Entity warehouse, final Entity product,
             final Entity additionalCode, final Entity position, final boolean resourceIrrespectiveOfConversion,
             final SearchOrder... searchOrders) {
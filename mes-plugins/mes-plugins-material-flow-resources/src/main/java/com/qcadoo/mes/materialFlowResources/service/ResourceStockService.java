@@ -1,6 +1,8 @@
 package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Map;
 
 import com.qcadoo.model.api.Entity;
 
@@ -12,5 +14,7 @@ public interface ResourceStockService {
 
     BigDecimal getResourceStockQuantity(Entity product, Entity location);
 
+    Map<Long, BigDecimal> getResourceStockAvailableQuantities(Collection<Long> productIds, Entity location);
+
     void checkResourcesStock(Entity document);
 }
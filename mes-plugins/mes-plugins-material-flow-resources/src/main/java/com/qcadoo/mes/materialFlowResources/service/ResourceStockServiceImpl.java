@@ -2,6 +2,7 @@ package com.qcadoo.mes.materialFlowResources.service;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -9,10 +10,10 @@ import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.BeanPropertyRowMapper;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.materialFlow.constants.LocationFields;
@@ -89,15 +90,40 @@ public class ResourceStockServiceImpl implements ResourceStockService {
         }
     }
 
+    @Override
+    public Map<Long, BigDecimal> getResourceStockAvailableQuantities(final Collection<Long> productIds, final Entity location) {
+        Map<Long, BigDecimal> availableQuantities = Maps.newHashMap();
+
+        if (productIds.isEmpty()) {
+            return availableQuantities;
+        }
+
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT rs.product_id, rs.availablequantity ");
+        query.append("FROM materialflowresources_resourcestockdto rs ");
+        query.append("WHERE rs.location_id = :locationId AND rs.product_id IN (:productIds)");
+
+        Map<String, Object> params = Maps.newHashMap();
+        params.put("locationId", location.getId().intValue());
+        params.put("productIds", productIds.stream().map(Long::intValue).collect(Collectors.toList()));
+
+        jdbcTemplate.query(query.toString(), params, (RowCallbackHandler) rs -> availableQuantities
+                .putIfAbsent(rs.getLong("product_id"), rs.getBigDecimal("availablequantity")));
+
+        return availableQuantities;
+    }
+
     @Override
     public void checkResourcesStock(Entity document) {
         List<String> invalidProducts = new ArrayList<>();
-        List<Entity> mergedPositions = mergePositionsBeforeValidation(document.getHasManyField(DocumentFields.POSITIONS));
+        Collection<Entity> mergedPositions = mergePositionsBeforeValidation(document.getHasManyField(DocumentFields.POSITIONS));
+        Map<Long, BigDecimal> availableQuantities = getResourceStockAvailableQuantities(
+                mergedPositions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId())
+                        .collect(Collectors.toList()), document.getBelongsToField(DocumentFields.LOCATION_FROM));
         for (Entity position : mergedPositions) {
+            Entity product = position.getBelongsToField(PositionFields.PRODUCT);
             if ((position.getDecimalField(PositionFields.QUANTITY)
-                    .compareTo(getResourceStockAvailableQuantity(position.getBelongsToField(PositionFields.PRODUCT),
-                            document.getBelongsToField(DocumentFields.LOCATION_FROM))) > 0)) {
-                Entity product = position.getBelongsToField(PositionFields.PRODUCT);
+                    .compareTo(availableQuantities.getOrDefault(product.getId(), BigDecimal.ZERO)) > 0)) {
                 invalidProducts.add(product.getStringField(ProductFields.NUMBER));
             }
         }
@@ -106,21 +132,19 @@ public class ResourceStockServiceImpl implements ResourceStockService {
         }
     }
 
-    private List<Entity> mergePositionsBeforeValidation(final List<Entity> positions) {
-        List<Entity> mergedPositions = Lists.newArrayList();
+    private Collection<Entity> mergePositionsBeforeValidation(final List<Entity> positions) {
+        Map<Long, Entity> mergedPositions = Maps.newLinkedHashMap();
         for (Entity position : positions) {
-            Optional<Entity> mergedPosition = mergedPositions.stream()
-                    .filter(merged -> merged.getBelongsToField(PositionFields.PRODUCT).getId()
-                            .equals(position.getBelongsToField(PositionFields.PRODUCT).getId()))
-                    .findAny();
-            if (mergedPosition.isPresent()) {
-                mergedPosition.get().setField(PositionFields.QUANTITY, mergedPosition.get()
-                        .getDecimalField(PositionFields.QUANTITY).add(position.getDecimalField(PositionFields.QUANTITY)));
+            Long productId = position.getBelongsToField(PositionFields.PRODUCT).getId();
+            Entity mergedPosition = mergedPositions.get(productId);
+            if (mergedPosition != null) {
+                mergedPosition.setField(PositionFields.QUANTITY, mergedPosition.getDecimalField(PositionFields.QUANTITY)
+                        .add(position.getDecimalField(PositionFields.QUANTITY)));
             } else {
-                mergedPositions.add(position.copy());
+                mergedPositions.put(productId, position.copy());
             }
         }
-        return mergedPositions;
+        return mergedPositions.values();
     }
 
     private void addDocumentErrors(Entity document, List<String> invalidProducts) {
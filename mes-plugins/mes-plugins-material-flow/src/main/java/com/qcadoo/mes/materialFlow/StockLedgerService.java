@@ -0,0 +1,329 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow;
+
+import java.math.BigDecimal;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Calculates quantities of products in locations from transfers and stock corrections. Balances of each location at the
+ * start of a month are kept in stockSnapshot, so quantity for any date needs only movements since the start of its month.
+ * Snapshots are created when first needed and removed by transfer and stock correction hooks when movements they cover
+ * change.
+ * 
+ * Hooks take a shared transaction-level advisory lock on the location (keyed by location id) before removing snapshots and
+ * keep it until their transaction ends. A snapshot is saved only by a transaction which gets the exclusive lock without
+ * waiting, so it never misses movements of a transaction still in progress; otherwise the balance is just calculated.
+ */
+@Service
+public class StockLedgerService {
+
+    private static final String L_LOCATION_ID = "locationId";
+
+    private static final String L_PRODUCT_ID = "productId";
+
+    private static final String L_PERIOD_START = "periodStart";
+
+    private static final String L_FROM = "from";
+
+    private static final String L_TO = "to";
+
+    private static final String L_ID = "id";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private NumberService numberService;
+
+    @Transactional
+    public BigDecimal getQuantityInLocation(final Long locationId, final Long productId, final Date forDate) {
+        BigDecimal quantity = getBalances(locationId, productId, forDate).get(productId);
+
+        if (Objects.isNull(quantity) || quantity.compareTo(BigDecimal.ZERO) < 0) {
+            return BigDecimal.ZERO;
+        }
+
+        return quantity;
+    }
+
+    /**
+     * @return quantities of all products which were ever moved to, out of or corrected in given location, by product id
+     */
+    @Transactional
+    public Map<Long, BigDecimal> getQuantitiesInLocation(final Long locationId, final Date forDate) {
+        Map<Long, BigDecimal> quantities = getBalances(locationId, null, forDate);
+
+        for (Map.Entry<Long, BigDecimal> quantity : quantities.entrySet()) {
+            if (quantity.getValue().compareTo(BigDecimal.ZERO) < 0) {
+                quantity.setValue(BigDecimal.ZERO);
+            }
+        }
+
+        return quantities;
+    }
+
+    /**
+     * Removes snapshots of given locations which cover movements done at or after given date.
+     */
+    public void invalidateSnapshots(final Collection<Long> locationIds, final Date from) {
+        if (locationIds.isEmpty() || Objects.isNull(from)) {
+            return;
+        }
+
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put("locationIds", locationIds);
+        parameters.put(L_FROM, from);
+
+        jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock_shared(location_id) FROM "
+                + "(SELECT DISTINCT unnest(ARRAY[:locationIds]) AS location_id) location ORDER BY location_id", parameters);
+        jdbcTemplate.update("DELETE FROM materialflow_stocksnapshot WHERE location_id IN (:locationIds) "
+                + "AND periodstart >= :from", parameters);
+    }
+
+    /**
+     * Removes snapshots which cover transfer with given id, as it is stored in database.
+     */
+    public void invalidateTransferSnapshots(final Long transferId) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_ID, transferId);
+
+        jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock_shared(location_id) FROM "
+                + "(SELECT locationfrom_id AS location_id FROM materialflow_transfer WHERE id = :id "
+                + "UNION SELECT locationto_id FROM materialflow_transfer WHERE id = :id) location "
+                + "WHERE location_id IS NOT NULL ORDER BY location_id", parameters);
+        jdbcTemplate.update("DELETE FROM materialflow_stocksnapshot snapshot USING materialflow_transfer transfer "
+                + "WHERE transfer.id = :id AND snapshot.location_id IN (transfer.locationfrom_id, transfer.locationto_id) "
+                + "AND snapshot.periodstart >= transfer.\"time\"", parameters);
+    }
+
+    /**
+     * Removes snapshots which cover stock correction with given id, as it is stored in database.
+     */
+    public void invalidateStockCorrectionSnapshots(final Long stockCorrectionId) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_ID, stockCorrectionId);
+
+        jdbcTemplate.queryForList("SELECT pg_advisory_xact_lock_shared(location_id) FROM materialflow_stockcorrection "
+                + "WHERE id = :id AND location_id IS NOT NULL", parameters);
+        jdbcTemplate.update("DELETE FROM materialflow_stocksnapshot snapshot USING materialflow_stockcorrection correction "
+                + "WHERE correction.id = :id AND snapshot.location_id = correction.location_id "
+                + "AND snapshot.periodstart >= correction.stockcorrectiondate", parameters);
+    }
+
+    private Map<Long, BigDecimal> getBalances(final Long locationId, final Long productId, final Date forDate) {
+        Date periodStart = DateUtils.truncate(forDate, Calendar.MONTH);
+
+        return calculateBalances(locationId, productId, periodStart, getOrCreateSnapshot(locationId, periodStart), forDate);
+    }
+
+    /**
+     * Creates unique index of snapshots, removing duplicates which could be saved before it existed.
+     */
+    public void createSnapshotIndex() {
+        jdbcTemplate.update("DELETE FROM materialflow_stocksnapshot snapshot USING materialflow_stocksnapshot duplicate "
+                + "WHERE duplicate.location_id = snapshot.location_id AND duplicate.product_id = snapshot.product_id "
+                + "AND duplicate.periodstart = snapshot.periodstart AND duplicate.id < snapshot.id", Maps.newHashMap());
+        jdbcTemplate.getJdbcOperations().execute("CREATE UNIQUE INDEX IF NOT EXISTS materialflow_stocksnapshot_unique_idx "
+                + "ON materialflow_stocksnapshot (location_id, product_id, periodstart)");
+    }
+
+    private Map<Long, BigDecimal> getOrCreateSnapshot(final Long locationId, final Date periodStart) {
+        Date lastPeriodStart = getLastPeriodStart(locationId, periodStart);
+
+        if (isPeriodStart(lastPeriodStart, periodStart)) {
+            return getSnapshot(locationId, lastPeriodStart);
+        }
+
+        boolean locked = tryLockSnapshots(locationId);
+
+        if (locked) {
+            lastPeriodStart = getLastPeriodStart(locationId, periodStart);
+
+            if (isPeriodStart(lastPeriodStart, periodStart)) {
+                return getSnapshot(locationId, lastPeriodStart);
+            }
+        }
+
+        Map<Long, BigDecimal> lastSnapshot = Objects.isNull(lastPeriodStart) ? Maps.newHashMap() : getSnapshot(locationId,
+                lastPeriodStart);
+        Map<Long, BigDecimal> snapshot = calculateBalances(locationId, null, lastPeriodStart, lastSnapshot, periodStart);
+
+        if (locked) {
+            saveSnapshot(locationId, periodStart, snapshot);
+        }
+
+        return snapshot;
+    }
+
+    private boolean tryLockSnapshots(final Long locationId) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_LOCATION_ID, locationId);
+
+        return jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(:locationId)", parameters, Boolean.class);
+    }
+
+    private boolean isPeriodStart(final Date lastPeriodStart, final Date periodStart) {
+        return Objects.nonNull(lastPeriodStart) && lastPeriodStart.getTime() == periodStart.getTime();
+    }
+
+    private Date getLastPeriodStart(final Long locationId, final Date periodStart) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_LOCATION_ID, locationId);
+        parameters.put(L_PERIOD_START, periodStart);
+
+        return jdbcTemplate.queryForObject("SELECT max(periodstart) FROM materialflow_stocksnapshot "
+                + "WHERE location_id = :locationId AND periodstart <= :periodStart", parameters, Date.class);
+    }
+
+    private Map<Long, BigDecimal> getSnapshot(final Long locationId, final Date periodStart) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_LOCATION_ID, locationId);
+        parameters.put(L_PERIOD_START, periodStart);
+
+        Map<Long, BigDecimal> snapshot = Maps.newHashMap();
+
+        for (Map<String, Object> row : jdbcTemplate.queryForList("SELECT product_id, quantity "
+                + "FROM materialflow_stocksnapshot WHERE location_id = :locationId AND periodstart = :periodStart",
+                parameters)) {
+            snapshot.put(((Number) row.get("product_id")).longValue(), (BigDecimal) row.get("quantity"));
+        }
+
+        return snapshot;
+    }
+
+    private void saveSnapshot(final Long locationId, final Date periodStart, final Map<Long, BigDecimal> snapshot) {
+        List<SqlParameterSource> batchParameters = Lists.newArrayList();
+
+        for (Map.Entry<Long, BigDecimal> balance : snapshot.entrySet()) {
+            MapSqlParameterSource parameters = new MapSqlParameterSource();
+
+            parameters.addValue(L_LOCATION_ID, locationId);
+            parameters.addValue(L_PRODUCT_ID, balance.getKey());
+            parameters.addValue(L_PERIOD_START, periodStart);
+            parameters.addValue("quantity", balance.getValue());
+
+            batchParameters.add(parameters);
+        }
+
+        if (!batchParameters.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO materialflow_stocksnapshot (location_id, product_id, periodstart, quantity) "
+                    + "VALUES (:locationId, :productId, :periodStart, :quantity) "
+                    + "ON CONFLICT (location_id, product_id, periodstart) DO NOTHING",
+                    batchParameters.toArray(new SqlParameterSource[batchParameters.size()]));
+        }
+    }
+
+    /**
+     * Balances at date to, starting from balances at date from (exclusive, null for the very beginning). The latest stock
+     * correction done until date to replaces balance of its product, so only transfers done after it are counted.
+     */
+    private Map<Long, BigDecimal> calculateBalances(final Long locationId, final Long productId, final Date from,
+            final Map<Long, BigDecimal> balancesFrom, final Date to) {
+        Map<String, Object> parameters = Maps.newHashMap();
+
+        parameters.put(L_LOCATION_ID, locationId);
+        parameters.put(L_TO, to);
+
+        StringBuilder correctionRestrictions = new StringBuilder();
+        StringBuilder transferRestrictions = new StringBuilder();
+
+        if (Objects.nonNull(from)) {
+            parameters.put(L_FROM, from);
+
+            correctionRestrictions.append(" AND stockcorrectiondate > :from");
+            transferRestrictions.append(" AND transfer.\"time\" > :from");
+        }
+        if (Objects.nonNull(productId)) {
+            parameters.put(L_PRODUCT_ID, productId);
+
+            correctionRestrictions.append(" AND product_id = :productId");
+            transferRestrictions.append(" AND transfer.product_id = :productId");
+        }
+
+        String query = "WITH lastcorrection AS (SELECT DISTINCT ON (product_id) product_id, stockcorrectiondate, found "
+                + "FROM materialflow_stockcorrection WHERE location_id = :locationId AND stockcorrectiondate <= :to"
+                + correctionRestrictions + " ORDER BY product_id, stockcorrectiondate DESC), "
+                + "movement AS (SELECT transfer.product_id, "
+                + "SUM(CASE WHEN transfer.locationto_id = :locationId THEN transfer.quantity ELSE 0 END) "
+                + "- SUM(CASE WHEN transfer.locationfrom_id = :locationId THEN transfer.quantity ELSE 0 END) AS quantity "
+                + "FROM materialflow_transfer transfer "
+                + "LEFT JOIN lastcorrection correction ON correction.product_id = transfer.product_id "
+                + "WHERE (transfer.locationto_id = :locationId OR transfer.locationfrom_id = :locationId) "
+                + "AND transfer.\"time\" <= :to" + transferRestrictions
+                + " AND (correction.stockcorrectiondate IS NULL OR transfer.\"time\" > correction.stockcorrectiondate) "
+                + "GROUP BY transfer.product_id) "
+                + "SELECT COALESCE(correction.product_id, movement.product_id) AS product_id, correction.found, "
+                + "movement.quantity FROM lastcorrection correction "
+                + "FULL OUTER JOIN movement ON movement.product_id = correction.product_id";
+
+        Map<Long, BigDecimal> balances = Maps.newHashMap();
+
+        for (Map.Entry<Long, BigDecimal> balanceFrom : balancesFrom.entrySet()) {
+            if (Objects.isNull(productId) || productId.equals(balanceFrom.getKey())) {
+                balances.put(balanceFrom.getKey(), balanceFrom.getValue());
+            }
+        }
+
+        for (Map<String, Object> row : jdbcTemplate.queryForList(query, parameters)) {
+            Long rowProductId = ((Number) row.get("product_id")).longValue();
+            BigDecimal found = (BigDecimal) row.get("found");
+            BigDecimal movement = (BigDecimal) row.get("quantity");
+
+            BigDecimal balance = Objects.isNull(found) ? balances.getOrDefault(rowProductId, BigDecimal.ZERO) : found;
+
+            if (Objects.nonNull(movement)) {
+                balance = balance.add(movement, numberService.getMathContext());
+            }
+
+            balances.put(rowProductId, balance);
+        }
+
+        return balances;
+    }
+
+}
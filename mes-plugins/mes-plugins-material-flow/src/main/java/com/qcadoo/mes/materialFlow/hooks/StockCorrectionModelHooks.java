@@ -0,0 +1,64 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow.hooks;
+
+import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.LOCATION;
+import static com.qcadoo.mes.materialFlow.constants.StockCorrectionFields.STOCK_CORRECTION_DATE;
+
+import java.util.Collections;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.materialFlow.StockLedgerService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class StockCorrectionModelHooks {
+
+    @Autowired
+    private StockLedgerService stockLedgerService;
+
+    public void onSave(final DataDefinition stockCorrectionDD, final Entity stockCorrection) {
+        if (Objects.nonNull(stockCorrection.getId())) {
+            stockLedgerService.invalidateStockCorrectionSnapshots(stockCorrection.getId());
+        }
+
+        Entity location = stockCorrection.getBelongsToField(LOCATION);
+
+        if (Objects.nonNull(location)) {
+            stockLedgerService.invalidateSnapshots(Collections.singleton(location.getId()),
+                    stockCorrection.getDateField(STOCK_CORRECTION_DATE));
+        }
+    }
+
+    public boolean onDelete(final DataDefinition stockCorrectionDD, final Entity stockCorrection) {
+        stockLedgerService.invalidateStockCorrectionSnapshots(stockCorrection.getId());
+
+        return true;
+    }
+
+}
@@ -33,14 +33,42 @@ import static com.qcadoo.mes.materialFlow.constants.TransferFields.TYPE;
 import static com.qcadoo.mes.materialFlow.constants.TransferType.CONSUMPTION;
 import static com.qcadoo.mes.materialFlow.constants.TransferType.PRODUCTION;
 
+import java.util.Objects;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlow.StockLedgerService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
 @Service
 public class TransferModelHooks {
 
+    @Autowired
+    private StockLedgerService stockLedgerService;
+
+    public void onSave(final DataDefinition transferDD, final Entity transfer) {
+        if (Objects.nonNull(transfer.getId())) {
+            stockLedgerService.invalidateTransferSnapshots(transfer.getId());
+        }
+
+        Set<Long> locationIds = Sets.newHashSet();
+
+        addLocationId(locationIds, transfer.getBelongsToField(LOCATION_FROM));
+        addLocationId(locationIds, transfer.getBelongsToField(LOCATION_TO));
+
+        stockLedgerService.invalidateSnapshots(locationIds, transfer.getDateField(TIME));
+    }
+
+    public boolean onDelete(final DataDefinition transferDD, final Entity transfer) {
+        stockLedgerService.invalidateTransferSnapshots(transfer.getId());
+
+        return true;
+    }
+
     public void copyProductionOrConsumptionDataFromBelongingTransformation(final DataDefinition dd, final Entity transfer) {
         Entity transformations = transfer.getBelongsToField(TRANSFORMATIONS_PRODUCTION);
 
@@ -63,4 +91,10 @@ public class TransferModelHooks {
         transfer.setField(STAFF, transformations.getBelongsToField(STAFF));
     }
 
+    private void addLocationId(final Set<Long> locationIds, final Entity location) {
+        if (Objects.nonNull(location)) {
+            locationIds.add(location.getId());
+        }
+    }
+
 }
@@ -0,0 +1,266 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.time.DateUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.NumberService;
+
+public class StockLedgerServiceTest {
+
+    private static final Long L_LOCATION_ID = 1L;
+
+    private static final Long L_PRODUCT_ID = 2L;
+
+    private static final Long L_OTHER_PRODUCT_ID = 3L;
+
+    private static final String L_LAST_PERIOD_START_QUERY = "SELECT max(periodstart)";
+
+    private static final String L_SNAPSHOT_QUERY = "SELECT product_id, quantity";
+
+    private static final String L_BALANCES_QUERY = "WITH lastcorrection";
+
+    private static final String L_TRY_LOCK_QUERY = "SELECT pg_try_advisory_xact_lock";
+
+    private StockLedgerService stockLedgerService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private NumberService numberService;
+
+    private Date forDate;
+
+    private Date periodStart;
+
+    private Date previousPeriodStart;
+
+    private Map<Date, List<Map<String, Object>>> balanceRowsByDateTo;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stockLedgerService = new StockLedgerService();
+
+        setField(stockLedgerService, "jdbcTemplate", jdbcTemplate);
+        setField(stockLedgerService, "numberService", numberService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(2016, Calendar.MARCH, 15, 10, 0, 0);
+
+        forDate = calendar.getTime();
+        periodStart = DateUtils.truncate(forDate, Calendar.MONTH);
+        previousPeriodStart = DateUtils.addMonths(periodStart, -1);
+
+        balanceRowsByDateTo = Maps.newHashMap();
+
+        given(jdbcTemplate.queryForList(startsWith(L_BALANCES_QUERY), anyMap())).willAnswer(
+                new Answer<List<Map<String, Object>>>() {
+
+                    @Override
+                    public List<Map<String, Object>> answer(final InvocationOnMock invocation) throws Throwable {
+                        Map<?, ?> parameters = (Map<?, ?>) invocation.getArguments()[1];
+                        List<Map<String, Object>> rows = balanceRowsByDateTo.get(parameters.get("to"));
+
+                        return rows == null ? Collections.<Map<String, Object>> emptyList() : rows;
+                    }
+                });
+        given(jdbcTemplate.queryForObject(startsWith(L_TRY_LOCK_QUERY), anyMap(), eq(Boolean.class))).willReturn(true);
+    }
+
+    private void stubLastPeriodStart(final Date lastPeriodStart) {
+        given(jdbcTemplate.queryForObject(startsWith(L_LAST_PERIOD_START_QUERY), anyMap(), eq(Date.class))).willReturn(
+                lastPeriodStart);
+    }
+
+    private void stubSnapshot(final Long productId, final BigDecimal quantity) {
+        Map<String, Object> row = ImmutableMap.<String, Object> of("product_id", productId, "quantity", quantity);
+
+        given(jdbcTemplate.queryForList(startsWith(L_SNAPSHOT_QUERY), anyMap())).willReturn(
+                Lists.<Map<String, Object>> newArrayList(row));
+    }
+
+    private void stubBalanceRow(final Date to, final Long productId, final BigDecimal found, final BigDecimal quantity) {
+        Map<String, Object> row = Maps.newHashMap();
+
+        row.put("product_id", productId);
+        row.put("found", found);
+        row.put("quantity", quantity);
+
+        if (!balanceRowsByDateTo.containsKey(to)) {
+            balanceRowsByDateTo.put(to, Lists.<Map<String, Object>> newArrayList());
+        }
+
+        balanceRowsByDateTo.get(to).add(row);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> captureBalancesParameters(final Date to) {
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Map> parametersCaptor = ArgumentCaptor.forClass(Map.class);
+
+        verify(jdbcTemplate, atLeastOnce()).queryForList(queryCaptor.capture(), parametersCaptor.capture());
+
+        for (int i = 0; i < queryCaptor.getAllValues().size(); i++) {
+            Map<String, Object> parameters = parametersCaptor.getAllValues().get(i);
+
+            if (queryCaptor.getAllValues().get(i).startsWith(L_BALANCES_QUERY) && to.equals(parameters.get("to"))) {
+                assertTrue(queryCaptor.getAllValues().get(i).contains("stockcorrectiondate <= :to"));
+                assertTrue(queryCaptor.getAllValues().get(i).contains("transfer.\"time\" <= :to"));
+
+                return parameters;
+            }
+        }
+
+        throw new AssertionError("balances query for date " + to + " not executed");
+    }
+
+    @Test
+    public void shouldReplaceSnapshotBalanceWithCorrectionDoneInsideMonth() {
+        // given
+        stubLastPeriodStart(periodStart);
+        stubSnapshot(L_PRODUCT_ID, new BigDecimal("10"));
+        stubBalanceRow(forDate, L_PRODUCT_ID, new BigDecimal("4"), new BigDecimal("2"));
+
+        // when
+        BigDecimal quantity = stockLedgerService.getQuantityInLocation(L_LOCATION_ID, L_PRODUCT_ID, forDate);
+
+        // then
+        assertEquals(0, new BigDecimal("6").compareTo(quantity));
+        assertEquals(periodStart, captureBalancesParameters(forDate).get("from"));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldCountTransferDoneAtPeriodStartOnlyInSnapshot() {
+        // given
+        stubLastPeriodStart(previousPeriodStart);
+        stubSnapshot(L_PRODUCT_ID, new BigDecimal("10"));
+        stubBalanceRow(periodStart, L_PRODUCT_ID, null, new BigDecimal("5"));
+
+        // when
+        BigDecimal quantity = stockLedgerService.getQuantityInLocation(L_LOCATION_ID, L_PRODUCT_ID, forDate);
+
+        // then
+        assertEquals(0, new BigDecimal("15").compareTo(quantity));
+        assertEquals(previousPeriodStart, captureBalancesParameters(periodStart).get("from"));
+        assertEquals(periodStart, captureBalancesParameters(forDate).get("from"));
+
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource[]> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+
+        verify(jdbcTemplate).batchUpdate(queryCaptor.capture(), parametersCaptor.capture());
+
+        assertTrue(queryCaptor.getValue().endsWith("ON CONFLICT (location_id, product_id, periodstart) DO NOTHING"));
+        assertEquals(1, parametersCaptor.getValue().length);
+        assertEquals(periodStart, parametersCaptor.getValue()[0].getValue("periodStart"));
+        assertEquals(0, new BigDecimal("15").compareTo((BigDecimal) parametersCaptor.getValue()[0].getValue("quantity")));
+    }
+
+    @Test
+    public void shouldClampNegativeBalanceToZero() {
+        // given
+        stubLastPeriodStart(periodStart);
+        stubSnapshot(L_PRODUCT_ID, new BigDecimal("3"));
+        stubBalanceRow(forDate, L_PRODUCT_ID, null, new BigDecimal("-5"));
+        stubBalanceRow(forDate, L_OTHER_PRODUCT_ID, null, new BigDecimal("7"));
+
+        // when
+        BigDecimal quantity = stockLedgerService.getQuantityInLocation(L_LOCATION_ID, L_PRODUCT_ID, forDate);
+        Map<Long, BigDecimal> quantities = stockLedgerService.getQuantitiesInLocation(L_LOCATION_ID, forDate);
+
+        // then
+        assertEquals(0, BigDecimal.ZERO.compareTo(quantity));
+        assertEquals(0, BigDecimal.ZERO.compareTo(quantities.get(L_PRODUCT_ID)));
+        assertEquals(0, new BigDecimal("7").compareTo(quantities.get(L_OTHER_PRODUCT_ID)));
+    }
+
+    @Test
+    public void shouldNotSaveSnapshotWhenLocationIsLockedByAnotherTransaction() {
+        // given
+        stubLastPeriodStart(previousPeriodStart);
+        stubSnapshot(L_PRODUCT_ID, new BigDecimal("10"));
+        stubBalanceRow(periodStart, L_PRODUCT_ID, null, new BigDecimal("5"));
+        given(jdbcTemplate.queryForObject(startsWith(L_TRY_LOCK_QUERY), anyMap(), eq(Boolean.class))).willReturn(false);
+
+        // when
+        BigDecimal quantity = stockLedgerService.getQuantityInLocation(L_LOCATION_ID, L_PRODUCT_ID, forDate);
+
+        // then
+        assertEquals(0, new BigDecimal("15").compareTo(quantity));
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    @Test
+    public void shouldLockLocationsBeforeInvalidatingSnapshots() {
+        // when
+        stockLedgerService.invalidateSnapshots(Collections.singleton(L_LOCATION_ID), periodStart);
+
+        // then
+        InOrder inOrder = inOrder(jdbcTemplate);
+
+        inOrder.verify(jdbcTemplate).queryForList(startsWith("SELECT pg_advisory_xact_lock_shared"), anyMap());
+        inOrder.verify(jdbcTemplate).update(startsWith("DELETE FROM materialflow_stocksnapshot"), anyMap());
+    }
+
+}
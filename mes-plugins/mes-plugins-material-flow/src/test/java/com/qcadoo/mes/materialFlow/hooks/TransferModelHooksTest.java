@@ -37,12 +37,17 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.util.Date;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.materialFlow.StockLedgerService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
@@ -59,11 +64,16 @@ public class TransferModelHooksTest {
     @Mock
     private DataDefinition transferDD;
 
+    @Mock
+    private StockLedgerService stockLedgerService;
+
     @Before
     public void init() {
         MockitoAnnotations.initMocks(this);
 
         materialFlowTransferModelHooks = new TransferModelHooks();
+
+        setField(materialFlowTransferModelHooks, "stockLedgerService", stockLedgerService);
     }
 
     @Test
@@ -112,4 +122,38 @@ public class TransferModelHooksTest {
         // then
         verify(transfer, never()).setField(anyString(), any());
     }
+
+    @Test
+    public void shouldInvalidateStockSnapshotsOfNewTransferLocations() {
+        // given
+        Date time = new Date();
+
+        given(transfer.getBelongsToField(LOCATION_FROM)).willReturn(locationFrom);
+        given(transfer.getBelongsToField(LOCATION_TO)).willReturn(locationTo);
+        given(transfer.getDateField(TIME)).willReturn(time);
+        given(locationFrom.getId()).willReturn(1L);
+        given(locationTo.getId()).willReturn(2L);
+
+        // when
+        materialFlowTransferModelHooks.onSave(transferDD, transfer);
+
+        // then
+        verify(stockLedgerService, never()).invalidateTransferSnapshots(any(Long.class));
+        verify(stockLedgerService).invalidateSnapshots(Sets.newHashSet(1L, 2L), time);
+    }
+
+    @Test
+    public void shouldInvalidateStockSnapshotsOfStoredTransfer() {
+        // given
+        given(transfer.getId()).willReturn(3L);
+        given(transfer.getBelongsToField(LOCATION_TO)).willReturn(locationTo);
+        given(locationTo.getId()).willReturn(2L);
+
+        // when
+        materialFlowTransferModelHooks.onSave(transferDD, transfer);
+
+        // then
+        verify(stockLedgerService).invalidateTransferSnapshots(3L);
+        verify(stockLedgerService).invalidateSnapshots(Sets.newHashSet(2L), null);
+    }
 }
@@ -92,5 +92,17 @@ public interface MaterialRequirementService {
     void generateMaterialRequirementDocuments(final ComponentState state, final Entity materialRequirement) throws IOException,
             DocumentException;
 
+    /**
+     * Submits background job generating material requirement documents
+     * 
+     * @param state
+     *            state
+     * @param materialRequirement
+     *            material requirement
+     * 
+     * @return id of the submitted job
+     */
+    Long submitMaterialRequirementDocumentsGeneration(final ComponentState state, final Entity materialRequirement);
+
 
 }
@@ -24,17 +24,22 @@
 package com.qcadoo.mes.materialRequirements;
 
 import java.io.IOException;
+import java.util.Locale;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.lowagie.text.DocumentException;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.jobs.JobService;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
+import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
 import com.qcadoo.mes.materialRequirements.print.pdf.MaterialRequirementPdfService;
 import com.qcadoo.mes.materialRequirements.print.xls.MaterialRequirementXlsService;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.file.FileService;
 import com.qcadoo.view.api.ComponentState;
@@ -54,6 +59,15 @@ public class MaterialRequirementServiceImpl implements MaterialRequirementServic
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private TranslationService translationService;
+
     @Override
     public boolean checkIfInputProductsRequiredForTypeIsSelected(final DataDefinition entityDD, final Entity entity,
             final String fieldName, final String errorMessage) {
@@ -85,11 +99,40 @@ public class MaterialRequirementServiceImpl implements MaterialRequirementServic
     @Override
     public void generateMaterialRequirementDocuments(final ComponentState state, final Entity materialRequirement)
             throws IOException, DocumentException {
+        generateMaterialRequirementDocuments(materialRequirement, state.getLocale());
+    }
+
+    @Override
+    public Long submitMaterialRequirementDocumentsGeneration(final ComponentState state, final Entity materialRequirement) {
+        Long materialRequirementId = materialRequirement.getId();
+        Locale locale = state.getLocale();
+        String jobName = translationService.translate("materialRequirements.jobs.generateDocuments", locale,
+                materialRequirement.getStringField(MaterialRequirementFields.NUMBER));
+
+        return jobService.submit(jobName,
+                context -> context.executeChunk(() -> generateMaterialRequirementDocuments(materialRequirementId, locale)));
+    }
+
+    private void generateMaterialRequirementDocuments(final Long materialRequirementId, final Locale locale) {
+        Entity materialRequirement = dataDefinitionService.get(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
+                MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT).get(materialRequirementId);
+
+        try {
+            generateMaterialRequirementDocuments(materialRequirement, locale);
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        } catch (DocumentException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private void generateMaterialRequirementDocuments(final Entity materialRequirement, final Locale locale)
+            throws IOException, DocumentException {
         Entity materialRequirementWithFileName = fileService.updateReportFileName(materialRequirement,
                 MaterialRequirementFields.DATE, "materialRequirements.materialRequirement.report.fileName");
 
-        materialRequirementPdfService.generateDocument(materialRequirementWithFileName, state.getLocale());
-        materialRequirementXlsService.generateDocument(materialRequirementWithFileName, state.getLocale());
+        materialRequirementPdfService.generateDocument(materialRequirementWithFileName, locale);
+        materialRequirementXlsService.generateDocument(materialRequirementWithFileName, locale);
     }
 
 }
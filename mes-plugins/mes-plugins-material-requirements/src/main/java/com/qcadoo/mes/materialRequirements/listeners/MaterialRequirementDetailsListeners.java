@@ -23,7 +23,6 @@
  */
 package com.qcadoo.mes.materialRequirements.listeners;
 
-import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -34,7 +33,6 @@ import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import com.lowagie.text.DocumentException;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.materialRequirements.MaterialRequirementService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
@@ -127,14 +125,9 @@ public class MaterialRequirementDetailsListeners {
             materialRequirement = dataDefinitionService.get(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
                     MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT).get((Long) state.getFieldValue());
 
-            try {
-                materialRequirementService.generateMaterialRequirementDocuments(state, materialRequirement);
-                state.performEvent(view, "reset", new String[0]);
-            } catch (IOException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            } catch (DocumentException e) {
-                throw new IllegalStateException(e.getMessage(), e);
-            }
+            materialRequirementService.submitMaterialRequirementDocumentsGeneration(state, materialRequirement);
+            state.performEvent(view, "reset", new String[0]);
+            view.addMessage("basic.jobs.jobSubmitted", MessageType.INFO);
         }
     }
 
@@ -0,0 +1,167 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimeModel;
+import com.qcadoo.mes.technologies.CompiledTechnologyService;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.constants.OperationFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.timeNormsForOperations.constants.TechnologyOperationComponentFieldsTNFO;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+
+/**
+ * Compiles time norms of technology operation components into {@link OperationTimeModel}. Models of technologies which can't
+ * be edited anymore are kept until the compiled technology they were built with is evicted from
+ * {@link CompiledTechnologyService} (on technology state change) and at most for {@link #EXPIRATION_MINUTES}.
+ */
+@Service
+public class OperationTimeModelService {
+
+    private static final long EXPIRATION_MINUTES = 10;
+
+    private static final long MAXIMUM_SIZE = 1000;
+
+    private static final String L_NEXT_OPERATION_AFTER_PRODUCED_SPECIFIED = "02specified";
+
+    private final Cache<Long, CachedOperationTimeModel> operationTimeModels = CacheBuilder.newBuilder()
+            .maximumSize(MAXIMUM_SIZE).expireAfterWrite(EXPIRATION_MINUTES, TimeUnit.MINUTES).build();
+
+    @Autowired
+    private CompiledTechnologyService compiledTechnologyService;
+
+    @Autowired
+    private ProductQuantitiesService productQuantitiesService;
+
+    public OperationTimeModel getOperationTimeModel(final Entity technology) {
+        if (!compiledTechnologyService.isCacheable(technology)) {
+            return compile(technology);
+        }
+
+        CompiledTechnology compiledTechnology = compiledTechnologyService.getCompiledTechnology(technology);
+        CachedOperationTimeModel cachedOperationTimeModel = operationTimeModels.getIfPresent(technology.getId());
+
+        if (Objects.isNull(cachedOperationTimeModel) || cachedOperationTimeModel.compiledTechnology != compiledTechnology) {
+            cachedOperationTimeModel = new CachedOperationTimeModel(compiledTechnology, compile(technology));
+
+            operationTimeModels.put(technology.getId(), cachedOperationTimeModel);
+        }
+
+        return cachedOperationTimeModel.operationTimeModel;
+    }
+
+    public void invalidate(final Long technologyId) {
+        if (technologyId != null) {
+            operationTimeModels.invalidate(technologyId);
+        }
+    }
+
+    public void invalidateAll() {
+        operationTimeModels.invalidateAll();
+    }
+
+    private OperationTimeModel compile(final Entity technology) {
+        OperationTimeModel.Builder builder = OperationTimeModel.builder(StringUtils.isEmpty(technology
+                .getStringField(TechnologyFields.TECHNOLOGY_TYPE)));
+
+        EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+
+        if (Objects.nonNull(operationComponents.getRoot())) {
+            add(builder, operationComponents.getRoot());
+        }
+
+        return builder.build();
+    }
+
+    private int add(final OperationTimeModel.Builder builder, final EntityTreeNode operationComponent) {
+        List<Integer> childIndexes = Lists.newArrayList();
+
+        for (EntityTreeNode child : operationComponent.getChildren()) {
+            childIndexes.add(add(builder, child));
+        }
+
+        Entity workstationType = operationComponent.getBelongsToField(TechnologyOperationComponentFields.OPERATION)
+                .getBelongsToField(OperationFields.WORKSTATION_TYPE);
+        boolean nextOperationAfterProducedSpecified = L_NEXT_OPERATION_AFTER_PRODUCED_SPECIFIED.equals(operationComponent
+                .getStringField(TechnologyOperationComponentFieldsTNFO.NEXT_OPERATION_AFTER_PRODUCED_TYPE));
+        OperationProductComponentHolder outputProduct = null;
+
+        if (nextOperationAfterProducedSpecified) {
+            Entity operationProductOutComponent = productQuantitiesService
+                    .getOutputProductsFromOperationComponent(operationComponent);
+
+            if (Objects.nonNull(operationProductOutComponent)) {
+                outputProduct = new OperationProductComponentHolder(operationProductOutComponent);
+            }
+        }
+
+        return builder.add(operationComponent.getId(), childIndexes,
+                getIntegerValue(operationComponent.getField(TechnologyOperationComponentFieldsTNFO.TJ)),
+                getIntegerValue(operationComponent.getField(TechnologyOperationComponentFieldsTNFO.TPZ)),
+                getIntegerValue(operationComponent.getField(TechnologyOperationComponentFieldsTNFO.TIME_NEXT_OPERATION)),
+                getIntegerValue(operationComponent.getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS)),
+                Objects.isNull(workstationType) ? null : workstationType.getId(),
+                operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE),
+                nextOperationAfterProducedSpecified,
+                BigDecimalUtils.convertNullToZero(operationComponent
+                        .getDecimalField(TechnologyOperationComponentFieldsTNFO.NEXT_OPERATION_AFTER_PRODUCED_QUANTITY)),
+                outputProduct);
+    }
+
+    private int getIntegerValue(final Object value) {
+        return value == null ? 0 : (Integer) value;
+    }
+
+    private static final class CachedOperationTimeModel {
+
+        private final CompiledTechnology compiledTechnology;
+
+        private final OperationTimeModel operationTimeModel;
+
+        private CachedOperationTimeModel(final CompiledTechnology compiledTechnology,
+                final OperationTimeModel operationTimeModel) {
+            this.compiledTechnology = compiledTechnology;
+            this.operationTimeModel = operationTimeModel;
+        }
+
+    }
+
+}
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.operationTimeCalculations;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -66,6 +67,12 @@ public interface OperationWorkTimeService {
 
     Entity createOrGetOperCompTimeCalculation(Entity order, Entity technologyOperationComponent);
 
+    /**
+     * Returns time calculations of given technology operation components for order (or technology, when order is null),
+     * loaded with one query. Missing calculations are created but not saved.
+     */
+    Map<Long, Entity> createOrGetOperCompTimeCalculations(Entity order, Collection<Long> technologyOperationComponentIds);
+
     void deleteOperCompTimeCalculations(Entity order);
 
     OperationWorkTime estimateTotalWorkTime(final List<Entity> operationComponents, final Map<Long, BigDecimal> operationRuns,
@@ -25,6 +25,7 @@ package com.qcadoo.mes.operationTimeCalculations;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,6 +34,7 @@ import java.util.Objects;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimesContainer;
 import com.qcadoo.mes.technologies.ProductionLinesService;
@@ -42,9 +44,11 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.timeNormsForOperations.constants.OperCompTimeCalculationsFields;
 import com.qcadoo.mes.timeNormsForOperations.constants.TimeNormsConstants;
 import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
 @Service
@@ -269,13 +273,7 @@ public class OperationWorkTimeServiceImpl implements OperationWorkTimeService {
     @Override
     public Entity createOrGetOperCompTimeCalculation(Entity order, Entity technologyOperationComponent) {
         if (Objects.nonNull(order)) {
-            Entity orderTimeCalculation = dataDefinitionService.get(TimeNormsConstants.PLUGIN_PRODUCTION_SCHEDULING_IDENTIFIER, TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION).find()
-                    .add(SearchRestrictions.belongsTo(L_ORDER, order)).setMaxResults(1).uniqueResult();
-            if (Objects.isNull(orderTimeCalculation)) {
-                orderTimeCalculation = dataDefinitionService.get(TimeNormsConstants.PLUGIN_PRODUCTION_SCHEDULING_IDENTIFIER, TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION).create();
-                orderTimeCalculation.setField(L_ORDER, order);
-                orderTimeCalculation = orderTimeCalculation.getDataDefinition().save(orderTimeCalculation);
-            }
+            Entity orderTimeCalculation = getOrCreateOrderTimeCalculation(order);
             Entity operCompTimeCalculation = dataDefinitionService.get(TimeNormsConstants.PLUGIN_PRODUCTION_SCHEDULING_IDENTIFIER, TimeNormsConstants.MODEL_OPER_COMP_TIME_CALCULATION).find()
                     .add(SearchRestrictions.belongsTo(TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION, orderTimeCalculation))
                     .add(SearchRestrictions.belongsTo(OperCompTimeCalculationsFields.TECHNOLOGY_OPERATION_COMPONENT, technologyOperationComponent))
@@ -301,6 +299,60 @@ public class OperationWorkTimeServiceImpl implements OperationWorkTimeService {
         }
     }
 
+    @Override
+    public Map<Long, Entity> createOrGetOperCompTimeCalculations(final Entity order,
+            final Collection<Long> technologyOperationComponentIds) {
+        Map<Long, Entity> operCompTimeCalculations = Maps.newHashMap();
+
+        if (technologyOperationComponentIds.isEmpty()) {
+            return operCompTimeCalculations;
+        }
+
+        DataDefinition operCompTimeCalculationDD = dataDefinitionService.get(
+                TimeNormsConstants.PLUGIN_PRODUCTION_SCHEDULING_IDENTIFIER, TimeNormsConstants.MODEL_OPER_COMP_TIME_CALCULATION);
+        Entity orderTimeCalculation = Objects.nonNull(order) ? getOrCreateOrderTimeCalculation(order) : null;
+
+        SearchCriteriaBuilder searchCriteriaBuilder = operCompTimeCalculationDD.find().add(
+                SearchRestrictions.in(OperCompTimeCalculationsFields.TECHNOLOGY_OPERATION_COMPONENT + ".id",
+                        technologyOperationComponentIds));
+
+        if (Objects.nonNull(orderTimeCalculation)) {
+            searchCriteriaBuilder.add(SearchRestrictions.belongsTo(TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION,
+                    orderTimeCalculation));
+        } else {
+            searchCriteriaBuilder.add(SearchRestrictions.isNull(TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION));
+        }
+
+        for (Entity operCompTimeCalculation : searchCriteriaBuilder.list().getEntities()) {
+            operCompTimeCalculations.putIfAbsent(
+                    operCompTimeCalculation.getBelongsToField(OperCompTimeCalculationsFields.TECHNOLOGY_OPERATION_COMPONENT)
+                            .getId(), operCompTimeCalculation);
+        }
+
+        for (Long technologyOperationComponentId : technologyOperationComponentIds) {
+            if (!operCompTimeCalculations.containsKey(technologyOperationComponentId)) {
+                Entity operCompTimeCalculation = operCompTimeCalculationDD.create();
+                operCompTimeCalculation.setField(TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION, orderTimeCalculation);
+                operCompTimeCalculation.setField(OperCompTimeCalculationsFields.TECHNOLOGY_OPERATION_COMPONENT,
+                        technologyOperationComponentId);
+                operCompTimeCalculations.put(technologyOperationComponentId, operCompTimeCalculation);
+            }
+        }
+
+        return operCompTimeCalculations;
+    }
+
+    private Entity getOrCreateOrderTimeCalculation(final Entity order) {
+        Entity orderTimeCalculation = dataDefinitionService.get(TimeNormsConstants.PLUGIN_PRODUCTION_SCHEDULING_IDENTIFIER, TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION).find()
+                .add(SearchRestrictions.belongsTo(L_ORDER, order)).setMaxResults(1).uniqueResult();
+        if (Objects.isNull(orderTimeCalculation)) {
+            orderTimeCalculation = dataDefinitionService.get(TimeNormsConstants.PLUGIN_PRODUCTION_SCHEDULING_IDENTIFIER, TimeNormsConstants.MODEL_ORDER_TIME_CALCULATION).create();
+            orderTimeCalculation.setField(L_ORDER, order);
+            orderTimeCalculation = orderTimeCalculation.getDataDefinition().save(orderTimeCalculation);
+        }
+        return orderTimeCalculation;
+    }
+
     @Override
     public void deleteOperCompTimeCalculations(Entity order) {
         Entity orderTimeCalculation = dataDefinitionService
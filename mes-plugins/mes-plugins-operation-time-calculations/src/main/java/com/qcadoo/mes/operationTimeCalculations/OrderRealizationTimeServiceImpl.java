@@ -36,6 +36,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -46,8 +47,12 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimeModel;
+import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
+import com.qcadoo.mes.productionLines.constants.WorkstationTypeComponentFields;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.ProductionLinesService;
+import com.qcadoo.mes.technologies.constants.OperationFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
@@ -63,6 +68,8 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
 
     private static final String L_ORDER = "order";
 
+    private static final String L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE = "workstationsQuantityFromProductionLine";
+
     @Autowired
     private ProductQuantitiesService productQuantitiesService;
 
@@ -78,6 +85,9 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     @Autowired
     private OperationWorkTimeService operationWorkTimeService;
 
+    @Autowired
+    private OperationTimeModelService operationTimeModelService;
+
     @Override
     public Object setDateToField(final Date date) {
         return new SimpleDateFormat(DateUtils.L_DATE_TIME_FORMAT, Locale.getDefault()).format(date);
@@ -154,69 +164,106 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         productQuantitiesService
                 .getProductComponentQuantities(technology, plannedQuantity, operationRunsFromProductionQuantities);
 
+        OperationTimeModel operationTimeModel = operationTimeModelService.getOperationTimeModel(technology);
+        boolean workstationsFromProductionLine = operationTimeModel.isWorkstationsFromProductionLineAllowed()
+                && parameterService.getParameter().getBooleanField(L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE);
+        OperationCycles operationCycles = new OperationCycles(technology, operationRunsFromProductionQuantities);
+        WorkstationsCounts workstationsCounts = new WorkstationsCounts(operationTimeModel, productionLine,
+                workstationsFromProductionLine);
+
         for (Entity operationComponent : operationComponents) {
-            evaluateTimes(operationDurations, operationComponent, includeTpz,
-                    includeAdditionalTime, operationRunsFromProductionQuantities, productionLine, maxForWorkstation);
+            Integer index = operationTimeModel.indexOf(operationComponent.getId());
+
+            if (Objects.isNull(index)) {
+                operationDurations.put(operationComponent, evaluateSingleOperationTime(operationComponent, includeTpz,
+                        includeAdditionalTime, operationRunsFromProductionQuantities, productionLine, maxForWorkstation));
+            } else {
+                operationDurations.put(operationComponent, evaluateOperationDurationOutOfCycles(operationTimeModel, index,
+                        operationCycles.get(operationComponent.getId()), workstationsCounts.get(index), maxForWorkstation, includeTpz, includeAdditionalTime));
+            }
         }
 
         return operationDurations;
     }
 
-    private void evaluateTimes(final Map<Entity, Integer> operationDurations,
-            final Entity operationComponent, final boolean includeTpz, final boolean includeAdditionalTime,
-            final Map<Long, BigDecimal> operationRuns, final Entity productionLine, final boolean maxForWorkstation) {
+    private int evaluateOperationTime(final Entity order, final Entity operationComponent, final boolean includeTpz,
+            final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
+            final boolean maxForWorkstation, final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+        Entity technology = operationComponent.getBelongsToField(TECHNOLOGY);
+        OperationTimeModel operationTimeModel = operationTimeModelService.getOperationTimeModel(technology);
 
-            int duration = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation);
+        int last = operationTimeModel.indexOf(operationComponent.getId());
+        int first = operationTimeModel.getSubtreeStart(last);
 
-            operationDurations.put(operationComponent, duration);
+        int[] offsets = new int[operationTimeModel.size()];
+        int[] operationTimes = new int[operationTimeModel.size()];
 
-    }
+        boolean workstationsFromProductionLine = operationTimeModel.isWorkstationsFromProductionLineAllowed()
+                && parameterService.getParameter().getBooleanField(L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE);
+        OperationCycles operationCycles = new OperationCycles(technology, operationRuns);
+        WorkstationsCounts workstationsCounts = new WorkstationsCounts(operationTimeModel, productionLine,
+                workstationsFromProductionLine);
 
-    private int evaluateOperationTime(final Entity order, final Entity operationComponent, final boolean includeTpz,
-            final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
-            final boolean maxForWorkstation, final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+        for (int index = first; index <= last; index++) {
+            BigDecimal cycles = operationCycles.get(operationTimeModel.getOperationComponentId(index));
+            int workstationsCount = workstationsCounts.get(index);
 
-        int operationTime = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                productionLine, maxForWorkstation);
-        int offset = 0;
+            operationTimes[index] = evaluateOperationDurationOutOfCycles(operationTimeModel, index, cycles, workstationsCount,
+                    maxForWorkstation, includeTpz, includeAdditionalTime);
 
-        List<Entity> childs = Lists.newArrayList(operationComponent.getHasManyField("children"));
-        for (Entity child : childs) {
-            int childTime = evaluateOperationTime(order, child, includeTpz, includeAdditionalTime, operationRuns, productionLine,
-                    maxForWorkstation, productComponentQuantities);
+            if (index == last) {
+                break;
+            }
 
-            if ("02specified".equals(child.getStringField("nextOperationAfterProducedType"))) {
+            int childTime = offsets[index] + operationTimes[index];
 
-                int childTimeTotal = evaluateSingleOperationTime(child, includeTpz, includeAdditionalTime, operationRuns,
-                        productionLine, true);
-                int childTimeForQuantity = evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(child,
-                        includeTpz, false, operationRuns, productionLine, true, productComponentQuantities);
+            if (operationTimeModel.isNextOperationAfterProducedSpecified(index)) {
+                int childTimeTotal = maxForWorkstation ? operationTimes[index] : evaluateOperationDurationOutOfCycles(
+                        operationTimeModel, index, cycles, workstationsCount, true, includeTpz, includeAdditionalTime);
+                int childTimeForQuantity = evaluateOperationDurationOutOfCycles(operationTimeModel, index,
+                        operationCycles.getForNextOperationAfterProducedQuantity(operationTimeModel, index,
+                                productComponentQuantities), workstationsCount, true, includeTpz, false);
 
-                int difference = childTimeTotal - childTimeForQuantity;
-                childTime -= difference;
+                childTime -= childTimeTotal - childTimeForQuantity;
             }
 
-            if (childTime > offset) {
-                offset = childTime;
+            int parent = operationTimeModel.getParent(index);
+
+            if (childTime > offsets[parent]) {
+                offsets[parent] = childTime;
             }
         }
 
-        Entity operCompTimeCalculation = operationWorkTimeService.createOrGetOperCompTimeCalculation(order, operationComponent);
+        saveOperCompTimeCalculations(order, operationTimeModel, first, last, offsets, operationTimes);
 
-        if (operCompTimeCalculation != null) {
-            operCompTimeCalculation.setField(OperCompTimeCalculationsFields.OPERATION_OFF_SET, offset);
-            operCompTimeCalculation.setField(OperCompTimeCalculationsFields.EFFECTIVE_OPERATION_REALIZATION_TIME, operationTime);
-            operCompTimeCalculation.getDataDefinition().save(operCompTimeCalculation);
+        return offsets[last] + operationTimes[last];
+    }
+
+    private void saveOperCompTimeCalculations(final Entity order, final OperationTimeModel operationTimeModel, final int first,
+            final int last, final int[] offsets, final int[] operationTimes) {
+        List<Long> operationComponentIds = Lists.newArrayList();
+
+        for (int index = first; index <= last; index++) {
+            operationComponentIds.add(operationTimeModel.getOperationComponentId(index));
         }
 
-        return offset + operationTime;
+        Map<Long, Entity> operCompTimeCalculations = operationWorkTimeService.createOrGetOperCompTimeCalculations(order,
+                operationComponentIds);
+
+        for (int index = first; index <= last; index++) {
+            Entity operCompTimeCalculation = operCompTimeCalculations.get(operationTimeModel.getOperationComponentId(index));
+
+            operCompTimeCalculation.setField(OperCompTimeCalculationsFields.OPERATION_OFF_SET, offsets[index]);
+            operCompTimeCalculation.setField(OperCompTimeCalculationsFields.EFFECTIVE_OPERATION_REALIZATION_TIME,
+                    operationTimes[index]);
+            operCompTimeCalculation.getDataDefinition().save(operCompTimeCalculation);
+        }
     }
 
     private Integer retrieveWorkstationTypesCount(final Entity operationComponent, final Entity productionLine) {
         if (StringUtils.isEmpty(operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)
                 .getStringField(TechnologyFields.TECHNOLOGY_TYPE))) {
-            if (parameterService.getParameter().getBooleanField("workstationsQuantityFromProductionLine")) {
+            if (parameterService.getParameter().getBooleanField(L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE)) {
                 return productionLinesService.getWorkstationTypesCount(operationComponent, productionLine);
             } else {
                 return getIntegerValue(operationComponent
@@ -302,9 +349,25 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     public int evaluateOperationDurationOutOfCycles(final BigDecimal cycles, final Entity operationComponent,
             final Entity productionLine, final boolean maxForWorkstation, final boolean includeTpz,
             final boolean includeAdditionalTime) {
-        boolean isTjDivisable = operationComponent.getBooleanField("isTjDivisible");
+        return evaluateOperationDurationOutOfCycles(cycles, getIntegerValue(operationComponent.getField("tj")),
+                getIntegerValue(operationComponent.getField("tpz")),
+                getIntegerValue(operationComponent.getField("timeNextOperation")),
+                operationComponent.getBooleanField("isTjDivisible"),
+                retrieveWorkstationTypesCount(operationComponent, productionLine), maxForWorkstation, includeTpz,
+                includeAdditionalTime);
+    }
+
+    private int evaluateOperationDurationOutOfCycles(final OperationTimeModel operationTimeModel, final int index,
+            final BigDecimal cycles, final int workstationsCount, final boolean maxForWorkstation, final boolean includeTpz,
+            final boolean includeAdditionalTime) {
+        return evaluateOperationDurationOutOfCycles(cycles, operationTimeModel.getTj(index), operationTimeModel.getTpz(index),
+                operationTimeModel.getTimeNextOperation(index), operationTimeModel.isTjDivisible(index), workstationsCount,
+                maxForWorkstation, includeTpz, includeAdditionalTime);
+    }
 
-        Integer workstationsCount = retrieveWorkstationTypesCount(operationComponent, productionLine);
+    private int evaluateOperationDurationOutOfCycles(final BigDecimal cycles, final int tj, final int tpz,
+            final int additionalTime, final boolean isTjDivisable, final int workstationsCount,
+            final boolean maxForWorkstation, final boolean includeTpz, final boolean includeAdditionalTime) {
         BigDecimal cyclesPerOperation = cycles;
 
         if (maxForWorkstation) {
@@ -315,16 +378,13 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
             }
         }
 
-        int tj = getIntegerValue(operationComponent.getField("tj"));
         int operationTime = cyclesPerOperation.multiply(BigDecimal.valueOf(tj), numberService.getMathContext()).intValue();
 
         if (includeTpz) {
-            int tpz = getIntegerValue(operationComponent.getField("tpz"));
             operationTime += (maxForWorkstation ? tpz : (tpz * workstationsCount));
         }
 
         if (includeAdditionalTime) {
-            int additionalTime = getIntegerValue(operationComponent.getField("timeNextOperation"));
             operationTime += (maxForWorkstation ? additionalTime : (additionalTime * workstationsCount));
         }
 
@@ -351,4 +411,127 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
             Entity productionLine) {
         return estimateOperationTimeConsumption(operationComponent, plannedQuantity, true, true, productionLine);
     }
+
+    /**
+     * Operation runs used during one evaluation. Runs computed for other quantities of technology (when operation component
+     * is missing in given runs and for next operation after produced quantity) are computed at most once per evaluation.
+     */
+    private final class OperationCycles {
+
+        private final Entity technology;
+
+        private final Map<Long, BigDecimal> operationRuns;
+
+        private Map<Long, BigDecimal> defaultOperationRuns;
+
+        private Map<Long, BigDecimal> operationRunsForOneMainProduct;
+
+        private OperationProductComponentWithQuantityContainer productQuantitiesForOneMainProduct;
+
+        private OperationCycles(final Entity technology, final Map<Long, BigDecimal> operationRuns) {
+            this.technology = technology;
+            this.operationRuns = operationRuns;
+        }
+
+        private BigDecimal get(final Long operationComponentId) {
+            BigDecimal cycles = operationRuns.get(operationComponentId);
+
+            if (cycles == null) {
+                if (defaultOperationRuns == null) {
+                    defaultOperationRuns = Maps.newHashMap();
+
+                    productQuantitiesService.getProductComponentQuantities(technology, new BigDecimal("56",
+                            numberService.getMathContext()), defaultOperationRuns);
+                }
+
+                cycles = defaultOperationRuns.get(operationComponentId);
+            }
+
+            return cycles;
+        }
+
+        private BigDecimal getForNextOperationAfterProducedQuantity(final OperationTimeModel operationTimeModel,
+                final int index, final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+            Long operationComponentId = operationTimeModel.getOperationComponentId(index);
+            BigDecimal nextOperationAfterProducedQuantity = operationTimeModel.getNextOperationAfterProducedQuantity(index);
+            BigDecimal productComponentQuantity = productComponentQuantities.get(operationTimeModel.getOutputProduct(index));
+
+            if (nextOperationAfterProducedQuantity.compareTo(productComponentQuantity) == 1) {
+                return operationRuns.get(operationComponentId);
+            }
+
+            if (operationRunsForOneMainProduct == null) {
+                operationRunsForOneMainProduct = Maps.newHashMap();
+                productQuantitiesForOneMainProduct = productQuantitiesService.getProductComponentQuantities(technology,
+                        BigDecimal.ONE, operationRunsForOneMainProduct);
+            }
+
+            MathContext mc = numberService.getMathContext();
+            BigDecimal quantityOutputProductProduced = productQuantitiesForOneMainProduct.get(operationTimeModel
+                    .getOutputProduct(index));
+            BigDecimal cycles = operationRunsForOneMainProduct.get(operationComponentId)
+                    .multiply(nextOperationAfterProducedQuantity, mc).divide(quantityOutputProductProduced, mc);
+
+            return numberService.setScaleWithDefaultMathContext(cycles);
+        }
+
+    }
+
+    /**
+     * Workstations counts of operation components used during one evaluation. When counts are taken from production line,
+     * its workstation type components are read once and kept by workstation type id.
+     */
+    private final class WorkstationsCounts {
+
+        private final OperationTimeModel operationTimeModel;
+
+        private final Entity productionLine;
+
+        private final boolean workstationsFromProductionLine;
+
+        private Map<Long, Integer> workstationTypesCounts;
+
+        private Integer quantityForOtherWorkstationTypes;
+
+        private WorkstationsCounts(final OperationTimeModel operationTimeModel, final Entity productionLine,
+                final boolean workstationsFromProductionLine) {
+            this.operationTimeModel = operationTimeModel;
+            this.productionLine = productionLine;
+            this.workstationsFromProductionLine = workstationsFromProductionLine;
+        }
+
+        private int get(final int index) {
+            if (!workstationsFromProductionLine) {
+                return operationTimeModel.getQuantityOfWorkstations(index);
+            }
+
+            if (workstationTypesCounts == null) {
+                workstationTypesCounts = Maps.newHashMap();
+
+                for (Entity workstationTypeComponent : productionLine
+                        .getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS)) {
+                    Long workstationTypeId = workstationTypeComponent.getBelongsToField(OperationFields.WORKSTATION_TYPE)
+                            .getId();
+
+                    if (!workstationTypesCounts.containsKey(workstationTypeId)) {
+                        workstationTypesCounts.put(workstationTypeId,
+                                (Integer) workstationTypeComponent.getField(WorkstationTypeComponentFields.QUANTITY));
+                    }
+                }
+
+                quantityForOtherWorkstationTypes = productionLine
+                        .getIntegerField(ProductionLineFields.QUANTITY_FOR_OTHER_WORKSTATION_TYPES);
+            }
+
+            Long workstationTypeId = operationTimeModel.getWorkstationTypeId(index);
+
+            if (workstationTypeId != null && workstationTypesCounts.containsKey(workstationTypeId)) {
+                return getIntegerValue(workstationTypesCounts.get(workstationTypeId));
+            }
+
+            return getIntegerValue(quantityForOtherWorkstationTypes);
+        }
+
+    }
+
 }
@@ -0,0 +1,263 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations.dto;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+
+/**
+ * Immutable, entity-free time norms of technology operation components, kept in arrays indexed in post-order (children before
+ * their parent), so subtree of each operation component is a contiguous range ending with that component.
+ */
+public final class OperationTimeModel {
+
+    private static final int NO_PARENT = -1;
+
+    private final Long[] operationComponentIds;
+
+    private final int[] parents;
+
+    private final int[] subtreeSizes;
+
+    private final int[] tj;
+
+    private final int[] tpz;
+
+    private final int[] timeNextOperation;
+
+    private final int[] quantityOfWorkstations;
+
+    private final Long[] workstationTypeIds;
+
+    private final boolean[] tjDivisible;
+
+    private final boolean[] nextOperationAfterProducedSpecified;
+
+    private final BigDecimal[] nextOperationAfterProducedQuantities;
+
+    private final OperationProductComponentHolder[] outputProducts;
+
+    private final boolean workstationsFromProductionLineAllowed;
+
+    private final Map<Long, Integer> indexesByOperationComponentId;
+
+    private OperationTimeModel(final Builder builder) {
+        int size = builder.operationComponentIds.size();
+
+        operationComponentIds = builder.operationComponentIds.toArray(new Long[size]);
+        parents = toIntArray(builder.parents);
+        subtreeSizes = toIntArray(builder.subtreeSizes);
+        tj = toIntArray(builder.tj);
+        tpz = toIntArray(builder.tpz);
+        timeNextOperation = toIntArray(builder.timeNextOperation);
+        quantityOfWorkstations = toIntArray(builder.quantityOfWorkstations);
+        workstationTypeIds = builder.workstationTypeIds.toArray(new Long[size]);
+        tjDivisible = toBooleanArray(builder.tjDivisible);
+        nextOperationAfterProducedSpecified = toBooleanArray(builder.nextOperationAfterProducedSpecified);
+        nextOperationAfterProducedQuantities = builder.nextOperationAfterProducedQuantities.toArray(new BigDecimal[size]);
+        outputProducts = builder.outputProducts.toArray(new OperationProductComponentHolder[size]);
+        workstationsFromProductionLineAllowed = builder.workstationsFromProductionLineAllowed;
+        indexesByOperationComponentId = Maps.newHashMap(builder.indexesByOperationComponentId);
+    }
+
+    public static Builder builder(final boolean workstationsFromProductionLineAllowed) {
+        return new Builder(workstationsFromProductionLineAllowed);
+    }
+
+    public int size() {
+        return operationComponentIds.length;
+    }
+
+    /**
+     * @return index of operation component with given id or null, when it isn't part of technology tree
+     */
+    public Integer indexOf(final Long operationComponentId) {
+        return indexesByOperationComponentId.get(operationComponentId);
+    }
+
+    /**
+     * @return index of first operation component in subtree of operation component with given index
+     */
+    public int getSubtreeStart(final int index) {
+        return index - subtreeSizes[index] + 1;
+    }
+
+    public Long getOperationComponentId(final int index) {
+        return operationComponentIds[index];
+    }
+
+    public boolean hasParent(final int index) {
+        return parents[index] != NO_PARENT;
+    }
+
+    public int getParent(final int index) {
+        return parents[index];
+    }
+
+    public int getTj(final int index) {
+        return tj[index];
+    }
+
+    public int getTpz(final int index) {
+        return tpz[index];
+    }
+
+    public int getTimeNextOperation(final int index) {
+        return timeNextOperation[index];
+    }
+
+    public int getQuantityOfWorkstations(final int index) {
+        return quantityOfWorkstations[index];
+    }
+
+    public Long getWorkstationTypeId(final int index) {
+        return workstationTypeIds[index];
+    }
+
+    public boolean isTjDivisible(final int index) {
+        return tjDivisible[index];
+    }
+
+    public boolean isNextOperationAfterProducedSpecified(final int index) {
+        return nextOperationAfterProducedSpecified[index];
+    }
+
+    public BigDecimal getNextOperationAfterProducedQuantity(final int index) {
+        return nextOperationAfterProducedQuantities[index];
+    }
+
+    public OperationProductComponentHolder getOutputProduct(final int index) {
+        return outputProducts[index];
+    }
+
+    /**
+     * @return true when workstations count of operation components may be taken from production line (technology has no
+     *         type)
+     */
+    public boolean isWorkstationsFromProductionLineAllowed() {
+        return workstationsFromProductionLineAllowed;
+    }
+
+    private static int[] toIntArray(final List<Integer> values) {
+        int[] array = new int[values.size()];
+
+        for (int index = 0; index < array.length; index++) {
+            array[index] = values.get(index);
+        }
+
+        return array;
+    }
+
+    private static boolean[] toBooleanArray(final List<Boolean> values) {
+        boolean[] array = new boolean[values.size()];
+
+        for (int index = 0; index < array.length; index++) {
+            array[index] = values.get(index);
+        }
+
+        return array;
+    }
+
+    public static final class Builder {
+
+        private final boolean workstationsFromProductionLineAllowed;
+
+        private final List<Long> operationComponentIds = Lists.newArrayList();
+
+        private final List<Integer> parents = Lists.newArrayList();
+
+        private final List<Integer> subtreeSizes = Lists.newArrayList();
+
+        private final List<Integer> tj = Lists.newArrayList();
+
+        private final List<Integer> tpz = Lists.newArrayList();
+
+        private final List<Integer> timeNextOperation = Lists.newArrayList();
+
+        private final List<Integer> quantityOfWorkstations = Lists.newArrayList();
+
+        private final List<Long> workstationTypeIds = Lists.newArrayList();
+
+        private final List<Boolean> tjDivisible = Lists.newArrayList();
+
+        private final List<Boolean> nextOperationAfterProducedSpecified = Lists.newArrayList();
+
+        private final List<BigDecimal> nextOperationAfterProducedQuantities = Lists.newArrayList();
+
+        private final List<OperationProductComponentHolder> outputProducts = Lists.newArrayList();
+
+        private final Map<Long, Integer> indexesByOperationComponentId = Maps.newHashMap();
+
+        private Builder(final boolean workstationsFromProductionLineAllowed) {
+            this.workstationsFromProductionLineAllowed = workstationsFromProductionLineAllowed;
+        }
+
+        /**
+         * Adds operation component after all of its children were added.
+         *
+         * @param childIndexes
+         *            indexes returned when adding children of this operation component
+         * @return index of added operation component
+         */
+        public int add(final Long operationComponentId, final List<Integer> childIndexes, final int tj, final int tpz,
+                final int timeNextOperation, final int quantityOfWorkstations, final Long workstationTypeId,
+                final boolean tjDivisible, final boolean nextOperationAfterProducedSpecified,
+                final BigDecimal nextOperationAfterProducedQuantity, final OperationProductComponentHolder outputProduct) {
+            int index = operationComponentIds.size();
+            int subtreeSize = 1;
+
+            for (Integer childIndex : childIndexes) {
+                parents.set(childIndex, index);
+                subtreeSize += subtreeSizes.get(childIndex);
+            }
+
+            operationComponentIds.add(operationComponentId);
+            parents.add(NO_PARENT);
+            subtreeSizes.add(subtreeSize);
+            this.tj.add(tj);
+            this.tpz.add(tpz);
+            this.timeNextOperation.add(timeNextOperation);
+            this.quantityOfWorkstations.add(quantityOfWorkstations);
+            workstationTypeIds.add(workstationTypeId);
+            this.tjDivisible.add(tjDivisible);
+            this.nextOperationAfterProducedSpecified.add(nextOperationAfterProducedSpecified);
+            nextOperationAfterProducedQuantities.add(nextOperationAfterProducedQuantity);
+            outputProducts.add(outputProduct);
+            indexesByOperationComponentId.put(operationComponentId, index);
+
+            return index;
+        }
+
+        public OperationTimeModel build() {
+            return new OperationTimeModel(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations.hooks;
+
+import static com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields.TECHNOLOGY;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.operationTimeCalculations.OperationTimeModelService;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class OperationProductOutComponentHooksOTC {
+
+    @Autowired
+    private OperationTimeModelService operationTimeModelService;
+
+    public void invalidateOperationTimeModel(final DataDefinition operationProductOutComponentDD,
+            final Entity operationProductOutComponent) {
+        Entity technologyOperationComponent = operationProductOutComponent
+                .getBelongsToField(OperationProductOutComponentFields.OPERATION_COMPONENT);
+
+        if (technologyOperationComponent != null) {
+            Entity technology = technologyOperationComponent.getBelongsToField(TECHNOLOGY);
+
+            if (technology != null) {
+                operationTimeModelService.invalidate(technology.getId());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,313 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimeModel;
+import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
+import com.qcadoo.mes.productionLines.constants.WorkstationTypeComponentFields;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.ProductionLinesServiceImpl;
+import com.qcadoo.mes.technologies.constants.OperationFields;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.model.api.NumberService;
+
+public class OrderRealizationTimeServiceImplWorkstationsTest {
+
+    private static final Long L_WORKSTATION_TYPE_1 = 1L;
+
+    private static final Long L_WORKSTATION_TYPE_2 = 2L;
+
+    private static final Long L_WORKSTATION_TYPE_3 = 3L;
+
+    private static final Long L_OPERATION_COMPONENT_1 = 11L;
+
+    private static final Long L_OPERATION_COMPONENT_2 = 12L;
+
+    private static final Long L_OPERATION_COMPONENT_3 = 13L;
+
+    private static final BigDecimal L_PLANNED_QUANTITY = new BigDecimal(12);
+
+    private OrderRealizationTimeServiceImpl orderRealizationTimeService;
+
+    @Mock
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private OperationWorkTimeService operationWorkTimeService;
+
+    @Mock
+    private OperationTimeModelService operationTimeModelService;
+
+    @Mock
+    private DataDefinition technologyDD, operCompTimeCalculationDD;
+
+    @Mock
+    private Entity technology, parameter, productionLine;
+
+    @Mock
+    private EntityTree operationComponents;
+
+    @Mock
+    private EntityList workstationTypeComponents;
+
+    private EntityTreeNode operationComponent1, operationComponent2, operationComponent3;
+
+    private OperationProductComponentHolder outputProduct1;
+
+    private Map<Long, Entity> operCompTimeCalculations;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        orderRealizationTimeService = new OrderRealizationTimeServiceImpl();
+
+        ReflectionTestUtils.setField(orderRealizationTimeService, "productQuantitiesService", productQuantitiesService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "numberService", numberService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "productionLinesService", new ProductionLinesServiceImpl());
+        ReflectionTestUtils.setField(orderRealizationTimeService, "parameterService", parameterService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "operationWorkTimeService", operationWorkTimeService);
+        ReflectionTestUtils.setField(orderRealizationTimeService, "operationTimeModelService", operationTimeModelService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class))).willAnswer(new Answer<BigDecimal>() {
+
+            @Override
+            public BigDecimal answer(final InvocationOnMock invocation) throws Throwable {
+                return ((BigDecimal) invocation.getArguments()[0]).setScale(5, RoundingMode.HALF_EVEN);
+            }
+        });
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBooleanField("workstationsQuantityFromProductionLine")).willReturn(true);
+
+        given(technology.getId()).willReturn(1L);
+        given(technology.getDataDefinition()).willReturn(technologyDD);
+        given(technologyDD.getName()).willReturn(TechnologiesConstants.MODEL_TECHNOLOGY);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+
+        // first component of workstation type is used, other workstation types get quantity for other workstation types
+        List<Entity> components = Lists.newArrayList(mockWorkstationTypeComponent(L_WORKSTATION_TYPE_1, 3),
+                mockWorkstationTypeComponent(L_WORKSTATION_TYPE_1, 7), mockWorkstationTypeComponent(L_WORKSTATION_TYPE_3, 5));
+
+        given(workstationTypeComponents.iterator()).willAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return components.iterator();
+            }
+        });
+        given(productionLine.getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS)).willReturn(
+                workstationTypeComponents);
+        given(productionLine.getIntegerField(ProductionLineFields.QUANTITY_FOR_OTHER_WORKSTATION_TYPES)).willReturn(2);
+
+        // operation components 1 and 2 are children of operation component 3, operation component 1 passes its output to
+        // next operation after 9 pieces
+        operationComponent1 = mockOperationComponent(L_OPERATION_COMPONENT_1, L_WORKSTATION_TYPE_1);
+        operationComponent2 = mockOperationComponent(L_OPERATION_COMPONENT_2, L_WORKSTATION_TYPE_2);
+        operationComponent3 = mockOperationComponent(L_OPERATION_COMPONENT_3, null);
+
+        given(operationComponents.iterator()).willAnswer(new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return Lists.<Entity> newArrayList(operationComponent3, operationComponent1, operationComponent2).iterator();
+            }
+        });
+
+        outputProduct1 = new OperationProductComponentHolder(100L, L_OPERATION_COMPONENT_1, null, null,
+                OperationProductComponentEntityType.OPERATION_PRODUCT_OUT_COMPONENT);
+
+        OperationTimeModel.Builder builder = OperationTimeModel.builder(true);
+        int index1 = builder.add(L_OPERATION_COMPONENT_1, Lists.<Integer> newArrayList(), 100, 10, 0, 1, L_WORKSTATION_TYPE_1,
+                false, true, new BigDecimal(9), outputProduct1);
+        int index2 = builder.add(L_OPERATION_COMPONENT_2, Lists.<Integer> newArrayList(), 100, 10, 0, 1, L_WORKSTATION_TYPE_2,
+                false, false, BigDecimal.ZERO, null);
+        builder.add(L_OPERATION_COMPONENT_3, Lists.newArrayList(index1, index2), 100, 10, 0, 1, null, false, false,
+                BigDecimal.ZERO, null);
+
+        given(operationTimeModelService.getOperationTimeModel(technology)).willReturn(builder.build());
+
+        given(productQuantitiesService.getProductComponentQuantities(eq(technology), any(BigDecimal.class), anyMap()))
+                .willAnswer(new Answer<OperationProductComponentWithQuantityContainer>() {
+
+                    @Override
+                    public OperationProductComponentWithQuantityContainer answer(final InvocationOnMock invocation)
+                            throws Throwable {
+                        BigDecimal quantity = (BigDecimal) invocation.getArguments()[1];
+                        @SuppressWarnings("unchecked")
+                        Map<Long, BigDecimal> operationRuns = (Map<Long, BigDecimal>) invocation.getArguments()[2];
+
+                        operationRuns.put(L_OPERATION_COMPONENT_1, quantity);
+                        operationRuns.put(L_OPERATION_COMPONENT_2, quantity.divide(new BigDecimal(3), MathContext.DECIMAL64));
+                        operationRuns.put(L_OPERATION_COMPONENT_3, quantity.divide(new BigDecimal(2), MathContext.DECIMAL64));
+
+                        OperationProductComponentWithQuantityContainer productComponentQuantities = new OperationProductComponentWithQuantityContainer();
+                        productComponentQuantities.put(outputProduct1, quantity);
+
+                        return productComponentQuantities;
+                    }
+                });
+
+        operCompTimeCalculations = Maps.newHashMap();
+
+        given(operationWorkTimeService.createOrGetOperCompTimeCalculations(any(Entity.class), anyCollection())).willAnswer(
+                new Answer<Map<Long, Entity>>() {
+
+                    @Override
+                    public Map<Long, Entity> answer(final InvocationOnMock invocation) throws Throwable {
+                        for (Object operationComponentId : (Collection<?>) invocation.getArguments()[1]) {
+                            Entity operCompTimeCalculation = mock(Entity.class);
+
+                            given(operCompTimeCalculation.getDataDefinition()).willReturn(operCompTimeCalculationDD);
+
+                            operCompTimeCalculations.put((Long) operationComponentId, operCompTimeCalculation);
+                        }
+
+                        return operCompTimeCalculations;
+                    }
+                });
+    }
+
+    private Entity mockWorkstationTypeComponent(final Long workstationTypeId, final Integer quantity) {
+        Entity workstationType = mock(Entity.class);
+        Entity workstationTypeComponent = mock(Entity.class);
+
+        given(workstationType.getId()).willReturn(workstationTypeId);
+        given(workstationTypeComponent.getBelongsToField(OperationFields.WORKSTATION_TYPE)).willReturn(workstationType);
+        given(workstationTypeComponent.getField(WorkstationTypeComponentFields.QUANTITY)).willReturn(quantity);
+
+        return workstationTypeComponent;
+    }
+
+    private EntityTreeNode mockOperationComponent(final Long id, final Long workstationTypeId) {
+        EntityTreeNode operationComponent = mock(EntityTreeNode.class);
+        Entity operation = mock(Entity.class);
+        Entity workstationType = null;
+
+        if (workstationTypeId != null) {
+            workstationType = mock(Entity.class);
+
+            given(workstationType.getId()).willReturn(workstationTypeId);
+        }
+
+        given(operation.getBelongsToField(OperationFields.WORKSTATION_TYPE)).willReturn(workstationType);
+
+        given(operationComponent.getId()).willReturn(id);
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)).willReturn(technology);
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFields.OPERATION)).willReturn(operation);
+        given(operationComponent.getField("tj")).willReturn(100);
+        given(operationComponent.getField("tpz")).willReturn(10);
+        given(operationComponent.getField("timeNextOperation")).willReturn(0);
+        given(operationComponent.getBooleanField("isTjDivisible")).willReturn(false);
+
+        return operationComponent;
+    }
+
+    @Test
+    public final void shouldEvaluateOperationTimesWithSameWorkstationsCountsAsForSingleOperationComponents() {
+        // given
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        productQuantitiesService.getProductComponentQuantities(technology, L_PLANNED_QUANTITY, operationRuns);
+
+        // when
+        Map<Entity, Integer> operationDurations = orderRealizationTimeService
+                .estimateMaxOperationTimeConsumptionsForWorkstations(technology, L_PLANNED_QUANTITY, true, false,
+                        productionLine);
+
+        // then
+        for (EntityTreeNode operationComponent : Lists.newArrayList(operationComponent1, operationComponent2,
+                operationComponent3)) {
+            assertEquals(orderRealizationTimeService.evaluateOperationDurationOutOfCycles(
+                    operationRuns.get(operationComponent.getId()), operationComponent, productionLine, true, true, false),
+                    (int) operationDurations.get(operationComponent));
+        }
+
+        assertEquals(410, (int) operationDurations.get(operationComponent1));
+        assertEquals(210, (int) operationDurations.get(operationComponent2));
+        assertEquals(310, (int) operationDurations.get(operationComponent3));
+    }
+
+    @Test
+    public final void shouldEvaluateOperationTimeWithNextOperationAfterProducedQuantity() {
+        // when
+        int operationTime = orderRealizationTimeService.estimateMaxOperationTimeConsumptionForWorkstation(null,
+                operationComponent3, L_PLANNED_QUANTITY, true, false, productionLine);
+
+        // then
+        // operation component 1: 12 cycles on 3 workstations take 410, next operation starts after 9 pieces (9 cycles) - 310
+        // operation component 2: 4 cycles on 2 workstations take 210
+        // operation component 3: 6 cycles on 2 workstations take 310, starts after max(310, 210)
+        assertEquals(620, operationTime);
+        verify(productionLine, times(1)).getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+        verify(operCompTimeCalculations.get(L_OPERATION_COMPONENT_3)).setField("operationOffSet", 310);
+        verify(operCompTimeCalculations.get(L_OPERATION_COMPONENT_1)).setField("effectiveOperationRealizationTime", 410);
+    }
+
+}
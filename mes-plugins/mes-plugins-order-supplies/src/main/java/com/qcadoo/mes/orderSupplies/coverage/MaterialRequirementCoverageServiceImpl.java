@@ -24,6 +24,7 @@
 package com.qcadoo.mes.orderSupplies.coverage;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
@@ -45,8 +46,11 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
 import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.basic.tree.ProductNumberingServiceImpl;
 import com.qcadoo.mes.deliveries.DeliveriesService;
@@ -79,6 +83,7 @@ import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchQueryBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 
@@ -87,6 +92,8 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private static final Logger LOG = LoggerFactory.getLogger(MaterialRequirementCoverageServiceImpl.class);
 
+    private static final String L_DELIVERY = "delivery";
+
     private static final String L_ORDER = "order";
 
     private static final String L_PRODUCT_TYPE = "productType";
@@ -277,34 +284,56 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
     private void saveCoverage(final Entity materialRequirementCoverage, final List<Entity> entities) {
         List<Entity> selectedOrders = materialRequirementCoverage.getHasManyField("coverageOrders");
 
+        List<Entity> coverageProducts = entities;
+
         if (!selectedOrders.isEmpty()) {
-            List<Entity> filtredEntities = entities.stream()
-                    .filter(e -> e.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER)).collect(Collectors.toList());
+            coverageProducts = entities.stream().filter(e -> e.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER))
+                    .collect(Collectors.toList());
+        }
 
-            for (Entity covProduct : filtredEntities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
-            }
-        } else {
-            for (Entity covProduct : entities) {
-                saveCoverageProduct(materialRequirementCoverage, covProduct);
-                for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
-                    saveCoverageProductLogging(log);
-                }
+        if (coverageProducts.isEmpty()) {
+            return;
+        }
+
+        List<Long> coverageProductIds = jdbcTemplate.queryForList(
+                "SELECT nextval('ordersupplies_coverageproduct_id_seq') FROM generate_series(1, :count)",
+                new MapSqlParameterSource("count", coverageProducts.size()), Long.class);
+
+        List<SqlParameterSource> coverageProductParameters = Lists.newArrayListWithCapacity(coverageProducts.size());
+        List<SqlParameterSource> coverageProductLoggingParameters = Lists.newArrayList();
+
+        for (int index = 0; index < coverageProducts.size(); index++) {
+            Entity covProduct = coverageProducts.get(index);
+            Long coverageProductId = coverageProductIds.get(index);
+
+            Map<String, Object> parameters = getCoverageProductParameters(materialRequirementCoverage, covProduct);
+
+            parameters.put("id", coverageProductId);
+
+            coverageProductParameters.add(new MapSqlParameterSource(parameters));
+
+            for (Entity log : covProduct.getHasManyField(CoverageProductFields.COVERAGE_PRODUCT_LOGGINGS)) {
+                coverageProductLoggingParameters.add(getCoverageProductLoggingParameters(coverageProductId, log));
             }
         }
+
+        jdbcTemplate.batchUpdate(getCoverageProductInsertQuery(),
+                coverageProductParameters.toArray(new SqlParameterSource[coverageProductParameters.size()]));
+        jdbcTemplate.batchUpdate(getCoverageProductLoggingInsertQuery(),
+                coverageProductLoggingParameters.toArray(new SqlParameterSource[coverageProductLoggingParameters.size()]));
     }
 
-    private void saveCoverageProductLogging(final Entity log) {
-        String sqlLog = "INSERT INTO ordersupplies_coverageproductlogging(coverageproduct_id, date, "
+    private String getCoverageProductLoggingInsertQuery() {
+        return "INSERT INTO ordersupplies_coverageproductlogging(coverageproduct_id, date, "
                 + "order_id, delivery_id, operation_id, reservemissingquantity, changes, eventtype, state, warehouseNumber, deliveryNumberExternal) "
-                + "VALUES (currval('ordersupplies_coverageproduct_id_seq'), :date, :order_id, :delivery_id, :operation_id, "
-                + ":reservemissingquantity, :changes, :eventtype, :state, :warehouseNumber, :deliveryNumberExternal);";
+                + "VALUES (:coverageproduct_id, :date, :order_id, :delivery_id, :operation_id, "
+                + ":reservemissingquantity, :changes, :eventtype, :state, :warehouseNumber, :deliveryNumberExternal)";
+    }
 
+    private SqlParameterSource getCoverageProductLoggingParameters(final Long coverageProductId, final Entity log) {
         Map<String, Object> parametersLogg = Maps.newHashMap();
 
+        parametersLogg.put("coverageproduct_id", coverageProductId);
         parametersLogg.put("date", log.getDateField(CoverageProductLoggingFields.DATE));
 
         if (log.getBelongsToField(CoverageProductLoggingFields.DELIVERY) != null) {
@@ -333,20 +362,23 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         parametersLogg.put("warehouseNumber", log.getStringField(CoverageProductLoggingFields.WAREHOUSE_NUMBER));
         parametersLogg.put("deliveryNumberExternal", log.getStringField("deliveryNumberExternal"));
 
-        SqlParameterSource nParameters = new MapSqlParameterSource(parametersLogg);
-
-        jdbcTemplate.update(sqlLog, nParameters);
+        return new MapSqlParameterSource(parametersLogg);
     }
 
-    private void saveCoverageProduct(final Entity materialRequirementCoverage, final Entity coverageProduct) {
-        String sql = "INSERT INTO ordersupplies_coverageproduct "
-                + "(materialrequirementcoverage_id, product_id, lackfromdate, demandquantity, coveredquantity, "
+    // Do not remove, around by aspect
+    private String getCoverageProductInsertQuery() {
+        return "INSERT INTO ordersupplies_coverageproduct "
+                + "(id, materialrequirementcoverage_id, product_id, lackfromdate, demandquantity, coveredquantity, "
                 + "reservemissingquantity, deliveredquantity, locationsquantity, state, productnumber, productname, "
                 + "productunit, produceQuantity, fromSelectedOrder, allProductsType, company_id) "
-                + "VALUES (:materialrequirementcoverage_id, :product_id, :lackfromdate, :demandquantity, :coveredquantity, "
+                + "VALUES (:id, :materialrequirementcoverage_id, :product_id, :lackfromdate, :demandquantity, :coveredquantity, "
                 + ":reservemissingquantity, :deliveredquantity, :locationsquantity, :state, :productnumber, :productname, "
                 + ":productunit, :produceQuantity, :fromSelectedOrder, :allProductsType, :company_id)";
+    }
 
+    // Do not remove, around by aspect
+    private Map<String, Object> getCoverageProductParameters(final Entity materialRequirementCoverage,
+            final Entity coverageProduct) {
         Map<String, Object> parameters = Maps.newHashMap();
 
         parameters.put("materialrequirementcoverage_id", materialRequirementCoverage.getId());
@@ -377,9 +409,7 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         parameters.put("fromSelectedOrder", coverageProduct.getBooleanField(CoverageProductFields.FROM_SELECTED_ORDER));
         parameters.put("allProductsType", coverageProduct.getStringField(CoverageProductFields.ALL_PRODUCTS_TYPE));
 
-        SqlParameterSource namedParameters = new MapSqlParameterSource(parameters);
-
-        jdbcTemplate.update(sql, namedParameters);
+        return parameters;
     }
 
     // Do not remove, around by aspect
@@ -388,6 +418,8 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         List<Entity> selectedOrders = materialRequirementCoverage.getHasManyField("coverageOrders");
 
         if (!selectedOrders.isEmpty()) {
+            Map<Long, Boolean> productsWithMasterTechnology = Maps.newHashMap();
+
             for (Entity order : selectedOrders) {
                 List<Entity> entries = registerService.getRegisterEntriesForOrder(order);
 
@@ -403,13 +435,10 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
                         continue;
                     }
 
-                    List<Entity> technologiesForProduct = getTechnologyDD().find()
-                            .add(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product))
-                            .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
-                            .add(SearchRestrictions.eq(TechnologyFields.STATE, TechnologyState.ACCEPTED.getStringValue()))
-                            .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).list().getEntities();
+                    boolean hasMasterTechnology = productsWithMasterTechnology.computeIfAbsent(product.getId(),
+                            productId -> hasMasterTechnology(product));
 
-                    if (technologiesForProduct.isEmpty()) {
+                    if (!hasMasterTechnology) {
                         coverageProduct.setField(L_PRODUCT_TYPE, ProductType.COMPONENT.getStringValue());
                         coverageProduct.setField(L_PLANNED_QUANTITY,
                                 entry.getDecimalField(CoverageRegisterFields.PRODUCTION_COUNTING_QUANTITIES));
@@ -443,6 +472,13 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         }
     }
 
+    private boolean hasMasterTechnology(final Entity product) {
+        return getTechnologyDD().find().add(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product))
+                .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
+                .add(SearchRestrictions.eq(TechnologyFields.STATE, TechnologyState.ACCEPTED.getStringValue()))
+                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).setMaxResults(1).uniqueResult() != null;
+    }
+
     private List<Long> getIdsFromCoverageOrders(final List<Entity> selectedOrders) {
         return selectedOrders.stream().map(order -> order.getId()).collect(Collectors.toList());
     }
@@ -547,15 +583,31 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
     private void estimateProductDeliveriesInTime(final Entity materialRequirementCoverage,
             final Map<Long, Entity> productAndCoverageProducts, final List<Entity> includedDeliveries, final Date actualDate,
             final Date coverageToDate, final Entity belongsToFamily, final Boolean includeDraftDeliveries) {
+        List<Long> receiveConfirmWaitingDeliveriesIds = Lists.newArrayList();
+        List<Long> otherDeliveriesIds = Lists.newArrayList();
+
+        for (Entity delivery : includedDeliveries) {
+            if (isReceiveConfirmWaiting(delivery)) {
+                receiveConfirmWaitingDeliveriesIds.add(delivery.getId());
+            } else {
+                otherDeliveriesIds.add(delivery.getId());
+            }
+        }
+
+        Multimap<Long, Entity> deliveredProducts = getDeliveryProducts(DeliveriesConstants.MODEL_DELIVERED_PRODUCT,
+                receiveConfirmWaitingDeliveriesIds);
+        Multimap<Long, Entity> orderedProducts = getDeliveryProducts(DeliveriesConstants.MODEL_ORDERED_PRODUCT,
+                otherDeliveriesIds);
+
         for (Entity delivery : includedDeliveries) {
             Date coverageDate = getCoverageProductLoggingDateForDelivery(delivery, actualDate);
 
-            List<Entity> deliveryProducts;
+            Collection<Entity> deliveryProducts;
 
-            if (DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING.equals(delivery.getStringField(DeliveryFields.STATE))) {
-                deliveryProducts = delivery.getHasManyField(DeliveryFields.DELIVERED_PRODUCTS);
+            if (isReceiveConfirmWaiting(delivery)) {
+                deliveryProducts = deliveredProducts.get(delivery.getId());
             } else {
-                deliveryProducts = delivery.getHasManyField(DeliveryFields.ORDERED_PRODUCTS);
+                deliveryProducts = orderedProducts.get(delivery.getId());
             }
 
             for (Entity deliveryProduct : deliveryProducts) {
@@ -565,6 +617,26 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         }
     }
 
+    private boolean isReceiveConfirmWaiting(final Entity delivery) {
+        return DeliveryStateStringValues.RECEIVE_CONFIRM_WAITING.equals(delivery.getStringField(DeliveryFields.STATE));
+    }
+
+    /**
+     * Loads delivered or ordered products of all given deliveries at once, grouped by delivery id.
+     */
+    private Multimap<Long, Entity> getDeliveryProducts(final String deliveryProductModelName, final List<Long> deliveriesIds) {
+        if (deliveriesIds.isEmpty()) {
+            return ImmutableListMultimap.of();
+        }
+
+        List<Entity> deliveryProducts = dataDefinitionService
+                .get(DeliveriesConstants.PLUGIN_IDENTIFIER, deliveryProductModelName).find()
+                .createAlias(L_DELIVERY, L_DELIVERY).add(SearchRestrictions.in(L_DELIVERY + ".id", deliveriesIds))
+                .addOrder(SearchOrders.asc("id")).list().getEntities();
+
+        return Multimaps.index(deliveryProducts, deliveryProduct -> deliveryProduct.getBelongsToField(L_DELIVERY).getId());
+    }
+
     private void estimateProductDelivery(final Map<Long, Entity> productAndCoverageProducts,
             final CoverageProductForDelivery coverageProductForDelivery, final Entity belongsToFamily) {
         if (checkIfProductShouldBeAdded(belongsToFamily, coverageProductForDelivery.getProduct())
@@ -708,17 +780,16 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
 
     private void estimateProductLocationsInTime(final Entity materialRequirementCoverage,
             final Map<Long, Entity> productAndCoverageProducts, final List<Entity> coverageLocations, final Date actualDate) {
-        for (Entity coverageLocation : coverageLocations) {
-            Entity location = coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION);
+        if (coverageLocations.isEmpty()) {
+            return;
+        }
 
-            String sql = "SELECT resource.product.id AS product, SUM(resource.quantity) AS quantity "
-                    + "FROM #materialFlowResources_resource AS resource "
-                    + "WHERE resource.location.id = :locationId GROUP BY resource.product.id";
+        Map<Long, Map<Long, BigDecimal>> locationsAndProductQuantities = getLocationsAndProductQuantities(coverageLocations);
 
-            List<Entity> resources = getResourceDD().find(sql).setParameter("locationId", location.getId()).list().getEntities();
+        for (Entity coverageLocation : coverageLocations) {
+            Entity location = coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION);
 
-            Map<Long, BigDecimal> map = resources.stream()
-                    .collect(Collectors.toMap(res -> (Long) res.getField("product"), res -> res.getDecimalField("quantity")));
+            Map<Long, BigDecimal> map = locationsAndProductQuantities.getOrDefault(location.getId(), Collections.emptyMap());
 
             for (Entry<Long, Entity> productAndCoverageProduct : productAndCoverageProducts.entrySet()) {
                 Entity addedCoverageProduct = productAndCoverageProduct.getValue();
@@ -738,6 +809,27 @@ public class MaterialRequirementCoverageServiceImpl implements MaterialRequireme
         }
     }
 
+    private Map<Long, Map<Long, BigDecimal>> getLocationsAndProductQuantities(final List<Entity> coverageLocations) {
+        List<Long> locationIds = coverageLocations.stream()
+                .map(coverageLocation -> coverageLocation.getBelongsToField(CoverageLocationFields.LOCATION).getId())
+                .collect(Collectors.toList());
+
+        String sql = "SELECT resource.location.id AS location, resource.product.id AS product, SUM(resource.quantity) AS quantity "
+                + "FROM #materialFlowResources_resource AS resource "
+                + "WHERE resource.location.id IN (:locationIds) GROUP BY resource.location.id, resource.product.id";
+
+        List<Entity> resources = getResourceDD().find(sql).setParameterList("locationIds", locationIds).list().getEntities();
+
+        Map<Long, Map<Long, BigDecimal>> locationsAndProductQuantities = Maps.newHashMap();
+
+        for (Entity resource : resources) {
+            locationsAndProductQuantities.computeIfAbsent((Long) resource.getField("location"), locationId -> Maps.newHashMap())
+                    .put((Long) resource.getField("product"), resource.getDecimalField("quantity"));
+        }
+
+        return locationsAndProductQuantities;
+    }
+
     private Entity createCoverageProductLoggingForLocations(final Entity location, final Date actualDate,
             final BigDecimal locationsQuantity) {
         Entity coverageProductLogging = orderSuppliesService.getCoverageProductLoggingDD().create();
@@ -5,20 +5,28 @@ import static com.qcadoo.model.api.search.SearchProjections.list;
 import static com.qcadoo.model.api.search.SearchProjections.rowCount;
 import static java.util.Map.Entry.comparingByValue;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.basic.constants.BasicConstants;
@@ -58,6 +66,14 @@ public class ScheduleDetailsListeners {
 
     private static final String SCHEDULE_ID = "scheduleId";
 
+    private static final String SCHEDULE_START_TIME = "scheduleStartTime";
+
+    private static final String ID = "id";
+
+    private static final String ORDER_ID = "order_id";
+
+    private static final String PARENT_ID = "parent_id";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -72,19 +88,30 @@ public class ScheduleDetailsListeners {
 
     @Transactional
     public void assignOperationsToWorkstations(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        Entity schedule = ((FormComponent) state).getEntity();
+        assignOperationsToWorkstations(((FormComponent) state).getEntity());
+    }
+
+    @Transactional
+    public void assignOperationsToWorkstations(final Entity schedule) {
         Map<Long, Date> workstationsFinishDates = Maps.newHashMap();
         Set<Long> ordersToAvoid = Sets.newHashSet();
-        List<Long> positionsIds = sortPositionsForWorkstations(schedule.getId());
+        List<Map<String, Object>> sortedPositions = sortPositionsForWorkstations(schedule.getId());
         Date scheduleStartTime = schedule.getDateField(ScheduleFields.START_TIME);
-        for (Long positionId : positionsIds) {
-            Entity position = dataDefinitionService
-                    .get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE_POSITION).get(positionId);
+        Map<Long, Entity> positions = getPositions(schedule.getId());
+        Multimap<List<Long>, Long> positionsChildren = getPositionsChildren(sortedPositions);
+        Map<Long, Date> operationalTasksMaxFinishDates = getOperationalTasksMaxFinishDatesForWorkstations(scheduleStartTime);
+        Map<Long, List<Entity>> operationComponentsWorkstations = Maps.newHashMap();
+        Map<Long, Entity> workstationsProductionLines = Maps.newHashMap();
+        List<Entity> positionsToUpdate = Lists.newArrayList();
+        for (Map<String, Object> sortedPosition : sortedPositions) {
+            Entity position = positions.get(((Number) sortedPosition.get(ID)).longValue());
             if (ordersToAvoid.contains(position.getBelongsToField(SchedulePositionFields.ORDER).getId())) {
                 continue;
             }
-            List<Entity> workstations = position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT)
-                    .getManyToManyField(TechnologyOperationComponentFields.WORKSTATIONS);
+            Entity technologyOperationComponent = position
+                    .getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT);
+            List<Entity> workstations = operationComponentsWorkstations.computeIfAbsent(technologyOperationComponent.getId(),
+                    id -> technologyOperationComponent.getManyToManyField(TechnologyOperationComponentFields.WORKSTATIONS));
             if (workstations.isEmpty() || position.getIntegerField(SchedulePositionFields.MACHINE_WORK_TIME) == 0) {
                 ordersToAvoid.add(position.getBelongsToField(SchedulePositionFields.ORDER).getId());
                 continue;
@@ -93,13 +120,15 @@ public class ScheduleDetailsListeners {
             Map<Long, Date> operationWorkstationsStartDates = Maps.newHashMap();
 
             getWorkstationsNewFinishDate(workstationsFinishDates, scheduleStartTime, position, workstations,
-                    operationWorkstationsFinishDates, operationWorkstationsStartDates);
+                    operationWorkstationsFinishDates, operationWorkstationsStartDates,
+                    getChildren(position, positions, positionsChildren), operationalTasksMaxFinishDates,
+                    workstationsProductionLines);
 
             if (ScheduleWorkstationAssignCriterion.SHORTEST_TIME.getStringValue()
                     .equals(schedule.getStringField(ScheduleFields.WORKSTATION_ASSIGN_CRITERION))) {
                 operationWorkstationsFinishDates.entrySet().stream().min(comparingByValue())
                         .ifPresent(entry -> updatePositionWorkstationAndDates(entry, workstationsFinishDates, position,
-                                operationWorkstationsStartDates.get(entry.getKey())));
+                                operationWorkstationsStartDates.get(entry.getKey()), positionsToUpdate));
             } else {
                 Entry<Long, Date> firstEntry;
                 if (workstationsFinishDates.isEmpty()) {
@@ -110,19 +139,20 @@ public class ScheduleDetailsListeners {
                             .orElse(operationWorkstationsFinishDates.entrySet().iterator().next());
                 }
                 updatePositionWorkstationAndDates(firstEntry, workstationsFinishDates, position,
-                        operationWorkstationsStartDates.get(firstEntry.getKey()));
+                        operationWorkstationsStartDates.get(firstEntry.getKey()), positionsToUpdate);
             }
         }
+        updatePositionsWorkstationsAndDates(positionsToUpdate);
     }
 
     private void getWorkstationsNewFinishDate(Map<Long, Date> workstationsFinishDates, Date scheduleStartTime, Entity position,
             List<Entity> workstations, Map<Long, Date> operationWorkstationsFinishDates,
-            Map<Long, Date> operationWorkstationsStartDates) {
+            Map<Long, Date> operationWorkstationsStartDates, List<Entity> children,
+            Map<Long, Date> operationalTasksMaxFinishDates, Map<Long, Entity> workstationsProductionLines) {
         for (Entity workstation : workstations) {
             Date finishDate = workstationsFinishDates.get(workstation.getId());
             if (finishDate == null) {
-                Date operationalTasksMaxFinishDate = getOperationalTasksMaxFinishDateForWorkstation(scheduleStartTime,
-                        workstation);
+                Date operationalTasksMaxFinishDate = operationalTasksMaxFinishDates.get(workstation.getId());
                 if (operationalTasksMaxFinishDate != null) {
                     finishDate = operationalTasksMaxFinishDate;
                     workstationsFinishDates.put(workstation.getId(), finishDate);
@@ -131,9 +161,6 @@ public class ScheduleDetailsListeners {
             if (finishDate == null) {
                 finishDate = scheduleStartTime;
             }
-            List<Entity> children = getChildren(position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT),
-                    position.getBelongsToField(SchedulePositionFields.ORDER),
-                    position.getBelongsToField(SchedulePositionFields.SCHEDULE));
             for (Entity child : children) {
                 Date childEndTimeWithAdditionalTime = Date.from(child.getDateField(SchedulePositionFields.END_TIME).toInstant()
                         .plusSeconds(child.getIntegerField(SchedulePositionFields.ADDITIONAL_TIME)));
@@ -141,55 +168,97 @@ public class ScheduleDetailsListeners {
                     finishDate = childEndTimeWithAdditionalTime;
                 }
             }
+            Entity productionLine = workstationsProductionLines.computeIfAbsent(workstation.getId(),
+                    id -> workstation.getBelongsToField(WorkstationFieldsPL.PRODUCTION_LINE));
             DateTime finishDateTime = new DateTime(finishDate);
-            Date newStartDate = shiftsService
-                    .getNearestWorkingDate(finishDateTime, workstation.getBelongsToField(WorkstationFieldsPL.PRODUCTION_LINE))
-                    .orElse(finishDateTime).toDate();
+            Date newStartDate = shiftsService.getNearestWorkingDate(finishDateTime, productionLine).orElse(finishDateTime)
+                    .toDate();
 
             Integer machineWorkTime = position.getIntegerField(SchedulePositionFields.MACHINE_WORK_TIME);
-            Date newFinishDate = shiftsService.findDateToForProductionLine(newStartDate, machineWorkTime,
-                    workstation.getBelongsToField(WorkstationFieldsPL.PRODUCTION_LINE));
+            Date newFinishDate = shiftsService.findDateToForProductionLine(newStartDate, machineWorkTime, productionLine);
             operationWorkstationsStartDates.put(workstation.getId(), newStartDate);
             operationWorkstationsFinishDates.put(workstation.getId(), newFinishDate);
         }
     }
 
-    private List<Entity> getChildren(Entity technologyOperationComponent, Entity order, Entity schedule) {
-        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE_POSITION).find()
-                .createAlias(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT, "toc", JoinType.INNER)
-                .add(SearchRestrictions.belongsTo("toc." + TechnologyOperationComponentFields.PARENT,
-                        technologyOperationComponent))
-                .add(SearchRestrictions.belongsTo(SchedulePositionFields.ORDER, order))
-                .add(SearchRestrictions.belongsTo(SchedulePositionFields.SCHEDULE, schedule)).list().getEntities();
+    private Map<Long, Entity> getPositions(final Long scheduleId) {
+        Entity schedule = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE)
+                .get(scheduleId);
+        Map<Long, Entity> positions = Maps.newHashMap();
+        for (Entity position : schedule.getHasManyField(ScheduleFields.POSITIONS).find().list().getEntities()) {
+            positions.put(position.getId(), position);
+        }
+        return positions;
     }
 
-    private Date getOperationalTasksMaxFinishDateForWorkstation(Date scheduleStartTime, Entity workstation) {
-        Entity operationalTasksMaxFinishDateEntity = dataDefinitionService
-                .get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_OPERATIONAL_TASK).find()
-                .add(SearchRestrictions.belongsTo(SchedulePositionFields.WORKSTATION, workstation))
-                .add(SearchRestrictions.ne(STATE, REJECTED)).add(SearchRestrictions.gt(FINISH_DATE, scheduleStartTime))
-                .setProjection(list().add(alias(SearchProjections.max(FINISH_DATE), FINISH_DATE)).add(rowCount()))
-                .addOrder(SearchOrders.desc(FINISH_DATE)).setMaxResults(1).uniqueResult();
-        return operationalTasksMaxFinishDateEntity.getDateField(FINISH_DATE);
+    // children of a position are positions of the same order whose operation component is a child of its operation component
+    private Multimap<List<Long>, Long> getPositionsChildren(final List<Map<String, Object>> sortedPositions) {
+        Multimap<List<Long>, Long> positionsChildren = ArrayListMultimap.create();
+        for (Map<String, Object> sortedPosition : sortedPositions) {
+            Number parentTechnologyOperationComponentId = (Number) sortedPosition.get(PARENT_ID);
+            if (parentTechnologyOperationComponentId != null) {
+                positionsChildren.put(
+                        Arrays.asList(((Number) sortedPosition.get(ORDER_ID)).longValue(),
+                                parentTechnologyOperationComponentId.longValue()),
+                        ((Number) sortedPosition.get(ID)).longValue());
+            }
+        }
+        return positionsChildren;
+    }
+
+    private List<Entity> getChildren(final Entity position, final Map<Long, Entity> positions,
+            final Multimap<List<Long>, Long> positionsChildren) {
+        List<Long> key = Arrays.asList(position.getBelongsToField(SchedulePositionFields.ORDER).getId(),
+                position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT).getId());
+        return positionsChildren.get(key).stream().map(positions::get).collect(Collectors.toList());
+    }
+
+    private Map<Long, Date> getOperationalTasksMaxFinishDatesForWorkstations(final Date scheduleStartTime) {
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put(STATE, REJECTED);
+        parameters.put(SCHEDULE_START_TIME, scheduleStartTime);
+        String query = "SELECT ot.workstation_id, max(ot.finishdate) AS finishdate FROM orders_operationaltask ot "
+                + "WHERE ot.workstation_id IS NOT NULL AND ot.state <> :state AND ot.finishdate > :scheduleStartTime "
+                + "GROUP BY ot.workstation_id";
+        Map<Long, Date> operationalTasksMaxFinishDates = Maps.newHashMap();
+        jdbcTemplate.query(query, parameters, (RowCallbackHandler) resultSet -> operationalTasksMaxFinishDates.put(
+                resultSet.getLong("workstation_id"), new Date(resultSet.getTimestamp(FINISH_DATE).getTime())));
+        return operationalTasksMaxFinishDates;
     }
 
     private void updatePositionWorkstationAndDates(Entry<Long, Date> firstEntry, Map<Long, Date> workstationsFinishDates,
-            Entity position, Date startTime) {
+            Entity position, Date startTime, List<Entity> positionsToUpdate) {
         workstationsFinishDates.put(firstEntry.getKey(), firstEntry.getValue());
+        // same conditions as in SchedulePositionHooks - position with missing or reversed dates wouldn't be saved
+        if (startTime == null || firstEntry.getValue() == null || firstEntry.getValue().before(startTime)) {
+            return;
+        }
         position.setField(SchedulePositionFields.WORKSTATION, firstEntry.getKey());
         position.setField(SchedulePositionFields.START_TIME, startTime);
         position.setField(SchedulePositionFields.END_TIME, firstEntry.getValue());
         position.setField(SchedulePositionFields.STAFF, null);
-        position.getDataDefinition().save(position);
+        positionsToUpdate.add(position);
     }
 
-    private List<Long> sortPositionsForWorkstations(Long scheduleId) {
+    private void updatePositionsWorkstationsAndDates(final List<Entity> positions) {
+        SqlParameterSource[] parameters = positions.stream()
+                .map(position -> new MapSqlParameterSource(ID, position.getId())
+                        .addValue(SchedulePositionFields.WORKSTATION, position.getField(SchedulePositionFields.WORKSTATION))
+                        .addValue(SchedulePositionFields.START_TIME, position.getDateField(SchedulePositionFields.START_TIME))
+                        .addValue(SchedulePositionFields.END_TIME, position.getDateField(SchedulePositionFields.END_TIME)))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("UPDATE orders_scheduleposition SET workstation_id = :workstation, starttime = :startTime, "
+                + "endtime = :endTime, staff_id = NULL WHERE id = :id", parameters);
+    }
+
+    private List<Map<String, Object>> sortPositionsForWorkstations(Long scheduleId) {
         Entity schedule = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE)
                 .get(scheduleId);
         Map<String, Object> parameters = Maps.newHashMap();
         parameters.put(SCHEDULE_ID, scheduleId);
         StringBuilder query = new StringBuilder();
-        query.append("SELECT sp.id FROM orders_scheduleposition sp JOIN technologies_technologyoperationcomponent toc ");
+        query.append("SELECT sp.id, sp.order_id, toc.parent_id ");
+        query.append("FROM orders_scheduleposition sp JOIN technologies_technologyoperationcomponent toc ");
         query.append("ON sp.technologyoperationcomponent_id = toc.id WHERE sp.schedule_id = :scheduleId ORDER BY ");
         query.append("string_to_array(regexp_replace(rtrim(toc.nodenumber, '.'), '[^0-9.]', '0', 'g'), '.')::int[] desc, ");
         if (ScheduleSortOrder.DESCENDING.getStringValue().equals(schedule.getStringField(ScheduleFields.SORT_ORDER))) {
@@ -197,25 +266,35 @@ public class ScheduleDetailsListeners {
         } else {
             query.append("sp.machineworktime asc");
         }
-        return jdbcTemplate.queryForList(query.toString(), parameters, Long.class);
+        return jdbcTemplate.queryForList(query.toString(), parameters);
     }
 
     @Transactional
     public void assignWorkersToOperations(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        Entity schedule = ((FormComponent) state).getEntity();
+        assignWorkersToOperations(((FormComponent) state).getEntity());
+    }
+
+    @Transactional
+    public void assignWorkersToOperations(final Entity schedule) {
         Map<Long, Date> workersFinishDates = Maps.newHashMap();
         Map<Long, Long> workstationLastWorkers = Maps.newHashMap();
+        Map<Long, Date> operationalTasksMaxFinishDates = Maps.newHashMap();
+        Map<Long, List<Entity>> operationsWorkers = Maps.newHashMap();
         List<Entity> positions = sortPositionsForWorkers(schedule.getId());
+        List<Entity> positionsToUpdate = Lists.newArrayList();
         Date scheduleStartTime = schedule.getDateField(ScheduleFields.START_TIME);
         for (Entity position : positions) {
             Entity workstation = position.getBelongsToField(SchedulePositionFields.WORKSTATION);
             if (position.getIntegerField(SchedulePositionFields.MACHINE_WORK_TIME) == 0 || workstation == null) {
                 continue;
             }
-            List<Entity> workers = getWorkers(position);
+            Entity operation = position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT)
+                    .getBelongsToField(TechnologyOperationComponentFields.OPERATION);
+            List<Entity> workers = operationsWorkers.computeIfAbsent(operation.getId(), id -> getWorkers(operation));
             Map<Long, Date> operationWorkersFinishDates = Maps.newHashMap();
-            getWorkersFinishDate(workersFinishDates, scheduleStartTime, position, workers, operationWorkersFinishDates);
-            if (workstationLastWorkers.get(workstation.getId()) == null) {
+            getWorkersFinishDate(workersFinishDates, scheduleStartTime, position, workers, operationWorkersFinishDates,
+                    operationalTasksMaxFinishDates);
+            if (!workstationLastWorkers.containsKey(workstation.getId())) {
                 workstationLastWorkers.put(workstation.getId(), getOperationalTasksLastWorkerForWorkstation(workstation));
             }
             Long workstationLastWorkerId = workstationLastWorkers.get(workstation.getId());
@@ -233,8 +312,22 @@ public class ScheduleDetailsListeners {
             position.setField(SchedulePositionFields.STAFF, null);
             firstEntryOptional.ifPresent(firstEntry -> updatePositionWorker(workersFinishDates, workstationLastWorkers, position,
                     workstation, firstEntry));
-            position.getDataDefinition().save(position);
+            positionsToUpdate.add(position);
         }
+        updatePositionsWorkers(positionsToUpdate);
+    }
+
+    private void updatePositionsWorkers(final List<Entity> positions) {
+        // same conditions as in SchedulePositionHooks - position with missing or reversed dates wouldn't be saved
+        SqlParameterSource[] parameters = positions.stream()
+                .filter(position -> position.getDateField(SchedulePositionFields.START_TIME) != null
+                        && position.getDateField(SchedulePositionFields.END_TIME) != null
+                        && !position.getDateField(SchedulePositionFields.END_TIME)
+                                .before(position.getDateField(SchedulePositionFields.START_TIME)))
+                .map(position -> new MapSqlParameterSource(ID, position.getId()).addValue(SchedulePositionFields.STAFF,
+                        position.getField(SchedulePositionFields.STAFF)))
+                .toArray(SqlParameterSource[]::new);
+        jdbcTemplate.batchUpdate("UPDATE orders_scheduleposition SET staff_id = :staff WHERE id = :id", parameters);
     }
 
     private Long getOperationalTasksLastWorkerForWorkstation(Entity workstation) {
@@ -249,10 +342,8 @@ public class ScheduleDetailsListeners {
         }
     }
 
-    private List<Entity> getWorkers(Entity position) {
-        List<Entity> operationSkills = position.getBelongsToField(SchedulePositionFields.TECHNOLOGY_OPERATION_COMPONENT)
-                .getBelongsToField(TechnologyOperationComponentFields.OPERATION)
-                .getManyToManyField(OperationFields.OPERATION_SKILLS);
+    private List<Entity> getWorkers(Entity operation) {
+        List<Entity> operationSkills = operation.getManyToManyField(OperationFields.OPERATION_SKILLS);
         SearchCriteriaBuilder staffScb = dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_STAFF)
                 .find();
         for (Entity operationSkill : operationSkills) {
@@ -272,11 +363,12 @@ public class ScheduleDetailsListeners {
     }
 
     private void getWorkersFinishDate(Map<Long, Date> workersFinishDates, Date scheduleStartTime, Entity position,
-            List<Entity> workers, Map<Long, Date> operationWorkersFinishDates) {
+            List<Entity> workers, Map<Long, Date> operationWorkersFinishDates, Map<Long, Date> operationalTasksMaxFinishDates) {
         for (Entity worker : workers) {
             Date finishDate = workersFinishDates.get(worker.getId());
             if (finishDate == null) {
-                Date operationalTasksMaxFinishDate = getOperationalTasksMaxFinishDateForWorker(worker);
+                Date operationalTasksMaxFinishDate = operationalTasksMaxFinishDates.computeIfAbsent(worker.getId(),
+                        id -> getOperationalTasksMaxFinishDateForWorker(worker));
                 if (operationalTasksMaxFinishDate != null) {
                     finishDate = operationalTasksMaxFinishDate;
                     workersFinishDates.put(worker.getId(), finishDate);
@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.orders.listeners;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.orders.constants.SchedulePositionFields;
+import com.qcadoo.mes.orders.hooks.SchedulePositionHooks;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.FieldDefinition;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SearchRestrictions.class)
+public class ScheduleDetailsListenersTest {
+
+    private static final Date START_TIME = new DateTime(2020, 1, 1, 10, 0).toDate();
+
+    private static final Date END_TIME = new DateTime(2020, 1, 1, 11, 0).toDate();
+
+    private ScheduleDetailsListeners scheduleDetailsListeners;
+
+    private SchedulePositionHooks schedulePositionHooks;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private DataDefinition schedulePositionDD;
+
+    private Set<Entity> positionsWithErrors;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(SearchRestrictions.class);
+
+        scheduleDetailsListeners = new ScheduleDetailsListeners();
+        ReflectionTestUtils.setField(scheduleDetailsListeners, "jdbcTemplate", jdbcTemplate);
+
+        schedulePositionHooks = new SchedulePositionHooks();
+        schedulePositionDD = mock(DataDefinition.class, RETURNS_DEEP_STUBS);
+        positionsWithErrors = Sets.newHashSet();
+    }
+
+    private Entity mockPosition(final Long id, final Date startTime, final Date endTime) {
+        Entity position = mock(Entity.class);
+        given(position.getId()).willReturn(id);
+        given(position.getDateField(SchedulePositionFields.START_TIME)).willReturn(startTime);
+        given(position.getDateField(SchedulePositionFields.END_TIME)).willReturn(endTime);
+        given(position.getField(SchedulePositionFields.STAFF)).willReturn(100L + id);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                positionsWithErrors.add(position);
+                return null;
+            }
+        }).when(position).addError(any(FieldDefinition.class), anyString());
+        return position;
+    }
+
+    @Test
+    public final void shouldUpdateWorkersOfPositionsWhichWouldBeSavedOneByOne() {
+        // given
+        List<Entity> positions = Lists.newArrayList(mockPosition(1L, START_TIME, END_TIME), mockPosition(2L, START_TIME, null),
+                mockPosition(3L, null, END_TIME), mockPosition(4L, null, null), mockPosition(5L, END_TIME, START_TIME),
+                mockPosition(6L, START_TIME, START_TIME));
+
+        List<Long> savedPositionsIds = Lists.newArrayList();
+        for (Entity position : positions) {
+            schedulePositionHooks.onSave(schedulePositionDD, position);
+            if (!positionsWithErrors.contains(position)) {
+                savedPositionsIds.add(position.getId());
+            }
+        }
+
+        // when
+        ReflectionTestUtils.invokeMethod(scheduleDetailsListeners, "updatePositionsWorkers", positions);
+
+        // then
+        ArgumentCaptor<SqlParameterSource[]> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+        verify(jdbcTemplate).batchUpdate(anyString(), parametersCaptor.capture());
+
+        List<Long> updatedPositionsIds = Lists.newArrayList();
+        for (SqlParameterSource parameters : parametersCaptor.getValue()) {
+            updatedPositionsIds.add((Long) parameters.getValue("id"));
+            assertEquals(100L + (Long) parameters.getValue("id"), parameters.getValue(SchedulePositionFields.STAFF));
+        }
+        assertEquals(Lists.newArrayList(1L, 6L), savedPositionsIds);
+        assertEquals(savedPositionsIds, updatedPositionsIds);
+    }
+
+}
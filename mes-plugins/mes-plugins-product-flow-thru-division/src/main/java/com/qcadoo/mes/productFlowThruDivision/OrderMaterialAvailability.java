@@ -26,14 +26,15 @@ import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityCont
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
-import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchRestrictions;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -45,6 +46,12 @@ public class OrderMaterialAvailability {
 
     private static final int REQUIRED_QUANTITY_SCALE = 5;
 
+    private static final String L_DOT_ID = ".id";
+
+    private static final List<String> L_UPDATED_FIELDS = Arrays.asList(MaterialAvailabilityFields.AVAILABILITY,
+            MaterialAvailabilityFields.AVAILABLE_QUANTITY, MaterialAvailabilityFields.REQUIRED_QUANTITY,
+            MaterialAvailabilityFields.UNIT, MaterialAvailabilityFields.REPLACEMENT);
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -67,68 +74,150 @@ public class OrderMaterialAvailability {
             return Collections.EMPTY_LIST;
         }
 
-        List<Entity> materialsAvailability = createMaterialAvailability(order, technology);
+        List<Entity> materialsAvailability = createMaterialAvailability(order, Maps.newHashMap());
+
+        order.setField(OrderFieldsPFTD.MATERIAL_AVAILABILITY, materialsAvailability);
 
-        updateQuantityAndAvailability(materialsAvailability);
+        updateQuantityAndAvailability(materialsAvailability, false);
 
         return materialsAvailability;
     }
 
     public void generateAndSaveMaterialAvailabilityForOrder(Entity order) {
-        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+        generateAndSaveMaterialAvailabilityForOrders(Lists.newArrayList(order), false);
+    }
 
-        if (order.getId() == null || technology == null) {
+    /**
+     * Generates material availability for given orders and saves only changed rows. Stock of all locations and products
+     * required by the orders is fetched at once.
+     *
+     * @param orders
+     *            orders in order of their priority
+     * @param allocateInOrderPriority
+     *            when true, stock shared by orders is allocated to them in given order, so each order sees only quantities not
+     *            required by the orders before it
+     */
+    public void generateAndSaveMaterialAvailabilityForOrders(final List<Entity> orders, final boolean allocateInOrderPriority) {
+        List<Long> orderIds = Lists.newArrayList();
+        List<Entity> materialsAvailability = Lists.newArrayList();
+        Map<Long, Boolean> productsWithReplacements = Maps.newHashMap();
+
+        for (Entity order : orders) {
+            Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+
+            if (order.getId() != null && technology != null) {
+                orderIds.add(order.getId());
+                materialsAvailability.addAll(createMaterialAvailability(order, productsWithReplacements));
+            }
+        }
+
+        if (orderIds.isEmpty()) {
             return;
         }
 
-        deleteMaterialAvailability(order);
+        updateQuantityAndAvailability(materialsAvailability, allocateInOrderPriority);
 
-        List<Entity> materialsAvailability = createMaterialAvailability(order, technology);
+        saveMaterialAvailability(orderIds, materialsAvailability);
+    }
 
-        updateQuantityAndAvailability(materialsAvailability);
+    private void saveMaterialAvailability(final List<Long> orderIds, final List<Entity> materialsAvailability) {
+        DataDefinition orderMaterialAvailabilityDD = getMaterialAvailabilityDD();
 
-        saveMaterialAvailability(materialsAvailability);
-    }
+        Map<List<Long>, Entity> existingMaterialsAvailability = Maps.newHashMap();
+        List<Long> materialAvailabilityIdsToDelete = Lists.newArrayList();
 
-    private void saveMaterialAvailability(List<Entity> materialsAvailability) {
-        DataDefinition orderMaterialAvailabilityDD = dataDefinitionService.get(ProductFlowThruDivisionConstants.PLUGIN_IDENTIFIER,
-                ProductFlowThruDivisionConstants.MODEL_MATERIAL_AVAILABILITY);
+        for (Entity existingMaterialAvailability : orderMaterialAvailabilityDD.find()
+                .add(SearchRestrictions.in(MaterialAvailabilityFields.ORDER + L_DOT_ID, orderIds)).list().getEntities()) {
+            Entity duplicate = existingMaterialsAvailability.put(getKey(existingMaterialAvailability),
+                    existingMaterialAvailability);
+
+            if (duplicate != null) {
+                materialAvailabilityIdsToDelete.add(duplicate.getId());
+            }
+        }
 
         for (Entity materialAvailability : materialsAvailability) {
-            orderMaterialAvailabilityDD.save(materialAvailability);
+            Entity existingMaterialAvailability = existingMaterialsAvailability.remove(getKey(materialAvailability));
+
+            if (existingMaterialAvailability == null) {
+                orderMaterialAvailabilityDD.save(materialAvailability);
+            } else if (isChanged(existingMaterialAvailability, materialAvailability)) {
+                for (String field : L_UPDATED_FIELDS) {
+                    existingMaterialAvailability.setField(field, materialAvailability.getField(field));
+                }
+
+                orderMaterialAvailabilityDD.save(existingMaterialAvailability);
+            }
+        }
+
+        for (Entity existingMaterialAvailability : existingMaterialsAvailability.values()) {
+            materialAvailabilityIdsToDelete.add(existingMaterialAvailability.getId());
+        }
+
+        if (!materialAvailabilityIdsToDelete.isEmpty()) {
+            orderMaterialAvailabilityDD.delete(materialAvailabilityIdsToDelete.toArray(new Long[] {}));
         }
     }
 
-    private void updateQuantityAndAvailability(final List<Entity> materialsAvailability) {
+    private List<Long> getKey(final Entity materialAvailability) {
+        return Arrays.asList(getId(materialAvailability.getBelongsToField(MaterialAvailabilityFields.ORDER)),
+                getId(materialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT)),
+                getId(materialAvailability.getBelongsToField(MaterialAvailabilityFields.LOCATION)));
+    }
+
+    private Long getId(final Entity entity) {
+        return entity == null ? null : entity.getId();
+    }
+
+    private boolean isChanged(final Entity existingMaterialAvailability, final Entity materialAvailability) {
+        return !Objects.equals(existingMaterialAvailability.getStringField(MaterialAvailabilityFields.AVAILABILITY),
+                materialAvailability.getStringField(MaterialAvailabilityFields.AVAILABILITY))
+                || !Objects.equals(existingMaterialAvailability.getStringField(MaterialAvailabilityFields.UNIT),
+                        materialAvailability.getStringField(MaterialAvailabilityFields.UNIT))
+                || existingMaterialAvailability.getBooleanField(MaterialAvailabilityFields.REPLACEMENT) != materialAvailability
+                        .getBooleanField(MaterialAvailabilityFields.REPLACEMENT)
+                || !isEqual(existingMaterialAvailability.getDecimalField(MaterialAvailabilityFields.REQUIRED_QUANTITY),
+                        materialAvailability.getDecimalField(MaterialAvailabilityFields.REQUIRED_QUANTITY))
+                || !isEqual(existingMaterialAvailability.getDecimalField(MaterialAvailabilityFields.AVAILABLE_QUANTITY),
+                        materialAvailability.getDecimalField(MaterialAvailabilityFields.AVAILABLE_QUANTITY));
+    }
+
+    private boolean isEqual(final BigDecimal value, final BigDecimal otherValue) {
+        if (value == null || otherValue == null) {
+            return value == otherValue;
+        }
+
+        return value.compareTo(otherValue) == 0;
+    }
+
+    private void updateQuantityAndAvailability(final List<Entity> materialsAvailability, final boolean allocateInOrderPriority) {
         Map<Long, Map<Long, BigDecimal>> availableComponents = prepareAvailableComponents(materialsAvailability);
 
         for (Entity materialAvailability : materialsAvailability) {
             Entity location = materialAvailability.getBelongsToField(MaterialAvailabilityFields.LOCATION);
+            Long productId = materialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT).getId();
+            Map<Long, BigDecimal> availableComponentsInLocation = location == null ? null : availableComponents.get(location
+                    .getId());
 
-            if (availableComponents.containsKey(location.getId())) {
-                Entity product = materialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT);
-                Map<Long, BigDecimal> availableComponentsInLocation = availableComponents.get(location.getId());
-
-                if (availableComponentsInLocation.containsKey(product.getId())) {
-                    BigDecimal availableQuantity = availableComponentsInLocation.get(product.getId());
-
-                    if (availableQuantity
-                            .compareTo(materialAvailability.getDecimalField(MaterialAvailabilityFields.REQUIRED_QUANTITY)) >= 0) {
-                        materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
-                                AvailabilityOfMaterialAvailability.FULL.getStrValue());
-                    } else if (availableQuantity.compareTo(BigDecimal.ZERO) == 0) {
-                        materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
-                                AvailabilityOfMaterialAvailability.NONE.getStrValue());
-                    } else {
-                        materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
-                                AvailabilityOfMaterialAvailability.PARTIAL.getStrValue());
-                    }
+            if (availableComponentsInLocation != null && availableComponentsInLocation.containsKey(productId)) {
+                BigDecimal availableQuantity = availableComponentsInLocation.get(productId);
+                BigDecimal requiredQuantity = materialAvailability.getDecimalField(MaterialAvailabilityFields.REQUIRED_QUANTITY);
 
-                    materialAvailability.setField(MaterialAvailabilityFields.AVAILABLE_QUANTITY, availableQuantity);
-                } else {
+                if (availableQuantity.compareTo(requiredQuantity) >= 0) {
+                    materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
+                            AvailabilityOfMaterialAvailability.FULL.getStrValue());
+                } else if (availableQuantity.compareTo(BigDecimal.ZERO) == 0) {
                     materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
                             AvailabilityOfMaterialAvailability.NONE.getStrValue());
-                    materialAvailability.setField(MaterialAvailabilityFields.AVAILABLE_QUANTITY, BigDecimal.ZERO);
+                } else {
+                    materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
+                            AvailabilityOfMaterialAvailability.PARTIAL.getStrValue());
+                }
+
+                materialAvailability.setField(MaterialAvailabilityFields.AVAILABLE_QUANTITY, availableQuantity);
+
+                if (allocateInOrderPriority && availableQuantity.compareTo(BigDecimal.ZERO) > 0) {
+                    availableComponentsInLocation.put(productId, availableQuantity.subtract(requiredQuantity).max(BigDecimal.ZERO));
                 }
             } else {
                 materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY,
@@ -139,64 +228,31 @@ public class OrderMaterialAvailability {
     }
 
     private Map<Long, Map<Long, BigDecimal>> prepareAvailableComponents(final List<Entity> materialAvailabilities) {
-        Map<Entity, Set<Entity>> groupedMaterialAvailabilities = Maps.newHashMap();
+        Set<Long> locationIds = Sets.newHashSet();
+        Set<Long> productIds = Sets.newHashSet();
 
-        materialAvailabilities.forEach(materialAvailability -> {
+        for (Entity materialAvailability : materialAvailabilities) {
             Entity location = materialAvailability.getBelongsToField(MaterialAvailabilityFields.LOCATION);
 
-            if (groupedMaterialAvailabilities.containsKey(location)) {
-                groupedMaterialAvailabilities.get(location)
-                        .add(materialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT));
-            } else {
-                groupedMaterialAvailabilities.put(location,
-                        Sets.newHashSet(materialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT)));
-            }
-        });
-
-        Map<Long, Map<Long, BigDecimal>> availability = Maps.newHashMap();
-
-        for (Map.Entry<Entity, Set<Entity>> entry : groupedMaterialAvailabilities.entrySet()) {
-            if (entry.getKey() != null) {
-                Map<Long, BigDecimal> availableQuantities = materialFlowResourcesService
-                        .getQuantitiesForProductsAndLocation(Lists.newArrayList(entry.getValue()), entry.getKey());
-
-                availability.put(entry.getKey().getId(), availableQuantities);
+            if (location != null) {
+                locationIds.add(location.getId());
+                productIds.add(materialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT).getId());
             }
         }
 
-        return availability;
-    }
-
-    private void deleteMaterialAvailability(final Entity order) {
-        EntityList orderMaterialAvailability = order.getHasManyField(OrderFieldsPFTD.MATERIAL_AVAILABILITY);
-
-        if (!orderMaterialAvailability.isEmpty()) {
-            DataDefinition materialAvailabilityDD = dataDefinitionService.get(ProductFlowThruDivisionConstants.PLUGIN_IDENTIFIER,
-                    ProductFlowThruDivisionConstants.MODEL_MATERIAL_AVAILABILITY);
-
-            for (Entity materialAvailability : orderMaterialAvailability) {
-                materialAvailabilityDD.delete(materialAvailability.getId());
-            }
-        }
+        return materialFlowResourcesService.getQuantitiesForProductsAndLocations(productIds, locationIds);
     }
 
-    private List<Entity> createMaterialAvailability(final Entity order, final Entity technology) {
-        List<Entity> materialsAvailability;
-
+    private List<Entity> createMaterialAvailability(final Entity order, final Map<Long, Boolean> productsWithReplacements) {
         if (OrderState.PENDING.getStringValue().equals(order.getStringField(OrderFields.STATE))) {
-            materialsAvailability = createMaterialAvailabilityFromTechnology(order);
-
-            order.setField(OrderFieldsPFTD.MATERIAL_AVAILABILITY, materialsAvailability);
+            return createMaterialAvailabilityFromTechnology(order, productsWithReplacements);
         } else {
-            materialsAvailability = createMaterialAvailabilityFromProductionCountingQuantities(order);
-
-            order.setField(OrderFieldsPFTD.MATERIAL_AVAILABILITY, materialsAvailability);
+            return createMaterialAvailabilityFromProductionCountingQuantities(order, productsWithReplacements);
         }
-
-        return materialsAvailability;
     }
 
-    private List<Entity> createMaterialAvailabilityFromTechnology(final Entity order) {
+    private List<Entity> createMaterialAvailabilityFromTechnology(final Entity order,
+            final Map<Long, Boolean> productsWithReplacements) {
         List<Entity> newOrderMaterialAvailability = Lists.newArrayList();
 
         DataDefinition orderMaterialAvailabilityDD = dataDefinitionService.get(ProductFlowThruDivisionConstants.PLUGIN_IDENTIFIER,
@@ -246,14 +302,15 @@ public class OrderMaterialAvailability {
 
             for (Map.Entry<Entity, BigDecimal> locationEntry : locationEntries.entrySet()) {
                 newOrderMaterialAvailability.add(createMaterialAvailabilityEntity(orderMaterialAvailabilityDD,
-                        productEntry.getKey(), order, locationEntry.getValue(), locationEntry.getKey()));
+                        productEntry.getKey(), order, locationEntry.getValue(), locationEntry.getKey(), productsWithReplacements));
             }
         }
 
         return newOrderMaterialAvailability;
     }
 
-    private List<Entity> createMaterialAvailabilityFromProductionCountingQuantities(final Entity order) {
+    private List<Entity> createMaterialAvailabilityFromProductionCountingQuantities(final Entity order,
+            final Map<Long, Boolean> productsWithReplacements) {
         List<Entity> newOrderMaterialAvailability = Lists.newArrayList();
 
         List<Entity> usedMaterials = basicProductionCountingService.getUsedMaterialsFromProductionCountingQuantities(order);
@@ -285,7 +342,7 @@ public class OrderMaterialAvailability {
                             .getBelongsToField(ProductionCountingQuantityFieldsPFTD.COMPONENTS_LOCATION);
 
                     newOrderMaterialAvailability.add(createMaterialAvailabilityEntity(orderMaterialAvailabilityDD, product, order,
-                            totalQuantity, location));
+                            totalQuantity, location, productsWithReplacements));
                 }
             }
         }
@@ -294,13 +351,16 @@ public class OrderMaterialAvailability {
     }
 
     private Entity createMaterialAvailabilityEntity(final DataDefinition orderMaterialAvailabilityDD, final Entity product,
-            final Entity order, final BigDecimal value, final Entity location) {
+            final Entity order, final BigDecimal value, final Entity location, final Map<Long, Boolean> productsWithReplacements) {
         Entity materialAvailability = orderMaterialAvailabilityDD.create();
 
-        List<Entity> replacements = product.getDataDefinition().get(product.getId()).getHasManyField(ProductFields.SUBSTITUTE_COMPONENTS);
-        if(!replacements.isEmpty()){
-            materialAvailability.setField(MaterialAvailabilityFields.REPLACEMENT, true);
+        if (!productsWithReplacements.containsKey(product.getId())) {
+            List<Entity> replacements = product.getDataDefinition().get(product.getId())
+                    .getHasManyField(ProductFields.SUBSTITUTE_COMPONENTS);
+
+            productsWithReplacements.put(product.getId(), !replacements.isEmpty());
         }
+        materialAvailability.setField(MaterialAvailabilityFields.REPLACEMENT, productsWithReplacements.get(product.getId()));
         materialAvailability.setField(MaterialAvailabilityFields.ORDER, order);
         materialAvailability.setField(MaterialAvailabilityFields.PRODUCT, product);
         materialAvailability.setField(MaterialAvailabilityFields.UNIT, product.getField(ProductFields.UNIT));
@@ -311,4 +371,9 @@ public class OrderMaterialAvailability {
         return materialAvailability;
     }
 
+    private DataDefinition getMaterialAvailabilityDD() {
+        return dataDefinitionService.get(ProductFlowThruDivisionConstants.PLUGIN_IDENTIFIER,
+                ProductFlowThruDivisionConstants.MODEL_MATERIAL_AVAILABILITY);
+    }
+
 }
@@ -0,0 +1,76 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo Framework
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productFlowThruDivision.listeners;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.productFlowThruDivision.OrderMaterialAvailability;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ViewDefinitionState;
+import com.qcadoo.view.api.components.GridComponent;
+
+@Service
+public class OrdersPlanningListListenersPFTD {
+
+    private static final String L_GRID = "grid";
+
+    private static final String L_ID = "id";
+
+    private static final String L_ALLOCATE = "allocate";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private OrderMaterialAvailability orderMaterialAvailability;
+
+    public void refreshMaterialAvailability(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        GridComponent grid = (GridComponent) view.getComponentByReference(L_GRID);
+
+        if (grid.getSelectedEntitiesIds().isEmpty()) {
+            return;
+        }
+
+        boolean allocateInOrderPriority = args.length > 0 && L_ALLOCATE.equals(args[0]);
+
+        List<Entity> orders = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER).find()
+                .add(SearchRestrictions.in(L_ID, grid.getSelectedEntitiesIds())).addOrder(SearchOrders.asc(OrderFields.DATE_FROM))
+                .addOrder(SearchOrders.asc(L_ID)).list().getEntities();
+
+        orderMaterialAvailability.generateAndSaveMaterialAvailabilityForOrders(orders, allocateInOrderPriority);
+
+        view.addMessage("productFlowThruDivision.ordersPlanningList.materialAvailability.refreshed",
+                ComponentState.MessageType.SUCCESS);
+    }
+
+}
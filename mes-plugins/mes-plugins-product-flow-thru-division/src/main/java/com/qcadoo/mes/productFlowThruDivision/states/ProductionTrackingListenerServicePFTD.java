@@ -23,7 +23,10 @@
  */
 package com.qcadoo.mes.productFlowThruDivision.states;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.advancedGenealogy.constants.BatchFields;
@@ -118,10 +121,13 @@ public final class ProductionTrackingListenerServicePFTD {
         Multimap<Long, Entity> groupedRecordInProducts = productionTrackingDocumentsHelper.fillFromBPCProductIn(recordInProducts,
                 order, true);
 
+        Map<Long, PossibleUnitConversions> unitConversionsByProduct = Maps.newHashMap();
+
         for (Long warehouseId : groupedRecordOutProducts.keySet()) {
             Entity locationTo = getLocationDD().get(warehouseId);
             Entity inboundDocument = createOrUpdateInternalInboundDocumentForFinalProducts(locationTo, order,
-                    groupedRecordOutProducts.get(warehouseId), productionTracking.getBelongsToField(L_USER));
+                    groupedRecordOutProducts.get(warehouseId), productionTracking.getBelongsToField(L_USER),
+                    unitConversionsByProduct);
 
             if (Objects.nonNull(inboundDocument) && !inboundDocument.isValid()) {
                 for (ErrorMessage error : inboundDocument.getGlobalErrors()) {
@@ -142,7 +148,8 @@ public final class ProductionTrackingListenerServicePFTD {
         for (Long warehouseId : groupedRecordInProducts.keySet()) {
             Entity warehouseFrom = getLocationDD().get(warehouseId);
             Entity outboundDocument = createInternalOutboundDocumentForComponents(warehouseFrom, order,
-                    groupedRecordInProducts.get(warehouseId), productionTracking.getBelongsToField(L_USER));
+                    groupedRecordInProducts.get(warehouseId), productionTracking.getBelongsToField(L_USER),
+                    unitConversionsByProduct);
 
             if (Objects.nonNull(outboundDocument) && !outboundDocument.isValid()) {
                 for (ErrorMessage error : outboundDocument.getGlobalErrors()) {
@@ -173,58 +180,58 @@ public final class ProductionTrackingListenerServicePFTD {
 
     public Entity createInternalOutboundDocumentForComponents(final Entity locationFrom, final Entity order,
             final Collection<Entity> inProductsRecords, final Entity user) {
+        return createInternalOutboundDocumentForComponents(locationFrom, order, inProductsRecords, user, Maps.newHashMap());
+    }
+
+    private Entity createInternalOutboundDocumentForComponents(final Entity locationFrom, final Entity order,
+            final Collection<Entity> inProductsRecords, final Entity user,
+            final Map<Long, PossibleUnitConversions> unitConversionsByProduct) {
         DocumentBuilder internalOutboundBuilder = documentManagementService.getDocumentBuilder(user);
         internalOutboundBuilder.internalOutbound(locationFrom);
 
-        HashSet<Entity> inProductsWithoutDuplicates = Sets.newHashSet();
+        Set<Long> inProductIdsWithoutDuplicates = Sets.newHashSet();
 
         DataDefinition positionDD = getPositionDD();
 
+        List<Entity> positions = Lists.newArrayList();
+
         for (Entity inProductRecord : inProductsRecords) {
+            Entity inProduct = inProductRecord.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT);
 
-            List<Entity> usedBatches = inProductRecord.getHasManyField(TrackingOperationProductInComponentFields.USED_BATCHES);
+            if (!inProductIdsWithoutDuplicates.add(inProduct.getId())) {
+                continue;
+            }
 
-            Entity inProduct = inProductRecord.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT);
+            List<Entity> usedBatches = inProductRecord.getHasManyField(TrackingOperationProductInComponentFields.USED_BATCHES);
 
-            if (!inProductsWithoutDuplicates.contains(inProduct)) {
-                if (usedBatches.isEmpty()) {
-                    Entity position = preparePositionForInProduct(positionDD, inProductRecord, inProduct);
-                    internalOutboundBuilder.addPosition(position);
-                } else {
-                    for (Entity usedBatch : usedBatches) {
-                        Entity position = preparePositionForUsedBatch(positionDD, inProductRecord, inProduct, usedBatch);
-                        internalOutboundBuilder.addPosition(position);
-                    }
+            if (usedBatches.isEmpty()) {
+                positions.add(preparePositionForInProduct(positionDD, inProductRecord, inProduct, unitConversionsByProduct));
+            } else {
+                for (Entity usedBatch : usedBatches) {
+                    positions.add(preparePositionForUsedBatch(positionDD, inProductRecord, inProduct, usedBatch,
+                            unitConversionsByProduct));
                 }
             }
-
-            inProductsWithoutDuplicates.add(inProduct);
         }
 
+        internalOutboundBuilder.addPositions(positions);
         internalOutboundBuilder.setField(DocumentFieldsPFTD.ORDER, order);
 
         return internalOutboundBuilder.setAccepted().buildWithEntityRuntimeException();
     }
 
     private Entity preparePositionForUsedBatch(DataDefinition positionDD, Entity inProductRecord, Entity inProduct,
-            Entity usedBatch) {
+            Entity usedBatch, final Map<Long, PossibleUnitConversions> unitConversionsByProduct) {
         Entity position = positionDD.create();
         BigDecimal usedQuantity = usedBatch.getDecimalField(UsedBatchFields.QUANTITY);
         BigDecimal givenQuantity = productionTrackingService.calculateGivenQuantity(inProductRecord, usedQuantity).orElse(
                 usedQuantity);
 
         BigDecimal conversion = BigDecimal.ONE;
-        String unit = inProduct.getStringField(ProductFields.UNIT);
         String givenUnit = inProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                            UnitConversionItemFieldsB.PRODUCT, inProduct)));
-
-            if (unitConversions.isDefinedFor(givenUnit)) {
-                conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
-            }
+            conversion = getConversion(unitConversionsByProduct, inProduct, givenUnit);
         }
 
         position.setField(PositionFields.GIVEN_UNIT,
@@ -237,22 +244,16 @@ public final class ProductionTrackingListenerServicePFTD {
         return position;
     }
 
-    private Entity preparePositionForInProduct(DataDefinition positionDD, Entity inProductRecord, Entity inProduct) {
+    private Entity preparePositionForInProduct(DataDefinition positionDD, Entity inProductRecord, Entity inProduct,
+            final Map<Long, PossibleUnitConversions> unitConversionsByProduct) {
         Entity position = positionDD.create();
         BigDecimal usedQuantity = inProductRecord.getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY);
         BigDecimal givenQuantity = inProductRecord.getDecimalField(TrackingOperationProductInComponentFields.GIVEN_QUANTITY);
         BigDecimal conversion = BigDecimal.ONE;
-        String unit = inProduct.getStringField(ProductFields.UNIT);
         String givenUnit = inProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
         if (Objects.nonNull(usedQuantity) && Objects.nonNull(givenQuantity)) {
-            PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                    searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                            UnitConversionItemFieldsB.PRODUCT, inProduct)));
-
-            if (unitConversions.isDefinedFor(givenUnit)) {
-                conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
-            }
+            conversion = getConversion(unitConversionsByProduct, inProduct, givenUnit);
         }
 
         position.setField(PositionFields.GIVEN_UNIT,
@@ -265,7 +266,8 @@ public final class ProductionTrackingListenerServicePFTD {
     }
 
     private Entity createOrUpdateInternalInboundDocumentForFinalProducts(final Entity locationTo, final Entity order,
-            final Collection<Entity> outProductsRecords, final Entity user) {
+            final Collection<Entity> outProductsRecords, final Entity user,
+            final Map<Long, PossibleUnitConversions> unitConversionsByProduct) {
         String priceBasedOn = parameterService.getParameter().getStringField(ParameterFieldsPC.PRICE_BASED_ON);
         boolean isNominalProductCost = Objects.nonNull(priceBasedOn) && priceBasedOn.equals(PriceBasedOn.NOMINAL_PRODUCT_COST
                 .getStringValue());
@@ -285,14 +287,15 @@ public final class ProductionTrackingListenerServicePFTD {
         if (isNominalProductCost) {
             if (Objects.nonNull(finalProductRecord)) {
                 Entity inboundForFinalProduct = createInternalInboundDocumentForFinalProducts(locationTo, order,
-                        finalProductRecord, true, user);
+                        finalProductRecord, true, user, unitConversionsByProduct);
 
                 if (Objects.nonNull(inboundForFinalProduct) && !inboundForFinalProduct.isValid() || intermediateRecords.isEmpty()) {
                     return inboundForFinalProduct;
                 }
             }
 
-            return createInternalInboundDocumentForFinalProducts(locationTo, order, intermediateRecords, true, user);
+            return createInternalInboundDocumentForFinalProducts(locationTo, order, intermediateRecords, true, user,
+                    unitConversionsByProduct);
         } else {
             Entity existingInboundDocument = getDocumentDD().find()
                     .add(SearchRestrictions.belongsTo(DocumentFieldsPFTD.ORDER, order))
@@ -304,7 +307,7 @@ public final class ProductionTrackingListenerServicePFTD {
             if (Objects.nonNull(existingInboundDocument)) {
                 if (Objects.nonNull(finalProductRecord)) {
                     Entity inboundForFinalProduct = updateInternalInboundDocumentForFinalProducts(order, existingInboundDocument,
-                            finalProductRecord);
+                            finalProductRecord, unitConversionsByProduct);
 
                     if (Objects.nonNull(inboundForFinalProduct) && !inboundForFinalProduct.isValid()
                             || intermediateRecords.isEmpty()) {
@@ -312,11 +315,12 @@ public final class ProductionTrackingListenerServicePFTD {
                     }
                 }
 
-                return createInternalInboundDocumentForFinalProducts(locationTo, order, intermediateRecords, user);
+                return createInternalInboundDocumentForFinalProducts(locationTo, order, intermediateRecords, false, user,
+                        unitConversionsByProduct);
             } else {
                 if (Objects.nonNull(finalProductRecord)) {
                     Entity inboundForFinalProduct = createInternalInboundDocumentForFinalProducts(locationTo, order,
-                            finalProductRecord, user);
+                            finalProductRecord, false, user, unitConversionsByProduct);
 
                     if (Objects.nonNull(inboundForFinalProduct) && !inboundForFinalProduct.isValid()
                             || intermediateRecords.isEmpty()) {
@@ -324,15 +328,17 @@ public final class ProductionTrackingListenerServicePFTD {
                     }
                 }
 
-                return createInternalInboundDocumentForFinalProducts(locationTo, order, intermediateRecords, user);
+                return createInternalInboundDocumentForFinalProducts(locationTo, order, intermediateRecords, false, user,
+                        unitConversionsByProduct);
             }
         }
     }
 
     private Entity updateInternalInboundDocumentForFinalProducts(Entity order, final Entity existingInboundDocument,
-            final Collection<Entity> outProductsRecords) {
+            final Collection<Entity> outProductsRecords, final Map<Long, PossibleUnitConversions> unitConversionsByProduct) {
         DataDefinition positionDD = getPositionDD();
         List<Entity> positions = Lists.newArrayList(existingInboundDocument.getHasManyField(DocumentFields.POSITIONS));
+        PositionIndex positionIndex = new PositionIndex(positions);
 
         for (Entity outProductRecord : outProductsRecords) {
             Entity outProduct = outProductRecord.getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT);
@@ -349,7 +355,7 @@ public final class ProductionTrackingListenerServicePFTD {
             java.util.Optional<String> givenUnit = Optional.ofNullable(outProductRecord
                     .getStringField(TrackingOperationProductInComponentFields.GIVEN_UNIT));
 
-            Entity existingPosition = filterPosition(positions, outProduct, givenUnit.orElse(null), outBatch, storageLocation);
+            Entity existingPosition = positionIndex.find(outProduct, givenUnit.orElse(null), outBatch, storageLocation);
 
             if (Objects.nonNull(existingPosition)) {
                 java.util.Optional<BigDecimal> quantity = Optional.ofNullable(existingPosition
@@ -366,6 +372,7 @@ public final class ProductionTrackingListenerServicePFTD {
                 }
                 fillAttributes(outProductRecord, existingPosition);
                 existingPosition.setField(PositionFields.GIVEN_UNIT, givenUnit.get());
+                positionIndex.add(existingPosition);
             } else {
                 Entity productionTracking = outProductRecord
                         .getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCTION_TRACKING);
@@ -374,17 +381,8 @@ public final class ProductionTrackingListenerServicePFTD {
                 position.setField(PositionFields.QUANTITY, usedQuantity.get());
                 BigDecimal conversion = BigDecimal.ONE;
 
-                String unit = outProduct.getStringField(ProductFields.UNIT);
-
                 if (givenQuantity.isPresent()) {
-                    PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                            searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                                    UnitConversionItemFieldsB.PRODUCT, outProduct)));
-
-                    if (unitConversions.isDefinedFor(givenUnit.get())) {
-                        conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(
-                                givenUnit.get()));
-                    }
+                    conversion = getConversion(unitConversionsByProduct, outProduct, givenUnit.get());
 
                     position.setField(PositionFields.GIVEN_QUANTITY, givenQuantity.get());
                 }
@@ -413,6 +411,7 @@ public final class ProductionTrackingListenerServicePFTD {
 
                 fillAttributes(outProductRecord, position);
                 positions.add(position);
+                positionIndex.add(position);
             }
         }
 
@@ -440,63 +439,24 @@ public final class ProductionTrackingListenerServicePFTD {
         position.setField(PositionFields.POSITION_ATTRIBUTE_VALUES, attributes);
     }
 
-    private Entity filterPosition(List<Entity> existingPositions, Entity outProduct, String givenUnit, Entity outBatch,
-            Entity storageLocation) {
-        for (Entity position : existingPositions) {
-            if (checkPositionConditions(position, outProduct, givenUnit, outBatch, storageLocation)) {
-                return position;
-            }
-        }
-        return null;
-    }
-
-    private boolean checkPositionConditions(Entity position, Entity outProduct, String givenUnit, Entity outBatch,
-            Entity storageLocation) {
-        boolean isPosition = true;
-
-        if (!position.getBelongsToField(PositionFields.PRODUCT).getId().equals(outProduct.getId())) {
-            isPosition = false;
-        }
-
-        if (StringUtils.isNoneBlank(givenUnit) && !position.getStringField(PositionFields.GIVEN_UNIT).equals(givenUnit)) {
-            isPosition = false;
-        }
-
-        if (Objects.nonNull(outBatch) && Objects.nonNull(position.getBelongsToField(PositionFields.BATCH))) {
-            if (!position.getBelongsToField(PositionFields.BATCH).getId().equals(outBatch.getId())) {
-                isPosition = false;
-            }
-        } else if ((Objects.isNull(outBatch) && Objects.nonNull(position.getBelongsToField(PositionFields.BATCH)))
-                || (Objects.nonNull(outBatch) && Objects.isNull(position.getBelongsToField(PositionFields.BATCH)))) {
-            isPosition = false;
-        }
-
-        if (Objects.nonNull(storageLocation) && Objects.nonNull(position.getBelongsToField(PositionFields.STORAGE_LOCATION))) {
-            if (!position.getBelongsToField(PositionFields.STORAGE_LOCATION).getId().equals(storageLocation.getId())) {
-                isPosition = false;
-            }
-        } else if ((Objects.isNull(storageLocation) && Objects.nonNull(position
-                .getBelongsToField(PositionFields.STORAGE_LOCATION)))
-                || (Objects.nonNull(storageLocation) && Objects.isNull(position
-                        .getBelongsToField(PositionFields.STORAGE_LOCATION)))) {
-            isPosition = false;
-        }
-
-        return isPosition;
-    }
-
     public Entity createInternalInboundDocumentForFinalProducts(final Entity locationTo, final Entity order,
             final Collection<Entity> outProductsRecords, Entity user) {
-        return createInternalInboundDocumentForFinalProducts(locationTo, order, outProductsRecords, false, user);
+        return createInternalInboundDocumentForFinalProducts(locationTo, order, outProductsRecords, false, user,
+                Maps.newHashMap());
     }
 
     private Entity createInternalInboundDocumentForFinalProducts(final Entity locationTo, final Entity order,
-            final Collection<Entity> outProductsRecords, final boolean isBasedOnNominalCost, Entity user) {
+            final Collection<Entity> outProductsRecords, final boolean isBasedOnNominalCost, Entity user,
+            final Map<Long, PossibleUnitConversions> unitConversionsByProduct) {
         DocumentBuilder internalInboundBuilder = documentManagementService.getDocumentBuilder(user);
         internalInboundBuilder.internalInbound(locationTo);
 
         boolean isFinalProduct = false;
 
+        DataDefinition positionDD = getPositionDD();
+
+        List<Entity> positions = Lists.newArrayList();
+
         Entity productionTracking = null;
         for (Entity outProductRecord : outProductsRecords) {
             Entity outProduct = outProductRecord.getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT);
@@ -509,24 +469,15 @@ public final class ProductionTrackingListenerServicePFTD {
                 isFinalProduct = true;
             }
 
-            Entity position = getPositionDD().create();
+            Entity position = positionDD.create();
             BigDecimal usedQuantity = outProductRecord.getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY);
             BigDecimal givenQuantity = outProductRecord
                     .getDecimalField(TrackingOperationProductOutComponentFields.GIVEN_QUANTITY);
             BigDecimal conversion = BigDecimal.ONE;
-            String unit = outProduct.getStringField(ProductFields.UNIT);
             String givenUnit = outProductRecord.getStringField(TrackingOperationProductOutComponentFields.GIVEN_UNIT);
 
             if (Objects.nonNull(usedQuantity) && Objects.nonNull(givenQuantity)) {
-
-                PossibleUnitConversions unitConversions = unitConversionService.getPossibleConversions(unit,
-                        searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
-                                UnitConversionItemFieldsB.PRODUCT, outProduct)));
-
-                if (unitConversions.isDefinedFor(givenUnit)) {
-                    conversion = numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(
-                            givenUnit));
-                }
+                conversion = getConversion(unitConversionsByProduct, outProduct, givenUnit);
             }
 
             position.setField(PositionFields.PRODUCT, outProduct);
@@ -559,9 +510,10 @@ public final class ProductionTrackingListenerServicePFTD {
                         productionTracking.getDateField(ProductionTrackingFields.EXPIRATION_DATE));
             }
             fillAttributes(outProductRecord, position);
-            internalInboundBuilder.addPosition(position);
+            positions.add(position);
         }
 
+        internalInboundBuilder.addPositions(positions);
         internalInboundBuilder.setField(DocumentFieldsPFTD.ORDER, order);
 
         if (OrderState.COMPLETED.equals(OrderState.of(order)) || !isFinalProduct || isBasedOnNominalCost
@@ -576,6 +528,20 @@ public final class ProductionTrackingListenerServicePFTD {
         return order.getBelongsToField(OrderFields.PRODUCT).getId().equals(product.getId());
     }
 
+    private BigDecimal getConversion(final Map<Long, PossibleUnitConversions> unitConversionsByProduct, final Entity product,
+            final String givenUnit) {
+        PossibleUnitConversions unitConversions = unitConversionsByProduct.computeIfAbsent(product.getId(),
+                productId -> unitConversionService.getPossibleConversions(product.getStringField(ProductFields.UNIT),
+                        searchCriteriaBuilder -> searchCriteriaBuilder.add(SearchRestrictions.belongsTo(
+                                UnitConversionItemFieldsB.PRODUCT, product))));
+
+        if (unitConversions.isDefinedFor(givenUnit)) {
+            return numberService.setScaleWithDefaultMathContext(unitConversions.asUnitToConversionMap().get(givenUnit));
+        }
+
+        return BigDecimal.ONE;
+    }
+
     public void updateCostsForOrder(final Entity order) {
         DataDefinition positionDD = getPositionDD();
 
@@ -617,4 +583,94 @@ public final class ProductionTrackingListenerServicePFTD {
     private DataDefinition getLocationDD() {
         return dataDefinitionService.get(MaterialFlowConstants.PLUGIN_IDENTIFIER, MaterialFlowConstants.MODEL_LOCATION);
     }
+
+    /**
+     * Positions of an inbound document hashed by product, given unit, batch and storage location. Lookup without given unit
+     * matches the first position with any unit, as the linear search over the document positions did.
+     */
+    private static final class PositionIndex {
+
+        private final ListMultimap<PositionKey, Entity> positionsByKey = ArrayListMultimap.create();
+
+        private final ListMultimap<PositionKey, Entity> positionsByKeyWithoutUnit = ArrayListMultimap.create();
+
+        private PositionIndex(final List<Entity> positions) {
+            positions.forEach(this::add);
+        }
+
+        private void add(final Entity position) {
+            Long productId = getId(position.getBelongsToField(PositionFields.PRODUCT));
+            Long batchId = getId(position.getBelongsToField(PositionFields.BATCH));
+            Long storageLocationId = getId(position.getBelongsToField(PositionFields.STORAGE_LOCATION));
+
+            PositionKey key = new PositionKey(productId, position.getStringField(PositionFields.GIVEN_UNIT), batchId,
+                    storageLocationId);
+
+            if (!positionsByKey.containsEntry(key, position)) {
+                positionsByKey.put(key, position);
+            }
+
+            PositionKey keyWithoutUnit = new PositionKey(productId, null, batchId, storageLocationId);
+
+            if (!positionsByKeyWithoutUnit.containsEntry(keyWithoutUnit, position)) {
+                positionsByKeyWithoutUnit.put(keyWithoutUnit, position);
+            }
+        }
+
+        private Entity find(final Entity product, final String givenUnit, final Entity batch, final Entity storageLocation) {
+            if (StringUtils.isBlank(givenUnit)) {
+                List<Entity> positions = positionsByKeyWithoutUnit.get(new PositionKey(product.getId(), null, getId(batch),
+                        getId(storageLocation)));
+
+                return positions.isEmpty() ? null : positions.get(0);
+            }
+
+            return positionsByKey.get(new PositionKey(product.getId(), givenUnit, getId(batch), getId(storageLocation)))
+                    .stream().filter(position -> givenUnit.equals(position.getStringField(PositionFields.GIVEN_UNIT)))
+                    .findFirst().orElse(null);
+        }
+
+        private static Long getId(final Entity entity) {
+            return Objects.isNull(entity) ? null : entity.getId();
+        }
+
+    }
+
+    private static final class PositionKey {
+
+        private final Long productId;
+
+        private final String givenUnit;
+
+        private final Long batchId;
+
+        private final Long storageLocationId;
+
+        private PositionKey(final Long productId, final String givenUnit, final Long batchId, final Long storageLocationId) {
+            this.productId = productId;
+            this.givenUnit = givenUnit;
+            this.batchId = batchId;
+            this.storageLocationId = storageLocationId;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof PositionKey)) {
+                return false;
+            }
+            PositionKey that = (PositionKey) other;
+            return Objects.equals(productId, that.productId) && Objects.equals(givenUnit, that.givenUnit)
+                    && Objects.equals(batchId, that.batchId) && Objects.equals(storageLocationId, that.storageLocationId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(productId, givenUnit, batchId, storageLocationId);
+        }
+
+    }
+
 }
@@ -0,0 +1,351 @@
+package com.qcadoo.mes.productFlowThruDivision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityFields;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityRole;
+import com.qcadoo.mes.basicProductionCounting.constants.ProductionCountingQuantityTypeOfMaterial;
+import com.qcadoo.mes.materialFlowResources.MaterialFlowResourcesService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.productFlowThruDivision.constants.AvailabilityOfMaterialAvailability;
+import com.qcadoo.mes.productFlowThruDivision.constants.MaterialAvailabilityFields;
+import com.qcadoo.mes.productFlowThruDivision.constants.ProductFlowThruDivisionConstants;
+import com.qcadoo.mes.productFlowThruDivision.constants.ProductionCountingQuantityFieldsPFTD;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.search.SearchResult;
+import com.qcadoo.testing.model.EntityListMock;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest(SearchRestrictions.class)
+public class OrderMaterialAvailabilityTest {
+
+    private static final String L_UNIT = "szt";
+
+    private OrderMaterialAvailability orderMaterialAvailability;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private BasicProductionCountingService basicProductionCountingService;
+
+    @Mock
+    private MaterialFlowResourcesService materialFlowResourcesService;
+
+    @Mock
+    private DataDefinition materialAvailabilityDD, productDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    private Entity warehouse, product1, product2, product3;
+
+    private List<Entity> existingMaterialsAvailability;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+        PowerMockito.mockStatic(SearchRestrictions.class);
+
+        orderMaterialAvailability = new OrderMaterialAvailability();
+
+        ReflectionTestUtils.setField(orderMaterialAvailability, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(orderMaterialAvailability, "numberService", numberService);
+        ReflectionTestUtils.setField(orderMaterialAvailability, "basicProductionCountingService", basicProductionCountingService);
+        ReflectionTestUtils.setField(orderMaterialAvailability, "materialFlowResourcesService", materialFlowResourcesService);
+
+        given(dataDefinitionService.get(ProductFlowThruDivisionConstants.PLUGIN_IDENTIFIER,
+                ProductFlowThruDivisionConstants.MODEL_MATERIAL_AVAILABILITY)).willReturn(materialAvailabilityDD);
+        given(materialAvailabilityDD.create()).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return mockEntityWithFields(null);
+            }
+        });
+
+        existingMaterialsAvailability = Lists.newArrayList();
+
+        given(materialAvailabilityDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(existingMaterialsAvailability);
+
+        given(numberService.setScaleWithDefaultMathContext(any(BigDecimal.class), anyInt())).willAnswer(new Answer<BigDecimal>() {
+
+            @Override
+            public BigDecimal answer(final InvocationOnMock invocation) throws Throwable {
+                return ((BigDecimal) invocation.getArguments()[0]).setScale((Integer) invocation.getArguments()[1]);
+            }
+        });
+
+        warehouse = mockEntityWithFields(21L);
+        product1 = mockProduct(11L);
+        product2 = mockProduct(12L);
+        product3 = mockProduct(13L);
+    }
+
+    private Entity mockProduct(final Long id) {
+        Entity product = mockEntityWithFields(id);
+
+        product.setField(ProductFields.UNIT, L_UNIT);
+        product.setField(ProductFields.SUBSTITUTE_COMPONENTS, EntityListMock.create(Lists.<Entity> newArrayList()));
+
+        given(product.getDataDefinition()).willReturn(productDD);
+        given(productDD.get(id)).willReturn(product);
+
+        return product;
+    }
+
+    private Entity mockOrder(final Long id, final Map<Entity, Integer> plannedQuantities) {
+        Entity order = mockEntityWithFields(id);
+
+        order.setField(OrderFields.STATE, OrderState.IN_PROGRESS.getStringValue());
+        order.setField(OrderFields.TECHNOLOGY, mockEntityWithFields(31L));
+
+        List<Entity> usedMaterials = Lists.newArrayList();
+
+        for (Map.Entry<Entity, Integer> plannedQuantity : plannedQuantities.entrySet()) {
+            Entity usedMaterial = mockEntityWithFields(null);
+
+            usedMaterial.setField(ProductionCountingQuantityFields.ROLE, ProductionCountingQuantityRole.USED.getStringValue());
+            usedMaterial.setField(ProductionCountingQuantityFields.TYPE_OF_MATERIAL,
+                    ProductionCountingQuantityTypeOfMaterial.COMPONENT.getStringValue());
+            usedMaterial.setField(ProductionCountingQuantityFields.PRODUCT, plannedQuantity.getKey());
+            usedMaterial.setField(ProductionCountingQuantityFieldsPFTD.COMPONENTS_LOCATION, warehouse);
+            usedMaterial.setField(ProductionCountingQuantityFields.PLANNED_QUANTITY, new BigDecimal(plannedQuantity.getValue()));
+
+            usedMaterials.add(usedMaterial);
+        }
+
+        given(basicProductionCountingService.getUsedMaterialsFromProductionCountingQuantities(order)).willReturn(usedMaterials);
+
+        return order;
+    }
+
+    private Entity mockMaterialAvailability(final Long id, final Entity order, final Entity product,
+            final AvailabilityOfMaterialAvailability availability, final int availableQuantity, final int requiredQuantity) {
+        Entity materialAvailability = mockEntityWithFields(id);
+
+        materialAvailability.setField(MaterialAvailabilityFields.ORDER, order);
+        materialAvailability.setField(MaterialAvailabilityFields.PRODUCT, product);
+        materialAvailability.setField(MaterialAvailabilityFields.LOCATION, warehouse);
+        materialAvailability.setField(MaterialAvailabilityFields.UNIT, L_UNIT);
+        materialAvailability.setField(MaterialAvailabilityFields.REPLACEMENT, false);
+        materialAvailability.setField(MaterialAvailabilityFields.AVAILABILITY, availability.getStrValue());
+        materialAvailability.setField(MaterialAvailabilityFields.AVAILABLE_QUANTITY, new BigDecimal(availableQuantity));
+        materialAvailability.setField(MaterialAvailabilityFields.REQUIRED_QUANTITY, new BigDecimal(requiredQuantity));
+
+        return materialAvailability;
+    }
+
+    private void stubStock(final Map<Long, BigDecimal> quantitiesInWarehouse) {
+        Map<Long, Map<Long, BigDecimal>> quantities = Maps.newHashMap();
+
+        quantities.put(warehouse.getId(), Maps.newHashMap(quantitiesInWarehouse));
+
+        given(materialFlowResourcesService.getQuantitiesForProductsAndLocations(anyCollection(), anyCollection())).willReturn(
+                quantities);
+    }
+
+    private Entity mockEntityWithFields(final Long id) {
+        final Map<String, Object> fields = Maps.newHashMap();
+        Entity entity = mock(Entity.class);
+
+        Answer<Object> getField = new Answer<Object>() {
+
+            @Override
+            public Object answer(final InvocationOnMock invocation) throws Throwable {
+                return fields.get(invocation.getArguments()[0]);
+            }
+        };
+
+        given(entity.getId()).willReturn(id);
+        given(entity.getField(anyString())).willAnswer(getField);
+        given(entity.getStringField(anyString())).willAnswer(getField);
+        given(entity.getDecimalField(anyString())).willAnswer(getField);
+        given(entity.getBelongsToField(anyString())).willAnswer(getField);
+        given(entity.getHasManyField(anyString())).willAnswer(getField);
+        given(entity.getBooleanField(anyString())).willAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                return Boolean.TRUE.equals(fields.get(invocation.getArguments()[0]));
+            }
+        });
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(final InvocationOnMock invocation) throws Throwable {
+                fields.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+
+                return null;
+            }
+        }).when(entity).setField(anyString(), any());
+
+        return entity;
+    }
+
+    @Test
+    public final void shouldSaveOnlyNewAndChangedMaterialAvailability() {
+        // given
+        Entity order = mockOrder(1L, ImmutableMap.of(product1, 5, product2, 3, product3, 2));
+
+        stubStock(ImmutableMap.of(product1.getId(), new BigDecimal(10), product2.getId(), BigDecimal.ONE));
+
+        Entity unchangedMaterialAvailability = mockMaterialAvailability(101L, order, product1,
+                AvailabilityOfMaterialAvailability.FULL, 10, 5);
+        Entity changedMaterialAvailability = mockMaterialAvailability(102L, order, product2,
+                AvailabilityOfMaterialAvailability.FULL, 5, 3);
+
+        existingMaterialsAvailability.add(unchangedMaterialAvailability);
+        existingMaterialsAvailability.add(changedMaterialAvailability);
+
+        // when
+        orderMaterialAvailability.generateAndSaveMaterialAvailabilityForOrders(Lists.newArrayList(order), false);
+
+        // then
+        ArgumentCaptor<Entity> savedCaptor = ArgumentCaptor.forClass(Entity.class);
+
+        verify(materialAvailabilityDD, times(2)).save(savedCaptor.capture());
+        verify(materialAvailabilityDD, never()).delete(anyVararg());
+
+        List<Entity> savedMaterialsAvailability = Lists.newArrayList(savedCaptor.getAllValues());
+
+        assertTrue(savedMaterialsAvailability.remove(changedMaterialAvailability));
+        assertEquals(AvailabilityOfMaterialAvailability.PARTIAL.getStrValue(),
+                changedMaterialAvailability.getStringField(MaterialAvailabilityFields.AVAILABILITY));
+        assertEquals(BigDecimal.ONE, changedMaterialAvailability.getDecimalField(MaterialAvailabilityFields.AVAILABLE_QUANTITY));
+
+        Entity newMaterialAvailability = savedMaterialsAvailability.get(0);
+
+        assertEquals(product3, newMaterialAvailability.getBelongsToField(MaterialAvailabilityFields.PRODUCT));
+        assertEquals(AvailabilityOfMaterialAvailability.NONE.getStrValue(),
+                newMaterialAvailability.getStringField(MaterialAvailabilityFields.AVAILABILITY));
+        assertEquals(BigDecimal.ZERO, newMaterialAvailability.getDecimalField(MaterialAvailabilityFields.AVAILABLE_QUANTITY));
+    }
+
+    @Test
+    public final void shouldDeleteMaterialAvailabilityNotRequiredAnymore() {
+        // given
+        Entity order = mockOrder(1L, ImmutableMap.of(product1, 5));
+
+        stubStock(ImmutableMap.of(product1.getId(), new BigDecimal(10)));
+
+        existingMaterialsAvailability.add(mockMaterialAvailability(101L, order, product1,
+                AvailabilityOfMaterialAvailability.FULL, 10, 5));
+        existingMaterialsAvailability.add(mockMaterialAvailability(102L, order, product1,
+                AvailabilityOfMaterialAvailability.FULL, 10, 5));
+        existingMaterialsAvailability.add(mockMaterialAvailability(103L, order, product2,
+                AvailabilityOfMaterialAvailability.FULL, 10, 5));
+
+        // when
+        orderMaterialAvailability.generateAndSaveMaterialAvailabilityForOrders(Lists.newArrayList(order), false);
+
+        // then
+        verify(materialAvailabilityDD, never()).save(any(Entity.class));
+        verify(materialAvailabilityDD).delete(101L, 103L);
+    }
+
+    @Test
+    public final void shouldAllocateStockToOrdersInPriorityOrder() {
+        // given
+        Entity order1 = mockOrder(1L, ImmutableMap.of(product1, 6));
+        Entity order2 = mockOrder(2L, ImmutableMap.of(product1, 6));
+        Entity order3 = mockOrder(3L, ImmutableMap.of(product1, 2));
+
+        stubStock(ImmutableMap.of(product1.getId(), new BigDecimal(10)));
+
+        // when
+        orderMaterialAvailability.generateAndSaveMaterialAvailabilityForOrders(Lists.newArrayList(order1, order2, order3), true);
+
+        // then
+        ArgumentCaptor<Entity> savedCaptor = ArgumentCaptor.forClass(Entity.class);
+
+        verify(materialAvailabilityDD, times(3)).save(savedCaptor.capture());
+
+        List<Entity> savedMaterialsAvailability = savedCaptor.getAllValues();
+
+        assertMaterialAvailability(savedMaterialsAvailability.get(0), order1, AvailabilityOfMaterialAvailability.FULL, 10);
+        assertMaterialAvailability(savedMaterialsAvailability.get(1), order2, AvailabilityOfMaterialAvailability.PARTIAL, 4);
+        assertMaterialAvailability(savedMaterialsAvailability.get(2), order3, AvailabilityOfMaterialAvailability.NONE, 0);
+    }
+
+    @Test
+    public final void shouldNotAllocateStockWhenOrdersAreIndependent() {
+        // given
+        Entity order1 = mockOrder(1L, ImmutableMap.of(product1, 6));
+        Entity order2 = mockOrder(2L, ImmutableMap.of(product1, 6));
+
+        stubStock(ImmutableMap.of(product1.getId(), new BigDecimal(10)));
+
+        // when
+        orderMaterialAvailability.generateAndSaveMaterialAvailabilityForOrders(Lists.newArrayList(order1, order2), false);
+
+        // then
+        ArgumentCaptor<Entity> savedCaptor = ArgumentCaptor.forClass(Entity.class);
+
+        verify(materialAvailabilityDD, times(2)).save(savedCaptor.capture());
+
+        List<Entity> savedMaterialsAvailability = savedCaptor.getAllValues();
+
+        assertMaterialAvailability(savedMaterialsAvailability.get(0), order1, AvailabilityOfMaterialAvailability.FULL, 10);
+        assertMaterialAvailability(savedMaterialsAvailability.get(1), order2, AvailabilityOfMaterialAvailability.FULL, 10);
+    }
+
+    private void assertMaterialAvailability(final Entity materialAvailability, final Entity order,
+            final AvailabilityOfMaterialAvailability availability, final int availableQuantity) {
+        assertEquals(order, materialAvailability.getBelongsToField(MaterialAvailabilityFields.ORDER));
+        assertEquals(availability.getStrValue(), materialAvailability.getStringField(MaterialAvailabilityFields.AVAILABILITY));
+        assertEquals(0, new BigDecimal(availableQuantity).compareTo(materialAvailability
+                .getDecimalField(MaterialAvailabilityFields.AVAILABLE_QUANTITY)));
+    }
+
+}
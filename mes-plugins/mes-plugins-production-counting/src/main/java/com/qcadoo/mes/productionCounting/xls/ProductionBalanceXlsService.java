@@ -73,39 +73,40 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     @Override
     protected void addExtraSheets(final HSSFWorkbook workbook, Entity entity, Locale locale) {
         List<Long> ordersIds = getOrdersIds(entity);
+        final FontsContainer fontsContainer = new FontsContainer(workbook);
+        final StylesContainer stylesContainer = new StylesContainer(workbook, fontsContainer);
         List<MaterialCost> materialCosts = productionBalanceRepository.getMaterialCosts(entity, ordersIds);
         createMaterialCostsSheet(materialCosts, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.materialCosts", locale)),
-                locale);
+                locale, stylesContainer);
         createLaborTimeSheet(createSheet(workbook, translationService.translate(LaborTimeSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
-        List<LaborTimeDetails> laborTimeDetailsList = productionBalanceRepository.getLaborTimeDetails(entity, ordersIds);
-        createLaborTimeDetailsSheet(laborTimeDetailsList, createSheet(workbook,
+                ordersIds, locale, stylesContainer);
+        createLaborTimeDetailsSheet(entity, ordersIds, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.laborTimeDetails", locale)),
-                locale);
+                locale, stylesContainer);
         createPieceworkSheet(createSheet(workbook, translationService.translate(PieceworkSheetConstants.SHEET_TITLE, locale)),
-                ordersIds, locale);
+                ordersIds, locale, stylesContainer);
         createStoppagesSheet(
                 createSheet(workbook,
                         translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages", locale)),
-                ordersIds, locale);
+                ordersIds, locale, stylesContainer);
         List<ProductionCost> productionCosts = productionBalanceRepository.getProductionCosts(entity, ordersIds);
         createProductionCostsSheet(productionCosts, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productionCosts", locale)),
-                locale);
+                locale, stylesContainer);
         List<OrderBalance> ordersBalance = productionBalanceRepository.getOrdersBalance(entity, ordersIds, materialCosts,
                 productionCosts);
         createOrdersBalanceSheet(ordersBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.ordersBalance", locale)),
-                locale);
+                locale, stylesContainer);
         List<OrderBalance> componentsBalance = productionBalanceRepository.getComponentsBalance(entity, ordersIds, ordersBalance);
         createOrdersBalanceSheet(componentsBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.componentsBalance", locale)),
-                locale);
+                locale, stylesContainer);
         List<OrderBalance> productsBalance = productionBalanceRepository.getProductsBalance(entity, ordersIds, componentsBalance);
         createProductsBalanceSheet(productsBalance, createSheet(workbook,
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.productsBalance", locale)),
-                locale);
+                locale, stylesContainer);
     }
 
     private List<Long> getOrdersIds(final Entity productionBalance) {
@@ -115,10 +116,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
     }
 
     private void createProducedQuantitiesSheet(HSSFSheet sheet, List<Long> ordersIds, StylesContainer stylesContainer) {
-        List<ProducedQuantity> producedQuantities = productionBalanceRepository.getProducedQuantities(ordersIds);
-        int rowIndex = 1;
-        for (ProducedQuantity producedQuantity : producedQuantities) {
-            HSSFRow row = sheet.createRow(rowIndex);
+        productionBalanceRepository.getProducedQuantities(ordersIds, producedQuantity -> {
+            HSSFRow row = sheet.createRow(sheet.getLastRowNum() + 1);
             createRegularCell(stylesContainer, row, 0, producedQuantity.getOrderNumber());
             createRegularCell(stylesContainer, row, 1, producedQuantity.getProductNumber());
             createRegularCell(stylesContainer, row, 2, producedQuantity.getProductName());
@@ -128,17 +127,15 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
             createNumericCell(stylesContainer, row, 6, producedQuantity.getProducedWastes(), false);
             createNumericCell(stylesContainer, row, 7, producedQuantity.getDeviation(), false);
             createRegularCell(stylesContainer, row, 8, producedQuantity.getProductUnit());
-            rowIndex++;
-        }
+        });
 
         for (int i = 0; i < PRODUCTION_QUANTITIES_HEADERS.size(); i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createMaterialCostsSheet(List<MaterialCost> materialCosts, HSSFSheet sheet, Locale locale,
+            StylesContainer stylesContainer) {
         final int rowOffset = 1;
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
@@ -220,10 +217,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
+    private void createPieceworkSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale,
+            StylesContainer stylesContainer) {
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(PieceworkSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
@@ -233,24 +228,19 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate(PieceworkSheetConstants.TOTAL_EXECUTED_OPERATION_CYCLES, locale), 2,
                 CellStyle.ALIGN_LEFT);
 
-        List<PieceworkDetails> pieceworkDetailsList = productionBalanceRepository.getPieceworkDetails(ordersIds);
-        int rowCounter = 0;
-        for (PieceworkDetails pieceworkDetails : pieceworkDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, pieceworkDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, pieceworkDetails.getOperationNumber());
-            createNumericCell(stylesContainer, row, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
-            rowCounter++;
-        }
+        productionBalanceRepository.getPieceworkDetails(ordersIds, pieceworkDetails -> {
+            HSSFRow dataRow = sheet.createRow(sheet.getLastRowNum() + 1);
+            createRegularCell(stylesContainer, dataRow, 0, pieceworkDetails.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, pieceworkDetails.getOperationNumber());
+            createNumericCell(stylesContainer, dataRow, 2, pieceworkDetails.getTotalExecutedOperationCycles(), false);
+        });
         for (int i = 0; i <= 2; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createStoppagesSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
+    private void createStoppagesSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale,
+            StylesContainer stylesContainer) {
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(
                 stylesContainer, row, translationService
@@ -295,36 +285,31 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                 translationService.translate("productionCounting.productionBalance.report.xls.sheet.stoppages.worker", locale),
                 11, CellStyle.ALIGN_LEFT);
 
-        List<Stoppage> stoppages = productionBalanceRepository.getStoppages(ordersIds);
-        int rowCounter = 0;
-        for (Stoppage stoppage : stoppages) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, stoppage.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, stoppage.getProductionTrackingNumber());
-            createRegularCell(stylesContainer, row, 2,
+        productionBalanceRepository.getStoppages(ordersIds, stoppage -> {
+            HSSFRow dataRow = sheet.createRow(sheet.getLastRowNum() + 1);
+            createRegularCell(stylesContainer, dataRow, 0, stoppage.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, stoppage.getProductionTrackingNumber());
+            createRegularCell(stylesContainer, dataRow, 2,
                     stoppage.getProductionTrackingState() != null ? translationService.translate(
                             "productionCounting.productionTracking.state.value." + stoppage.getProductionTrackingState(), locale)
                             : null);
-            createTimeCell(stylesContainer, row, 3, stoppage.getDuration(), false);
-            createDateTimeCell(stylesContainer, row, 4, stoppage.getDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, stoppage.getDateTo());
-            createRegularCell(stylesContainer, row, 6, stoppage.getReason());
-            createRegularCell(stylesContainer, row, 7, stoppage.getDescription());
-            createRegularCell(stylesContainer, row, 8, stoppage.getDivision());
-            createRegularCell(stylesContainer, row, 9, stoppage.getProductionLine());
-            createRegularCell(stylesContainer, row, 10, stoppage.getWorkstation());
-            createRegularCell(stylesContainer, row, 11, stoppage.getWorker());
-            rowCounter++;
-        }
+            createTimeCell(stylesContainer, dataRow, 3, stoppage.getDuration(), false);
+            createDateTimeCell(stylesContainer, dataRow, 4, stoppage.getDateFrom());
+            createDateTimeCell(stylesContainer, dataRow, 5, stoppage.getDateTo());
+            createRegularCell(stylesContainer, dataRow, 6, stoppage.getReason());
+            createRegularCell(stylesContainer, dataRow, 7, stoppage.getDescription());
+            createRegularCell(stylesContainer, dataRow, 8, stoppage.getDivision());
+            createRegularCell(stylesContainer, dataRow, 9, stoppage.getProductionLine());
+            createRegularCell(stylesContainer, dataRow, 10, stoppage.getWorkstation());
+            createRegularCell(stylesContainer, dataRow, 11, stoppage.getWorker());
+        });
         for (int i = 0; i <= 11; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
+    private void createLaborTimeSheet(HSSFSheet sheet, List<Long> ordersIds, Locale locale,
+            StylesContainer stylesContainer) {
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.ORDER_NUMBER, locale), 0,
                 CellStyle.ALIGN_LEFT);
@@ -343,29 +328,24 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         createHeaderCell(stylesContainer, row, translationService.translate(LaborTimeSheetConstants.LABOR_TIME, locale), 7,
                 CellStyle.ALIGN_LEFT);
 
-        List<LaborTime> laborTimeList = productionBalanceRepository.getLaborTime(ordersIds);
-        int rowCounter = 0;
-        for (LaborTime laborTime : laborTimeList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTime.getOrderNumber());
-            createRegularCell(stylesContainer, row, 1, laborTime.getOperationNumber());
-            createRegularCell(stylesContainer, row, 2, laborTime.getStaffNumber());
-            createRegularCell(stylesContainer, row, 3, laborTime.getStaffName());
-            createRegularCell(stylesContainer, row, 4, laborTime.getStaffSurname());
-            createRegularCell(stylesContainer, row, 5, laborTime.getWageGroupName());
-            createNumericCell(stylesContainer, row, 6, laborTime.getStaffLaborHourlyCost(), false);
-            createTimeCell(stylesContainer, row, 7, laborTime.getLaborTime(), false);
-            rowCounter++;
-        }
+        productionBalanceRepository.getLaborTime(ordersIds, laborTime -> {
+            HSSFRow dataRow = sheet.createRow(sheet.getLastRowNum() + 1);
+            createRegularCell(stylesContainer, dataRow, 0, laborTime.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 1, laborTime.getOperationNumber());
+            createRegularCell(stylesContainer, dataRow, 2, laborTime.getStaffNumber());
+            createRegularCell(stylesContainer, dataRow, 3, laborTime.getStaffName());
+            createRegularCell(stylesContainer, dataRow, 4, laborTime.getStaffSurname());
+            createRegularCell(stylesContainer, dataRow, 5, laborTime.getWageGroupName());
+            createNumericCell(stylesContainer, dataRow, 6, laborTime.getStaffLaborHourlyCost(), false);
+            createTimeCell(stylesContainer, dataRow, 7, laborTime.getLaborTime(), false);
+        });
         for (int i = 0; i <= 7; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createLaborTimeDetailsSheet(List<LaborTimeDetails> laborTimeDetailsList, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
-        final int rowOffset = 1;
+    private void createLaborTimeDetailsSheet(Entity entity, List<Long> ordersIds, HSSFSheet sheet, Locale locale,
+            StylesContainer stylesContainer) {
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer, row,
                 translationService.translate(
@@ -472,46 +452,43 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
                         "productionCounting.productionBalance.report.xls.sheet.laborTimeDetails.machineTimeDeviation", locale),
                 25, CellStyle.ALIGN_LEFT);
 
-        int rowCounter = 0;
-        for (LaborTimeDetails laborTimeDetails : laborTimeDetailsList) {
-            row = sheet.createRow(rowOffset + rowCounter);
-            createRegularCell(stylesContainer, row, 0, laborTimeDetails.getDivisionNumber());
-            createRegularCell(stylesContainer, row, 1, laborTimeDetails.getProductionLineNumber());
-            createRegularCell(stylesContainer, row, 2, laborTimeDetails.getOrderNumber());
-            createRegularCell(stylesContainer, row, 3, translationService.translate(
+        productionBalanceRepository.getLaborTimeDetails(entity, ordersIds, laborTimeDetails -> {
+            HSSFRow dataRow = sheet.createRow(sheet.getLastRowNum() + 1);
+            createRegularCell(stylesContainer, dataRow, 0, laborTimeDetails.getDivisionNumber());
+            createRegularCell(stylesContainer, dataRow, 1, laborTimeDetails.getProductionLineNumber());
+            createRegularCell(stylesContainer, dataRow, 2, laborTimeDetails.getOrderNumber());
+            createRegularCell(stylesContainer, dataRow, 3, translationService.translate(
                     "orders.order.state.value." + laborTimeDetails.getOrderState(), locale));
-            createDateTimeCell(stylesContainer, row, 4, laborTimeDetails.getPlannedDateFrom());
-            createDateTimeCell(stylesContainer, row, 5, laborTimeDetails.getEffectiveDateFrom());
-            createDateTimeCell(stylesContainer, row, 6, laborTimeDetails.getPlannedDateTo());
-            createDateTimeCell(stylesContainer, row, 7, laborTimeDetails.getEffectiveDateTo());
-            createRegularCell(stylesContainer, row, 8, laborTimeDetails.getProductNumber());
-            createRegularCell(stylesContainer, row, 9, laborTimeDetails.getOrderName());
-            createNumericCell(stylesContainer, row, 10, laborTimeDetails.getPlannedQuantity(), false);
-            createNumericCell(stylesContainer, row, 11, laborTimeDetails.getAmountOfProductProduced(), false);
-            createRegularCell(stylesContainer, row, 12, laborTimeDetails.getStaffNumber());
-            createRegularCell(stylesContainer, row, 13, laborTimeDetails.getStaffName());
-            createRegularCell(stylesContainer, row, 14, laborTimeDetails.getStaffSurname());
-            createRegularCell(stylesContainer, row, 15, laborTimeDetails.getOperationNumber());
-            createDateTimeCell(stylesContainer, row, 16, laborTimeDetails.getTimeRangeFrom());
-            createDateTimeCell(stylesContainer, row, 17, laborTimeDetails.getTimeRangeTo());
-            createRegularCell(stylesContainer, row, 18, laborTimeDetails.getShiftName());
-            createDateTimeCell(stylesContainer, row, 19, laborTimeDetails.getCreateDate());
-            createTimeCell(stylesContainer, row, 20, laborTimeDetails.getLaborTime(), false);
-            createTimeCell(stylesContainer, row, 21, laborTimeDetails.getPlannedLaborTime(), false);
-            createTimeCell(stylesContainer, row, 22, laborTimeDetails.getLaborTimeDeviation(), false);
-            createTimeCell(stylesContainer, row, 23, laborTimeDetails.getMachineTime(), false);
-            createTimeCell(stylesContainer, row, 24, laborTimeDetails.getPlannedMachineTime(), false);
-            createTimeCell(stylesContainer, row, 25, laborTimeDetails.getMachineTimeDeviation(), false);
-            rowCounter++;
-        }
+            createDateTimeCell(stylesContainer, dataRow, 4, laborTimeDetails.getPlannedDateFrom());
+            createDateTimeCell(stylesContainer, dataRow, 5, laborTimeDetails.getEffectiveDateFrom());
+            createDateTimeCell(stylesContainer, dataRow, 6, laborTimeDetails.getPlannedDateTo());
+            createDateTimeCell(stylesContainer, dataRow, 7, laborTimeDetails.getEffectiveDateTo());
+            createRegularCell(stylesContainer, dataRow, 8, laborTimeDetails.getProductNumber());
+            createRegularCell(stylesContainer, dataRow, 9, laborTimeDetails.getOrderName());
+            createNumericCell(stylesContainer, dataRow, 10, laborTimeDetails.getPlannedQuantity(), false);
+            createNumericCell(stylesContainer, dataRow, 11, laborTimeDetails.getAmountOfProductProduced(), false);
+            createRegularCell(stylesContainer, dataRow, 12, laborTimeDetails.getStaffNumber());
+            createRegularCell(stylesContainer, dataRow, 13, laborTimeDetails.getStaffName());
+            createRegularCell(stylesContainer, dataRow, 14, laborTimeDetails.getStaffSurname());
+            createRegularCell(stylesContainer, dataRow, 15, laborTimeDetails.getOperationNumber());
+            createDateTimeCell(stylesContainer, dataRow, 16, laborTimeDetails.getTimeRangeFrom());
+            createDateTimeCell(stylesContainer, dataRow, 17, laborTimeDetails.getTimeRangeTo());
+            createRegularCell(stylesContainer, dataRow, 18, laborTimeDetails.getShiftName());
+            createDateTimeCell(stylesContainer, dataRow, 19, laborTimeDetails.getCreateDate());
+            createTimeCell(stylesContainer, dataRow, 20, laborTimeDetails.getLaborTime(), false);
+            createTimeCell(stylesContainer, dataRow, 21, laborTimeDetails.getPlannedLaborTime(), false);
+            createTimeCell(stylesContainer, dataRow, 22, laborTimeDetails.getLaborTimeDeviation(), false);
+            createTimeCell(stylesContainer, dataRow, 23, laborTimeDetails.getMachineTime(), false);
+            createTimeCell(stylesContainer, dataRow, 24, laborTimeDetails.getPlannedMachineTime(), false);
+            createTimeCell(stylesContainer, dataRow, 25, laborTimeDetails.getMachineTimeDeviation(), false);
+        });
         for (int i = 0; i <= 25; i++) {
             sheet.autoSizeColumn(i, false);
         }
     }
 
-    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createProductionCostsSheet(List<ProductionCost> productionCosts, HSSFSheet sheet, Locale locale,
+            StylesContainer stylesContainer) {
         final int rowOffset = 1;
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
@@ -610,9 +587,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createOrdersBalanceSheet(List<OrderBalance> ordersBalance, HSSFSheet sheet, Locale locale,
+            StylesContainer stylesContainer) {
         final int rowOffset = 1;
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
@@ -734,9 +710,8 @@ public class ProductionBalanceXlsService extends XlsDocumentService {
         }
     }
 
-    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale) {
-        final FontsContainer fontsContainer = new FontsContainer(sheet.getWorkbook());
-        final StylesContainer stylesContainer = new StylesContainer(sheet.getWorkbook(), fontsContainer);
+    private void createProductsBalanceSheet(List<OrderBalance> productsBalance, HSSFSheet sheet, Locale locale,
+            StylesContainer stylesContainer) {
         final int rowOffset = 1;
         HSSFRow row = sheet.createRow(0);
         createHeaderCell(stylesContainer,
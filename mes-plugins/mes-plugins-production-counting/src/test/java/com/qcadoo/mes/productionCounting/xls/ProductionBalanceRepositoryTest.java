@@ -0,0 +1,99 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.xls;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.verify;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+public class ProductionBalanceRepositoryTest {
+
+    private ProductionBalanceRepository productionBalanceRepository;
+
+    @Mock
+    private DataSource dataSource;
+
+    @Mock
+    private Connection connection;
+
+    @Mock
+    private PreparedStatement preparedStatement;
+
+    @Mock
+    private ResultSet resultSet;
+
+    @Mock
+    private ResultSetMetaData resultSetMetaData;
+
+    @Before
+    public final void init() throws SQLException {
+        MockitoAnnotations.initMocks(this);
+
+        productionBalanceRepository = new ProductionBalanceRepository();
+        ReflectionTestUtils.setField(productionBalanceRepository, "jdbcTemplate", new NamedParameterJdbcTemplate(dataSource));
+        productionBalanceRepository.init();
+
+        given(dataSource.getConnection()).willReturn(connection);
+        given(connection.prepareStatement(anyString())).willReturn(preparedStatement);
+        given(preparedStatement.executeQuery()).willReturn(resultSet);
+        given(resultSet.getMetaData()).willReturn(resultSetMetaData);
+        given(resultSetMetaData.getColumnCount()).willReturn(1);
+        given(resultSetMetaData.getColumnLabel(1)).willReturn("orderNumber");
+    }
+
+    @Test
+    public final void shouldStreamRowsReadWithFetchSize() throws SQLException {
+        // given
+        given(resultSet.next()).willReturn(true, true, false);
+        given(resultSet.getString(1)).willReturn("O1", "O2");
+        List<String> orderNumbers = Lists.newArrayList();
+
+        // when
+        productionBalanceRepository.getProducedQuantities(Lists.newArrayList(1L, 2L),
+                producedQuantity -> orderNumbers.add(producedQuantity.getOrderNumber()));
+
+        // then
+        verify(preparedStatement).setFetchSize(1000);
+        assertEquals(Lists.newArrayList("O1", "O2"), orderNumbers);
+    }
+
+}
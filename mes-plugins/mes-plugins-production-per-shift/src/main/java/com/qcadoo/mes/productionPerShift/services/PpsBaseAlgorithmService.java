@@ -4,12 +4,15 @@ import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.utils.DateUtils;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.ShiftExceptionService;
@@ -101,13 +104,16 @@ public abstract class PpsBaseAlgorithmService {
         currentDate = currentDate.minusDays(1);
         currentDate = currentDate.toLocalDate().toDateTimeAtStartOfDay();
         boolean shouldBeCorrected = progressForDaysContainer.isShouldBeCorrected();
+        ShiftWorkTimesCalendar shiftWorkTimesCalendar = new ShiftWorkTimesCalendar(shiftExceptionService, productionLine,
+                shifts, currentDate);
+        Map<Integer, Entity> persistedProgressForDays = getPersistedProgressForDays(productionPerShift, shouldBeCorrected);
         int realizationDayNumber = 0;
         while (progressForDaysContainer.getPlannedQuantity().compareTo(BigDecimal.ZERO) > 0
                 || progressForDaysContainer.getAlreadyRegisteredQuantity().compareTo(BigDecimal.ZERO) > 0) {
 
             DailyProgressContainer dailyProgressContainer = fillDailyProgressWithShifts(progressForDaysContainer,
-                    productionPerShift, order, shifts, currentDate, orderStartDate, shouldBeCorrected, progressForDays.size(),
-                    alreadyPlannedQuantity, allowIncompleteUnits);
+                    productionPerShift, order, shifts, shiftWorkTimesCalendar, realizationDayNumber, currentDate,
+                    orderStartDate, shouldBeCorrected, progressForDays.size(), alreadyPlannedQuantity, allowIncompleteUnits);
             if (dailyProgressContainer.isCalculationError()) {
                 progressForDaysContainer.setCalculationError(true);
                 return;
@@ -115,8 +121,10 @@ public abstract class PpsBaseAlgorithmService {
             }
             List<Entity> dailyProgress = dailyProgressContainer.getDailyProgress();
             if (!dailyProgress.isEmpty()) {
-                progressForDays
-                        .add(createComponent(realizationDayNumber, currentDate.toDate(), dailyProgress, shouldBeCorrected));
+                Entity progressForDay = createComponent(realizationDayNumber, currentDate.toDate(), dailyProgress,
+                        shouldBeCorrected);
+                reusePersistedRows(progressForDay, dailyProgress, persistedProgressForDays.get(realizationDayNumber));
+                progressForDays.add(progressForDay);
             }
             currentDate = currentDate.plusDays(1);
             ++realizationDayNumber;
@@ -126,9 +134,9 @@ public abstract class PpsBaseAlgorithmService {
     }
 
     private DailyProgressContainer fillDailyProgressWithShifts(ProgressForDaysContainer progressForDaysContainer,
-            Entity productionPerShift, Entity order, List<Shift> shifts, DateTime dateOfDay, Date orderStartDate,
-            boolean shouldBeCorrected, int progressForDayQuantity, BigDecimal alreadyPlannedQuantity,
-            boolean allowIncompleteUnits) {
+            Entity productionPerShift, Entity order, List<Shift> shifts, ShiftWorkTimesCalendar shiftWorkTimesCalendar,
+            int realizationDayNumber, DateTime dateOfDay, Date orderStartDate, boolean shouldBeCorrected,
+            int progressForDayQuantity, BigDecimal alreadyPlannedQuantity, boolean allowIncompleteUnits) {
         DailyProgressContainer dailyProgressContainer = new DailyProgressContainer();
         List<Entity> dailyProgressWithShifts = Lists.newLinkedList();
 
@@ -157,8 +165,7 @@ public abstract class PpsBaseAlgorithmService {
                 DateTime orderStartDateDT = new DateTime(orderStartDate, DateTimeZone.getDefault());
                 BigDecimal shiftEfficiency = BigDecimal.ZERO;
                 int time = 0;
-                for (DateTimeRange range : shiftExceptionService
-                        .getShiftWorkDateTimes(order.getBelongsToField(OrderFields.PRODUCTION_LINE), shift, dateOfDay)) {
+                for (DateTimeRange range : shiftWorkTimesCalendar.getShiftWorkDateTimes(shift, realizationDayNumber)) {
                     if (orderStartDate.after(dateOfDay.toDate())) {
                         range = range.trimBefore(orderStartDateDT);
                     }
@@ -209,6 +216,51 @@ public abstract class PpsBaseAlgorithmService {
         return progressForDay;
     }
 
+    private Map<Integer, Entity> getPersistedProgressForDays(final Entity productionPerShift, final boolean shouldBeCorrected) {
+        Map<Integer, Entity> persistedProgressForDays = Maps.newHashMap();
+        if (productionPerShift == null || productionPerShift.getId() == null) {
+            return persistedProgressForDays;
+        }
+        for (Entity progressForDay : productionPerShift.getHasManyField(ProductionPerShiftFields.PROGRES_FOR_DAYS)) {
+            if (progressForDay.getBooleanField(ProgressForDayFields.CORRECTED) == shouldBeCorrected) {
+                persistedProgressForDays.put(progressForDay.getIntegerField(ProgressForDayFields.DAY), progressForDay);
+            }
+        }
+
+        return persistedProgressForDays;
+    }
+
+    /**
+     * Gives generated progress for day and its daily progresses ids of rows already persisted for the same day and shift, so
+     * saving production per shift updates these rows instead of deleting and inserting them again. Daily progresses with
+     * tracking records keep their own rows.
+     */
+    private void reusePersistedRows(final Entity progressForDay, final List<Entity> dailyProgress,
+            final Entity persistedProgressForDay) {
+        if (persistedProgressForDay == null) {
+            return;
+        }
+        progressForDay.setId(persistedProgressForDay.getId());
+
+        Set<Long> trackedDailyProgressIds = Sets.newHashSet();
+        if (dailyProgressesWithTrackingRecords != null) {
+            dailyProgressesWithTrackingRecords.values().forEach(tracked -> trackedDailyProgressIds.add(tracked.getId()));
+        }
+        Map<Long, Long> persistedDailyProgressIds = Maps.newHashMap();
+        for (Entity persistedDailyProgress : persistedProgressForDay.getHasManyField(ProgressForDayFields.DAILY_PROGRESS)) {
+            Entity shift = persistedDailyProgress.getBelongsToField(DailyProgressFields.SHIFT);
+            if (shift != null && !trackedDailyProgressIds.contains(persistedDailyProgress.getId())) {
+                persistedDailyProgressIds.put(shift.getId(), persistedDailyProgress.getId());
+            }
+        }
+        for (Entity generatedDailyProgress : dailyProgress) {
+            if (generatedDailyProgress.getId() == null) {
+                generatedDailyProgress.setId(persistedDailyProgressIds
+                        .get(generatedDailyProgress.getBelongsToField(DailyProgressFields.SHIFT).getId()));
+            }
+        }
+    }
+
     private BigDecimal calculateRegisteredQuantity(final ProgressForDaysContainer progressForDaysContainer, final Entity order,
             final Entity pps, BigDecimal plannedQuantity) {
         BigDecimal alreadyRegisteredQuantity = progressForDaysContainer.getAlreadyRegisteredQuantity();
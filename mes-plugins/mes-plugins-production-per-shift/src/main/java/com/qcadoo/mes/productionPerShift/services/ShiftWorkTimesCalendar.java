@@ -0,0 +1,70 @@
+package com.qcadoo.mes.productionPerShift.services;
+
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ShiftExceptionService;
+import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.util.DateTimeRange;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Work times of production line shifts for consecutive days, counted from the first day. Days are loaded for all shifts at
+ * once in growing chunks, so long orders don't query timetable exceptions for every shift and day.
+ */
+public class ShiftWorkTimesCalendar {
+
+    private static final int FIRST_CHUNK_DAYS = 31;
+
+    private static final int MAX_CHUNK_DAYS = 366;
+
+    private final ShiftExceptionService shiftExceptionService;
+
+    private final Entity productionLine;
+
+    private final List<Shift> shifts;
+
+    private final DateTime firstDay;
+
+    private final Map<Long, List<List<DateTimeRange>>> shiftWorkDateTimes = Maps.newHashMap();
+
+    private int loadedDays = 0;
+
+    public ShiftWorkTimesCalendar(final ShiftExceptionService shiftExceptionService, final Entity productionLine,
+            final List<Shift> shifts, final DateTime firstDay) {
+        this.shiftExceptionService = shiftExceptionService;
+        this.productionLine = productionLine;
+        this.shifts = shifts;
+        this.firstDay = firstDay;
+    }
+
+    /**
+     * @param day
+     *            number of day, counted from 0 for the first day
+     * @return work times of given shift at given day, with timetable exceptions applied
+     */
+    public List<DateTimeRange> getShiftWorkDateTimes(final Shift shift, final int day) {
+        while (day >= loadedDays) {
+            loadNextDays();
+        }
+
+        return shiftWorkDateTimes.get(shift.getId()).get(day);
+    }
+
+    private void loadNextDays() {
+        int days = Math.min(Math.max(loadedDays, FIRST_CHUNK_DAYS), MAX_CHUNK_DAYS);
+        DateTime fromDay = firstDay.plusDays(loadedDays);
+
+        for (Shift shift : shifts) {
+            shiftWorkDateTimes.computeIfAbsent(shift.getId(), shiftId -> Lists.newArrayList()).addAll(
+                    shiftExceptionService.getShiftWorkDateTimes(productionLine, shift, fromDay, days));
+        }
+
+        loadedDays += days;
+    }
+
+}
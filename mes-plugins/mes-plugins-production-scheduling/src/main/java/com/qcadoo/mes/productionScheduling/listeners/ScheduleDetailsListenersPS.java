@@ -2,9 +2,12 @@ package com.qcadoo.mes.productionScheduling.listeners;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFamilyElementType;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.jobs.JobContext;
+import com.qcadoo.mes.basic.jobs.JobService;
 import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
 import com.qcadoo.mes.operationTimeCalculations.OrderRealizationTimeService;
 import com.qcadoo.mes.orders.constants.OrderFields;
@@ -64,11 +67,43 @@ public class ScheduleDetailsListenersPS {
     @Autowired
     private ScheduleDetailsListeners scheduleDetailsListeners;
 
-    @Transactional
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private TranslationService translationService;
+
     public void generatePlan(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        getOperations(view, state, args);
-        scheduleDetailsListeners.assignOperationsToWorkstations(view, state, args);
-        scheduleDetailsListeners.assignWorkersToOperations(view, state, args);
+        FormComponent formComponent = (FormComponent) state;
+        formComponent.performEvent(view, "save", new String[0]);
+        if (!formComponent.isValid()) {
+            return;
+        }
+        Long scheduleId = formComponent.getEntityId();
+        String jobName = translationService.translate("productionScheduling.jobs.generatePlan", state.getLocale(),
+                formComponent.getEntity().getStringField(ScheduleFields.NUMBER));
+
+        jobService.submit(jobName, context -> generatePlan(scheduleId, context));
+
+        view.addMessage("basic.jobs.jobSubmitted", ComponentState.MessageType.INFO);
+    }
+
+    private void generatePlan(final Long scheduleId, final JobContext context) {
+        List<Entity> orders = getSchedule(scheduleId).getManyToManyField(ScheduleFields.ORDERS);
+        context.setTotal(orders.size() + 3);
+
+        Map<Long, OperationProductComponentWithQuantityContainer> ordersOperationsQuantity = Maps.newHashMap();
+        for (Entity order : orders) {
+            context.executeChunk(() -> ordersOperationsQuantity.put(order.getId(),
+                    generateRealizationTime(order, order.getBelongsToField(OrderFields.PRODUCTION_LINE).getId())));
+        }
+        context.executeChunk(() -> generatePositions(getSchedule(scheduleId), orders, ordersOperationsQuantity));
+        context.executeChunk(() -> scheduleDetailsListeners.assignOperationsToWorkstations(getSchedule(scheduleId)));
+        context.executeChunk(() -> scheduleDetailsListeners.assignWorkersToOperations(getSchedule(scheduleId)));
+    }
+
+    private Entity getSchedule(final Long scheduleId) {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_SCHEDULE).get(scheduleId);
     }
 
     @Transactional
@@ -82,11 +117,17 @@ public class ScheduleDetailsListenersPS {
             ordersOperationsQuantity.put(order.getId(), operationProductComponentWithQuantityContainer);
         }
 
+        FormComponent formComponent = (FormComponent) state;
+        Entity schedule = generatePositions(formComponent.getEntity(), orders, ordersOperationsQuantity);
+        formComponent.setEntity(schedule);
+        view.addMessage("productionScheduling.info.schedulePositionsGenerated", ComponentState.MessageType.SUCCESS);
+    }
+
+    private Entity generatePositions(final Entity schedule, final List<Entity> orders,
+            final Map<Long, OperationProductComponentWithQuantityContainer> ordersOperationsQuantity) {
         DataDefinition schedulePositionDD = dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER,
                 OrdersConstants.MODEL_SCHEDULE_POSITION);
         List<Entity> positions = Lists.newArrayList();
-        FormComponent formComponent = (FormComponent) state;
-        Entity schedule = formComponent.getEntity();
         for (Entity order : orders) {
             List<Entity> orderTimeCalculations = order.getHasManyField(OrderFieldsPS.ORDER_TIME_CALCULATIONS);
             if (!orderTimeCalculations.isEmpty()) {
@@ -101,9 +142,7 @@ public class ScheduleDetailsListenersPS {
         }
 
         schedule.setField(ScheduleFields.POSITIONS, positions);
-        schedule = schedule.getDataDefinition().save(schedule);
-        formComponent.setEntity(schedule);
-        view.addMessage("productionScheduling.info.schedulePositionsGenerated", ComponentState.MessageType.SUCCESS);
+        return schedule.getDataDefinition().save(schedule);
     }
 
     private Entity createSchedulePosition(Entity schedule, DataDefinition schedulePositionDD, Entity order,
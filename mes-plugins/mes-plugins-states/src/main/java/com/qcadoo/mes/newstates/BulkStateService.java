@@ -0,0 +1,33 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.List;
+
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+
+/**
+ * State service which handles state changes of many entities at once, e.g. to load related data with one query. Used by
+ * {@link StateExecutorService#changeState(Class, List, String, String)} instead of the single entity hooks; default
+ * implementations call them for each item, so only the needed phases have to be overridden.
+ * 
+ * All given items are changed in one transaction. When any of them fails, the transaction is rolled back and the hooks are
+ * called again for each item on its own, so hooks should mark entities of failed items as not valid (or add errors to them)
+ * instead of throwing, and must not keep state between calls.
+ */
+public interface BulkStateService extends StateService {
+
+    default void onValidate(List<StateChangeItem> items, StateChangeEntityDescriber describer) {
+        items.forEach(item -> item.setEntity(onValidate(item.getEntity(), item.getSourceState(), item.getTargetState(),
+                item.getStateChangeEntity(), describer)));
+    }
+
+    default void onBeforeSave(List<StateChangeItem> items, StateChangeEntityDescriber describer) {
+        items.forEach(item -> item.setEntity(onBeforeSave(item.getEntity(), item.getSourceState(), item.getTargetState(),
+                item.getStateChangeEntity(), describer)));
+    }
+
+    default void onAfterSave(List<StateChangeItem> items, StateChangeEntityDescriber describer) {
+        items.forEach(item -> item.setEntity(onAfterSave(item.getEntity(), item.getSourceState(), item.getTargetState(),
+                item.getStateChangeEntity(), describer)));
+    }
+
+}
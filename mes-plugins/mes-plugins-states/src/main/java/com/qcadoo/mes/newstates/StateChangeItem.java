@@ -0,0 +1,85 @@
+package com.qcadoo.mes.newstates;
+
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Single entity state change processed by {@link StateExecutorService#changeState(Class, java.util.List, String, String)}.
+ */
+public class StateChangeItem {
+
+    private Entity entity;
+
+    private final Entity ownerSnapshot;
+
+    private final Entity stateChangeEntity;
+
+    private final String sourceState;
+
+    private final String targetState;
+
+    private StateChangeStatus status = StateChangeStatus.IN_PROGRESS;
+
+    private String failureMessage;
+
+    StateChangeItem(final Entity entity, final Entity stateChangeEntity, final String sourceState,
+            final String targetState) {
+        this.entity = entity;
+        this.ownerSnapshot = entity.copy();
+        this.stateChangeEntity = stateChangeEntity;
+        this.sourceState = sourceState;
+        this.targetState = targetState;
+    }
+
+    public Entity getEntity() {
+        return entity;
+    }
+
+    public void setEntity(final Entity entity) {
+        this.entity = entity;
+    }
+
+    public Entity getStateChangeEntity() {
+        return stateChangeEntity;
+    }
+
+    public String getSourceState() {
+        return sourceState;
+    }
+
+    public String getTargetState() {
+        return targetState;
+    }
+
+    StateChangeStatus getStatus() {
+        return status;
+    }
+
+    void setStatus(final StateChangeStatus status) {
+        this.status = status;
+    }
+
+    boolean isFailed() {
+        return status == StateChangeStatus.FAILURE;
+    }
+
+    String getFailureMessage() {
+        return failureMessage;
+    }
+
+    void fail(final String failureMessage) {
+        this.status = StateChangeStatus.FAILURE;
+        this.failureMessage = failureMessage;
+    }
+
+    /**
+     * Brings the item back to its state from before a rolled back attempt - the owner is replaced with a copy taken when the
+     * item was created, so changes and errors from that attempt are dropped.
+     */
+    void reset() {
+        this.entity = ownerSnapshot.copy();
+        this.status = StateChangeStatus.IN_PROGRESS;
+        this.failureMessage = null;
+    }
+
+}
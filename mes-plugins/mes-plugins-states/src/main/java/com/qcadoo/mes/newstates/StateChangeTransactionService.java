@@ -0,0 +1,33 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.function.BooleanSupplier;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+
+/**
+ * Runs parts of {@link StateExecutorService#changeState(Class, java.util.List, String, String)} in their own transactions,
+ * so a failed state change is really rolled back without affecting the others.
+ */
+@Service
+public class StateChangeTransactionService {
+
+    /**
+     * Runs given action in a new transaction. The transaction is committed when the action returns true and rolled back when
+     * it returns false or throws.
+     *
+     * @return result of the action
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public boolean executeInNewTransaction(final BooleanSupplier action) {
+        boolean commit = action.getAsBoolean();
+        if (!commit) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+        }
+
+        return commit;
+    }
+
+}
@@ -2,6 +2,7 @@ package com.qcadoo.mes.newstates;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.states.StateChangeEntityDescriber;
@@ -9,6 +10,7 @@ import com.qcadoo.mes.states.StateEnum;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.states.exception.AnotherChangeInProgressException;
 import com.qcadoo.mes.states.exception.StateTransitionNotAlloweException;
+import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
@@ -24,12 +26,15 @@ import com.qcadoo.view.api.ViewDefinitionState;
 import com.qcadoo.view.api.components.FormComponent;
 import com.qcadoo.view.api.components.GridComponent;
 
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
@@ -38,6 +43,9 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Scope;
 import org.springframework.context.annotation.ScopedProxyMode;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.core.annotation.AnnotationAwareOrderComparator;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -61,6 +69,12 @@ public class StateExecutorService {
     @Autowired
     private SecurityService securityService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private StateChangeTransactionService stateChangeTransactionService;
+
     private ComponentMessagesHolder componentMessagesHolder;
 
     private static final Logger LOGGER = Logger.getLogger(StateExecutorService.class);
@@ -72,15 +86,14 @@ public class StateExecutorService {
 
         Optional<GridComponent> maybeGridComponent = view.tryFindComponentByReference("grid");
         if (maybeGridComponent.isPresent()) {
+            List<Entity> entities = Lists.newArrayList();
             maybeGridComponent.get().getSelectedEntities().forEach(entity -> {
                 entity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
                 entity.setField(USER_CHANGE_STATE, userId);
-
-                entity = changeState(serviceMarker, entity, userLogin, args[0]);
-
-                copyMessages(entity);
+                entities.add(entity);
             });
 
+            changeState(serviceMarker, entities, userLogin, args[0]);
         } else {
             Optional<FormComponent> maybeForm = view.tryFindComponentByReference("form");
             if (maybeForm.isPresent()) {
@@ -164,6 +177,290 @@ public class StateExecutorService {
         return entity;
     }
 
+    /**
+     * Changes state of all given entities, resolving state services, describer and shift once. State change entities are
+     * inserted and finished with batch statements, services implementing {@link BulkStateService} get all items of a phase
+     * at once. All entities are changed in one new transaction; when any of them fails, that transaction is rolled back and
+     * the entities are changed again one by one, each in its own transaction. Failure of one entity doesn't stop the others -
+     * its changes are rolled back, its state change is saved with failure status and failure messages are reported like in
+     * {@link #changeState(Class, Entity, String, String)}.
+     * 
+     * @return entities after state change, in the given order
+     */
+    public <M extends StateService> List<Entity> changeState(Class<M> serviceMarker, List<Entity> entities, String userLogin,
+            String targetState) {
+        if (entities.isEmpty()) {
+            return entities;
+        }
+
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+        Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
+        if (StringUtils.isEmpty(userLogin)) {
+            userLogin = securityService.getCurrentUserName();
+        }
+
+        List<StateChangeItem> items = Lists.newArrayListWithCapacity(entities.size());
+        for (Entity entity : entities) {
+            String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+            Entity stateChangeEntity = buildStateChangeEntity(describer, entity, userLogin, shift, sourceState, targetState);
+            StateChangeItem item = new StateChangeItem(entity, stateChangeEntity, sourceState, targetState);
+            if (!canChangeState(describer, entity, targetState)) {
+                item.fail("states.messages.change.failure.transitionNotAllowed");
+            }
+            items.add(item);
+        }
+        failItemsWithUnfinishedStateChange(describer, activeItems(items));
+
+        List<StateChangeItem> itemsToChange = activeItems(items);
+        if (!itemsToChange.isEmpty() && !changeStatesInNewTransaction(services, describer, itemsToChange)
+                && itemsToChange.size() > 1) {
+            for (StateChangeItem item : itemsToChange) {
+                item.reset();
+                changeStatesInNewTransaction(services, describer, Collections.singletonList(item));
+            }
+        }
+        saveFailedStateChanges(describer, items);
+
+        List<Entity> changedEntities = Lists.newArrayListWithCapacity(items.size());
+        for (StateChangeItem item : items) {
+            Entity entity = item.getEntity();
+            copyMessages(entity);
+            if (item.isFailed()) {
+                entity = rollbackStateChange(entity, item.getSourceState());
+                message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+                if (item.getFailureMessage() != null) {
+                    message(item.getFailureMessage(), ComponentState.MessageType.FAILURE);
+                }
+                LOG.info(String.format("Change state failure. Entity name : %S id : %d. Target state : %S", entity
+                        .getDataDefinition().getName(), entity.getId(), targetState));
+            } else {
+                message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
+                LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S", entity
+                        .getDataDefinition().getName(), entity.getId(), targetState));
+            }
+            changedEntities.add(entity);
+        }
+
+        return changedEntities;
+    }
+
+    private enum StateChangePhase {
+        VALIDATE, BEFORE_SAVE, AFTER_SAVE
+    }
+
+    private <M extends StateService> boolean changeStatesInNewTransaction(final List<M> services,
+            final StateChangeEntityDescriber describer, final List<StateChangeItem> items) {
+        try {
+            return stateChangeTransactionService.executeInNewTransaction(() -> performChangeStates(services, describer,
+                    items));
+        } catch (Exception exception) {
+            LOG.warn("Can't perform state change", exception);
+            for (StateChangeItem item : activeItems(items)) {
+                item.fail("states.messages.change.failure.internalServerError");
+            }
+            return false;
+        }
+    }
+
+    private <M extends StateService> boolean performChangeStates(final List<M> services,
+            final StateChangeEntityDescriber describer, final List<StateChangeItem> items) {
+        insertStateChangeEntities(describer, items);
+
+        runPhase(StateChangePhase.VALIDATE, services, items, describer);
+        for (StateChangeItem item : activeItems(items)) {
+            changeState(item.getEntity(), item.getTargetState());
+        }
+        runPhase(StateChangePhase.BEFORE_SAVE, services, items, describer);
+        for (StateChangeItem item : activeItems(items)) {
+            try {
+                item.setEntity(item.getEntity().getDataDefinition().save(item.getEntity()));
+                failIfNotValid(item);
+            } catch (Exception exception) {
+                LOG.warn("Can't perform state change", exception);
+                item.fail("states.messages.change.failure.internalServerError");
+            }
+        }
+        runPhase(StateChangePhase.AFTER_SAVE, services, items, describer);
+
+        if (activeItems(items).size() < items.size()) {
+            return false;
+        }
+        updateStateChangeStatuses(describer, items);
+
+        return true;
+    }
+
+    private void saveFailedStateChanges(final StateChangeEntityDescriber describer, final List<StateChangeItem> items) {
+        final List<StateChangeItem> failedItems = items.stream().filter(StateChangeItem::isFailed)
+                .collect(Collectors.toList());
+        if (failedItems.isEmpty()) {
+            return;
+        }
+        stateChangeTransactionService.executeInNewTransaction(() -> {
+            insertStateChangeEntities(describer, failedItems);
+            return true;
+        });
+    }
+
+    private <M extends StateService> void runPhase(StateChangePhase phase, List<M> services, List<StateChangeItem> items,
+            StateChangeEntityDescriber describer) {
+        for (StateService service : services) {
+            List<StateChangeItem> activeItems = activeItems(items);
+            if (activeItems.isEmpty()) {
+                return;
+            }
+            if (service instanceof BulkStateService) {
+                try {
+                    runBulkHook(phase, (BulkStateService) service, activeItems, describer);
+                } catch (Exception exception) {
+                    for (StateChangeItem item : activeItems) {
+                        failOnException(item, exception);
+                    }
+                }
+            } else {
+                for (StateChangeItem item : activeItems) {
+                    try {
+                        item.setEntity(runHook(phase, service, item, describer));
+                    } catch (Exception exception) {
+                        failOnException(item, exception);
+                    }
+                }
+            }
+        }
+        for (StateChangeItem item : activeItems(items)) {
+            failIfNotValid(item);
+        }
+    }
+
+    private void runBulkHook(StateChangePhase phase, BulkStateService service, List<StateChangeItem> items,
+            StateChangeEntityDescriber describer) {
+        switch (phase) {
+            case VALIDATE:
+                service.onValidate(items, describer);
+                break;
+            case BEFORE_SAVE:
+                service.onBeforeSave(items, describer);
+                break;
+            default:
+                service.onAfterSave(items, describer);
+        }
+    }
+
+    private Entity runHook(StateChangePhase phase, StateService service, StateChangeItem item,
+            StateChangeEntityDescriber describer) {
+        switch (phase) {
+            case VALIDATE:
+                return service.onValidate(item.getEntity(), item.getSourceState(), item.getTargetState(),
+                        item.getStateChangeEntity(), describer);
+            case BEFORE_SAVE:
+                return service.onBeforeSave(item.getEntity(), item.getSourceState(), item.getTargetState(),
+                        item.getStateChangeEntity(), describer);
+            default:
+                return service.onAfterSave(item.getEntity(), item.getSourceState(), item.getTargetState(),
+                        item.getStateChangeEntity(), describer);
+        }
+    }
+
+    private void failOnException(StateChangeItem item, Exception exception) {
+        if (exception instanceof EntityRuntimeException) {
+            copyMessages(((EntityRuntimeException) exception).getEntity(), item.getEntity());
+            item.fail(null);
+        } else {
+            LOG.warn("Can't perform state change", exception);
+            item.fail("states.messages.change.failure.internalServerError");
+        }
+    }
+
+    private void failIfNotValid(StateChangeItem item) {
+        if (!item.getEntity().isValid()) {
+            item.fail(null);
+        }
+    }
+
+    private List<StateChangeItem> activeItems(List<StateChangeItem> items) {
+        return items.stream().filter(item -> !item.isFailed()).collect(Collectors.toList());
+    }
+
+    private void failItemsWithUnfinishedStateChange(final StateChangeEntityDescriber describer,
+            final List<StateChangeItem> items) {
+        final String ownerFieldName = describer.getOwnerFieldName();
+        final Set<Long> ownerIds = items.stream().map(item -> item.getEntity().getId()).collect(Collectors.toSet());
+        if (ownerIds.isEmpty()) {
+            return;
+        }
+
+        final SearchCriteriaBuilder searchCriteria = describer.getDataDefinition().find();
+        searchCriteria.createAlias(ownerFieldName, ownerFieldName);
+        searchCriteria.add(SearchRestrictions.in(ownerFieldName + ".id", ownerIds));
+        searchCriteria.add(SearchRestrictions.in(describer.getStatusFieldName(),
+                Sets.newHashSet(IN_PROGRESS.getStringValue(), PAUSED.getStringValue())));
+        final Set<Long> ownersWithUnfinishedChange = searchCriteria.list().getEntities().stream()
+                .map(stateChange -> stateChange.getBelongsToField(ownerFieldName).getId()).collect(Collectors.toSet());
+
+        for (StateChangeItem item : items) {
+            if (ownersWithUnfinishedChange.contains(item.getEntity().getId())) {
+                item.fail("states.messages.change.failure.anotherChangeInProgress");
+            }
+        }
+    }
+
+    private void insertStateChangeEntities(final StateChangeEntityDescriber describer, final List<StateChangeItem> items) {
+        String tableName = getTableName(describer);
+        Map<String, Object> parameters = Maps.newHashMap();
+        parameters.put("count", items.size());
+        List<Long> ids = jdbcTemplate.queryForList("SELECT nextval('" + tableName
+                + "_id_seq') FROM generate_series(1, :count)", parameters, Long.class);
+
+        SqlParameterSource[] batchParameters = new SqlParameterSource[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            StateChangeItem item = items.get(i);
+            Entity stateChangeEntity = item.getStateChangeEntity();
+            Entity shift = stateChangeEntity.getBelongsToField(describer.getShiftFieldName());
+            stateChangeEntity.setId(ids.get(i));
+            stateChangeEntity.setField(describer.getStatusFieldName(), item.getStatus().getStringValue());
+
+            batchParameters[i] = new MapSqlParameterSource().addValue("id", ids.get(i))
+                    .addValue("dateAndTime", stateChangeEntity.getDateField(describer.getDateTimeFieldName()),
+                            Types.TIMESTAMP)
+                    .addValue("sourceState", item.getSourceState(), Types.VARCHAR)
+                    .addValue("targetState", item.getTargetState(), Types.VARCHAR)
+                    .addValue("status", item.getStatus().getStringValue())
+                    .addValue("phase", stateChangeEntity.getIntegerField(describer.getPhaseFieldName()))
+                    .addValue("worker", stateChangeEntity.getStringField(describer.getWorkerFieldName()), Types.VARCHAR)
+                    .addValue("shiftId", shift == null ? null : shift.getId(), Types.BIGINT)
+                    .addValue("ownerId", item.getEntity().getId());
+        }
+
+        jdbcTemplate.batchUpdate(String.format("INSERT INTO %s (id, %s, %s, %s, %s, %s, %s, %s_id, %s_id) "
+                + "VALUES (:id, :dateAndTime, :sourceState, :targetState, :status, :phase, :worker, :shiftId, :ownerId)",
+                tableName, describer.getDateTimeFieldName().toLowerCase(), describer.getSourceStateFieldName().toLowerCase(),
+                describer.getTargetStateFieldName().toLowerCase(), describer.getStatusFieldName().toLowerCase(), describer
+                        .getPhaseFieldName().toLowerCase(), describer.getWorkerFieldName().toLowerCase(), describer
+                        .getShiftFieldName().toLowerCase(), describer.getOwnerFieldName().toLowerCase()), batchParameters);
+    }
+
+    private void updateStateChangeStatuses(final StateChangeEntityDescriber describer, final List<StateChangeItem> items) {
+        SqlParameterSource[] batchParameters = new SqlParameterSource[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            StateChangeItem item = items.get(i);
+            StateChangeStatus status = StateChangeStatus.SUCCESSFUL;
+            item.setStatus(status);
+            item.getStateChangeEntity().setField(describer.getStatusFieldName(), status.getStringValue());
+
+            batchParameters[i] = new MapSqlParameterSource().addValue("id", item.getStateChangeEntity().getId()).addValue(
+                    "status", status.getStringValue());
+        }
+
+        jdbcTemplate.batchUpdate(String.format("UPDATE %s SET %s = :status WHERE id = :id", getTableName(describer),
+                describer.getStatusFieldName().toLowerCase()), batchParameters);
+    }
+
+    private String getTableName(final StateChangeEntityDescriber describer) {
+        DataDefinition dataDefinition = describer.getDataDefinition();
+        return (dataDefinition.getPluginIdentifier() + "_" + dataDefinition.getName()).toLowerCase();
+    }
+
     private Entity saveStateChangeContext(Entity entity, Entity stateChangeEntity, StateChangeEntityDescriber describer,
             String _sourceState, String _targetState, StateChangeStatus status) {
         final StateEnum sourceState = describer.parseStateEnum(_sourceState);
@@ -218,8 +515,13 @@ public class StateExecutorService {
 
     private Entity buildStateChangeEntity(StateChangeEntityDescriber describer, Entity owner, String userLogin,
             String sourceState, String targetState) {
+        return buildStateChangeEntity(describer, owner, userLogin, shiftsService.getShiftFromDateWithTime(new Date()),
+                sourceState, targetState);
+    }
+
+    private Entity buildStateChangeEntity(StateChangeEntityDescriber describer, Entity owner, String userLogin, Entity shift,
+            String sourceState, String targetState) {
         final Entity stateChangeEntity = describer.getDataDefinition().create();
-        final Entity shift = shiftsService.getShiftFromDateWithTime(new Date());
 
         stateChangeEntity.setField(describer.getDateTimeFieldName(), new Date());
         stateChangeEntity.setField(describer.getSourceStateFieldName(), sourceState);
@@ -0,0 +1,289 @@
+package com.qcadoo.mes.newstates;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.ShiftsService;
+import com.qcadoo.mes.states.AbstractStateChangeDescriber;
+import com.qcadoo.mes.states.StateChangeEntityDescriber;
+import com.qcadoo.mes.states.StateEnum;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class StateExecutorServiceTest {
+
+    private static final String SOURCE_STATE = "01draft";
+
+    private static final String TARGET_STATE = "02accepted";
+
+    private interface TestStateServiceMarker extends StateService {
+    }
+
+    private StateExecutorService stateExecutorService;
+
+    @Mock
+    private ApplicationContext applicationContext;
+
+    @Mock
+    private ShiftsService shiftsService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private StateChangeTransactionService stateChangeTransactionService;
+
+    @Mock
+    private TestStateServiceMarker stateService;
+
+    @Mock
+    private DataDefinition stateChangeDD, ownerDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    private StateChangeEntityDescriber describer;
+
+    private List<Boolean> transactionResults;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        stateExecutorService = new StateExecutorService();
+        ReflectionTestUtils.setField(stateExecutorService, "applicationContext", applicationContext);
+        ReflectionTestUtils.setField(stateExecutorService, "shiftsService", shiftsService);
+        ReflectionTestUtils.setField(stateExecutorService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(stateExecutorService, "stateChangeTransactionService", stateChangeTransactionService);
+
+        describer = new AbstractStateChangeDescriber() {
+
+            @Override
+            public DataDefinition getDataDefinition() {
+                return stateChangeDD;
+            }
+
+            @Override
+            public StateEnum parseStateEnum(final String stringValue) {
+                return null;
+            }
+
+            @Override
+            public DataDefinition getOwnerDataDefinition() {
+                return ownerDD;
+            }
+
+            @Override
+            public String getOwnerFieldName() {
+                return "owner";
+            }
+        };
+
+        given(applicationContext.getBeansOfType(TestStateServiceMarker.class)).willReturn(
+                ImmutableMap.of("testStateService", stateService));
+        given(stateService.getChangeEntityDescriber()).willReturn(describer);
+        given(stateService.onValidate(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(returnOwner());
+        given(stateService.onBeforeSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(returnOwner());
+        given(stateService.onAfterSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(returnOwner());
+
+        given(stateChangeDD.getPluginIdentifier()).willReturn("states");
+        given(stateChangeDD.getName()).willReturn("testStateChange");
+        given(stateChangeDD.create()).willAnswer(new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return mock(Entity.class);
+            }
+        });
+        given(stateChangeDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.createAlias(anyString(), anyString())).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(Collections.<Entity> emptyList());
+
+        given(ownerDD.save(any(Entity.class))).willAnswer(returnOwner());
+
+        given(jdbcTemplate.queryForList(anyString(), anyMap(), eq(Long.class))).willAnswer(
+                new Answer<List<Long>>() {
+
+                    @Override
+                    public List<Long> answer(final InvocationOnMock invocation) throws Throwable {
+                        Map<?, ?> parameters = (Map<?, ?>) invocation.getArguments()[1];
+                        List<Long> ids = Lists.newArrayList();
+                        for (long id = 1; id <= (Integer) parameters.get("count"); id++) {
+                            ids.add(id);
+                        }
+                        return ids;
+                    }
+                });
+
+        transactionResults = Lists.newArrayList();
+        given(stateChangeTransactionService.executeInNewTransaction(any(BooleanSupplier.class))).willAnswer(
+                new Answer<Boolean>() {
+
+                    @Override
+                    public Boolean answer(final InvocationOnMock invocation) throws Throwable {
+                        boolean result = ((BooleanSupplier) invocation.getArguments()[0]).getAsBoolean();
+                        transactionResults.add(result);
+                        return result;
+                    }
+                });
+    }
+
+    private Answer<Entity> returnOwner() {
+        return new Answer<Entity>() {
+
+            @Override
+            public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                return (Entity) invocation.getArguments()[0];
+            }
+        };
+    }
+
+    private Entity mockOwner(final Long id) {
+        Entity owner = mockOwnerAttempt(id);
+        Entity ownerCopy = mockOwnerAttempt(id);
+        given(owner.copy()).willReturn(ownerCopy);
+        given(ownerCopy.copy()).willReturn(ownerCopy);
+        return owner;
+    }
+
+    private Entity mockOwnerAttempt(final Long id) {
+        Entity owner = mock(Entity.class);
+        given(owner.getId()).willReturn(id);
+        given(owner.getDataDefinition()).willReturn(ownerDD);
+        given(owner.getStringField(describer.getOwnerStateFieldName())).willReturn(SOURCE_STATE);
+        given(owner.isValid()).willReturn(true);
+        return owner;
+    }
+
+    @Test
+    public final void shouldChangeAllEntitiesInOneTransaction() {
+        // given
+        Entity owner1 = mockOwner(1L);
+        Entity owner2 = mockOwner(2L);
+
+        // when
+        List<Entity> result = stateExecutorService.changeState(TestStateServiceMarker.class,
+                Lists.newArrayList(owner1, owner2), "user", TARGET_STATE);
+
+        // then
+        assertEquals(Lists.newArrayList(true), transactionResults);
+        assertSame(owner1, result.get(0));
+        assertSame(owner2, result.get(1));
+        verify(owner1).setField(describer.getOwnerStateFieldName(), TARGET_STATE);
+        verify(owner2).setField(describer.getOwnerStateFieldName(), TARGET_STATE);
+
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource[]> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+        verify(jdbcTemplate, times(2)).batchUpdate(sqlCaptor.capture(), parametersCaptor.capture());
+        assertEquals("UPDATE states_teststatechange SET status = :status WHERE id = :id", sqlCaptor.getAllValues().get(1));
+        for (SqlParameterSource parameters : parametersCaptor.getAllValues().get(1)) {
+            assertEquals(StateChangeStatus.SUCCESSFUL.getStringValue(), parameters.getValue("status"));
+        }
+    }
+
+    @Test
+    public final void shouldCommitOtherEntitiesWhenHookOfOneEntityFails() {
+        // given
+        Entity owner1 = mockOwner(1L);
+        Entity owner2 = mockOwner(2L);
+        Entity owner3 = mockOwner(3L);
+
+        given(stateService.onAfterSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willAnswer(new Answer<Entity>() {
+
+                    @Override
+                    public Entity answer(final InvocationOnMock invocation) throws Throwable {
+                        Entity owner = (Entity) invocation.getArguments()[0];
+                        if (owner.getId().equals(2L)) {
+                            throw new IllegalStateException("after save hook failure");
+                        }
+                        return owner;
+                    }
+                });
+
+        // when
+        List<Entity> result = stateExecutorService.changeState(TestStateServiceMarker.class,
+                Lists.newArrayList(owner1, owner2, owner3), "user", TARGET_STATE);
+
+        // then
+        assertEquals(Lists.newArrayList(false, true, false, true, true), transactionResults);
+
+        Entity owner1Copy = owner1.copy();
+        Entity owner2Copy = owner2.copy();
+        Entity owner3Copy = owner3.copy();
+        assertSame(owner1Copy, result.get(0));
+        assertSame(owner2Copy, result.get(1));
+        assertSame(owner3Copy, result.get(2));
+        verify(ownerDD).save(owner1Copy);
+        verify(ownerDD).save(owner3Copy);
+        verify(owner2Copy).setField(describer.getOwnerStateFieldName(), SOURCE_STATE);
+
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<SqlParameterSource[]> parametersCaptor = ArgumentCaptor.forClass(SqlParameterSource[].class);
+        verify(jdbcTemplate, times(7)).batchUpdate(sqlCaptor.capture(), parametersCaptor.capture());
+
+        SqlParameterSource[] failedStateChanges = parametersCaptor.getValue();
+        assertEquals(1, failedStateChanges.length);
+        assertEquals(2L, failedStateChanges[0].getValue("ownerId"));
+        assertEquals(StateChangeStatus.FAILURE.getStringValue(), failedStateChanges[0].getValue("status"));
+    }
+
+    @Test
+    public final void shouldNotRepeatChangeOfSingleEntity() {
+        // given
+        Entity owner = mockOwner(1L);
+
+        given(stateService.onBeforeSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer)))
+                .willThrow(new IllegalStateException("before save hook failure"));
+
+        // when
+        List<Entity> result = stateExecutorService.changeState(TestStateServiceMarker.class, Lists.newArrayList(owner),
+                "user", TARGET_STATE);
+
+        // then
+        assertEquals(Lists.newArrayList(false, true), transactionResults);
+        assertSame(owner, result.get(0));
+        verify(stateService).onBeforeSave(any(Entity.class), anyString(), anyString(), any(Entity.class), eq(describer));
+        verify(owner).setField(describer.getOwnerStateFieldName(), SOURCE_STATE);
+    }
+
+}
@@ -2,8 +2,11 @@ package com.qcadoo.mes.technologiesGenerator;
 
 import com.google.common.collect.Lists;
 import com.qcadoo.commons.functional.Either;
+import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.jobs.JobContext;
+import com.qcadoo.mes.basic.jobs.JobService;
 import com.qcadoo.mes.technologies.TechnologyNameAndNumberGenerator;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.dataProvider.TechnologyDataProvider;
@@ -26,10 +29,8 @@ import com.qcadoo.model.api.Entity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.context.i18n.LocaleContextHolder;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Propagation;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
 import java.util.List;
@@ -67,48 +68,55 @@ public class TechnologiesGeneratorForProductsService {
     @Autowired
     private ParameterService parameterService;
 
-    @Async
-    public void performGeneration(final GeneratorView generatorView) {
-        LOG.info(String.format("Start generation technologies for products. Generator name : %S", generatorView.getFormEntity()
-                .getStringField(GeneratorContextFields.NAME)));
+    @Autowired
+    private JobService jobService;
 
+    @Autowired
+    private TranslationService translationService;
+
+    public void performGeneration(final GeneratorView generatorView) {
         Entity context = generatorView.getFormEntity();
+        Long contextId = context.getId();
+        String contextName = context.getStringField(GeneratorContextFields.NAME);
+        String jobName = translationService.translate("technologiesGenerator.jobs.generateTechnologies",
+                LocaleContextHolder.getLocale(), contextName);
+
+        jobService.submit(jobName, jobContext -> performGeneration(contextId, contextName, jobContext));
+    }
+
+    private void performGeneration(final Long contextId, final String contextName, final JobContext jobContext) {
+        LOG.info(String.format("Start generation technologies for products. Generator name : %S", contextName));
+
+        Entity context = getContext(contextId);
         List<Entity> products = context.getHasManyField(GeneratorContextFields.PRODUCTS);
         try {
             Optional<List<Entity>> optionalNodes = nodeDataProvider.getCastumizedNodesForContext(context);
             if (optionalNodes.isPresent() && !optionalNodes.get().isEmpty()) {
-                final Entity finalContext = context;
-                products.forEach(pr -> performGenerationTechnologyForProduct(pr, optionalNodes.get(), generatorView, finalContext));
+                List<Entity> nodes = optionalNodes.get();
+                jobContext.setTotal(products.size() * nodes.size());
+                for (Entity product : products) {
+                    for (Entity node : nodes) {
+                        jobContext.executeChunk(() -> generateTechnologyNode(node, product, context));
+                    }
+                }
             }
-        } catch (Exception ex) {
-            LOG.warn("An error occurred while generating technology", ex);
         } finally {
-            afterGenerationComplete(generatorView, context);
+            afterGenerationComplete(contextId);
         }
-        LOG.info(String.format("Finish generation technologies for products. Generator name : %S", generatorView.getFormEntity()
-                .getStringField(GeneratorContextFields.NAME)));
+        LOG.info(String.format("Finish generation technologies for products. Generator name : %S", contextName));
     }
 
-    private void afterGenerationComplete(GeneratorView generatorView, Entity context) {
+    private Entity getContext(final Long contextId) {
+        return dataDefinitionService.get(TechnologiesGeneratorConstants.PLUGIN_IDENTIFIER,
+                TechnologiesGeneratorConstants.MODEL_GENERATOR_CONTEXT).get(contextId);
+    }
+
+    private void afterGenerationComplete(final Long contextId) {
         List<Entity> products = Lists.newArrayList();
-        context = context.getDataDefinition().get(generatorView.getFormEntity().getId());
+        Entity context = getContext(contextId);
         context.setField(GeneratorContextFields.GENERATION_IN_PROGRSS, false);
         context.setField(GeneratorContextFields.PRODUCTS, products);
-        context = context.getDataDefinition().save(context);
-    }
-
-    private void performGenerationTechnologyForProduct(final Entity product, final List<Entity> nodes,
-            final GeneratorView generatorView, final Entity context) {
-        preformForProduct(product, nodes, generatorView, context);
-    }
-
-    private void preformForProduct(Entity product, List<Entity> nodes, GeneratorView generatorView, Entity context) {
-        nodes.forEach(node -> customizeTechnologyForNode(node, product, generatorView, context));
-    }
-
-    @Transactional(propagation = Propagation.REQUIRES_NEW)
-    private void customizeTechnologyForNode(Entity node, Entity product, GeneratorView generatorView, final Entity context) {
-        generateTechnologyNode(node, product, context);
+        context.getDataDefinition().save(context);
     }
 
     private void generateTechnologyNode(Entity node, Entity product, Entity context) {
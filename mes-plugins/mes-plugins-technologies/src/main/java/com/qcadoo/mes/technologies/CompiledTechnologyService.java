@@ -0,0 +1,186 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.OperationComponent;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.ProductComponentLink;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.ProductComponentQuantity;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Compiles technology operation components trees and keeps compiled technologies which can not be edited anymore (checked,
+ * accepted and outdated ones). Entries are evicted on every technology state change and after {@link #EXPIRATION_MINUTES}.
+ */
+@Service
+public class CompiledTechnologyService {
+
+    private static final long EXPIRATION_MINUTES = 10;
+
+    private static final long MAXIMUM_SIZE = 1000;
+
+    private static final Set<String> CACHEABLE_STATES = Sets.newHashSet(TechnologyStateStringValues.CHECKED,
+            TechnologyStateStringValues.ACCEPTED, TechnologyStateStringValues.OUTDATED);
+
+    private static final String L_QUANTITY = "quantity";
+
+    private final Cache<Long, CompiledTechnology> compiledTechnologies = CacheBuilder.newBuilder().maximumSize(MAXIMUM_SIZE)
+            .expireAfterWrite(EXPIRATION_MINUTES, TimeUnit.MINUTES).build();
+
+    public CompiledTechnology getCompiledTechnology(final Entity technology) {
+        if (!isCacheable(technology)) {
+            return compile(technology);
+        }
+
+        try {
+            return compiledTechnologies.get(technology.getId(), () -> compile(technology));
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return true when technology can't be edited anymore, so its compiled form is kept between calls
+     */
+    public boolean isCacheable(final Entity technology) {
+        return Objects.nonNull(technology.getId())
+                && CACHEABLE_STATES.contains(technology.getStringField(TechnologyFields.STATE));
+    }
+
+    public void invalidate(final Long technologyId) {
+        compiledTechnologies.invalidate(technologyId);
+    }
+
+    private CompiledTechnology compile(final Entity technology) {
+        EntityTree operationComponentsTree = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+        Entity root = operationComponentsTree.getRoot();
+
+        List<OperationComponent> operationComponents = Lists.newArrayList();
+        List<OperationComponent> operationComponentsInTraversalOrder = Lists.newArrayList();
+
+        if (Objects.isNull(root)) {
+            return new CompiledTechnology(operationComponents, operationComponentsInTraversalOrder);
+        }
+
+        Map<Long, List<ProductComponentLink>> linksByOperationComponentId = Maps.newLinkedHashMap();
+
+        addLinks(technology, root, null, linksByOperationComponentId);
+
+        Map<Long, OperationComponent> operationComponentsById = Maps.newHashMap();
+
+        for (Entity operationComponent : operationComponentsTree) {
+            OperationComponent compiledOperationComponent = new OperationComponent(operationComponent.getId(),
+                    operationComponent.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE),
+                    operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE),
+                    compileProductComponents(operationComponent
+                            .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)),
+                    compileProductComponents(operationComponent
+                            .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS)),
+                    linksByOperationComponentId.getOrDefault(operationComponent.getId(), Lists.newArrayList()));
+
+            operationComponents.add(compiledOperationComponent);
+            operationComponentsById.put(operationComponent.getId(), compiledOperationComponent);
+        }
+
+        for (Long operationComponentId : linksByOperationComponentId.keySet()) {
+            operationComponentsInTraversalOrder.add(operationComponentsById.get(operationComponentId));
+        }
+
+        return new CompiledTechnology(operationComponents, operationComponentsInTraversalOrder);
+    }
+
+    private void addLinks(final Entity technology, final Entity operationComponent, final Entity parentOperationComponent,
+            final Map<Long, List<ProductComponentLink>> linksByOperationComponentId) {
+        List<ProductComponentLink> links = Lists.newArrayList();
+        List<Entity> operationProductOutComponents = operationComponent
+                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
+
+        if (Objects.isNull(parentOperationComponent)) {
+            Long technologyProductId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+            for (Entity operationProductOutComponent : operationProductOutComponents) {
+                if (operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                        .equals(technologyProductId)) {
+                    links.add(new ProductComponentLink(null, new OperationProductComponentHolder(operationProductOutComponent)));
+
+                    break;
+                }
+            }
+        } else {
+            for (Entity operationProductInComponent : parentOperationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+                Long productId = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT).getId();
+
+                for (Entity operationProductOutComponent : operationProductOutComponents) {
+                    if (operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                            .equals(productId)) {
+                        links.add(new ProductComponentLink(new OperationProductComponentHolder(operationProductInComponent),
+                                new OperationProductComponentHolder(operationProductOutComponent)));
+
+                        break;
+                    }
+                }
+            }
+        }
+
+        linksByOperationComponentId.put(operationComponent.getId(), links);
+
+        for (Entity child : operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+            addLinks(technology, child, operationComponent, linksByOperationComponentId);
+        }
+    }
+
+    private List<ProductComponentQuantity> compileProductComponents(final List<Entity> operationProductComponents) {
+        List<ProductComponentQuantity> productComponentQuantities = Lists.newArrayList();
+
+        for (Entity operationProductComponent : operationProductComponents) {
+            productComponentQuantities.add(new ProductComponentQuantity(new OperationProductComponentHolder(
+                    operationProductComponent), operationProductComponent.getDecimalField(L_QUANTITY)));
+        }
+
+        return productComponentQuantities;
+    }
+
+}
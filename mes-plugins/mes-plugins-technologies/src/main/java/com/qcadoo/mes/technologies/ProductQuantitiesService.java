@@ -24,6 +24,7 @@
 package com.qcadoo.mes.technologies;
 
 import java.math.BigDecimal;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -32,6 +33,7 @@ import java.util.Set;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.OrderProductComponentQuantities;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTree;
@@ -144,6 +146,15 @@ public interface ProductQuantitiesService {
             final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
             final Set<OperationProductComponentHolder> nonComponents);
 
+    /**
+     * Expands technologies of given orders by their planned quantities. When there are enough orders, they are expanded in
+     * parallel.
+     *
+     * @param orders
+     * @return product component quantities, operation runs and non components for each of given orders, in the same order
+     */
+    List<OrderProductComponentQuantities> getProductComponentWithQuantitiesForOrdersTechnologies(final List<Entity> orders);
+
     /**
      * @param productComponentWithQuantitiesForOrders
      * @return
@@ -167,6 +178,14 @@ public interface ProductQuantitiesService {
      */
     Entity getProduct(final Long productId);
 
+    /**
+     * Gets products with given ids at once
+     *
+     * @param productIds
+     * @return products by id
+     */
+    Map<Long, Entity> getProducts(final Collection<Long> productIds);
+
     void traverseProductQuantitiesAndOperationRuns(Entity technology, BigDecimal givenQuantity, Entity operationComponent,
             Entity previousOperationComponent,
             OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
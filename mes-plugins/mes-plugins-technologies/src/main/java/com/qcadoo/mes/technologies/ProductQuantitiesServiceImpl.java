@@ -25,10 +25,17 @@ package com.qcadoo.mes.technologies;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -44,8 +51,13 @@ import com.qcadoo.mes.technologies.constants.ProductComponentFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.OperationComponent;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.ProductComponentLink;
+import com.qcadoo.mes.technologies.dto.CompiledTechnology.ProductComponentQuantity;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.OrderProductComponentQuantities;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
@@ -65,12 +77,24 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
 
     private static final String L_QUANTITY = "quantity";
 
+    private static final int MIN_ORDERS_FOR_PARALLEL_EXPANSION = 4;
+
+    private final ForkJoinPool expansionPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
     @Autowired
     private NumberService numberService;
 
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private CompiledTechnologyService compiledTechnologyService;
+
+    @PreDestroy
+    public void shutdownExpansionPool() {
+        expansionPool.shutdown();
+    }
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -196,27 +220,17 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Set<OperationProductComponentHolder> nonComponents) {
         OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
 
-        EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
-        Entity root = operationComponents.getRoot();
+        CompiledTechnology compiledTechnology = compiledTechnologyService.getCompiledTechnology(technology);
 
-        if (root != null) {
-            preloadProductQuantitiesAndOperationRuns(operationComponents, operationProductComponentWithQuantityContainer,
-                    operationRuns);
-            traverseProductQuantitiesAndOperationRuns(technology, givenQuantity, root, null,
-                    operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
-        }
+        expandCompiledTechnology(compiledTechnology, givenQuantity, operationProductComponentWithQuantityContainer, operationRuns,
+                nonComponents);
 
         return operationProductComponentWithQuantityContainer;
     }
 
-    private EntityTree getOperationComponentsFromTechnology(final Entity technology) {
-        return technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
-    }
-
-    private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
-            final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
-            final boolean onTheFly) {
-        Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
+    @Override
+    public List<OrderProductComponentQuantities> getProductComponentWithQuantitiesForOrdersTechnologies(final List<Entity> orders) {
+        List<ForkJoinTask<OrderProductComponentQuantities>> expansions = Lists.newArrayListWithCapacity(orders.size());
 
         for (Entity order : orders) {
             BigDecimal plannedQuantity = order.getDecimalField(L_PLANNED_QUANTITY);
@@ -227,8 +241,110 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
                 throw new IllegalStateException("Order doesn't contain technology.");
             }
 
+            // compiling reads entities, so it stays in the calling thread - expansion works only on the compiled technology
+            CompiledTechnology compiledTechnology = compiledTechnologyService.getCompiledTechnology(technology);
+
+            expansions.add(ForkJoinTask.adapt(() -> {
+                OrderProductComponentQuantities orderProductComponentQuantities = new OrderProductComponentQuantities();
+
+                expandCompiledTechnology(compiledTechnology, plannedQuantity,
+                        orderProductComponentQuantities.getProductComponentQuantities(),
+                        orderProductComponentQuantities.getOperationRuns(), orderProductComponentQuantities.getNonComponents());
+
+                return orderProductComponentQuantities;
+            }));
+        }
+
+        List<OrderProductComponentQuantities> ordersProductComponentQuantities = Lists.newArrayListWithCapacity(expansions.size());
+
+        if (expansions.size() < MIN_ORDERS_FOR_PARALLEL_EXPANSION) {
+            for (ForkJoinTask<OrderProductComponentQuantities> expansion : expansions) {
+                ordersProductComponentQuantities.add(expansion.invoke());
+            }
+        } else {
+            for (ForkJoinTask<OrderProductComponentQuantities> expansion : expansions) {
+                expansionPool.execute(expansion);
+            }
+            for (ForkJoinTask<OrderProductComponentQuantities> expansion : expansions) {
+                ordersProductComponentQuantities.add(getExpansionResult(expansion));
+            }
+        }
+
+        return ordersProductComponentQuantities;
+    }
+
+    private OrderProductComponentQuantities getExpansionResult(final ForkJoinTask<OrderProductComponentQuantities> expansion) {
+        try {
+            return expansion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void expandCompiledTechnology(final CompiledTechnology compiledTechnology, final BigDecimal givenQuantity,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents) {
+        for (OperationComponent operationComponent : compiledTechnology.getOperationComponents()) {
+            preloadProductComponentQuantities(operationComponent.getOperationProductInComponents(),
+                    operationProductComponentWithQuantityContainer);
+            preloadProductComponentQuantities(operationComponent.getOperationProductOutComponents(),
+                    operationProductComponentWithQuantityContainer);
+
+            operationRuns.put(operationComponent.getId(), BigDecimal.ONE);
+        }
+
+        for (OperationComponent operationComponent : compiledTechnology.getOperationComponentsInTraversalOrder()) {
+            for (ProductComponentLink link : operationComponent.getLinks()) {
+                BigDecimal outQuantity = operationProductComponentWithQuantityContainer.get(link
+                        .getOperationProductOutComponent());
+
+                if (link.isForTechnologyProduct()) {
+                    multiplyProductQuantitiesAndAddOperationRuns(operationComponent, givenQuantity, outQuantity,
+                            operationProductComponentWithQuantityContainer, operationRuns);
+                } else {
+                    BigDecimal inQuantity = operationProductComponentWithQuantityContainer.get(link
+                            .getParentOperationProductInComponent());
+
+                    multiplyProductQuantitiesAndAddOperationRuns(operationComponent, inQuantity, outQuantity,
+                            operationProductComponentWithQuantityContainer, operationRuns);
+
+                    nonComponents.add(link.getParentOperationProductInComponent());
+                }
+            }
+        }
+    }
+
+    private void preloadProductComponentQuantities(final List<ProductComponentQuantity> productComponentQuantities,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer) {
+        for (ProductComponentQuantity productComponentQuantity : productComponentQuantities) {
+            operationProductComponentWithQuantityContainer.put(productComponentQuantity.getOperationProductComponent(),
+                    productComponentQuantity.getQuantity());
+        }
+    }
+
+    private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
+            final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
+            final boolean onTheFly) {
+        Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
+
+        Iterator<OrderProductComponentQuantities> ordersProductComponentQuantities = getProductComponentWithQuantitiesForOrdersTechnologies(
+                orders).iterator();
+
+        for (Entity order : orders) {
+            OrderProductComponentQuantities orderProductComponentQuantities = ordersProductComponentQuantities.next();
+
+            orderProductComponentQuantities.addOperationRunsAndNonComponentsTo(operationRuns, nonComponents);
+
             productComponentWithQuantitiesForOrders.put(order.getId(),
-                    getProductComponentWithQuantitiesForTechnology(technology, plannedQuantity, operationRuns, nonComponents));
+                    orderProductComponentQuantities.getProductComponentQuantities());
         }
 
         return groupOperationProductComponentWithQuantities(productComponentWithQuantitiesForOrders);
@@ -429,6 +545,45 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
                 multiplier, operationProductComponentWithQuantityContainer);
     }
 
+    private void multiplyProductQuantitiesAndAddOperationRuns(final OperationComponent operationComponent,
+            final BigDecimal needed, final BigDecimal actual,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Map<Long, BigDecimal> operationRuns) {
+        BigDecimal multiplier = needed.divide(actual, numberService.getMathContext());
+
+        if (!operationComponent.areProductQuantitiesDivisible()) {
+            // It's intentional to round up the operation runs
+            multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        BigDecimal runs = multiplier;
+
+        if (!operationComponent.isTjDivisible()) {
+            runs = multiplier.setScale(0, RoundingMode.CEILING);
+        }
+
+        operationRuns.put(operationComponent.getId(), runs);
+
+        multiplyProductComponentQuantities(operationComponent.getOperationProductInComponents(), multiplier,
+                operationProductComponentWithQuantityContainer);
+        multiplyProductComponentQuantities(operationComponent.getOperationProductOutComponents(), multiplier,
+                operationProductComponentWithQuantityContainer);
+    }
+
+    private void multiplyProductComponentQuantities(final List<ProductComponentQuantity> productComponentQuantities,
+            final BigDecimal multiplier,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer) {
+        for (ProductComponentQuantity productComponentQuantity : productComponentQuantities) {
+            OperationProductComponentHolder operationProductComponent = productComponentQuantity.getOperationProductComponent();
+
+            BigDecimal addedQuantity = operationProductComponentWithQuantityContainer.get(operationProductComponent);
+            BigDecimal quantity = addedQuantity.multiply(multiplier, numberService.getMathContext());
+
+            operationProductComponentWithQuantityContainer.put(operationProductComponent,
+                    quantity.setScale(5, RoundingMode.CEILING));
+        }
+    }
+
     private void multiplyOperationProductComponentQuantities(final List<Entity> operationProductComponents,
             final BigDecimal multiplier,
             final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer) {
@@ -493,6 +648,7 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final OperationProductComponentWithQuantityContainer productComponentWithQuantities,
             final Set<OperationProductComponentHolder> nonComponents, final boolean onlyComponents, final boolean onlyMaterials) {
         Map<Long, BigDecimal> productWithQuantities = Maps.newHashMap();
+        Map<Long, Boolean> productsWithAcceptedMasterTechnology = Maps.newHashMap();
 
         for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentWithQuantities
                 .asMap().entrySet()) {
@@ -502,8 +658,10 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
                 continue;
             }
             if (onlyMaterials) {
-                Entity product = operationProductComponentHolder.getProduct();
-                if (hasAcceptedMasterTechnology(product)) {
+                Boolean hasAcceptedMasterTechnology = productsWithAcceptedMasterTechnology.computeIfAbsent(
+                        operationProductComponentHolder.getProductId(),
+                        productId -> hasAcceptedMasterTechnology(operationProductComponentHolder.getProduct()));
+                if (hasAcceptedMasterTechnology) {
                     continue;
                 }
             }
@@ -601,4 +759,18 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     public Entity getProduct(final Long productId) {
         return dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT).get(productId);
     }
+
+    @Override
+    public Map<Long, Entity> getProducts(final Collection<Long> productIds) {
+        Map<Long, Entity> products = Maps.newHashMap();
+
+        if (!productIds.isEmpty()) {
+            for (Entity product : dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT).find()
+                    .add(SearchRestrictions.in("id", productIds)).list().getEntities()) {
+                products.put(product.getId(), product);
+            }
+        }
+
+        return products;
+    }
 }
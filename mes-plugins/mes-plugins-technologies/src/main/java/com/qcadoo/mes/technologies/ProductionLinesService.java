@@ -31,4 +31,6 @@ public interface ProductionLinesService {
 
     Integer getWorkstationTypesCount(final Long productionLineId, final String workstationName);
 
+    Integer getWorkstationTypesCountForWorkstationType(final Entity productionLine, final Long workstationTypeId);
+
 }
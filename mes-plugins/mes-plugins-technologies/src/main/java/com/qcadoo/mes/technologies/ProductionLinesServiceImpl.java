@@ -56,17 +56,23 @@ public class ProductionLinesServiceImpl implements ProductionLinesService {
 
     @Override
     public Integer getWorkstationTypesCount(final Entity operationComponent, final Entity productionLine) {
-        List<Entity> workstationTypeComponents = productionLine.getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
-
         Entity desiredWorkstation = operationComponent.getBelongsToField(TechnologyOperationComponentFields.OPERATION)
                 .getBelongsToField(OperationFields.WORKSTATION_TYPE);
 
-        if (desiredWorkstation != null) {
+        return getWorkstationTypesCountForWorkstationType(productionLine,
+                desiredWorkstation == null ? null : desiredWorkstation.getId());
+    }
+
+    @Override
+    public Integer getWorkstationTypesCountForWorkstationType(final Entity productionLine, final Long workstationTypeId) {
+        List<Entity> workstationTypeComponents = productionLine.getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+
+        if (workstationTypeId != null) {
             for (Entity workstationTypeComponent : workstationTypeComponents) {
                 Entity workstation = workstationTypeComponent.getBelongsToField(OperationFields.WORKSTATION_TYPE);
 
                 // FIXME dev_team, proxy entity equals thing
-                if (desiredWorkstation.getId().equals(workstation.getId())) {
+                if (workstationTypeId.equals(workstation.getId())) {
                     return (Integer) workstationTypeComponent.getField(WorkstationTypeComponentFields.QUANTITY);
                 }
             }
@@ -0,0 +1,169 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.dto;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable, entity-free form of technology operation components tree, used to calculate product quantities and operation
+ * runs for any given quantity without loading the tree again.
+ */
+public final class CompiledTechnology {
+
+    private final List<OperationComponent> operationComponents;
+
+    private final List<OperationComponent> operationComponentsInTraversalOrder;
+
+    public CompiledTechnology(final List<OperationComponent> operationComponents,
+            final List<OperationComponent> operationComponentsInTraversalOrder) {
+        this.operationComponents = Collections.unmodifiableList(operationComponents);
+        this.operationComponentsInTraversalOrder = Collections.unmodifiableList(operationComponentsInTraversalOrder);
+    }
+
+    /**
+     * @return operation components in order of technology tree
+     */
+    public List<OperationComponent> getOperationComponents() {
+        return operationComponents;
+    }
+
+    /**
+     * @return operation components reachable from root, parents before their children
+     */
+    public List<OperationComponent> getOperationComponentsInTraversalOrder() {
+        return operationComponentsInTraversalOrder;
+    }
+
+    public static final class OperationComponent {
+
+        private final Long id;
+
+        private final boolean areProductQuantitiesDivisible;
+
+        private final boolean isTjDivisible;
+
+        private final List<ProductComponentQuantity> operationProductInComponents;
+
+        private final List<ProductComponentQuantity> operationProductOutComponents;
+
+        private final List<ProductComponentLink> links;
+
+        public OperationComponent(final Long id, final boolean areProductQuantitiesDivisible, final boolean isTjDivisible,
+                final List<ProductComponentQuantity> operationProductInComponents,
+                final List<ProductComponentQuantity> operationProductOutComponents, final List<ProductComponentLink> links) {
+            this.id = id;
+            this.areProductQuantitiesDivisible = areProductQuantitiesDivisible;
+            this.isTjDivisible = isTjDivisible;
+            this.operationProductInComponents = Collections.unmodifiableList(operationProductInComponents);
+            this.operationProductOutComponents = Collections.unmodifiableList(operationProductOutComponents);
+            this.links = Collections.unmodifiableList(links);
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public boolean areProductQuantitiesDivisible() {
+            return areProductQuantitiesDivisible;
+        }
+
+        public boolean isTjDivisible() {
+            return isTjDivisible;
+        }
+
+        public List<ProductComponentQuantity> getOperationProductInComponents() {
+            return operationProductInComponents;
+        }
+
+        public List<ProductComponentQuantity> getOperationProductOutComponents() {
+            return operationProductOutComponents;
+        }
+
+        /**
+         * @return links between this operation component outputs and quantities they have to cover, in order of applying
+         */
+        public List<ProductComponentLink> getLinks() {
+            return links;
+        }
+
+    }
+
+    public static final class ProductComponentQuantity {
+
+        private final OperationProductComponentHolder operationProductComponent;
+
+        private final BigDecimal quantity;
+
+        public ProductComponentQuantity(final OperationProductComponentHolder operationProductComponent,
+                final BigDecimal quantity) {
+            this.operationProductComponent = operationProductComponent;
+            this.quantity = quantity;
+        }
+
+        public OperationProductComponentHolder getOperationProductComponent() {
+            return operationProductComponent;
+        }
+
+        public BigDecimal getQuantity() {
+            return quantity;
+        }
+
+    }
+
+    public static final class ProductComponentLink {
+
+        private final OperationProductComponentHolder parentOperationProductInComponent;
+
+        private final OperationProductComponentHolder operationProductOutComponent;
+
+        /**
+         * @param parentOperationProductInComponent
+         *            input of parent operation component consuming the output or null for output of root operation
+         *            component covering technology quantity
+         * @param operationProductOutComponent
+         *            output of operation component
+         */
+        public ProductComponentLink(final OperationProductComponentHolder parentOperationProductInComponent,
+                final OperationProductComponentHolder operationProductOutComponent) {
+            this.parentOperationProductInComponent = parentOperationProductInComponent;
+            this.operationProductOutComponent = operationProductOutComponent;
+        }
+
+        public OperationProductComponentHolder getParentOperationProductInComponent() {
+            return parentOperationProductInComponent;
+        }
+
+        public OperationProductComponentHolder getOperationProductOutComponent() {
+            return operationProductOutComponent;
+        }
+
+        public boolean isForTechnologyProduct() {
+            return parentOperationProductInComponent == null;
+        }
+
+    }
+
+}
@@ -0,0 +1,65 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.dto;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class OrderProductComponentQuantities {
+
+    private final OperationProductComponentWithQuantityContainer productComponentQuantities;
+
+    private final Map<Long, BigDecimal> operationRuns;
+
+    private final Set<OperationProductComponentHolder> nonComponents;
+
+    public OrderProductComponentQuantities() {
+        this.productComponentQuantities = new OperationProductComponentWithQuantityContainer();
+        this.operationRuns = Maps.newHashMap();
+        this.nonComponents = Sets.newHashSet();
+    }
+
+    public OperationProductComponentWithQuantityContainer getProductComponentQuantities() {
+        return productComponentQuantities;
+    }
+
+    public Map<Long, BigDecimal> getOperationRuns() {
+        return operationRuns;
+    }
+
+    public Set<OperationProductComponentHolder> getNonComponents() {
+        return nonComponents;
+    }
+
+    public void addOperationRunsAndNonComponentsTo(final Map<Long, BigDecimal> operationRuns,
+            final Set<OperationProductComponentHolder> nonComponents) {
+        operationRuns.putAll(this.operationRuns);
+        nonComponents.addAll(this.nonComponents);
+    }
+
+}
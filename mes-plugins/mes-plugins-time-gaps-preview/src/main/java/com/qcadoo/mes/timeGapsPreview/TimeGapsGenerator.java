@@ -33,8 +33,6 @@ import org.joda.time.Interval;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.timeGapsPreview.constants.TimeGapsPreviewConstants;
@@ -69,18 +67,9 @@ public class TimeGapsGenerator {
 
         Multimap<Long, Interval> timeGaps = HashMultimap.create();
         for (Map.Entry<Long, Collection<Interval>> lineIntervals : occupiedIntervals.asMap().entrySet()) {
-            Collection<Interval> gapsForLine = invertOccupiedIntervals(timeGapsContext.getInterval(), lineIntervals.getValue());
-            Collection<Interval> gapsForLineFilteredByDuration = Collections2.filter(gapsForLine, new Predicate<Interval>() {
-
-                @Override
-                public boolean apply(final Interval interval) {
-                    if (interval == null) {
-                        return false;
-                    }
-                    return interval.toDuration().compareTo(timeGapsContext.getDuration()) >= 0;
-                }
-            });
-            timeGaps.putAll(lineIntervals.getKey(), gapsForLineFilteredByDuration);
+            Collection<Interval> gapsForLine = invertOccupiedIntervals(timeGapsContext.getInterval(), lineIntervals.getValue(),
+                    timeGapsContext.getDuration());
+            timeGaps.putAll(lineIntervals.getKey(), gapsForLine);
         }
         return TimeGapsSearchResult.create(timeGaps, getTimeGapDataDef());
     }
@@ -94,10 +83,11 @@ public class TimeGapsGenerator {
         return multiMap;
     }
 
-    private Collection<Interval> invertOccupiedIntervals(final Interval domainInterval, final Iterable<Interval> occupiedIntervals) {
+    private Collection<Interval> invertOccupiedIntervals(final Interval domainInterval, final Iterable<Interval> occupiedIntervals,
+            final Duration minimalDuration) {
         TimeGapsBuilder gapsBuilder = new TimeGapsBuilderImpl(domainInterval);
         gapsBuilder.addOccupiedIntervals(occupiedIntervals);
-        return gapsBuilder.calculateGaps();
+        return gapsBuilder.calculateGaps(minimalDuration);
     }
 
     private DataDefinition getTimeGapDataDef() {
@@ -23,7 +23,9 @@
  */
 package com.qcadoo.mes.timeGapsPreview.provider;
 
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
@@ -125,16 +127,17 @@ public class OrderAndChangeoverIntervalsProvider implements IntervalsProvider {
 
     // TODO it can be optimized by searching only the longest changeover between orders listed in given orderGaps set.
     private Multimap<Long, Interval> getChangeovers(final Multimap<Long, OrdersGap> orderGaps) {
+        final Map<List<Long>, Entity> changeoversCache = Maps.newHashMap();
         return Multimaps.transformValues(orderGaps, new Function<OrdersGap, Interval>() {
 
             @Override
             public Interval apply(final OrdersGap orderGap) {
-                return gapToInterval(orderGap);
+                return gapToInterval(orderGap, changeoversCache);
             }
         });
     }
 
-    private Interval gapToInterval(final OrdersGap orderGap) {
+    private Interval gapToInterval(final OrdersGap orderGap, final Map<List<Long>, Entity> changeoversCache) {
         Integer ownChangeoverDuration = orderGap.to.ownLineChangeoverDuration;
         if (ownChangeoverDuration != null) {
             DateTime end = orderGap.to.interval.getStart();
@@ -149,8 +152,8 @@ public class OrderAndChangeoverIntervalsProvider implements IntervalsProvider {
             if (fromTechId == null || toTechId == null) {
                 return null;
             }
-            Entity maybeChangeover = changeoverNormsSearchService.findBestMatching(fromTechId, fromTechGroupId, toTechId,
-                    toTechGroupId, productionLineId);
+            Entity maybeChangeover = findBestMatchingChangeover(fromTechId, fromTechGroupId, toTechId, toTechGroupId,
+                    productionLineId, changeoversCache);
             if (maybeChangeover == null) {
                 return null;
             }
@@ -158,6 +161,17 @@ public class OrderAndChangeoverIntervalsProvider implements IntervalsProvider {
         }
     }
 
+    // the same pair of technologies follows each other on a line many times, so each norm is searched once per generation
+    private Entity findBestMatchingChangeover(final Long fromTechId, final Long fromTechGroupId, final Long toTechId,
+            final Long toTechGroupId, final Long productionLineId, final Map<List<Long>, Entity> changeoversCache) {
+        List<Long> key = Arrays.asList(fromTechId, fromTechGroupId, toTechId, toTechGroupId, productionLineId);
+        if (!changeoversCache.containsKey(key)) {
+            changeoversCache.put(key, changeoverNormsSearchService.findBestMatching(fromTechId, fromTechGroupId, toTechId,
+                    toTechGroupId, productionLineId));
+        }
+        return changeoversCache.get(key);
+    }
+
     private Interval changeoverToInterval(final Entity changeover, final DateTime endDate) {
         Integer durationSeconds = changeover.getIntegerField(LineChangeoverNormsFields.DURATION);
         DateTime startDate;
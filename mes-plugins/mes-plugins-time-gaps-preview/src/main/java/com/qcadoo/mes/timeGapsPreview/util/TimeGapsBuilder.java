@@ -25,6 +25,7 @@ package com.qcadoo.mes.timeGapsPreview.util;
 
 import java.util.Collection;
 
+import org.joda.time.Duration;
 import org.joda.time.Interval;
 
 public interface TimeGapsBuilder {
@@ -56,4 +57,14 @@ public interface TimeGapsBuilder {
      */
     Collection<Interval> calculateGaps();
 
+    /**
+     * Calculate gap intervals which are not shorter than given duration.
+     * 
+     * @param minimalDuration
+     *            minimal duration of returned gaps
+     * 
+     * @return collection of gap intervals.
+     */
+    Collection<Interval> calculateGaps(final Duration minimalDuration);
+
 }
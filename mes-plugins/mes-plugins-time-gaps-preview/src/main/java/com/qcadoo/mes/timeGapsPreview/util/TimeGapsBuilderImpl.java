@@ -24,23 +24,27 @@
 package com.qcadoo.mes.timeGapsPreview.util;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.SortedSet;
 
+import org.joda.time.Chronology;
+import org.joda.time.Duration;
 import org.joda.time.Interval;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 public class TimeGapsBuilderImpl implements TimeGapsBuilder {
 
     private final Interval searchInterval;
 
-    private final SortedSet<Interval> occupiedIntervals;
+    private final List<Interval> occupiedIntervals;
 
     public TimeGapsBuilderImpl(final Interval interval) {
         Preconditions.checkArgument(interval != null, "Search interval have to be provided.");
         searchInterval = interval;
-        occupiedIntervals = Sets.newTreeSet(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+        occupiedIntervals = Lists.newArrayList();
     }
 
     @Override
@@ -63,19 +67,11 @@ public class TimeGapsBuilderImpl implements TimeGapsBuilder {
             return intervalsSet;
         }
         SortedSet<Interval> flattenIntervals = newSortedSet();
-        Interval prev = intervalsSet.first();
-
-        flattenIntervals.add(prev);
-        for (Interval interval : intervalsSet) {
-            if (interval.contains(prev.getEnd()) || interval.abuts(prev)) {
-                Interval sumInterval = new Interval(prev.getStart(), interval.getEnd());
-                flattenIntervals.remove(prev);
-                flattenIntervals.add(sumInterval);
-                prev = sumInterval;
-            } else if (!prev.contains(interval)) {
-                flattenIntervals.add(interval);
-                prev = interval;
-            }
+        Chronology chronology = intervalsSet.first().getChronology();
+        MergedIntervals mergedIntervals = MergedIntervals.merge(intervalsSet);
+
+        for (int i = 0; i < mergedIntervals.size; i++) {
+            flattenIntervals.add(new Interval(mergedIntervals.starts[i], mergedIntervals.ends[i], chronology));
         }
         return flattenIntervals;
     }
@@ -86,26 +82,70 @@ public class TimeGapsBuilderImpl implements TimeGapsBuilder {
 
     @Override
     public Collection<Interval> calculateGaps() {
+        return calculateGaps(Duration.ZERO);
+    }
+
+    @Override
+    public Collection<Interval> calculateGaps(final Duration minimalDuration) {
         SortedSet<Interval> gaps = newSortedSet();
-        SortedSet<Interval> flattenOccupiedIntervals = flatten(occupiedIntervals);
-        if (flattenOccupiedIntervals.isEmpty()) {
-            gaps.add(searchInterval);
-            return gaps;
+        Chronology chronology = searchInterval.getChronology();
+        long minimalDurationMillis = minimalDuration.getMillis();
+
+        List<Interval> sortedOccupiedIntervals = Lists.newArrayList(occupiedIntervals);
+        sortedOccupiedIntervals.sort(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+        MergedIntervals mergedIntervals = MergedIntervals.merge(sortedOccupiedIntervals);
+
+        // gaps lie between the end of each merged interval and the start of the next one
+        long gapStart = searchInterval.getStartMillis();
+        for (int i = 0; i < mergedIntervals.size; i++) {
+            long gapEnd = mergedIntervals.starts[i];
+            if (gapEnd > gapStart && gapEnd - gapStart >= minimalDurationMillis) {
+                gaps.add(new Interval(gapStart, gapEnd, chronology));
+            }
+            gapStart = mergedIntervals.ends[i];
+        }
+        long searchEnd = searchInterval.getEndMillis();
+        if ((mergedIntervals.size == 0 || gapStart < searchEnd) && searchEnd - gapStart >= minimalDurationMillis) {
+            gaps.add(new Interval(gapStart, searchEnd, chronology));
         }
+        return gaps;
+    }
 
-        Interval prev = flattenOccupiedIntervals.first();
-        if (searchInterval.getStart().isBefore(prev.getStart())) {
-            gaps.add(new Interval(searchInterval.getStart(), prev.getStart()));
+    /**
+     * Occupied intervals flattened into two arrays of epoch millis, ordered by start. Overlapping and abutting intervals are
+     * joined together.
+     */
+    private static final class MergedIntervals {
+
+        private final long[] starts;
+
+        private final long[] ends;
+
+        private int size;
+
+        private MergedIntervals(final int capacity) {
+            starts = new long[capacity];
+            ends = new long[capacity];
         }
-        flattenOccupiedIntervals.remove(prev);
-        for (Interval occupied : flattenOccupiedIntervals) {
-            gaps.add(prev.gap(occupied));
-            prev = occupied;
+
+        private static MergedIntervals merge(final Collection<Interval> intervalsSortedByStart) {
+            MergedIntervals mergedIntervals = new MergedIntervals(intervalsSortedByStart.size());
+            for (Interval interval : intervalsSortedByStart) {
+                mergedIntervals.add(interval.getStartMillis(), interval.getEndMillis());
+            }
+            return mergedIntervals;
         }
-        if (prev.getEnd().isBefore(searchInterval.getEnd())) {
-            gaps.add(new Interval(prev.getEnd(), searchInterval.getEnd()));
+
+        private void add(final long start, final long end) {
+            if (size > 0 && start <= ends[size - 1]) {
+                ends[size - 1] = Math.max(ends[size - 1], end);
+            } else {
+                starts[size] = start;
+                ends[size] = end;
+                size++;
+            }
         }
-        return gaps;
+
     }
 
 }
@@ -29,6 +29,7 @@ import java.util.SortedSet;
 import junit.framework.Assert;
 
 import org.joda.time.DateTime;
+import org.joda.time.Duration;
 import org.joda.time.Interval;
 import org.junit.Before;
 import org.junit.Test;
@@ -199,6 +200,27 @@ public class TimeGapsBuilderImplTest {
         Assert.assertEquals(expectedGaps, actualGaps);
     }
 
+    @Test
+    public void shouldCalculateGapsNotShorterThanGivenDuration() {
+        // given
+        Interval i1 = new Interval(FROM.plusHours(1), FROM.plusHours(2));
+        Interval i2 = new Interval(FROM.plusHours(4), FROM.plusHours(5));
+        Interval i3 = new Interval(FROM.plusHours(6), FROM.plusHours(20));
+
+        Collection<Interval> expectedGaps = Sets.newTreeSet(IntervalsComparator.START_DATE_ASC_AND_DURATION_DESC);
+        expectedGaps.add(new Interval(FROM.plusHours(2), FROM.plusHours(4)));
+        expectedGaps.add(new Interval(FROM.plusHours(20), TO));
+
+        // when
+        timeGapsBuilder.addOccupiedInterval(i3);
+        timeGapsBuilder.addOccupiedInterval(i2);
+        timeGapsBuilder.addOccupiedInterval(i1);
+        Collection<Interval> actualGaps = timeGapsBuilder.calculateGaps(Duration.standardHours(2));
+
+        // then
+        Assert.assertEquals(expectedGaps, actualGaps);
+    }
+
     // addOccupiedInterval
 
     @Test